@@ -0,0 +1,100 @@
+package net.stefanhahmann.npy;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Read only image backed by the memory mapped payload of a {@code .npy} file.
+ *
+ * @param <T> the pixel type.
+ * @see NpyReader
+ * @author Stefan Hahmann
+ */
+class MappedNpyImg< T extends NativeType< T > > extends AbstractInterval implements RandomAccessibleInterval< T >
+{
+	private final long[] strides;
+
+	private final MappedByteBuffer[] regions;
+
+	private final long regionSize;
+
+	private final int regionShift;
+
+	private final ByteOrder byteOrder;
+
+	private final NpyReader.DataType< T > dataType;
+
+	MappedNpyImg( final long[] shape, final long[] strides, final MappedByteBuffer[] regions, final long regionSize,
+			final ByteOrder byteOrder, final NpyReader.DataType< T > dataType )
+	{
+		super( shape );
+		if ( Long.bitCount( regionSize ) != 1 || regionSize > ( 1L << 30 ) || regionSize < dataType.size )
+			throw new IllegalArgumentException( "regionSize must be a power of 2 between element size and 2^30, but is: " + regionSize );
+		this.strides = strides;
+		this.regions = regions;
+		this.regionSize = regionSize;
+		this.regionShift = Long.numberOfTrailingZeros( regionSize );
+		this.byteOrder = byteOrder;
+		this.dataType = dataType;
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess()
+	{
+		return new MappedRandomAccess();
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess( final Interval interval )
+	{
+		return randomAccess();
+	}
+
+	private class MappedRandomAccess extends Point implements RandomAccess< T >
+	{
+		private final ByteBuffer[] buffers;
+
+		private final T type;
+
+		private MappedRandomAccess()
+		{
+			super( strides.length );
+			// duplicates allow concurrent use of different random accesses, the byte order is not inherited
+			buffers = new ByteBuffer[ regions.length ];
+			for ( int r = 0; r < regions.length; r++ )
+				buffers[ r ] = regions[ r ].duplicate().order( byteOrder );
+			type = dataType.type.createVariable();
+		}
+
+		private MappedRandomAccess( final MappedRandomAccess other )
+		{
+			this();
+			setPosition( other );
+		}
+
+		@Override
+		public T get()
+		{
+			long element = 0;
+			for ( int d = 0; d < n; d++ )
+				element += position[ d ] * strides[ d ];
+			long offset = element * dataType.size;
+			dataType.reader.read( buffers[ ( int ) ( offset >>> regionShift ) ], ( int ) ( offset & ( regionSize - 1 ) ), type );
+			return type;
+		}
+
+		@Override
+		public MappedRandomAccess copy()
+		{
+			return new MappedRandomAccess( this );
+		}
+	}
+}
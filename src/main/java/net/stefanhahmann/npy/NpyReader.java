@@ -0,0 +1,243 @@
+package net.stefanhahmann.npy;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Cast;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads numpy {@code .npy} files without copying the data onto the heap.<p>
+ * The header is parsed and the payload is memory mapped. The result is a read only {@link RandomAccessibleInterval}, which decodes the
+ * values from the mapped file on access, taking into account the byte order and the memory layout (C or Fortran order) given in the
+ * header. Dimension {@code d} of the result corresponds to axis {@code d} of the numpy array, i.e. the axis order of the file is kept.
+ * Files larger than 2 GB are mapped as multiple regions.
+ *
+ * @see <a href="https://numpy.org/doc/stable/reference/generated/numpy.lib.format.html">numpy .npy format</a>
+ * @author Stefan Hahmann
+ */
+public class NpyReader
+{
+	private NpyReader()
+	{
+		// prevent from instantiation
+	}
+
+	private static final byte[] MAGIC = new byte[] { ( byte ) 0x93, 'N', 'U', 'M', 'P', 'Y' };
+
+	/**
+	 * Size of the mapped regions. A power of 2, such that no element crosses the border of two regions.
+	 */
+	static final long DEFAULT_REGION_SIZE = 1L << 30;
+
+	private static final Pattern DESCR = Pattern.compile( "'descr'\\s*:\\s*'([^']*)'" );
+
+	private static final Pattern FORTRAN_ORDER = Pattern.compile( "'fortran_order'\\s*:\\s*(True|False)" );
+
+	private static final Pattern SHAPE = Pattern.compile( "'shape'\\s*:\\s*\\(([^)]*)\\)" );
+
+	/**
+	 * Opens the given {@code .npy} file as a memory mapped image.
+	 *
+	 * @param path the path of the file.
+	 * @param <T> the pixel type, which must match the data type of the file, e.g. {@link FloatType} for {@code <f4}.
+	 * @return the image.
+	 * @throws IOException if the file cannot be read, is not a {@code .npy} file or has an unsupported data type.
+	 */
+	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > open( final Path path ) throws IOException
+	{
+		return open( path, DEFAULT_REGION_SIZE );
+	}
+
+	static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > open( final Path path, final long regionSize )
+			throws IOException
+	{
+		try (FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ))
+		{
+			Header header = readHeader( channel );
+			DataType< T > dataType = dataType( header.descr );
+			long[] strides = strides( header.shape, header.fortranOrder );
+			long elements = 1;
+			for ( long dimension : header.shape )
+				elements *= dimension;
+			long payload = elements * dataType.size;
+			if ( header.dataOffset + payload > channel.size() )
+				throw new IOException( "File " + path + " is too short. Expected at least " + ( header.dataOffset + payload )
+						+ " bytes, but has: " + channel.size() );
+
+			int numRegions = ( int ) Math.max( 1, ( payload + regionSize - 1 ) / regionSize );
+			MappedByteBuffer[] regions = new MappedByteBuffer[ numRegions ];
+			for ( int r = 0; r < numRegions; r++ )
+			{
+				long start = r * regionSize;
+				long length = Math.min( regionSize, payload - start );
+				regions[ r ] = channel.map( FileChannel.MapMode.READ_ONLY, header.dataOffset + start, Math.max( 0, length ) );
+			}
+			return new MappedNpyImg<>( header.shape, strides, regions, regionSize, header.byteOrder, dataType );
+		}
+	}
+
+	/**
+	 * Computes the strides in elements of the axes of an array with the given shape.
+	 */
+	static long[] strides( final long[] shape, final boolean fortranOrder )
+	{
+		long[] strides = new long[ shape.length ];
+		long stride = 1;
+		for ( int i = 0; i < shape.length; i++ )
+		{
+			int d = fortranOrder ? i : shape.length - 1 - i;
+			strides[ d ] = stride;
+			stride *= shape[ d ];
+		}
+		return strides;
+	}
+
+	private static Header readHeader( final FileChannel channel ) throws IOException
+	{
+		ByteBuffer preamble = ByteBuffer.allocate( 12 ).order( ByteOrder.LITTLE_ENDIAN );
+		readFully( channel, preamble, 0 );
+		for ( int i = 0; i < MAGIC.length; i++ )
+			if ( preamble.get( i ) != MAGIC[ i ] )
+				throw new IOException( "Not a .npy file: magic string missing." );
+		int major = preamble.get( 6 );
+		long headerLength;
+		int headerStart;
+		if ( major == 1 )
+		{
+			headerLength = preamble.getShort( 8 ) & 0xffff;
+			headerStart = 10;
+		}
+		else if ( major == 2 || major == 3 )
+		{
+			headerLength = preamble.getInt( 8 ) & 0xffffffffL;
+			headerStart = 12;
+		}
+		else
+			throw new IOException( "Unsupported .npy format version: " + major );
+
+		ByteBuffer dictionary = ByteBuffer.allocate( ( int ) headerLength );
+		readFully( channel, dictionary, headerStart );
+		String text = new String( dictionary.array(), major == 3 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1 );
+		return new Header( text, headerStart + headerLength );
+	}
+
+	private static void readFully( final FileChannel channel, final ByteBuffer buffer, final long position ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer, position + buffer.position() ) < 0 )
+				throw new IOException( "Unexpected end of .npy file." );
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > DataType< T > dataType( final String descr ) throws IOException
+	{
+		switch ( descr.substring( 1 ) )
+		{
+		case "f4":
+			return Cast.unchecked( new DataType<>( new FloatType(), 4, ( buffer, i, t ) -> t.set( buffer.getFloat( i ) ) ) );
+		case "f8":
+			return Cast.unchecked( new DataType<>( new DoubleType(), 8, ( buffer, i, t ) -> t.set( buffer.getDouble( i ) ) ) );
+		case "i1":
+			return Cast.unchecked( new DataType<>( new ByteType(), 1, ( buffer, i, t ) -> t.set( buffer.get( i ) ) ) );
+		case "u1":
+		case "b1":
+			return Cast.unchecked( new DataType<>( new UnsignedByteType(), 1, ( buffer, i, t ) -> t.set( buffer.get( i ) & 0xff ) ) );
+		case "i2":
+			return Cast.unchecked( new DataType<>( new ShortType(), 2, ( buffer, i, t ) -> t.set( buffer.getShort( i ) ) ) );
+		case "u2":
+			return Cast.unchecked(
+					new DataType<>( new UnsignedShortType(), 2, ( buffer, i, t ) -> t.set( buffer.getShort( i ) & 0xffff ) ) );
+		case "i4":
+			return Cast.unchecked( new DataType<>( new IntType(), 4, ( buffer, i, t ) -> t.set( buffer.getInt( i ) ) ) );
+		case "u4":
+			return Cast.unchecked(
+					new DataType<>( new UnsignedIntType(), 4, ( buffer, i, t ) -> t.set( buffer.getInt( i ) & 0xffffffffL ) ) );
+		case "i8":
+			return Cast.unchecked( new DataType<>( new LongType(), 8, ( buffer, i, t ) -> t.set( buffer.getLong( i ) ) ) );
+		case "u8":
+			return Cast.unchecked( new DataType<>( new UnsignedLongType(), 8, ( buffer, i, t ) -> t.set( buffer.getLong( i ) ) ) );
+		default:
+			throw new IOException( "Unsupported .npy data type: " + descr );
+		}
+	}
+
+	/**
+	 * Reads the element at the given byte position of the buffer into the given type.
+	 */
+	interface ElementReader< T >
+	{
+		void read( ByteBuffer buffer, int position, T target );
+	}
+
+	static class DataType< T >
+	{
+		final T type;
+
+		final int size;
+
+		final ElementReader< T > reader;
+
+		DataType( final T type, final int size, final ElementReader< T > reader )
+		{
+			this.type = type;
+			this.size = size;
+			this.reader = reader;
+		}
+	}
+
+	private static class Header
+	{
+		private final String descr;
+
+		private final boolean fortranOrder;
+
+		private final long[] shape;
+
+		private final ByteOrder byteOrder;
+
+		private final long dataOffset;
+
+		private Header( final String dictionary, final long dataOffset ) throws IOException
+		{
+			this.descr = find( DESCR, dictionary );
+			this.fortranOrder = "True".equals( find( FORTRAN_ORDER, dictionary ) );
+			String[] dimensions = find( SHAPE, dictionary ).split( "," );
+			this.shape = Arrays.stream( dimensions ).map( String::trim ).filter( s -> !s.isEmpty() )
+					.mapToLong( Long::parseLong ).toArray();
+			if ( shape.length == 0 )
+				throw new IOException( "Scalar .npy files are not supported." );
+			this.byteOrder = descr.charAt( 0 ) == '>' ? ByteOrder.BIG_ENDIAN
+					: descr.charAt( 0 ) == '=' ? ByteOrder.nativeOrder() : ByteOrder.LITTLE_ENDIAN;
+			this.dataOffset = dataOffset;
+		}
+
+		private static String find( final Pattern pattern, final String dictionary ) throws IOException
+		{
+			Matcher matcher = pattern.matcher( dictionary );
+			if ( !matcher.find() )
+				throw new IOException( "Invalid .npy header: " + dictionary );
+			return matcher.group( 1 );
+		}
+	}
+}
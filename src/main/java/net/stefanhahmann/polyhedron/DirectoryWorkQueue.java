@@ -0,0 +1,222 @@
+package net.stefanhahmann.polyhedron;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Queue of tasks, which is shared by several processes through a directory, e.g. worker processes on one machine or on the nodes of a
+ * cluster with a shared file system.<p>
+ * Each task is an empty file named after the task in one of the subdirectories {@code todo}, {@code running}, {@code done} and
+ * {@code failed}. A worker claims a task by moving its file from {@code todo} to {@code running}. The move is atomic, so each task is
+ * claimed by exactly one worker, without any locks. Tasks are claimed in the order of their names. The modification time of a running task
+ * is the time of its claim or of its last {@link #heartbeat(String) heartbeat}. Tasks of crashed workers can be returned to {@code todo} with
+ * {@link #requeueStale(long)}.
+ *
+ * @author Stefan Hahmann
+ */
+public class DirectoryWorkQueue
+{
+	private final Path todo;
+
+	private final Path running;
+
+	private final Path done;
+
+	private final Path failed;
+
+	/**
+	 * Opens the queue in the given directory and creates its subdirectories, if they do not exist yet.
+	 *
+	 * @param directory the directory. Must not be null.
+	 * @throws IOException if the subdirectories cannot be created.
+	 */
+	public DirectoryWorkQueue( final Path directory ) throws IOException
+	{
+		if ( directory == null )
+			throw new IllegalArgumentException( "directory cannot be null." );
+		this.todo = Files.createDirectories( directory.resolve( "todo" ) );
+		this.running = Files.createDirectories( directory.resolve( "running" ) );
+		this.done = Files.createDirectories( directory.resolve( "done" ) );
+		this.failed = Files.createDirectories( directory.resolve( "failed" ) );
+	}
+
+	/**
+	 * Adds a task to the queue.
+	 *
+	 * @param task the name of the task. Must be a valid file name. Must not be submitted already.
+	 * @throws IOException if the task cannot be added.
+	 */
+	public void submit( final String task ) throws IOException
+	{
+		checkName( task );
+		for ( Path state : new Path[] { running, done, failed } )
+			if ( Files.exists( state.resolve( task ) ) )
+				throw new FileAlreadyExistsException( state.resolve( task ).toString() );
+		Files.createFile( todo.resolve( task ) );
+	}
+
+	/**
+	 * Claims the next task, i.e. the task with the smallest name, which is neither running nor finished.
+	 *
+	 * @return the name of the claimed task, or null, if there is no task left to do.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	public String claim() throws IOException
+	{
+		for ( String task : list( todo ) )
+		{
+			Path source = todo.resolve( task );
+			try
+			{
+				// touch before moving, such that the running task is not considered stale right after the move. Concurrent workers may
+				// touch the same file, only one of them moves it
+				Files.setLastModifiedTime( source, FileTime.fromMillis( System.currentTimeMillis() ) );
+				Files.move( source, running.resolve( task ), StandardCopyOption.ATOMIC_MOVE );
+				return task;
+			}
+			catch ( NoSuchFileException e )
+			{
+				// claimed by another worker in the meantime
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Signals, that the given running task is still being worked on. Long running tasks have to call this more often than the timeout
+	 * given to {@link #requeueStale(long)}.
+	 *
+	 * @param task the name of the running task.
+	 * @throws IOException if the task is not running anymore.
+	 */
+	public void heartbeat( final String task ) throws IOException
+	{
+		checkName( task );
+		Files.setLastModifiedTime( running.resolve( task ), FileTime.fromMillis( System.currentTimeMillis() ) );
+	}
+
+	/**
+	 * Marks the given running task as done.
+	 *
+	 * @param task the name of the running task.
+	 * @throws IOException if the task is not running.
+	 */
+	public void complete( final String task ) throws IOException
+	{
+		checkName( task );
+		Files.move( running.resolve( task ), done.resolve( task ), StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	/**
+	 * Marks the given running task as failed. Failed tasks are not claimed again.
+	 *
+	 * @param task the name of the running task.
+	 * @throws IOException if the task is not running.
+	 */
+	public void fail( final String task ) throws IOException
+	{
+		checkName( task );
+		Files.move( running.resolve( task ), failed.resolve( task ), StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	/**
+	 * Returns the running tasks, which have neither been claimed nor signalled a heartbeat within the given timeout, to the queue, e.g.
+	 * the tasks of crashed workers.
+	 *
+	 * @param timeoutMillis the timeout in milliseconds.
+	 * @return the number of returned tasks.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	public int requeueStale( final long timeoutMillis ) throws IOException
+	{
+		final long limit = System.currentTimeMillis() - timeoutMillis;
+		int count = 0;
+		for ( String task : list( running ) )
+		{
+			Path source = running.resolve( task );
+			try
+			{
+				if ( Files.getLastModifiedTime( source ).toMillis() >= limit )
+					continue;
+				Files.move( source, todo.resolve( task ), StandardCopyOption.ATOMIC_MOVE );
+				count++;
+			}
+			catch ( NoSuchFileException e )
+			{
+				// completed or requeued in the meantime
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the names of the tasks, which are waiting to be claimed, in ascending order.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	public List< String > getTodo() throws IOException
+	{
+		return list( todo );
+	}
+
+	/**
+	 * @return the names of the running tasks, in ascending order.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	public List< String > getRunning() throws IOException
+	{
+		return list( running );
+	}
+
+	/**
+	 * @return the names of the completed tasks, in ascending order.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	public List< String > getDone() throws IOException
+	{
+		return list( done );
+	}
+
+	/**
+	 * @return the names of the failed tasks, in ascending order.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	public List< String > getFailed() throws IOException
+	{
+		return list( failed );
+	}
+
+	/**
+	 * @return true, if no task is waiting or running.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	public boolean isFinished() throws IOException
+	{
+		return list( todo ).isEmpty() && list( running ).isEmpty();
+	}
+
+	private static List< String > list( final Path directory ) throws IOException
+	{
+		try (Stream< Path > files = Files.list( directory ))
+		{
+			return Collections.unmodifiableList(
+					files.map( file -> file.getFileName().toString() ).sorted().collect( Collectors.toList() ) );
+		}
+	}
+
+	private static void checkName( final String task )
+	{
+		if ( task == null || task.isEmpty() )
+			throw new IllegalArgumentException( "task cannot be null or empty." );
+		if ( task.contains( "/" ) || task.contains( "\\" ) || task.startsWith( "." ) )
+			throw new IllegalArgumentException( "task must be a valid file name, but is: " + task );
+	}
+}
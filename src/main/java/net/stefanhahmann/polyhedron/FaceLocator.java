@@ -0,0 +1,231 @@
+package net.stefanhahmann.polyhedron;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the triangle of a {@link FaceTopology}, whose cone from the origin contains a given direction, i.e. the triangle of a star convex
+ * polyhedron, which the ray from its center into this direction passes through.<p>
+ * The sphere of directions is divided into the cells of a cube map. For each cell, the triangles, whose bounding caps on the unit sphere
+ * intersect the bounding cap of the cell, are stored as candidates together with the unit normals of the planes through the origin and
+ * their edges. A direction lies in the cone of a triangle, if it lies on the inner side of all 3 planes. The candidate with the largest
+ * minimum distance to its 3 planes is returned, which is the containing triangle, and a neighbouring one for directions on the boundary
+ * between triangles. Triangles with a degenerate cone, e.g. the triangles between two rays at a pole of {@link RaySet#cartesian(int, int)},
+ * are never returned. The locator is computed once per {@link RaySet} and shared by all polyhedra with these rays.
+ *
+ * @author Stefan Hahmann
+ */
+final class FaceLocator
+{
+	/**
+	 * Triangles, whose vertex directions span a parallelepiped of a smaller volume, are considered degenerate.
+	 */
+	private static final double DEGENERATE = 1e-9;
+
+	/**
+	 * Tolerance of the intersection test of the bounding caps in radians.
+	 */
+	private static final double MARGIN = 1e-9;
+
+	/**
+	 * Number of cells along each edge of a face of the cube map.
+	 */
+	private final int resolution;
+
+	/**
+	 * Candidates of cell {@code c} are at positions {@code offsets[c]} to {@code offsets[c + 1] - 1}.
+	 */
+	private final int[] offsets;
+
+	/**
+	 * Triangle index of each candidate.
+	 */
+	private final int[] triangles;
+
+	/**
+	 * Unit normals of the 3 edge planes of each candidate, pointing into the cone, in 9 consecutive sections of {@link #numCandidates}
+	 * entries: x, y and z of the first plane, x, y and z of the second plane, ...
+	 */
+	private final double[] normals;
+
+	private final int numCandidates;
+
+	private final int maxCandidates;
+
+	FaceLocator( final List< double[] > directions, final FaceTopology topology )
+	{
+		final int numTriangles = topology.numTriangles();
+		this.resolution = Math.max( 1, ( int ) Math.ceil( Math.sqrt( numTriangles / 6.0 ) ) );
+
+		// bounding caps of the triangles, null for degenerate triangles
+		final double[][] edgeNormals = new double[ numTriangles ][];
+		final double[][] capCenters = new double[ numTriangles ][];
+		final double[] capRadii = new double[ numTriangles ];
+		for ( int t = 0; t < numTriangles; t++ )
+		{
+			double[] a = directions.get( topology.vertex( t, 0 ) );
+			double[] b = directions.get( topology.vertex( t, 1 ) );
+			double[] c = directions.get( topology.vertex( t, 2 ) );
+			if ( Math.abs( dot( cross( a, b ), c ) ) < DEGENERATE )
+				continue;
+			// the triangles are oriented counter clockwise from outside, i.e. a x b points into the cone
+			double[] ab = normalize( cross( a, b ) );
+			double[] bc = normalize( cross( b, c ) );
+			double[] ca = normalize( cross( c, a ) );
+			edgeNormals[ t ] = new double[] { ab[ 0 ], ab[ 1 ], ab[ 2 ], bc[ 0 ], bc[ 1 ], bc[ 2 ], ca[ 0 ], ca[ 1 ], ca[ 2 ] };
+			double[] center = normalize( new double[] { a[ 0 ] + b[ 0 ] + c[ 0 ], a[ 1 ] + b[ 1 ] + c[ 1 ], a[ 2 ] + b[ 2 ] + c[ 2 ] } );
+			double cosine = Math.min( dot( center, a ), Math.min( dot( center, b ), dot( center, c ) ) );
+			capCenters[ t ] = center;
+			// a cap of more than a hemisphere does not contain the spherical triangle, such a triangle is a candidate of all cells
+			capRadii[ t ] = cosine > 0 ? Math.acos( Math.min( 1, cosine ) ) : Math.PI;
+		}
+
+		final int numCells = 6 * resolution * resolution;
+		final List< Integer > candidates = new ArrayList<>();
+		this.offsets = new int[ numCells + 1 ];
+		int maximum = 0;
+		for ( int cell = 0; cell < numCells; cell++ )
+		{
+			double[][] corners = corners( cell );
+			double[] center = normalize( new double[] { corners[ 0 ][ 0 ] + corners[ 1 ][ 0 ] + corners[ 2 ][ 0 ] + corners[ 3 ][ 0 ],
+					corners[ 0 ][ 1 ] + corners[ 1 ][ 1 ] + corners[ 2 ][ 1 ] + corners[ 3 ][ 1 ],
+					corners[ 0 ][ 2 ] + corners[ 1 ][ 2 ] + corners[ 2 ][ 2 ] + corners[ 3 ][ 2 ] } );
+			double cosine = 1;
+			for ( double[] corner : corners )
+				cosine = Math.min( cosine, dot( center, normalize( corner ) ) );
+			double radius = Math.acos( cosine );
+			for ( int t = 0; t < numTriangles; t++ )
+				if ( capCenters[ t ] != null
+						&& Math.acos( Math.max( -1, Math.min( 1, dot( center, capCenters[ t ] ) ) ) ) <= radius + capRadii[ t ] + MARGIN )
+					candidates.add( t );
+			offsets[ cell + 1 ] = candidates.size();
+			maximum = Math.max( maximum, offsets[ cell + 1 ] - offsets[ cell ] );
+		}
+		this.maxCandidates = maximum;
+		this.numCandidates = candidates.size();
+		this.triangles = new int[ numCandidates ];
+		this.normals = new double[ 9 * numCandidates ];
+		for ( int k = 0; k < numCandidates; k++ )
+		{
+			triangles[ k ] = candidates.get( k );
+			double[] planes = edgeNormals[ triangles[ k ] ];
+			for ( int p = 0; p < 9; p++ )
+				normals[ p * numCandidates + k ] = planes[ p ];
+		}
+	}
+
+	/**
+	 * Finds the triangle, whose cone contains the given direction. The direction does not need to be normalized.
+	 *
+	 * @param scores scratch space with at least {@link #maxCandidates()} entries.
+	 * @return the index of the triangle.
+	 */
+	int locate( final double x, final double y, final double z, final double[] scores )
+	{
+		final int cell = cell( x, y, z );
+		final int from = offsets[ cell ];
+		final int count = offsets[ cell + 1 ] - from;
+		BatchKernels.faceScores( normals, numCandidates, from, count, x, y, z, scores );
+		int best = 0;
+		for ( int k = 1; k < count; k++ )
+			if ( scores[ k ] > scores[ best ] )
+				best = k;
+		return triangles[ from + best ];
+	}
+
+	/**
+	 * @return the maximum number of candidates of a cell.
+	 */
+	int maxCandidates()
+	{
+		return maxCandidates;
+	}
+
+	/**
+	 * @return the index of the cell of the cube map, which contains the given direction.
+	 */
+	private int cell( final double x, final double y, final double z )
+	{
+		final double ax = Math.abs( x );
+		final double ay = Math.abs( y );
+		final double az = Math.abs( z );
+		final int face;
+		final double major;
+		final double u;
+		final double v;
+		if ( ax >= ay && ax >= az )
+		{
+			face = x >= 0 ? 0 : 1;
+			major = ax;
+			u = y;
+			v = z;
+		}
+		else if ( ay >= az )
+		{
+			face = y >= 0 ? 2 : 3;
+			major = ay;
+			u = z;
+			v = x;
+		}
+		else
+		{
+			face = z >= 0 ? 4 : 5;
+			major = az;
+			u = x;
+			v = y;
+		}
+		// the zero direction, i.e. the center of a polyhedron, is mapped to any cell
+		final double inverse = major > 0 ? 1 / major : 0;
+		final int i = Math.min( resolution - 1, Math.max( 0, ( int ) ( ( u * inverse + 1 ) * 0.5 * resolution ) ) );
+		final int j = Math.min( resolution - 1, Math.max( 0, ( int ) ( ( v * inverse + 1 ) * 0.5 * resolution ) ) );
+		return ( face * resolution + j ) * resolution + i;
+	}
+
+	/**
+	 * @return the corners of the given cell on the surface of the cube [-1, 1]^3.
+	 */
+	private double[][] corners( final int cell )
+	{
+		final int i = cell % resolution;
+		final int j = ( cell / resolution ) % resolution;
+		final int face = cell / ( resolution * resolution );
+		final double[][] corners = new double[ 4 ][];
+		for ( int c = 0; c < 4; c++ )
+		{
+			double u = -1 + 2.0 * ( i + ( c & 1 ) ) / resolution;
+			double v = -1 + 2.0 * ( j + ( c >> 1 ) ) / resolution;
+			double sign = face % 2 == 0 ? 1 : -1;
+			switch ( face / 2 )
+			{
+			case 0:
+				corners[ c ] = new double[] { sign, u, v };
+				break;
+			case 1:
+				corners[ c ] = new double[] { v, sign, u };
+				break;
+			default:
+				corners[ c ] = new double[] { u, v, sign };
+				break;
+			}
+		}
+		return corners;
+	}
+
+	private static double[] cross( final double[] a, final double[] b )
+	{
+		return new double[] { a[ 1 ] * b[ 2 ] - a[ 2 ] * b[ 1 ], a[ 2 ] * b[ 0 ] - a[ 0 ] * b[ 2 ], a[ 0 ] * b[ 1 ] - a[ 1 ] * b[ 0 ] };
+	}
+
+	private static double dot( final double[] a, final double[] b )
+	{
+		return a[ 0 ] * b[ 0 ] + a[ 1 ] * b[ 1 ] + a[ 2 ] * b[ 2 ];
+	}
+
+	private static double[] normalize( final double[] vector )
+	{
+		final double length = Math.sqrt( dot( vector, vector ) );
+		for ( int d = 0; d < 3; d++ )
+			vector[ d ] /= length;
+		return vector;
+	}
+}
@@ -0,0 +1,290 @@
+package net.stefanhahmann.polyhedron;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Triangulation of the surface of star convex polyhedra, whose rays follow the same lattice.<p>
+ * The triangles connect the indices of the rays, i.e. the same topology applies to all polyhedra with the same lattice and is computed only
+ * once per lattice. The triangles are the faces of the convex hull of the lattice directions on the unit sphere. They are oriented counter
+ * clockwise, when seen from outside, so their normals point outwards.
+ *
+ * @author Stefan Hahmann
+ */
+public final class FaceTopology
+{
+	private static final double EPSILON = 1e-12;
+
+	private static final Map< Integer, FaceTopology > FIBONACCI_TOPOLOGIES = new ConcurrentHashMap<>();
+
+	private final int numVertices;
+
+	/**
+	 * Vertex indices, 3 per triangle.
+	 */
+	private final int[] triangles;
+
+	private FaceTopology( final int numVertices, final int[] triangles )
+	{
+		this.numVertices = numVertices;
+		this.triangles = triangles;
+	}
+
+	/**
+	 * Returns the topology of polyhedra, whose rays follow a spherical Fibonacci lattice with the given number of points. The topology is
+	 * computed on the first call and cached.
+	 *
+	 * @param n the number of points of the lattice.
+	 * @return the topology.
+	 * @see FibonacciLattices#getValues(int)
+	 */
+	public static FaceTopology fibonacci( final int n )
+	{
+		return FIBONACCI_TOPOLOGIES.computeIfAbsent( n, k -> convexHull( FibonacciLattices.getValues( k ) ) );
+	}
+
+	/**
+	 * Computes the topology of polyhedra with the given ray directions by an incremental convex hull. All directions must lie on the hull,
+	 * e.g. because they are normalized, and must not all lie in one plane.
+	 *
+	 * @param directions the ray directions.
+	 * @return the topology.
+	 */
+	public static FaceTopology convexHull( final List< double[] > directions )
+	{
+		final int n = directions.size();
+		if ( n < 4 )
+			throw new IllegalArgumentException( "At least 4 directions are required, but got: " + n );
+		final List< int[] > faces = new ArrayList<>();
+		final List< double[] > normals = new ArrayList<>();
+		final int[] initial = initialTetrahedron( directions );
+		final boolean[] used = new boolean[ n ];
+		for ( int i : initial )
+			used[ i ] = true;
+		int a = initial[ 0 ], b = initial[ 1 ], c = initial[ 2 ], d = initial[ 3 ];
+		// orient the first face such that d lies below it
+		if ( signedDistance( directions, a, b, c, directions.get( d ) ) > 0 )
+		{
+			int swap = b;
+			b = c;
+			c = swap;
+		}
+		addFace( directions, faces, normals, a, b, c );
+		addFace( directions, faces, normals, a, d, b );
+		addFace( directions, faces, normals, b, d, c );
+		addFace( directions, faces, normals, c, d, a );
+
+		final Set< Long > visibleEdges = new HashSet<>();
+		for ( int p = 0; p < n; p++ )
+		{
+			if ( used[ p ] )
+				continue;
+			final double[] point = directions.get( p );
+			visibleEdges.clear();
+			final List< int[] > horizonCandidates = new ArrayList<>();
+			for ( int f = faces.size() - 1; f >= 0; f-- )
+			{
+				int[] face = faces.get( f );
+				double[] normal = normals.get( f );
+				double[] v = directions.get( face[ 0 ] );
+				double side = normal[ 0 ] * ( point[ 0 ] - v[ 0 ] ) + normal[ 1 ] * ( point[ 1 ] - v[ 1 ] ) + normal[ 2 ] * ( point[ 2 ] - v[ 2 ] );
+				if ( side > EPSILON )
+				{
+					for ( int e = 0; e < 3; e++ )
+					{
+						int from = face[ e ];
+						int to = face[ ( e + 1 ) % 3 ];
+						visibleEdges.add( edgeKey( from, to ) );
+						horizonCandidates.add( new int[] { from, to } );
+					}
+					removeFace( faces, normals, f );
+				}
+			}
+			if ( horizonCandidates.isEmpty() )
+				throw new IllegalArgumentException( "Direction " + p + " does not lie on the convex hull of the directions." );
+			// an edge of a visible face is on the horizon, if the adjacent face is not visible
+			for ( int[] edge : horizonCandidates )
+				if ( !visibleEdges.contains( edgeKey( edge[ 1 ], edge[ 0 ] ) ) )
+					addFace( directions, faces, normals, edge[ 0 ], edge[ 1 ], p );
+		}
+
+		final int[] triangles = new int[ 3 * faces.size() ];
+		for ( int f = 0; f < faces.size(); f++ )
+			System.arraycopy( faces.get( f ), 0, triangles, 3 * f, 3 );
+		return new FaceTopology( n, triangles );
+	}
+
+	/**
+	 * Creates the topology of polyhedra with the given ray directions from the given triangles, e.g. triangles defined by a ray set of
+	 * StarDist. Triangles are reoriented, such that they are counter clockwise, when seen from outside.
+	 *
+	 * @param directions the ray directions.
+	 * @param triangles the vertex indices, 3 per triangle.
+	 * @return the topology.
+	 */
+	static FaceTopology of( final List< double[] > directions, final int[] triangles )
+	{
+		if ( triangles.length % 3 != 0 )
+			throw new IllegalArgumentException( "triangles must have 3 indices per triangle, but has: " + triangles.length + " indices." );
+		final int n = directions.size();
+		final int[] oriented = triangles.clone();
+		for ( int t = 0; t < oriented.length; t += 3 )
+		{
+			for ( int c = 0; c < 3; c++ )
+				if ( oriented[ t + c ] < 0 || oriented[ t + c ] >= n )
+					throw new IllegalArgumentException( "Vertex index " + oriented[ t + c ] + " is out of range [0, " + n + ")." );
+			double[] a = directions.get( oriented[ t ] );
+			double[] b = directions.get( oriented[ t + 1 ] );
+			double[] c = directions.get( oriented[ t + 2 ] );
+			double[] normal = cross( a, b, c );
+			// the normal must point away from the origin, i.e. into the direction of the centroid of the triangle
+			double outwards = 0;
+			for ( int d = 0; d < 3; d++ )
+				outwards += normal[ d ] * ( a[ d ] + b[ d ] + c[ d ] );
+			if ( outwards < 0 )
+			{
+				int swap = oriented[ t + 1 ];
+				oriented[ t + 1 ] = oriented[ t + 2 ];
+				oriented[ t + 2 ] = swap;
+			}
+		}
+		return new FaceTopology( n, oriented );
+	}
+
+	private static int[] initialTetrahedron( final List< double[] > directions )
+	{
+		final int n = directions.size();
+		final int a = 0;
+		int b = a;
+		double best = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			double distance = squaredDistance( directions.get( a ), directions.get( i ) );
+			if ( distance > best )
+			{
+				best = distance;
+				b = i;
+			}
+		}
+		int c = a;
+		best = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			double[] cross = cross( directions.get( a ), directions.get( b ), directions.get( i ) );
+			double area = cross[ 0 ] * cross[ 0 ] + cross[ 1 ] * cross[ 1 ] + cross[ 2 ] * cross[ 2 ];
+			if ( area > best )
+			{
+				best = area;
+				c = i;
+			}
+		}
+		int d = a;
+		best = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			double distance = Math.abs( signedDistance( directions, a, b, c, directions.get( i ) ) );
+			if ( distance > best )
+			{
+				best = distance;
+				d = i;
+			}
+		}
+		if ( b == a || c == a || d == a )
+			throw new IllegalArgumentException( "The directions must not lie in one plane." );
+		return new int[] { a, b, c, d };
+	}
+
+	private static void addFace( final List< double[] > directions, final List< int[] > faces, final List< double[] > normals, final int a,
+			final int b, final int c )
+	{
+		faces.add( new int[] { a, b, c } );
+		normals.add( cross( directions.get( a ), directions.get( b ), directions.get( c ) ) );
+	}
+
+	/**
+	 * Removes the face with the given index by replacing it with the last face.
+	 */
+	private static void removeFace( final List< int[] > faces, final List< double[] > normals, final int f )
+	{
+		int last = faces.size() - 1;
+		faces.set( f, faces.get( last ) );
+		normals.set( f, normals.get( last ) );
+		faces.remove( last );
+		normals.remove( last );
+	}
+
+	private static long edgeKey( final int from, final int to )
+	{
+		return ( ( long ) from << 32 ) | to;
+	}
+
+	/**
+	 * Computes {@code (b - a) x (c - a)}.
+	 */
+	private static double[] cross( final double[] a, final double[] b, final double[] c )
+	{
+		double e1x = b[ 0 ] - a[ 0 ], e1y = b[ 1 ] - a[ 1 ], e1z = b[ 2 ] - a[ 2 ];
+		double e2x = c[ 0 ] - a[ 0 ], e2y = c[ 1 ] - a[ 1 ], e2z = c[ 2 ] - a[ 2 ];
+		return new double[] { e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x };
+	}
+
+	private static double signedDistance( final List< double[] > directions, final int a, final int b, final int c, final double[] point )
+	{
+		double[] normal = cross( directions.get( a ), directions.get( b ), directions.get( c ) );
+		double[] v = directions.get( a );
+		return normal[ 0 ] * ( point[ 0 ] - v[ 0 ] ) + normal[ 1 ] * ( point[ 1 ] - v[ 1 ] ) + normal[ 2 ] * ( point[ 2 ] - v[ 2 ] );
+	}
+
+	private static double squaredDistance( final double[] a, final double[] b )
+	{
+		double dx = a[ 0 ] - b[ 0 ], dy = a[ 1 ] - b[ 1 ], dz = a[ 2 ] - b[ 2 ];
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * @return the number of vertices, i.e. rays, of the polyhedra.
+	 */
+	public int numVertices()
+	{
+		return numVertices;
+	}
+
+	/**
+	 * @return the number of triangles.
+	 */
+	public int numTriangles()
+	{
+		return triangles.length / 3;
+	}
+
+	/**
+	 * @param triangle the index of the triangle.
+	 * @param corner the corner of the triangle, 0, 1 or 2.
+	 * @return the index of the vertex at the given corner of the given triangle.
+	 */
+	public int vertex( final int triangle, final int corner )
+	{
+		return triangles[ 3 * triangle + corner ];
+	}
+
+	/**
+	 * @return a read only view of the vertex indices, 3 per triangle.
+	 */
+	public IntBuffer getIndices()
+	{
+		return IntBuffer.wrap( triangles ).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return the vertex indices, 3 per triangle. Must not be modified.
+	 */
+	int[] triangles()
+	{
+		return triangles;
+	}
+}
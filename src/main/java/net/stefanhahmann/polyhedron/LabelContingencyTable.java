@@ -0,0 +1,279 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+/**
+ * Sparse contingency table of a ground truth and a predicted label image, i.e. the number of voxels of each pair of labels, which
+ * overlap. Label 0 is the background.<p>
+ * The table is built in a single pass over both images by {@link #compute(RandomAccessibleInterval, RandomAccessibleInterval)}. The images
+ * are split into slabs along their last dimension, which are counted in parallel into {@link LongLongHashMap primitive hash maps} and merged
+ * afterwards. Thus, the memory needed only depends on the number of overlapping label pairs, not on the size of the images.<p>
+ * From the table, the IoU of all overlapping label pairs is known and the labels can be {@link #match(double) matched} at any IoU threshold
+ * without reading the images again, as in the {@code matching} function of StarDist.
+ *
+ * @author Stefan Hahmann
+ */
+public class LabelContingencyTable
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private static final long MAX_LABEL = 0xffffffffL;
+
+	private final long[] groundTruthLabels;
+
+	private final long[] groundTruthSizes;
+
+	private final long[] predictedLabels;
+
+	private final long[] predictedSizes;
+
+	private final StarConvexPolyhedronOverlaps overlaps;
+
+	private LabelContingencyTable( final long[] groundTruthLabels, final long[] groundTruthSizes, final long[] predictedLabels,
+			final long[] predictedSizes, final StarConvexPolyhedronOverlaps overlaps )
+	{
+		this.groundTruthLabels = groundTruthLabels;
+		this.groundTruthSizes = groundTruthSizes;
+		this.predictedLabels = predictedLabels;
+		this.predictedSizes = predictedSizes;
+		this.overlaps = overlaps;
+	}
+
+	/**
+	 * Computes the contingency table of the given label images.
+	 *
+	 * @param groundTruth the ground truth labels. Labels must be within [0, 2^32).
+	 * @param prediction the predicted labels. Labels must be within [0, 2^32). Must have the same interval as the ground truth.
+	 * @return the contingency table.
+	 */
+	public static LabelContingencyTable compute( final RandomAccessibleInterval< ? extends IntegerType< ? > > groundTruth,
+			final RandomAccessibleInterval< ? extends IntegerType< ? > > prediction )
+	{
+		final int n = groundTruth.numDimensions();
+		if ( prediction.numDimensions() != n )
+			throw new IllegalArgumentException( "groundTruth and prediction must have the same number of dimensions." );
+		for ( int d = 0; d < n; d++ )
+			if ( groundTruth.min( d ) != prediction.min( d ) || groundTruth.max( d ) != prediction.max( d ) )
+				throw new IllegalArgumentException( "groundTruth and prediction must have the same interval." );
+
+		// pairs of labels are packed into a single key: ground truth in the upper, prediction in the lower 32 bits
+		final int last = n - 1;
+		final long length = groundTruth.dimension( last );
+		final int numSlabs = ( int ) Math.min( length, 4L * ForkJoinPool.getCommonPoolParallelism() );
+		final LongLongHashMap pairs = IntStream.range( 0, numSlabs ).parallel().mapToObj( slab -> {
+			long[] min = new long[ n ];
+			long[] max = new long[ n ];
+			groundTruth.min( min );
+			groundTruth.max( max );
+			min[ last ] = groundTruth.min( last ) + length * slab / numSlabs;
+			max[ last ] = groundTruth.min( last ) + length * ( slab + 1 ) / numSlabs - 1;
+			FinalInterval interval = new FinalInterval( min, max );
+			Cursor< ? extends IntegerType< ? > > groundTruthCursor = Views.flatIterable( Views.interval( groundTruth, interval ) ).cursor();
+			Cursor< ? extends IntegerType< ? > > predictionCursor = Views.flatIterable( Views.interval( prediction, interval ) ).cursor();
+			LongLongHashMap counts = new LongLongHashMap();
+			// consecutive voxels mostly belong to the same pair of labels, so they are counted before touching the map
+			long currentKey = 0;
+			long currentCount = 0;
+			while ( groundTruthCursor.hasNext() )
+			{
+				long key = key( groundTruthCursor.next().getIntegerLong(), predictionCursor.next().getIntegerLong() );
+				if ( key == currentKey )
+					currentCount++;
+				else
+				{
+					if ( currentCount > 0 )
+						counts.add( currentKey, currentCount );
+					currentKey = key;
+					currentCount = 1;
+				}
+			}
+			if ( currentCount > 0 )
+				counts.add( currentKey, currentCount );
+			return counts;
+		} ).reduce( ( a, b ) -> {
+			LongLongHashMap merged = a.size() >= b.size() ? a : b;
+			merged.addAll( merged == a ? b : a );
+			return merged;
+		} ).orElseGet( LongLongHashMap::new );
+		logger.debug( "counted {} overlapping label pairs in {} slabs.", pairs.size(), numSlabs );
+		return fromPairs( pairs );
+	}
+
+	private static long key( final long groundTruthLabel, final long predictedLabel )
+	{
+		if ( groundTruthLabel < 0 || groundTruthLabel > MAX_LABEL || predictedLabel < 0 || predictedLabel > MAX_LABEL )
+			throw new IllegalArgumentException( "Labels must be within [0, 2^32), but are: " + groundTruthLabel + " and " + predictedLabel );
+		return groundTruthLabel << 32 | predictedLabel;
+	}
+
+	private static LabelContingencyTable fromPairs( final LongLongHashMap pairs )
+	{
+		final long[] keys = pairs.keys();
+		// unsigned order of the keys is the order by ground truth label, then by predicted label
+		for ( int i = 0; i < keys.length; i++ )
+			keys[ i ] ^= Long.MIN_VALUE;
+		Arrays.sort( keys );
+		for ( int i = 0; i < keys.length; i++ )
+			keys[ i ] ^= Long.MIN_VALUE;
+
+		final LongLongHashMap groundTruthCounts = new LongLongHashMap();
+		final LongLongHashMap predictedCounts = new LongLongHashMap();
+		int numOverlaps = 0;
+		for ( long key : keys )
+		{
+			long count = pairs.get( key );
+			groundTruthCounts.add( key >>> 32, count );
+			predictedCounts.add( key & MAX_LABEL, count );
+			if ( key >>> 32 != 0 && ( key & MAX_LABEL ) != 0 )
+				numOverlaps++;
+		}
+		final long[] groundTruthLabels = foreground( groundTruthCounts );
+		final long[] predictedLabels = foreground( predictedCounts );
+		final long[] groundTruthSizes = Arrays.stream( groundTruthLabels ).map( groundTruthCounts::get ).toArray();
+		final long[] predictedSizes = Arrays.stream( predictedLabels ).map( predictedCounts::get ).toArray();
+
+		final int[] sources = new int[ numOverlaps ];
+		final int[] targets = new int[ numOverlaps ];
+		final double[] iou = new double[ numOverlaps ];
+		int entry = 0;
+		for ( long key : keys )
+		{
+			long groundTruthLabel = key >>> 32;
+			long predictedLabel = key & MAX_LABEL;
+			if ( groundTruthLabel == 0 || predictedLabel == 0 )
+				continue;
+			int source = Arrays.binarySearch( groundTruthLabels, groundTruthLabel );
+			int target = Arrays.binarySearch( predictedLabels, predictedLabel );
+			long intersection = pairs.get( key );
+			sources[ entry ] = source;
+			targets[ entry ] = target;
+			iou[ entry ] = ( double ) intersection / ( groundTruthSizes[ source ] + predictedSizes[ target ] - intersection );
+			entry++;
+		}
+		return new LabelContingencyTable( groundTruthLabels, groundTruthSizes, predictedLabels, predictedSizes,
+				new StarConvexPolyhedronOverlaps( groundTruthLabels.length, predictedLabels.length, sources, targets, iou ) );
+	}
+
+	private static long[] foreground( final LongLongHashMap counts )
+	{
+		return Arrays.stream( counts.keys() ).filter( label -> label != 0 ).sorted().toArray();
+	}
+
+	/**
+	 * @return the number of ground truth labels, without the background.
+	 */
+	public int numGroundTruthLabels()
+	{
+		return groundTruthLabels.length;
+	}
+
+	/**
+	 * @return the number of predicted labels, without the background.
+	 */
+	public int numPredictedLabels()
+	{
+		return predictedLabels.length;
+	}
+
+	/**
+	 * @param i the index of the ground truth label, within [0, {@link #numGroundTruthLabels()}).
+	 * @return the ground truth label. Labels are sorted ascending.
+	 */
+	public long groundTruthLabel( final int i )
+	{
+		return groundTruthLabels[ i ];
+	}
+
+	/**
+	 * @param i the index of the ground truth label, within [0, {@link #numGroundTruthLabels()}).
+	 * @return the number of voxels of the ground truth label.
+	 */
+	public long groundTruthSize( final int i )
+	{
+		return groundTruthSizes[ i ];
+	}
+
+	/**
+	 * @param j the index of the predicted label, within [0, {@link #numPredictedLabels()}).
+	 * @return the predicted label. Labels are sorted ascending.
+	 */
+	public long predictedLabel( final int j )
+	{
+		return predictedLabels[ j ];
+	}
+
+	/**
+	 * @param j the index of the predicted label, within [0, {@link #numPredictedLabels()}).
+	 * @return the number of voxels of the predicted label.
+	 */
+	public long predictedSize( final int j )
+	{
+		return predictedSizes[ j ];
+	}
+
+	/**
+	 * Gets the IoU of all pairs of overlapping foreground labels. Sources are the indices of the ground truth labels, targets the indices
+	 * of the predicted labels.
+	 *
+	 * @return the overlaps.
+	 */
+	public StarConvexPolyhedronOverlaps getOverlaps()
+	{
+		return overlaps;
+	}
+
+	/**
+	 * Matches the ground truth and the predicted labels at the given IoU threshold. Only pairs with an IoU of at least the threshold can be
+	 * matched and each label is matched at most once. The number of matches is maximised and, among assignments with the same number of
+	 * matches, the sum of their IoU.
+	 *
+	 * @param threshold the IoU threshold. Must be within [0, 1].
+	 * @return the matching.
+	 */
+	public LabelMatching match( final double threshold )
+	{
+		if ( !( threshold >= 0 && threshold <= 1 ) )
+			throw new IllegalArgumentException( "threshold must be within [0, 1], but is: " + threshold );
+		final int[] entries = IntStream.range( 0, overlaps.size() ).filter( e -> overlaps.iou( e ) >= threshold ).toArray();
+		final StarConvexPolyhedronOverlaps candidates = new StarConvexPolyhedronOverlaps( overlaps.numSources(), overlaps.numTargets(),
+				Arrays.stream( entries ).map( overlaps::source ).toArray(), Arrays.stream( entries ).map( overlaps::target ).toArray(),
+				Arrays.stream( entries ).mapToDouble( overlaps::iou ).toArray() );
+		final int[] matches = StarConvexPolyhedronLinker.hungarian( candidates, true );
+		int truePositives = 0;
+		double sumOfIou = 0;
+		for ( int e = 0; e < candidates.size(); e++ )
+			if ( matches[ candidates.source( e ) ] == candidates.target( e ) )
+			{
+				truePositives++;
+				sumOfIou += candidates.iou( e );
+			}
+		return new LabelMatching( threshold, truePositives, numPredictedLabels() - truePositives, numGroundTruthLabels() - truePositives,
+				numGroundTruthLabels(), sumOfIou );
+	}
+
+	/**
+	 * Matches the ground truth and the predicted labels at each of the given IoU thresholds in parallel.
+	 *
+	 * @param thresholds the IoU thresholds, e.g. 0.1, 0.2, ..., 0.9.
+	 * @return the matching per threshold, in the order of the thresholds.
+	 * @see #match(double)
+	 */
+	public List< LabelMatching > match( final double... thresholds )
+	{
+		return DoubleStream.of( thresholds ).parallel().mapToObj( this::match ).collect( Collectors.toList() );
+	}
+}
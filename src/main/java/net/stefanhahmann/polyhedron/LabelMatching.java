@@ -0,0 +1,134 @@
+package net.stefanhahmann.polyhedron;
+
+/**
+ * Result of matching ground truth and predicted labels at a single IoU threshold, as computed by
+ * {@link LabelContingencyTable#match(double)}. The measures are defined as in the {@code matching} function of StarDist. Measures, whose
+ * denominator is 0, are 0.
+ *
+ * @author Stefan Hahmann
+ */
+public class LabelMatching
+{
+	private final double threshold;
+
+	private final int truePositives;
+
+	private final int falsePositives;
+
+	private final int falseNegatives;
+
+	private final int numGroundTruthLabels;
+
+	private final double sumOfMatchedIou;
+
+	LabelMatching( final double threshold, final int truePositives, final int falsePositives, final int falseNegatives,
+			final int numGroundTruthLabels, final double sumOfMatchedIou )
+	{
+		this.threshold = threshold;
+		this.truePositives = truePositives;
+		this.falsePositives = falsePositives;
+		this.falseNegatives = falseNegatives;
+		this.numGroundTruthLabels = numGroundTruthLabels;
+		this.sumOfMatchedIou = sumOfMatchedIou;
+	}
+
+	/**
+	 * @return the IoU threshold.
+	 */
+	public double threshold()
+	{
+		return threshold;
+	}
+
+	/**
+	 * @return the number of matched predicted labels.
+	 */
+	public int truePositives()
+	{
+		return truePositives;
+	}
+
+	/**
+	 * @return the number of unmatched predicted labels.
+	 */
+	public int falsePositives()
+	{
+		return falsePositives;
+	}
+
+	/**
+	 * @return the number of unmatched ground truth labels.
+	 */
+	public int falseNegatives()
+	{
+		return falseNegatives;
+	}
+
+	/**
+	 * @return {@code tp / (tp + fp)}.
+	 */
+	public double precision()
+	{
+		return ratio( truePositives, truePositives + falsePositives );
+	}
+
+	/**
+	 * @return {@code tp / (tp + fn)}.
+	 */
+	public double recall()
+	{
+		return ratio( truePositives, truePositives + falseNegatives );
+	}
+
+	/**
+	 * @return {@code tp / (tp + fp + fn)}, also known as average precision at this threshold.
+	 */
+	public double accuracy()
+	{
+		return ratio( truePositives, truePositives + falsePositives + falseNegatives );
+	}
+
+	/**
+	 * @return {@code 2 tp / (2 tp + fp + fn)}.
+	 */
+	public double f1()
+	{
+		return ratio( 2d * truePositives, 2d * truePositives + falsePositives + falseNegatives );
+	}
+
+	/**
+	 * @return the mean IoU of the matched pairs.
+	 */
+	public double meanMatchedIou()
+	{
+		return ratio( sumOfMatchedIou, truePositives );
+	}
+
+	/**
+	 * @return the sum of the IoU of the matched pairs divided by the number of ground truth labels.
+	 */
+	public double meanTrueIou()
+	{
+		return ratio( sumOfMatchedIou, numGroundTruthLabels );
+	}
+
+	/**
+	 * @return the sum of the IoU of the matched pairs divided by {@code tp + fp / 2 + fn / 2}.
+	 */
+	public double panopticQuality()
+	{
+		return ratio( sumOfMatchedIou, truePositives + falsePositives / 2d + falseNegatives / 2d );
+	}
+
+	private static double ratio( final double numerator, final double denominator )
+	{
+		return denominator == 0 ? 0 : numerator / denominator;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "threshold=%.2f, tp=%d, fp=%d, fn=%d, precision=%.4f, recall=%.4f, accuracy=%.4f, f1=%.4f, meanMatchedIou=%.4f",
+				threshold, truePositives, falsePositives, falseNegatives, precision(), recall(), accuracy(), f1(), meanMatchedIou() );
+	}
+}
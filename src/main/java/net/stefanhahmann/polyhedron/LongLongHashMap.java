@@ -0,0 +1,126 @@
+package net.stefanhahmann.polyhedron;
+
+/**
+ * Hash map from {@code long} keys to positive {@code long} counts with open addressing and linear probing. Avoids the boxing of
+ * {@link java.util.HashMap} in loops over every voxel of an image. Can also map labels to positive labels, by adding each key once.<p>
+ * Counts can only be increased. A slot is free, if its count is 0, so any key, including 0 and negative keys, can be stored. Not thread
+ * safe for writing, but concurrent reads are safe.
+ *
+ * @author Stefan Hahmann
+ */
+final class LongLongHashMap
+{
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private long[] keys;
+
+	private long[] counts;
+
+	private int size;
+
+	LongLongHashMap()
+	{
+		this( DEFAULT_CAPACITY );
+	}
+
+	LongLongHashMap( final int expectedSize )
+	{
+		int capacity = Integer.highestOneBit( Math.max( DEFAULT_CAPACITY, expectedSize ) * 2 - 1 ) << 1;
+		keys = new long[ capacity ];
+		counts = new long[ capacity ];
+	}
+
+	/**
+	 * Adds the given value to the count of the given key. Inserts the key, if it is not present yet.
+	 *
+	 * @param key the key.
+	 * @param value the value to add. Must be positive.
+	 */
+	void add( final long key, final long value )
+	{
+		final int mask = keys.length - 1;
+		int slot = hash( key ) & mask;
+		while ( counts[ slot ] != 0 )
+		{
+			if ( keys[ slot ] == key )
+			{
+				counts[ slot ] += value;
+				return;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+		keys[ slot ] = key;
+		counts[ slot ] = value;
+		if ( ++size * 2 > keys.length )
+			grow();
+	}
+
+	/**
+	 * @return the count of the given key, or 0, if it is not present.
+	 */
+	long get( final long key )
+	{
+		final int mask = keys.length - 1;
+		int slot = hash( key ) & mask;
+		while ( counts[ slot ] != 0 )
+		{
+			if ( keys[ slot ] == key )
+				return counts[ slot ];
+			slot = ( slot + 1 ) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds all counts of the given map to this map.
+	 */
+	void addAll( final LongLongHashMap other )
+	{
+		for ( int slot = 0; slot < other.keys.length; slot++ )
+			if ( other.counts[ slot ] != 0 )
+				add( other.keys[ slot ], other.counts[ slot ] );
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the keys present in this map, in no particular order.
+	 */
+	long[] keys()
+	{
+		final long[] result = new long[ size ];
+		int i = 0;
+		for ( int slot = 0; slot < keys.length; slot++ )
+			if ( counts[ slot ] != 0 )
+				result[ i++ ] = keys[ slot ];
+		return result;
+	}
+
+	private void grow()
+	{
+		final long[] oldKeys = keys;
+		final long[] oldCounts = counts;
+		keys = new long[ oldKeys.length * 2 ];
+		counts = new long[ oldCounts.length * 2 ];
+		size = 0;
+		for ( int slot = 0; slot < oldKeys.length; slot++ )
+			if ( oldCounts[ slot ] != 0 )
+				add( oldKeys[ slot ], oldCounts[ slot ] );
+	}
+
+	/**
+	 * Mixes the bits of the key (finalizer of MurmurHash3), such that keys differing only in their upper bits are spread over the table.
+	 */
+	private static int hash( long key )
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return ( int ) key;
+	}
+}
@@ -0,0 +1,102 @@
+package net.stefanhahmann.polyhedron;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.ToNumberPolicy;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads entries of the configuration of a StarDist model from its {@code config.json} with Gson or from the {@code rdf.yaml} /
+ * {@code model.yaml} of the bioimage.io model zoo with SnakeYAML. Numbers are returned as {@link Number}, mappings as {@link Map} and
+ * sequences as {@link List}.
+ *
+ * @author Stefan Hahmann
+ */
+final class ModelConfigReader
+{
+	private static final Gson GSON = new GsonBuilder().setObjectToNumberStrategy( ToNumberPolicy.LONG_OR_DOUBLE ).create();
+
+	private ModelConfigReader()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * Reads the entry with the given key from the given configuration file. The key is searched at any depth, the first match is returned.
+	 *
+	 * @param path the configuration file, either JSON (file name ending with {@code .json}) or YAML.
+	 * @param key the key.
+	 * @return the value of the entry.
+	 * @throws IOException if the file cannot be read.
+	 * @throws IllegalArgumentException if the file cannot be parsed or does not contain the key.
+	 */
+	static Object read( final Path path, final String key ) throws IOException
+	{
+		final String text = new String( Files.readAllBytes( path ), StandardCharsets.UTF_8 );
+		final Object root = path.getFileName().toString().toLowerCase().endsWith( ".json" ) ? parseJson( text ) : parseYaml( text );
+		final Object value = find( root, key );
+		if ( value == null )
+			throw new IllegalArgumentException( "No entry " + key + " found in: " + path );
+		return value;
+	}
+
+	private static Object find( final Object node, final String key )
+	{
+		if ( node instanceof Map )
+		{
+			Map< ?, ? > map = ( Map< ?, ? > ) node;
+			if ( map.containsKey( key ) )
+				return map.get( key );
+			for ( Object child : map.values() )
+			{
+				Object value = find( child, key );
+				if ( value != null )
+					return value;
+			}
+		}
+		else if ( node instanceof List )
+			for ( Object child : ( List< ? > ) node )
+			{
+				Object value = find( child, key );
+				if ( value != null )
+					return value;
+			}
+		return null;
+	}
+
+	static Object parseJson( final String text )
+	{
+		try
+		{
+			return GSON.fromJson( text, Object.class );
+		}
+		catch ( JsonParseException e )
+		{
+			throw new IllegalArgumentException( "Invalid JSON: " + e.getMessage(), e );
+		}
+	}
+
+	static Object parseYaml( final String text )
+	{
+		try
+		{
+			// the safe constructor only creates maps, lists and scalars, no arbitrary classes named in the file
+			return new Yaml( new SafeConstructor( new LoaderOptions() ) ).load( text );
+		}
+		catch ( YAMLException e )
+		{
+			throw new IllegalArgumentException( "Invalid YAML: " + e.getMessage(), e );
+		}
+	}
+}
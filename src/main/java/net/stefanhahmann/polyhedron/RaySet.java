@@ -0,0 +1,443 @@
+package net.stefanhahmann.polyhedron;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The directions of the rays of star convex polyhedra together with the triangulation of their surface.<p>
+ * The ray families of StarDist are supported: {@code Rays_GoldenSpiral} (the spherical Fibonacci lattice, optionally corrected for
+ * anisotropy), {@code Rays_Cartesian}, the subdivided polyhedra {@code Rays_Tetra} and {@code Rays_Octo} of {@code Rays_SubDivide} and
+ * {@code Rays_Explicit}. Each ray set is computed once and shared through a registry, so all polyhedra with the same rays share their
+ * directions and {@link FaceTopology}. The rays of a model can be read from its configuration with {@link #fromModelConfig(Path)}.<p>
+ * In contrast to StarDist, which uses zyx order, directions are in xyz order. The same applies to the anisotropy given to
+ * {@link #goldenSpiral(int, double[])}. Directions are unit vectors in the voxel coordinates of the image, in which the distances are
+ * predicted.
+ *
+ * @author Stefan Hahmann
+ */
+public final class RaySet
+{
+	private static final Map< String, RaySet > REGISTRY = new ConcurrentHashMap<>();
+
+	private final String name;
+
+	private final List< double[] > directions;
+
+	private final FaceTopology topology;
+
+	private final boolean fibonacci;
+
+	/**
+	 * Locates the triangle of the topology in a given direction. Created lazily on the first containment test of a polyhedron with these
+	 * rays.
+	 */
+	private volatile FaceLocator faceLocator;
+
+	private RaySet( final String name, final List< double[] > directions, final FaceTopology topology, final boolean fibonacci )
+	{
+		this.name = name;
+		this.directions = Collections.unmodifiableList( directions );
+		this.topology = topology;
+		this.fibonacci = fibonacci;
+	}
+
+	/**
+	 * Returns the rays of a spherical Fibonacci lattice, i.e. {@code Rays_GoldenSpiral} without anisotropy. These are the rays used by
+	 * {@link StarConvexPolyhedron#StarConvexPolyhedron(double[], List)}.
+	 *
+	 * @param n the number of rays. Must be at least 4.
+	 * @return the ray set.
+	 * @see FibonacciLattices#getValues(int)
+	 */
+	public static RaySet fibonacci( final int n )
+	{
+		if ( n < 4 )
+			throw new IllegalArgumentException( "At least 4 rays are required, but got: " + n );
+		final String key = "Rays_GoldenSpiral_anisotropy_None_n_" + n;
+		return register( key, () -> new RaySet( key, FibonacciLattices.getValues( n ), FaceTopology.fibonacci( n ), true ) );
+	}
+
+	/**
+	 * Returns the rays of {@code Rays_GoldenSpiral}, i.e. the points of a spherical Fibonacci lattice divided by the anisotropy and
+	 * normalized. As in StarDist, the triangulation is the convex hull of the points before normalization.
+	 *
+	 * @param n the number of rays. Must be at least 4.
+	 * @param anisotropy the anisotropy in xyz order, i.e. the reversed anisotropy of the StarDist configuration, or null for none.
+	 * @return the ray set.
+	 */
+	public static RaySet goldenSpiral( final int n, final double[] anisotropy )
+	{
+		if ( anisotropy == null )
+			return fibonacci( n );
+		if ( anisotropy.length != 3 )
+			throw new IllegalArgumentException( "anisotropy must have 3 entries, but has: " + anisotropy.length );
+		for ( double value : anisotropy )
+			if ( !( value > 0 ) )
+				throw new IllegalArgumentException( "anisotropy must be positive, but has: " + value );
+		// a uniform scaling does not change the normalized directions
+		if ( anisotropy[ 0 ] == anisotropy[ 1 ] && anisotropy[ 1 ] == anisotropy[ 2 ] )
+			return fibonacci( n );
+		final String key = String.format( Locale.ROOT, "Rays_GoldenSpiral_anisotropy_%.2f_%.2f_%.2f_n_%d", anisotropy[ 2 ], anisotropy[ 1 ],
+				anisotropy[ 0 ], n );
+		return register( key, () -> {
+			List< double[] > scaled = new ArrayList<>( n );
+			for ( double[] point : fibonacci( n ).getDirections() )
+				scaled.add( new double[] { point[ 0 ] / anisotropy[ 0 ], point[ 1 ] / anisotropy[ 1 ], point[ 2 ] / anisotropy[ 2 ] } );
+			FaceTopology topology = FaceTopology.convexHull( scaled );
+			scaled.forEach( RaySet::normalize );
+			return new RaySet( key, scaled, topology, false );
+		} );
+	}
+
+	/**
+	 * Returns the rays of {@code Rays_Cartesian}, i.e. rays at equidistant azimuth and polar angles. The rays at the poles are
+	 * perturbed as in StarDist, so they do not coincide.
+	 *
+	 * @param nRaysX the number of azimuth angles. Must be at least 3.
+	 * @param nRaysZ the number of polar angles, including both poles. Must be at least 3.
+	 * @return the ray set.
+	 */
+	public static RaySet cartesian( final int nRaysX, final int nRaysZ )
+	{
+		if ( nRaysX < 3 || nRaysZ < 3 )
+			throw new IllegalArgumentException( "nRaysX and nRaysZ must be at least 3, but are: " + nRaysX + " and " + nRaysZ );
+		final String key = "Rays_Cartesian_n_rays_x_" + nRaysX + "_n_rays_z_" + nRaysZ;
+		return register( key, () -> {
+			// angles in single precision as in StarDist
+			float dphi = ( float ) ( 2 * Math.PI / nRaysX );
+			float dtheta = ( float ) ( Math.PI / nRaysZ );
+			List< double[] > directions = new ArrayList<>( nRaysX * nRaysZ );
+			for ( int mz = 0; mz < nRaysZ; mz++ )
+				for ( int mx = 0; mx < nRaysX; mx++ )
+				{
+					double phi = mx * dphi;
+					double theta = mz == 0 ? 1e-12 : mz == nRaysZ - 1 ? Math.PI - 1e-12 : mz * dtheta;
+					double dx = Math.cos( phi ) * Math.sin( theta );
+					double dy = Math.sin( phi ) * Math.sin( theta );
+					if ( mz == 0 || mz == nRaysZ - 1 )
+					{
+						dx += 1e-12;
+						dy += 1e-12;
+					}
+					directions.add( new double[] { dx, dy, Math.cos( theta ) } );
+				}
+			int[] triangles = new int[ 6 * ( nRaysZ - 1 ) * nRaysX ];
+			int t = 0;
+			for ( int mz = 0; mz < nRaysZ - 1; mz++ )
+				for ( int mx = 0; mx < nRaysX; mx++ )
+				{
+					int next = ( mx + 1 ) % nRaysX;
+					int[] corners = { mz * nRaysX + mx, ( mz + 1 ) * nRaysX + next, mz * nRaysX + next,
+							mz * nRaysX + mx, ( mz + 1 ) * nRaysX + mx, ( mz + 1 ) * nRaysX + next };
+					System.arraycopy( corners, 0, triangles, t, 6 );
+					t += 6;
+				}
+			return new RaySet( key, directions, FaceTopology.of( directions, triangles ), false );
+		} );
+	}
+
+	/**
+	 * Returns the rays of {@code Rays_Tetra}, i.e. the vertices of a regular tetrahedron, whose triangles are recursively split into 4
+	 * triangles with the edge midpoints projected onto the unit sphere.
+	 *
+	 * @param level the subdivision level. 1 is the tetrahedron (4 rays), 2 has 10 rays, 3 has 34 rays, ...
+	 * @return the ray set.
+	 */
+	public static RaySet tetra( final int level )
+	{
+		// StarDist's zyx vertices in xyz order
+		final double[][] vertices = {
+				{ -1. / 3, 0, Math.sqrt( 8. / 9 ) },
+				{ -1. / 3, Math.sqrt( 2. / 3 ), -Math.sqrt( 2. / 9 ) },
+				{ -1. / 3, -Math.sqrt( 2. / 3 ), -Math.sqrt( 2. / 9 ) },
+				{ 1, 0, 0 } };
+		final int[] triangles = { 0, 1, 2, 0, 3, 1, 0, 2, 3, 1, 3, 2 };
+		return subdivided( "Rays_Tetra", vertices, triangles, level );
+	}
+
+	/**
+	 * Returns the rays of {@code Rays_Octo}, i.e. the vertices of a regular octahedron, whose triangles are recursively split into 4
+	 * triangles with the edge midpoints projected onto the unit sphere.
+	 *
+	 * @param level the subdivision level. 1 is the octahedron (6 rays), 2 has 18 rays, 3 has 66 rays, ...
+	 * @return the ray set.
+	 */
+	public static RaySet octo( final int level )
+	{
+		// StarDist's zyx vertices in xyz order
+		final double[][] vertices = { { 1, 0, 0 }, { 0, 1, 0 }, { -1, 0, 0 }, { 0, -1, 0 }, { 0, 0, 1 }, { 0, 0, -1 } };
+		final int[] triangles = { 0, 1, 4, 0, 5, 1, 1, 2, 4, 1, 5, 2, 2, 3, 4, 2, 5, 3, 3, 0, 4, 3, 5, 0 };
+		return subdivided( "Rays_Octo", vertices, triangles, level );
+	}
+
+	private static RaySet subdivided( final String family, final double[][] vertices, final int[] triangles, final int level )
+	{
+		if ( level < 1 )
+			throw new IllegalArgumentException( "level must be positive, but is: " + level );
+		final String key = family + "_n_level_" + level;
+		return register( key, () -> {
+			List< double[] > directions = new ArrayList<>();
+			for ( double[] vertex : vertices )
+				directions.add( vertex.clone() );
+			int[] faces = triangles;
+			for ( int l = 1; l < level; l++ )
+				faces = split( directions, faces );
+			return new RaySet( key, directions, FaceTopology.of( directions, faces ), false );
+		} );
+	}
+
+	/**
+	 * Splits each triangle into 4 triangles at the midpoints of its edges, which are added to the given directions, in the order of
+	 * {@code Rays_SubDivide.split} of StarDist.
+	 */
+	private static int[] split( final List< double[] > directions, final int[] triangles )
+	{
+		final Map< Long, Integer > midpoints = new HashMap<>();
+		final int[] result = new int[ 4 * triangles.length ];
+		int r = 0;
+		for ( int t = 0; t < triangles.length; t += 3 )
+		{
+			int v1 = triangles[ t ];
+			int v2 = triangles[ t + 1 ];
+			int v3 = triangles[ t + 2 ];
+			int m12 = midpoint( directions, midpoints, v1, v2 );
+			int m23 = midpoint( directions, midpoints, v2, v3 );
+			int m31 = midpoint( directions, midpoints, v3, v1 );
+			int[] split = { v1, m12, m31, v2, m23, m12, v3, m31, m23, m12, m23, m31 };
+			System.arraycopy( split, 0, result, r, 12 );
+			r += 12;
+		}
+		return result;
+	}
+
+	private static int midpoint( final List< double[] > directions, final Map< Long, Integer > midpoints, final int a, final int b )
+	{
+		final long key = ( ( long ) Math.min( a, b ) << 32 ) | Math.max( a, b );
+		return midpoints.computeIfAbsent( key, k -> {
+			double[] va = directions.get( a );
+			double[] vb = directions.get( b );
+			directions.add( normalize( new double[] { va[ 0 ] + vb[ 0 ], va[ 1 ] + vb[ 1 ], va[ 2 ] + vb[ 2 ] } ) );
+			return directions.size() - 1;
+		} );
+	}
+
+	/**
+	 * Creates a ray set with the given directions and triangles, i.e. {@code Rays_Explicit}. Explicit ray sets are not registered.
+	 *
+	 * @param directions the directions in xyz order. They are normalized.
+	 * @param triangles the indices of the directions, 3 per triangle. Triangles are oriented outwards.
+	 * @return the ray set.
+	 */
+	public static RaySet explicit( final List< double[] > directions, final int[] triangles )
+	{
+		if ( directions == null || directions.size() < 4 )
+			throw new IllegalArgumentException( "At least 4 directions are required." );
+		final List< double[] > normalized = new ArrayList<>( directions.size() );
+		for ( double[] direction : directions )
+			normalized.add( normalize( direction.clone() ) );
+		return new RaySet( "Rays_Explicit", normalized, FaceTopology.of( normalized, triangles ), false );
+	}
+
+	/**
+	 * Creates the ray set described by the {@code rays_json} entry of the configuration of a StarDist model, i.e. a map with the name of
+	 * the ray family and its keyword arguments, e.g. {@code {"name": "Rays_GoldenSpiral", "kwargs": {"n": 96, "anisotropy": [2, 1, 1]}}}.
+	 * Vectors in the keyword arguments are expected in zyx order, as written by StarDist.
+	 *
+	 * @param raysJson the description of the rays.
+	 * @return the ray set.
+	 */
+	public static RaySet fromConfig( final Map< String, ? > raysJson )
+	{
+		final Object name = raysJson.get( "name" );
+		final Object kwargs = raysJson.get( "kwargs" );
+		final Map< ?, ? > arguments = kwargs instanceof Map ? ( Map< ?, ? > ) kwargs : Collections.emptyMap();
+		if ( "Rays_GoldenSpiral".equals( name ) )
+		{
+			double[] anisotropy = arguments.get( "anisotropy" ) == null ? null : reverse( vector( arguments.get( "anisotropy" ) ) );
+			return goldenSpiral( integer( arguments, "n", 70 ), anisotropy );
+		}
+		if ( "Rays_Cartesian".equals( name ) )
+			return cartesian( integer( arguments, "n_rays_x", 11 ), integer( arguments, "n_rays_z", 5 ) );
+		if ( "Rays_Tetra".equals( name ) )
+			return tetra( integer( arguments, "n_level", 4 ) );
+		if ( "Rays_Octo".equals( name ) )
+			return octo( integer( arguments, "n_level", 4 ) );
+		if ( "Rays_Explicit".equals( name ) )
+		{
+			List< double[] > directions = new ArrayList<>();
+			for ( Object vertex : list( arguments.get( "vertices0" ) ) )
+				directions.add( reverse( vector( vertex ) ) );
+			List< ? > faces = list( arguments.get( "faces0" ) );
+			int[] triangles = new int[ 3 * faces.size() ];
+			for ( int f = 0; f < faces.size(); f++ )
+			{
+				double[] face = vector( faces.get( f ) );
+				for ( int c = 0; c < 3; c++ )
+					triangles[ 3 * f + c ] = ( int ) face[ c ];
+			}
+			return explicit( directions, triangles );
+		}
+		throw new IllegalArgumentException( "Unsupported rays: " + name );
+	}
+
+	/**
+	 * Reads the ray set from the configuration of a StarDist model, i.e. from the {@code rays_json} entry of its {@code config.json} or
+	 * of the {@code rdf.yaml} / {@code model.yaml} of the bioimage.io model zoo.
+	 *
+	 * @param path the configuration file.
+	 * @return the ray set.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static RaySet fromModelConfig( final Path path ) throws IOException
+	{
+		final Object raysJson = ModelConfigReader.read( path, "rays_json" );
+		if ( !( raysJson instanceof Map ) )
+			throw new IllegalArgumentException( "rays_json must be a mapping in: " + path );
+		@SuppressWarnings( "unchecked" )
+		final Map< String, ? > map = ( Map< String, ? > ) raysJson;
+		return fromConfig( map );
+	}
+
+	/**
+	 * Restores a ray set, which has been stored with its name, directions and triangles, e.g. by {@link StarConvexPolyhedronWriter}. Returns
+	 * the registered ray set, if one with this name and these directions has already been created, such that polyhedra share it.
+	 *
+	 * @param name the name of the ray set, as returned by {@link #toString()}.
+	 * @param directions the unit directions in xyz order.
+	 * @param triangles the indices of the directions, 3 per triangle, as returned by {@link FaceTopology#triangles()}.
+	 * @return the ray set.
+	 */
+	static RaySet restore( final String name, final List< double[] > directions, final int[] triangles )
+	{
+		final RaySet registered = REGISTRY.get( name );
+		if ( registered != null && registered.size() == directions.size() )
+		{
+			boolean equal = true;
+			for ( int i = 0; i < directions.size() && equal; i++ )
+				equal = Arrays.equals( registered.directions.get( i ), directions.get( i ) );
+			if ( equal && Arrays.equals( registered.topology.triangles(), triangles ) )
+				return registered;
+		}
+		return new RaySet( name, new ArrayList<>( directions ), FaceTopology.of( directions, triangles ), false );
+	}
+
+	private static RaySet register( final String key, final Supplier< RaySet > supplier )
+	{
+		// not computeIfAbsent, as ray sets may be composed of other registered ray sets
+		RaySet rays = REGISTRY.get( key );
+		if ( rays == null )
+		{
+			rays = supplier.get();
+			RaySet previous = REGISTRY.putIfAbsent( key, rays );
+			if ( previous != null )
+				rays = previous;
+		}
+		return rays;
+	}
+
+	private static int integer( final Map< ?, ? > arguments, final String key, final int defaultValue )
+	{
+		final Object value = arguments.get( key );
+		if ( value == null )
+			return defaultValue;
+		if ( !( value instanceof Number ) )
+			throw new IllegalArgumentException( key + " must be a number, but is: " + value );
+		return ( ( Number ) value ).intValue();
+	}
+
+	private static List< ? > list( final Object value )
+	{
+		if ( !( value instanceof List ) )
+			throw new IllegalArgumentException( "Expected a list, but got: " + value );
+		return ( List< ? > ) value;
+	}
+
+	private static double[] vector( final Object value )
+	{
+		final List< ? > list = list( value );
+		final double[] vector = new double[ list.size() ];
+		for ( int i = 0; i < vector.length; i++ )
+			vector[ i ] = ( ( Number ) list.get( i ) ).doubleValue();
+		return vector;
+	}
+
+	private static double[] reverse( final double[] zyx )
+	{
+		if ( zyx.length != 3 )
+			throw new IllegalArgumentException( "Expected 3 entries, but got: " + zyx.length );
+		return new double[] { zyx[ 2 ], zyx[ 1 ], zyx[ 0 ] };
+	}
+
+	private static double[] normalize( final double[] vector )
+	{
+		final double length = Math.sqrt( vector[ 0 ] * vector[ 0 ] + vector[ 1 ] * vector[ 1 ] + vector[ 2 ] * vector[ 2 ] );
+		for ( int d = 0; d < 3; d++ )
+			vector[ d ] /= length;
+		return vector;
+	}
+
+	/**
+	 * @return the number of rays.
+	 */
+	public int size()
+	{
+		return directions.size();
+	}
+
+	/**
+	 * @return the unit directions of the rays in xyz order. Must not be modified.
+	 */
+	public List< double[] > getDirections()
+	{
+		return directions;
+	}
+
+	/**
+	 * @return the triangulation of the surface of polyhedra with these rays.
+	 */
+	public FaceTopology getFaceTopology()
+	{
+		return topology;
+	}
+
+	/**
+	 * @return the locator of the triangles of the {@link #getFaceTopology() topology}, which is shared by all polyhedra with these rays.
+	 */
+	FaceLocator getFaceLocator()
+	{
+		FaceLocator locator = faceLocator;
+		if ( locator == null )
+		{
+			// benign race: concurrent callers may create equal instances, one of them wins
+			locator = new FaceLocator( directions, topology );
+			faceLocator = locator;
+		}
+		return locator;
+	}
+
+	/**
+	 * @return true, if the rays are the spherical Fibonacci lattice of {@link #fibonacci(int)}.
+	 */
+	public boolean isFibonacci()
+	{
+		return fibonacci;
+	}
+
+	/**
+	 * @return the name of the ray family and its parameters, similar to the representation of the rays in StarDist.
+	 */
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,207 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Sequential relabeling of a label image, as {@code relabel_sequential} of scikit-image, e.g. to compact the labels after non-maximum
+ * suppression. The labels present in the image are mapped in ascending order to {@code offset, offset + 1, ...}, background (label 0) stays
+ * 0.<p>
+ * The labels are collected in a single parallel pass over slabs of the image into {@link LongLongHashMap primitive hash maps}. The
+ * mapping can be applied in place or as a lazy view. Images with more than 2^31 voxels and labels up to {@link Long#MAX_VALUE} are
+ * supported, as long as the number of distinct labels fits into an array.
+ *
+ * @author Stefan Hahmann
+ */
+public class SequentialRelabeling
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private final long offset;
+
+	private final long[] originalLabels;
+
+	private final LongLongHashMap forward;
+
+	private SequentialRelabeling( final long offset, final long[] originalLabels )
+	{
+		this.offset = offset;
+		this.originalLabels = originalLabels;
+		this.forward = new LongLongHashMap( originalLabels.length );
+		for ( int i = 0; i < originalLabels.length; i++ )
+			forward.add( originalLabels[ i ], offset + i );
+	}
+
+	/**
+	 * Creates a sequential relabeling of the labels present in the given image, starting at label 1.
+	 *
+	 * @param labels the label image. Labels must not be negative.
+	 * @return the relabeling.
+	 */
+	public static SequentialRelabeling of( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels )
+	{
+		return of( labels, 1 );
+	}
+
+	/**
+	 * Creates a sequential relabeling of the labels present in the given image.
+	 *
+	 * @param labels the label image. Labels must not be negative.
+	 * @param offset the label, to which the smallest label is mapped. Must be positive.
+	 * @return the relabeling.
+	 */
+	public static SequentialRelabeling of( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels, final long offset )
+	{
+		if ( offset < 1 )
+			throw new IllegalArgumentException( "offset must be positive, but is: " + offset );
+		final LongLongHashMap present = new LongLongHashMap();
+		forEachSlab( labels, cursor -> {
+			LongLongHashMap local = new LongLongHashMap();
+			long last = 0;
+			while ( cursor.hasNext() )
+			{
+				long label = cursor.next().getIntegerLong();
+				// runs of the same label only touch the map once
+				if ( label == last )
+					continue;
+				if ( label < 0 )
+					throw new IllegalArgumentException( "Labels must not be negative, but found: " + label );
+				if ( label != 0 )
+					local.add( label, 1 );
+				last = label;
+			}
+			synchronized ( present )
+			{
+				present.addAll( local );
+			}
+		} );
+		final long[] originalLabels = present.keys();
+		Arrays.sort( originalLabels );
+		if ( originalLabels.length > 0 && offset > Long.MAX_VALUE - originalLabels.length )
+			throw new IllegalArgumentException( "offset is too large for " + originalLabels.length + " labels: " + offset );
+		logger.debug( "found {} labels.", originalLabels.length );
+		return new SequentialRelabeling( offset, originalLabels );
+	}
+
+	/**
+	 * @return the number of labels, without the background.
+	 */
+	public int numLabels()
+	{
+		return originalLabels.length;
+	}
+
+	/**
+	 * @return the label, to which the smallest label is mapped.
+	 */
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	/**
+	 * Maps an original label to its new label.
+	 *
+	 * @param label the original label.
+	 * @return the new label. 0 for the background and for labels, which were not present in the image.
+	 */
+	public long forward( final long label )
+	{
+		return forward.get( label );
+	}
+
+	/**
+	 * Maps a new label back to its original label.
+	 *
+	 * @param label the new label.
+	 * @return the original label. 0 for the background and for labels outside of {@code [offset, offset + numLabels())}.
+	 */
+	public long inverse( final long label )
+	{
+		final long i = label - offset;
+		return i >= 0 && i < originalLabels.length ? originalLabels[ ( int ) i ] : 0;
+	}
+
+	/**
+	 * Gets the original labels in ascending order. The original label at index {@code i} is mapped to {@code offset + i}, i.e. the array is
+	 * the inverse map.
+	 *
+	 * @return a copy of the original labels.
+	 */
+	public long[] getOriginalLabels()
+	{
+		return originalLabels.clone();
+	}
+
+	/**
+	 * Replaces the labels of the given image by their new labels. Slabs of the image are processed in parallel. The type of the image must
+	 * be able to hold {@code offset + numLabels() - 1}.
+	 *
+	 * @param labels the label image.
+	 */
+	public void applyInPlace( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels )
+	{
+		forEachSlab( labels, cursor -> {
+			long last = 0;
+			long mapped = 0;
+			while ( cursor.hasNext() )
+			{
+				IntegerType< ? > value = cursor.next();
+				long label = value.getIntegerLong();
+				if ( label != last )
+				{
+					last = label;
+					mapped = forward.get( label );
+				}
+				value.setInteger( mapped );
+			}
+		} );
+	}
+
+	/**
+	 * Creates a lazy view of the given image with the new labels. The new labels are computed on every access, the image is not changed.
+	 *
+	 * @param labels the label image.
+	 * @param type an instance of the type of the view. Must be able to hold {@code offset + numLabels() - 1}.
+	 * @param <T> the type of the view.
+	 * @return the view.
+	 */
+	public < T extends IntegerType< T > > RandomAccessibleInterval< T > view( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels,
+			final T type )
+	{
+		return Converters.convert( labels, ( input, output ) -> output.setInteger( forward.get( input.getIntegerLong() ) ), type );
+	}
+
+	/**
+	 * Visits the voxels of the given image in slabs along its last dimension, which are processed in parallel.
+	 */
+	private static void forEachSlab( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels,
+			final Consumer< Cursor< ? extends IntegerType< ? > > > visitor )
+	{
+		final int n = labels.numDimensions();
+		final int last = n - 1;
+		final long length = labels.dimension( last );
+		final int numSlabs = ( int ) Math.min( length, 4L * ForkJoinPool.getCommonPoolParallelism() );
+		IntStream.range( 0, numSlabs ).parallel().forEach( slab -> {
+			long[] min = new long[ n ];
+			long[] max = new long[ n ];
+			labels.min( min );
+			labels.max( max );
+			min[ last ] = labels.min( last ) + length * slab / numSlabs;
+			max[ last ] = labels.min( last ) + length * ( slab + 1 ) / numSlabs - 1;
+			visitor.accept( Views.flatIterable( Views.interval( labels, new FinalInterval( min, max ) ) ).cursor() );
+		} );
+	}
+}
@@ -1,12 +1,14 @@
 package net.stefanhahmann.polyhedron;
 
-import cn.jimmiez.pcu.common.graphics.Octree;
+import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.util.LinAlgHelpers;
 
-import javax.vecmath.Point3d;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class to generate a star convex polyhedron.
@@ -21,7 +23,11 @@ public class StarConvexPolyhedron
 
 	private static final int DEFAULT_SIZE = 96;
 
-	private static final List< double[] > DEFAULT_LATTICE = FibonacciLattices.getValues( DEFAULT_SIZE );
+	/**
+	 * The rays, from which this polyhedron has been created. The {@link #lattice} of a {@link #transform(AffineTransform3D) transformed}
+	 * polyhedron differs from their directions, but the ray indices and the topology still apply.
+	 */
+	private final RaySet rays;
 
 	private final double[] center;
 
@@ -29,7 +35,54 @@ public class StarConvexPolyhedron
 
 	private final BoundingBox3D boundingBox;
 
-	private final Octree octree;
+	/**
+	 * Inverse of the linear part of the transforms applied to this polyhedron, row major. Maps a direction from the {@link #center} to the
+	 * direction of the {@link #rays}, in which the triangle of the topology is located. Null, if the polyhedron has not been
+	 * {@link #transform(AffineTransform3D) transformed}.
+	 */
+	private final double[] inverseLinear;
+
+	private final Precision precision;
+
+	/**
+	 * Precision of the geometry of a polyhedron, which is selected at construction.
+	 */
+	public enum Precision
+	{
+		/**
+		 * Center, vertices and containment tests use double precision.
+		 */
+		DOUBLE,
+		/**
+		 * Center and vertices are rounded to single precision. Containment tests, including the batched ones used for rasterization, round
+		 * the tested point to single precision as well. The triangle in the direction of the point is located in double precision, like for
+		 * {@link #DOUBLE}. Only the test, on which side of the plane of this triangle the point and the center lie, is computed in single
+		 * precision, on vertices stored as float arrays.<p>
+		 * Error bounds: rounding changes a coordinate {@code c} by at most {@code |c| * 2^-24}, i.e. by less than 0.001 voxels for
+		 * coordinates below 16384. The side test can only differ from {@link #DOUBLE}, if the point lies within a few times this bound from
+		 * the plane of its triangle. The rounded point can only be assigned to a neighbouring triangle, if its direction from the center lies
+		 * (almost) on the boundary between the cones of two triangles. Both only affect points close to the surface. For voxel sized
+		 * polyhedra, typically fewer than 1 in 1000 voxels of the bounding box are classified differently.
+		 */
+		FLOAT
+	}
+
+	/**
+	 * Number of points that are processed together by the batched containment tests.
+	 */
+	private static final int BATCH_BLOCK_SIZE = 64;
+
+	private static final ThreadLocal< BatchScratch > BATCH_SCRATCH = ThreadLocal.withInitial( BatchScratch::new );
+
+	/**
+	 * Vertices in structure of arrays layout. Created lazily on the first batched containment test.
+	 */
+	private volatile BatchGeometry batchGeometry;
+
+	/**
+	 * Triangles of the surface and their bounding spheres in structure of arrays layout. Created lazily on the first distance query.
+	 */
+	private volatile SurfaceGeometry surfaceGeometry;
 
 	/**
 	 * Creates a star convex polyhedron with the given center and distances to the points. The number of points that the polyhedron contains is determined by the number of given distances.
@@ -38,30 +91,64 @@ public class StarConvexPolyhedron
 	 */
 	public StarConvexPolyhedron( final double[] center, final List< Double > distances )
 	{
+		this( center, distances, Precision.DOUBLE );
+	}
+
+	/**
+	 * Creates a star convex polyhedron with the given center and distances to the points and the given precision of its geometry.
+	 * @param center the center of the polyhedron. Must not be null. Expected order: xyz.
+	 * @param distances the distances from the center to the points. Must not be null. Must contain at least 4 distances.
+	 * @param precision the precision of the geometry. Must not be null.
+	 */
+	public StarConvexPolyhedron( final double[] center, final List< Double > distances, final Precision precision )
+	{
+		this( center, distances, fibonacci( distances ), precision );
+	}
+
+	/**
+	 * Creates a star convex polyhedron with the given center and distances along the given rays, e.g. the rays of the StarDist model, which
+	 * predicted the distances.
+	 * @param center the center of the polyhedron. Must not be null. Expected order: xyz.
+	 * @param distances the distances from the center to the points. Must not be null. Must contain one distance per ray.
+	 * @param rays the rays. Must not be null.
+	 */
+	public StarConvexPolyhedron( final double[] center, final List< Double > distances, final RaySet rays )
+	{
+		this( center, distances, rays, Precision.DOUBLE );
+	}
+
+	/**
+	 * Creates a star convex polyhedron with the given center and distances along the given rays and the given precision of its geometry.
+	 * @param center the center of the polyhedron. Must not be null. Expected order: xyz.
+	 * @param distances the distances from the center to the points. Must not be null. Must contain one distance per ray.
+	 * @param rays the rays. Must not be null.
+	 * @param precision the precision of the geometry. Must not be null.
+	 */
+	public StarConvexPolyhedron( final double[] center, final List< Double > distances, final RaySet rays, final Precision precision )
+	{
+		if ( precision == null )
+			throw new IllegalArgumentException( "precision cannot be null." );
 		if ( center == null )
 			throw new IllegalArgumentException( "center cannot be null." );
 		if ( distances == null )
 			throw new IllegalArgumentException( "distances cannot be null." );
-		if ( distances.isEmpty() )
-			throw new IllegalArgumentException( "distances cannot be empty." );
+		if ( rays == null )
+			throw new IllegalArgumentException( "rays cannot be null." );
 		int nPoints = distances.size();
-		if ( nPoints == DEFAULT_SIZE )
-			this.lattice = DEFAULT_LATTICE;
-		else
-			this.lattice = FibonacciLattices.getValues( nPoints );
-		if ( nPoints < 4 )
-			throw new IllegalArgumentException( "At least 4 distances are required." );
-		octree = new Octree();
-		initOctree();
-		this.center = center;
+		if ( nPoints != rays.size() )
+			throw new IllegalArgumentException( "Expected " + rays.size() + " distances for " + rays + ", but got: " + nPoints );
+		this.rays = rays;
+		this.lattice = rays.getDirections();
+		this.precision = precision;
+		this.inverseLinear = null;
+		this.center = precision == Precision.FLOAT ? round( center.clone() ) : center;
 		this.points = new ArrayList<>();
 		for ( int i = 0; i < nPoints; i++ )
 		{
 			double[] point = new double[ 3 ];
-			// TODO allow to correct for anisotropy here
 			LinAlgHelpers.scale( lattice.get( i ), distances.get( i ), point );
-			LinAlgHelpers.add( center, point, point );
-			points.add( point );
+			LinAlgHelpers.add( this.center, point, point );
+			points.add( round( point ) );
 		}
 
 		double[] minMax = minMax();
@@ -70,23 +157,50 @@ public class StarConvexPolyhedron
 		this.boundingBox = new BoundingBox3D( min, max );
 	}
 
-	private void initOctree()
+	private static RaySet fibonacci( final List< Double > distances )
 	{
-		List< Point3d > latticePoints = new ArrayList<>();
-		this.lattice.forEach( point -> latticePoints.add( new Point3d( point[ 0 ], point[ 1 ], point[ 2 ] ) ) );
-		octree.buildIndex( latticePoints );
+		if ( distances == null )
+			throw new IllegalArgumentException( "distances cannot be null." );
+		if ( distances.isEmpty() )
+			throw new IllegalArgumentException( "distances cannot be empty." );
+		if ( distances.size() < 4 )
+			throw new IllegalArgumentException( "At least 4 distances are required." );
+		return RaySet.fibonacci( distances.size() );
 	}
 
-	StarConvexPolyhedron(
-			final double[] center, final List< double[] > vertices, final double[] min, final double[] max, final List< double[] > lattice
-	)
+	StarConvexPolyhedron( final double[] center, final List< double[] > vertices, final List< double[] > lattice, final RaySet rays,
+			final double[] inverseLinear, final Precision precision )
 	{
-		this.center = center;
+		this.precision = precision;
+		this.inverseLinear = inverseLinear;
+		this.rays = rays;
+		this.center = round( center );
 		this.lattice = lattice;
 		this.points = vertices;
+		points.forEach( this::round );
+		double[] minMax = minMax();
+		double[] min = new double[] { minMax[ 0 ], minMax[ 1 ], minMax[ 2 ] };
+		double[] max = new double[] { minMax[ 3 ], minMax[ 4 ], minMax[ 5 ] };
 		this.boundingBox = new BoundingBox3D( min, max );
-		this.octree = new Octree();
-		initOctree();
+	}
+
+	/**
+	 * Rounds the given coordinates in place to the precision of this polyhedron.
+	 */
+	private double[] round( final double[] coordinates )
+	{
+		if ( precision == Precision.FLOAT )
+			for ( int d = 0; d < coordinates.length; d++ )
+				coordinates[ d ] = ( float ) coordinates[ d ];
+		return coordinates;
+	}
+
+	/**
+	 * @return the precision of the geometry of this polyhedron.
+	 */
+	public Precision getPrecision()
+	{
+		return precision;
 	}
 
 	/**
@@ -101,11 +215,12 @@ public class StarConvexPolyhedron
 	 * 	          <li>Point is now on unit sphere</li>
 	 * 	      </ol>
 	 *     </li>
-	 *     <li>Find the 3 nearest points to this point on the unit sphere</li>
-	 *     <li>Construct a triangle from these 3 points</li>
+	 *     <li>Find the triangle of the {@link RaySet#getFaceTopology() topology} of the rays, whose cone from the center contains this
+	 *     point</li>
 	 *     <li>Test on which side of the triangle the point lies</li>
 	 *     <li>If the point lies on the same side as the center, it is inside the polyhedron</li>
 	 * </ul>
+	 * Points outside the bounding box of the polyhedron are never inside.
 	 * @param point the point to test. Must not be null.
 	 * @return true if the given point is inside the star convex polyhedron.
 	 */
@@ -113,10 +228,408 @@ public class StarConvexPolyhedron
 	{
 		if ( point == null )
 			throw new IllegalArgumentException( "Point cannot be null." );
-		if ( Arrays.equals( point, center ) )
-			return true;
-		List< double[] > nearestPoints = findNearestPoints( point );
-		return sideOfTriangle( point, nearestPoints ) == sideOfTriangle( center, nearestPoints );
+		return contains( point, 0 );
+	}
+
+	/**
+	 * Tests for a batch of points, if they are inside the star convex polyhedron. For each point the result is the same as the one of
+	 * {@link #contains(double[])}.<p>
+	 * In contrast to {@link #contains(double[])}, this method does not allocate memory per point. The points are processed in blocks. For
+	 * each block, the lookup of the triangle in the direction of the point and the test against the plane of this triangle are done in
+	 * separate loops over primitive arrays, which can be vectorised by the JIT.
+	 *
+	 * @param xyzInterleaved the points to test. Must not be null. Expected order: x0, y0, z0, x1, y1, z1, ...
+	 * @param count the number of points to test. Must not be negative.
+	 * @param out the results. Must not be null. Must have at least {@code count} entries. {@code out[i]} is set to true, if point {@code i}
+	 *            is inside the polyhedron.
+	 */
+	public void containsBatch( final double[] xyzInterleaved, final int count, final boolean[] out )
+	{
+		if ( out == null )
+			throw new IllegalArgumentException( "out cannot be null." );
+		checkBatch( xyzInterleaved, count );
+		if ( out.length < count )
+			throw new IllegalArgumentException( "out must have at least " + count + " entries, but has: " + out.length );
+		BatchGeometry geometry = getBatchGeometry();
+		BatchScratch scratch = BATCH_SCRATCH.get();
+		for ( int start = 0; start < count; start += BATCH_BLOCK_SIZE )
+		{
+			int length = Math.min( BATCH_BLOCK_SIZE, count - start );
+			containsBlock( geometry, xyzInterleaved, start, length, scratch );
+			System.arraycopy( scratch.inside, 0, out, start, length );
+		}
+	}
+
+	/**
+	 * Tests for a batch of points, if they are inside the star convex polyhedron. For each point the result is the same as the one of
+	 * {@link #contains(double[])}.<p>
+	 * The results are written as bits: bit {@code i % 64} of {@code bitsOut[i / 64]} is set, if point {@code i} is inside the polyhedron and
+	 * cleared otherwise. Bits beyond {@code count} are left untouched.
+	 *
+	 * @param xyzInterleaved the points to test. Must not be null. Expected order: x0, y0, z0, x1, y1, z1, ...
+	 * @param count the number of points to test. Must not be negative.
+	 * @param bitsOut the results. Must not be null. Must have at least {@code (count + 63) / 64} entries.
+	 * @see #containsBatch(double[], int, boolean[])
+	 */
+	public void containsBatch( final double[] xyzInterleaved, final int count, final long[] bitsOut )
+	{
+		if ( bitsOut == null )
+			throw new IllegalArgumentException( "bitsOut cannot be null." );
+		checkBatch( xyzInterleaved, count );
+		if ( bitsOut.length < ( count + 63 ) / 64 )
+			throw new IllegalArgumentException(
+					"bitsOut must have at least " + ( count + 63 ) / 64 + " entries, but has: " + bitsOut.length );
+		BatchGeometry geometry = getBatchGeometry();
+		BatchScratch scratch = BATCH_SCRATCH.get();
+		for ( int start = 0; start < count; start += BATCH_BLOCK_SIZE )
+		{
+			int length = Math.min( BATCH_BLOCK_SIZE, count - start );
+			containsBlock( geometry, xyzInterleaved, start, length, scratch );
+			for ( int i = 0; i < length; i++ )
+			{
+				int index = start + i;
+				long bit = 1L << ( index & 63 );
+				if ( scratch.inside[ i ] )
+					bitsOut[ index >>> 6 ] |= bit;
+				else
+					bitsOut[ index >>> 6 ] &= ~bit;
+			}
+		}
+	}
+
+	/**
+	 * Tests if the point at position {@code index} of the given interleaved coordinates is inside the star convex polyhedron. The result is the
+	 * same as the one of {@link #contains(double[])}, but no memory is allocated and concurrent calls are safe.
+	 */
+	boolean contains( final double[] xyzInterleaved, final int index )
+	{
+		BatchScratch scratch = BATCH_SCRATCH.get();
+		containsBlock( getBatchGeometry(), xyzInterleaved, index, 1, scratch );
+		return scratch.inside[ 0 ];
+	}
+
+	/**
+	 * Computes the signed Euclidean distance of the given point to the surface of this polyhedron, i.e. to the triangulation given by
+	 * {@link #getFaceTopology()}. The distance is negative for points inside the polyhedron, as tested by {@link #contains(double[])}, and
+	 * positive for points outside.
+	 *
+	 * @param point the point. Must not be null. Expected order: xyz.
+	 * @return the signed distance.
+	 * @see #signedDistanceBatch(double[], int, double[])
+	 */
+	public double signedDistance( final double[] point )
+	{
+		if ( point == null )
+			throw new IllegalArgumentException( "Point cannot be null." );
+		final double[] out = new double[ 1 ];
+		signedDistanceBatch( point, 1, out );
+		return out[ 0 ];
+	}
+
+	/**
+	 * Computes the signed distances of a batch of points to the surface of this polyhedron. For each point the result is the same as the
+	 * one of {@link #signedDistance(double[])}.<p>
+	 * No memory is allocated per point. For each point, the exact distance is first computed for the triangle with the closest bounding
+	 * sphere and then only for the triangles, whose bounding spheres are closer than the distance found so far. Typically, only a few
+	 * triangles per point are tested exactly.
+	 *
+	 * @param xyzInterleaved the points. Must not be null. Expected order: x0, y0, z0, x1, y1, z1, ...
+	 * @param count the number of points. Must not be negative.
+	 * @param out the signed distances. Must not be null. Must have at least {@code count} entries.
+	 */
+	public void signedDistanceBatch( final double[] xyzInterleaved, final int count, final double[] out )
+	{
+		if ( out == null )
+			throw new IllegalArgumentException( "out cannot be null." );
+		checkBatch( xyzInterleaved, count );
+		if ( out.length < count )
+			throw new IllegalArgumentException( "out must have at least " + count + " entries, but has: " + out.length );
+		final BatchGeometry geometry = getBatchGeometry();
+		final SurfaceGeometry surface = getSurfaceGeometry();
+		final BatchScratch scratch = BATCH_SCRATCH.get();
+		final double[] sphereDistances = scratch.sphereDistances( surface.numTriangles );
+		for ( int start = 0; start < count; start += BATCH_BLOCK_SIZE )
+		{
+			int length = Math.min( BATCH_BLOCK_SIZE, count - start );
+			containsBlock( geometry, xyzInterleaved, start, length, scratch );
+			for ( int i = 0; i < length; i++ )
+			{
+				int j = 3 * ( start + i );
+				double distance = surface.distance( xyzInterleaved[ j ], xyzInterleaved[ j + 1 ], xyzInterleaved[ j + 2 ], sphereDistances );
+				out[ start + i ] = scratch.inside[ i ] ? -distance : distance;
+			}
+		}
+	}
+
+	/**
+	 * Computes where the ray {@code origin + t * direction, t >= 0} enters this polyhedron, e.g. to find the object under the mouse in a
+	 * viewer. The surface is the triangulation given by {@link #getFaceTopology()}. If the origin lies inside the polyhedron, as tested by
+	 * {@link #contains(double[])}, the ray enters at the origin.<p>
+	 * Rays missing the bounding box are rejected without looking at the triangles. Otherwise, the points are projected onto the plane
+	 * perpendicular to the ray, and a triangle is hit, if its projection contains the ray. Triangles, whose points all lie on one side
+	 * of the ray, are skipped by comparing bit codes of the sides. The edges shared by two triangles are evaluated
+	 * identically for both, i.e. rays through an edge are not lost between the triangles. No memory is allocated.
+	 *
+	 * @param origin the origin of the ray. Must not be null. Expected order: xyz.
+	 * @param direction the direction of the ray. Must not be null. Must not be zero. Expected order: xyz. Needs not to be normalized.
+	 * @return the parameter {@code t} of the entry point, 0 if the origin lies inside, {@link Double#POSITIVE_INFINITY}, if the ray misses
+	 *         the polyhedron. The entry point is at distance {@code t * |direction|} from the origin.
+	 */
+	public double intersectRay( final double[] origin, final double[] direction )
+	{
+		if ( origin == null )
+			throw new IllegalArgumentException( "origin cannot be null." );
+		if ( direction == null )
+			throw new IllegalArgumentException( "direction cannot be null." );
+		if ( direction[ 0 ] == 0 && direction[ 1 ] == 0 && direction[ 2 ] == 0 )
+			throw new IllegalArgumentException( "direction cannot be zero." );
+		double entry = boundingBox.intersectRay( origin, direction );
+		if ( entry == Double.POSITIVE_INFINITY )
+			return entry;
+		if ( entry == 0 && contains( origin ) )
+			return 0;
+
+		// orthonormal basis e1, e2 of the plane perpendicular to the direction
+		final double dx = direction[ 0 ];
+		final double dy = direction[ 1 ];
+		final double dz = direction[ 2 ];
+		final double squaredLength = dx * dx + dy * dy + dz * dz;
+		double e1x;
+		double e1y;
+		double e1z;
+		if ( Math.abs( dx ) < Math.abs( dy ) )
+		{
+			e1x = 0;
+			e1y = dz;
+			e1z = -dy;
+		}
+		else
+		{
+			e1x = -dz;
+			e1y = 0;
+			e1z = dx;
+		}
+		final double inverse = 1 / Math.sqrt( e1x * e1x + e1y * e1y + e1z * e1z );
+		e1x *= inverse;
+		e1y *= inverse;
+		e1z *= inverse;
+		final double e2x = dy * e1z - dz * e1y;
+		final double e2y = dz * e1x - dx * e1z;
+		final double e2z = dx * e1y - dy * e1x;
+
+		// coordinates of the points in the plane, interleaved, and on which sides of the ray they lie
+		final int n = points.size();
+		final BatchScratch scratch = BATCH_SCRATCH.get();
+		final double[] projected = scratch.projected( n );
+		final int[] outcodes = scratch.outcodes( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			double[] point = points.get( i );
+			double qx = point[ 0 ] - origin[ 0 ];
+			double qy = point[ 1 ] - origin[ 1 ];
+			double qz = point[ 2 ] - origin[ 2 ];
+			double u = qx * e1x + qy * e1y + qz * e1z;
+			double v = qx * e2x + qy * e2y + qz * e2z;
+			projected[ 2 * i ] = u;
+			projected[ 2 * i + 1 ] = v;
+			outcodes[ i ] = ( u > 0 ? 1 : 0 ) | ( u < 0 ? 2 : 0 ) | ( v > 0 ? 4 : 0 ) | ( v < 0 ? 8 : 0 );
+		}
+
+		final FaceTopology topology = getFaceTopology();
+		double best = Double.POSITIVE_INFINITY;
+		for ( int t = 0; t < topology.numTriangles(); t++ )
+		{
+			int a = topology.vertex( t, 0 );
+			int b = topology.vertex( t, 1 );
+			int c = topology.vertex( t, 2 );
+			// all vertices on the same side of the ray
+			if ( ( outcodes[ a ] & outcodes[ b ] & outcodes[ c ] ) != 0 )
+				continue;
+			// twice the signed areas of the triangles of the ray with the edges, i.e. the unnormalized barycentric coordinates of the ray
+			double wa = projected[ 2 * b ] * projected[ 2 * c + 1 ] - projected[ 2 * c ] * projected[ 2 * b + 1 ];
+			double wb = projected[ 2 * c ] * projected[ 2 * a + 1 ] - projected[ 2 * a ] * projected[ 2 * c + 1 ];
+			double wc = projected[ 2 * a ] * projected[ 2 * b + 1 ] - projected[ 2 * b ] * projected[ 2 * a + 1 ];
+			if ( ( wa < 0 || wb < 0 || wc < 0 ) && ( wa > 0 || wb > 0 || wc > 0 ) )
+				continue;
+			double sum = wa + wb + wc;
+			if ( sum == 0 )
+				// the triangle is parallel to the ray
+				continue;
+			double depth = ( wa * depth( a, origin, direction ) + wb * depth( b, origin, direction ) + wc * depth( c, origin, direction ) )
+					/ ( sum * squaredLength );
+			if ( depth >= 0 )
+				best = Math.min( best, depth );
+		}
+		return best;
+	}
+
+	/**
+	 * Projection of the vector from the origin to the point with the given index onto the direction.
+	 */
+	private double depth( final int i, final double[] origin, final double[] direction )
+	{
+		final double[] point = points.get( i );
+		return ( point[ 0 ] - origin[ 0 ] ) * direction[ 0 ] + ( point[ 1 ] - origin[ 1 ] ) * direction[ 1 ]
+				+ ( point[ 2 ] - origin[ 2 ] ) * direction[ 2 ];
+	}
+
+	private SurfaceGeometry getSurfaceGeometry()
+	{
+		SurfaceGeometry geometry = surfaceGeometry;
+		if ( geometry == null )
+		{
+			// benign race: concurrent callers may create equal instances, one of them wins
+			geometry = new SurfaceGeometry( points, getFaceTopology() );
+			surfaceGeometry = geometry;
+		}
+		return geometry;
+	}
+
+	private static void checkBatch( final double[] xyzInterleaved, final int count )
+	{
+		if ( xyzInterleaved == null )
+			throw new IllegalArgumentException( "xyzInterleaved cannot be null." );
+		if ( count < 0 )
+			throw new IllegalArgumentException( "count cannot be negative, but is: " + count );
+		if ( xyzInterleaved.length < 3L * count )
+			throw new IllegalArgumentException(
+					"xyzInterleaved must have at least " + 3L * count + " entries, but has: " + xyzInterleaved.length );
+	}
+
+	private BatchGeometry getBatchGeometry()
+	{
+		BatchGeometry geometry = batchGeometry;
+		if ( geometry == null )
+		{
+			// benign race: concurrent callers may create equal instances, one of them wins
+			geometry = new BatchGeometry( points, precision );
+			batchGeometry = geometry;
+		}
+		return geometry;
+	}
+
+	/**
+	 * Tests the points {@code start} to {@code start + length - 1} and writes the results into {@code scratch.inside}.
+	 */
+	private void containsBlock( final BatchGeometry geometry, final double[] xyz, final int start, final int length,
+			final BatchScratch scratch )
+	{
+		if ( geometry.isFloat() )
+		{
+			containsBlockFloat( geometry, xyz, start, length, scratch );
+			return;
+		}
+		final double cx = center[ 0 ];
+		final double cy = center[ 1 ];
+		final double cz = center[ 2 ];
+		locateFaces( xyz, start, length, false, scratch );
+
+		// test on which side of the triangle the point and the center lie
+		final double[] min = boundingBox.getMinPoint();
+		final double[] max = boundingBox.getMaxPoint();
+		final double[] vx = geometry.vertexX;
+		final double[] vy = geometry.vertexY;
+		final double[] vz = geometry.vertexZ;
+		for ( int i = 0; i < length; i++ )
+		{
+			int a = scratch.vertex0[ i ];
+			int b = scratch.vertex1[ i ];
+			int c = scratch.vertex2[ i ];
+			double ax = vx[ a ];
+			double ay = vy[ a ];
+			double az = vz[ a ];
+			double e1x = vx[ b ] - ax;
+			double e1y = vy[ b ] - ay;
+			double e1z = vz[ b ] - az;
+			double e2x = vx[ c ] - ax;
+			double e2y = vy[ c ] - ay;
+			double e2z = vz[ c ] - az;
+			double nx = e1y * e2z - e1z * e2y;
+			double ny = e1z * e2x - e1x * e2z;
+			double nz = e1x * e2y - e1y * e2x;
+			int j = 3 * ( start + i );
+			double px = xyz[ j ];
+			double py = xyz[ j + 1 ];
+			double pz = xyz[ j + 2 ];
+			double sidePoint = nx * ( px - ax ) + ny * ( py - ay ) + nz * ( pz - az );
+			double sideCenter = nx * ( cx - ax ) + ny * ( cy - ay ) + nz * ( cz - az );
+			boolean isCenter = px == cx && py == cy && pz == cz;
+			boolean inBox = px >= min[ 0 ] && px <= max[ 0 ] && py >= min[ 1 ] && py <= max[ 1 ] && pz >= min[ 2 ] && pz <= max[ 2 ];
+			scratch.inside[ i ] = isCenter || ( inBox && Math.signum( sidePoint ) == Math.signum( sideCenter ) );
+		}
+	}
+
+	/**
+	 * Same as {@link #containsBlock(BatchGeometry, double[], int, int, BatchScratch)}, but computed in single precision. The points are
+	 * rounded to single precision first.
+	 */
+	private void containsBlockFloat( final BatchGeometry geometry, final double[] xyz, final int start, final int length,
+			final BatchScratch scratch )
+	{
+		final float cx = ( float ) center[ 0 ];
+		final float cy = ( float ) center[ 1 ];
+		final float cz = ( float ) center[ 2 ];
+		locateFaces( xyz, start, length, true, scratch );
+
+		// test on which side of the triangle the point and the center lie
+		final double[] min = boundingBox.getMinPoint();
+		final double[] max = boundingBox.getMaxPoint();
+		final float[] vx = geometry.vertexXf;
+		final float[] vy = geometry.vertexYf;
+		final float[] vz = geometry.vertexZf;
+		for ( int i = 0; i < length; i++ )
+		{
+			int a = scratch.vertex0[ i ];
+			int b = scratch.vertex1[ i ];
+			int c = scratch.vertex2[ i ];
+			float ax = vx[ a ];
+			float ay = vy[ a ];
+			float az = vz[ a ];
+			float e1x = vx[ b ] - ax;
+			float e1y = vy[ b ] - ay;
+			float e1z = vz[ b ] - az;
+			float e2x = vx[ c ] - ax;
+			float e2y = vy[ c ] - ay;
+			float e2z = vz[ c ] - az;
+			float nx = e1y * e2z - e1z * e2y;
+			float ny = e1z * e2x - e1x * e2z;
+			float nz = e1x * e2y - e1y * e2x;
+			int j = 3 * ( start + i );
+			float px = ( float ) xyz[ j ];
+			float py = ( float ) xyz[ j + 1 ];
+			float pz = ( float ) xyz[ j + 2 ];
+			float sidePoint = nx * ( px - ax ) + ny * ( py - ay ) + nz * ( pz - az );
+			float sideCenter = nx * ( cx - ax ) + ny * ( cy - ay ) + nz * ( cz - az );
+			boolean isCenter = px == cx && py == cy && pz == cz;
+			boolean inBox = px >= min[ 0 ] && px <= max[ 0 ] && py >= min[ 1 ] && py <= max[ 1 ] && pz >= min[ 2 ] && pz <= max[ 2 ];
+			scratch.inside[ i ] = isCenter || ( inBox && Math.signum( sidePoint ) == Math.signum( sideCenter ) );
+		}
+	}
+
+	/**
+	 * Finds the triangles in the directions of the points {@code start} to {@code start + length - 1} from the center and writes the
+	 * indices of their vertices to the vertex arrays of the scratch. The points are rounded to single precision first, if {@code round} is
+	 * true.
+	 */
+	private void locateFaces( final double[] xyz, final int start, final int length, final boolean round, final BatchScratch scratch )
+	{
+		final FaceLocator locator = rays.getFaceLocator();
+		final int[] triangles = rays.getFaceTopology().triangles();
+		final double[] scores = scratch.scores( locator.maxCandidates() );
+		final double[] m = inverseLinear;
+		for ( int i = 0; i < length; i++ )
+		{
+			int j = 3 * ( start + i );
+			double dx = ( round ? ( float ) xyz[ j ] : xyz[ j ] ) - center[ 0 ];
+			double dy = ( round ? ( float ) xyz[ j + 1 ] : xyz[ j + 1 ] ) - center[ 1 ];
+			double dz = ( round ? ( float ) xyz[ j + 2 ] : xyz[ j + 2 ] ) - center[ 2 ];
+			int t = m == null ? locator.locate( dx, dy, dz, scores )
+					: locator.locate( m[ 0 ] * dx + m[ 1 ] * dy + m[ 2 ] * dz, m[ 3 ] * dx + m[ 4 ] * dy + m[ 5 ] * dz,
+							m[ 6 ] * dx + m[ 7 ] * dy + m[ 8 ] * dz, scores );
+			scratch.vertex0[ i ] = triangles[ 3 * t ];
+			scratch.vertex1[ i ] = triangles[ 3 * t + 1 ];
+			scratch.vertex2[ i ] = triangles[ 3 * t + 2 ];
+		}
 	}
 
 	List< double[] > getLattice()
@@ -139,43 +652,207 @@ public class StarConvexPolyhedron
 		return center;
 	}
 
-	List< double[] > findNearestPoints( final double[] candidate )
+	/**
+	 * Returns the triangulation of the surface of this polyhedron. The triangles refer to the indices of the points returned by
+	 * {@link #getPoints()}. Polyhedra with the same rays share the same instance.
+	 *
+	 * @return the triangulation of the surface.
+	 */
+	public FaceTopology getFaceTopology()
+	{
+		return rays.getFaceTopology();
+	}
+
+	/**
+	 * @return the rays, along which the distances of this polyhedron have been given.
+	 */
+	public RaySet getRaySet()
+	{
+		return rays;
+	}
+
+	/**
+	 * Computes the outline of the intersection of this polyhedron with a plane. The plane is given by a transform, e.g. the viewer transform
+	 * of BigDataViewer: it consists of the points, whose z coordinate is 0 after applying the transform. The intersection is computed
+	 * analytically from the triangles of the {@link #getFaceTopology() face topology}, i.e. each triangle crossing the plane contributes one
+	 * segment and the segments are chained into closed polygons.
+	 *
+	 * @param transform the transform into the coordinate system, whose plane z = 0 is the plane to intersect with.
+	 * @return the closed polygons of the outline. Each polygon is given by the x and y coordinates of its vertices in transformed
+	 *         coordinates, interleaved: x0, y0, x1, y1, ... The last vertex is connected to the first one. Empty, if the polyhedron does
+	 *         not intersect the plane.
+	 */
+	public List< double[] > crossSection( final AffineTransform3D transform )
 	{
-		double[] copy = new double[ 3 ];
-		// project on unit sphere
-		LinAlgHelpers.subtract( candidate, center, copy );
-		LinAlgHelpers.normalize( copy );
+		final int n = points.size();
+		final double[] transformed = new double[ 3 * n ];
+		final double[] vertex = new double[ 3 ];
+		boolean anyBelow = false;
+		boolean anyAbove = false;
+		for ( int i = 0; i < n; i++ )
+		{
+			transform.apply( points.get( i ), vertex );
+			System.arraycopy( vertex, 0, transformed, 3 * i, 3 );
+			// vertices on the plane are treated as above, such that each edge crosses the plane at most once
+			if ( vertex[ 2 ] < 0 )
+				anyBelow = true;
+			else
+				anyAbove = true;
+		}
+		if ( !anyBelow || !anyAbove )
+			return Collections.emptyList();
 
-		int[] indices = octree.searchNearestNeighbors( 3, new Point3d( copy[ 0 ], copy[ 1 ], copy[ 2 ] ) );
+		// per triangle crossing the plane: link the edge, on which the plane is left downwards, to the edge, on which it is entered again
+		final int[] triangles = getFaceTopology().triangles();
+		final Map< Long, Long > next = new HashMap<>();
+		for ( int t = 0; t < triangles.length; t += 3 )
+		{
+			long down = -1;
+			long up = -1;
+			for ( int e = 0; e < 3; e++ )
+			{
+				int from = triangles[ t + e ];
+				int to = triangles[ t + ( e + 1 ) % 3 ];
+				boolean fromBelow = transformed[ 3 * from + 2 ] < 0;
+				boolean toBelow = transformed[ 3 * to + 2 ] < 0;
+				if ( !fromBelow && toBelow )
+					down = edgeKey( from, to );
+				else if ( fromBelow && !toBelow )
+					up = edgeKey( from, to );
+			}
+			if ( down >= 0 && up >= 0 )
+				next.put( down, up );
+		}
 
-		List< double[] > result = new ArrayList<>();
-		for ( int i = 0; i < 3; i++ )
+		final List< double[] > polygons = new ArrayList<>();
+		while ( !next.isEmpty() )
 		{
-			result.add( points.get( indices[ i ] ) );
+			final long start = next.keySet().iterator().next();
+			final List< double[] > polygon = new ArrayList<>();
+			Long edge = start;
+			do
+			{
+				int a = ( int ) ( edge >>> 32 );
+				int b = ( int ) ( edge & 0xffffffffL );
+				double za = transformed[ 3 * a + 2 ];
+				double zb = transformed[ 3 * b + 2 ];
+				double t = za / ( za - zb );
+				polygon.add( new double[] {
+						transformed[ 3 * a ] + t * ( transformed[ 3 * b ] - transformed[ 3 * a ] ),
+						transformed[ 3 * a + 1 ] + t * ( transformed[ 3 * b + 1 ] - transformed[ 3 * a + 1 ] ) } );
+				edge = next.remove( edge );
+			}
+			while ( edge != null && edge != start );
+			final double[] xy = new double[ 2 * polygon.size() ];
+			for ( int i = 0; i < polygon.size(); i++ )
+				System.arraycopy( polygon.get( i ), 0, xy, 2 * i, 2 );
+			polygons.add( xy );
 		}
-		return result;
+		return polygons;
 	}
 
-	private static byte sideOfTriangle( final double[] point, final List< double[] > triangle )
+	/**
+	 * Key of the undirected edge between the given vertices.
+	 */
+	private static long edgeKey( final int a, final int b )
 	{
-		if ( triangle.size() != 3 )
-			throw new IllegalArgumentException( "Triangle must have 3 vertices, but has: " + triangle.size() );
-		double[] point1 = triangle.get( 0 );
-		double[] point2 = triangle.get( 1 );
-		double[] point3 = triangle.get( 2 );
+		return ( ( long ) Math.min( a, b ) << 32 ) | Math.max( a, b );
+	}
 
-		double[] diff21 = new double[ 3 ];
-		LinAlgHelpers.subtract( point2, point1, diff21 );
-		double[] diff31 = new double[ 3 ];
-		LinAlgHelpers.subtract( point3, point1, diff31 );
+	/**
+	 * Creates a copy of this polyhedron transformed by the given affine transform. Center and vertices are transformed by the full transform.
+	 * The lattice directions are transformed by the linear part of the transform only and normalized again, such that the ray with index
+	 * {@code i} still points from the transformed center to the transformed vertex {@code i}. The triangle in a direction from the
+	 * transformed center is located by mapping the direction back with the inverse of the linear part. This polyhedron is not modified.
+	 *
+	 * @param transform the transform to apply.
+	 * @return the transformed polyhedron.
+	 */
+	StarConvexPolyhedron transform( final AffineTransform3D transform )
+	{
+		double[] transformedCenter = new double[ 3 ];
+		transform.apply( center, transformedCenter );
+		List< double[] > transformedVertices = new ArrayList<>( points.size() );
+		List< double[] > transformedLattice = new ArrayList<>( lattice.size() );
+		for ( int i = 0; i < points.size(); i++ )
+		{
+			double[] vertex = new double[ 3 ];
+			transform.apply( points.get( i ), vertex );
+			transformedVertices.add( vertex );
+			double[] direction = lattice.get( i );
+			double[] transformedDirection = new double[ 3 ];
+			for ( int row = 0; row < 3; row++ )
+				transformedDirection[ row ] = transform.get( row, 0 ) * direction[ 0 ] + transform.get( row, 1 ) * direction[ 1 ]
+						+ transform.get( row, 2 ) * direction[ 2 ];
+			LinAlgHelpers.normalize( transformedDirection );
+			transformedLattice.add( transformedDirection );
+		}
+		AffineTransform3D inverseTransform = transform.inverse();
+		double[] inverse = new double[ 9 ];
+		for ( int row = 0; row < 3; row++ )
+			for ( int column = 0; column < 3; column++ )
+				inverse[ 3 * row + column ] = inverseTransform.get( row, column );
+		if ( inverseLinear != null )
+			inverse = multiply( inverseLinear, inverse );
+		// the ray set and its topology refer to ray indices, which are kept by the transform
+		return new StarConvexPolyhedron( transformedCenter, transformedVertices, transformedLattice, rays, inverse, precision );
+	}
 
-		double[] cross = new double[ 3 ];
-		LinAlgHelpers.cross( diff21, diff31, cross );
-		LinAlgHelpers.normalize( cross );
-		double[] toTestPoint = new double[ 3 ];
-		LinAlgHelpers.subtract( point, point1, toTestPoint );
-		double dotProduct = LinAlgHelpers.dot( cross, toTestPoint );
-		return ( byte ) Math.signum( dotProduct );
+	/**
+	 * @return the product of the given 3x3 matrices in row major order.
+	 */
+	private static double[] multiply( final double[] a, final double[] b )
+	{
+		double[] product = new double[ 9 ];
+		for ( int row = 0; row < 3; row++ )
+			for ( int column = 0; column < 3; column++ )
+				for ( int k = 0; k < 3; k++ )
+					product[ 3 * row + column ] += a[ 3 * row + k ] * b[ 3 * k + column ];
+		return product;
+	}
+
+	/**
+	 * Estimates the volume of the polyhedron as the volume enclosed by the triangulation given by {@link #getFaceTopology()}, i.e. the sum
+	 * of the signed volumes of the tetrahedra spanned by the center and each triangle. Unlike a sum of cones with equal solid angles per
+	 * ray, this does not depend on how evenly the rays are distributed.
+	 *
+	 * @return the estimated volume of the polyhedron.
+	 */
+	double estimateVolume()
+	{
+		final FaceTopology topology = getFaceTopology();
+		final double cx = center[ 0 ];
+		final double cy = center[ 1 ];
+		final double cz = center[ 2 ];
+		double sum = 0;
+		for ( int t = 0; t < topology.numTriangles(); t++ )
+		{
+			double[] a = points.get( topology.vertex( t, 0 ) );
+			double[] b = points.get( topology.vertex( t, 1 ) );
+			double[] c = points.get( topology.vertex( t, 2 ) );
+			double ax = a[ 0 ] - cx;
+			double ay = a[ 1 ] - cy;
+			double az = a[ 2 ] - cz;
+			double bx = b[ 0 ] - cx;
+			double by = b[ 1 ] - cy;
+			double bz = b[ 2 ] - cz;
+			double ex = c[ 0 ] - cx;
+			double ey = c[ 1 ] - cy;
+			double ez = c[ 2 ] - cz;
+			sum += ax * ( by * ez - bz * ey ) + ay * ( bz * ex - bx * ez ) + az * ( bx * ey - by * ex );
+		}
+		// transforms, which mirror the polyhedron, invert the orientation of the triangles
+		return Math.abs( sum ) / 6;
+	}
+
+	/**
+	 * @return the vertices of the triangle, against which {@link #contains(double[])} tests the given point.
+	 */
+	List< double[] > findFace( final double[] point )
+	{
+		BatchScratch scratch = BATCH_SCRATCH.get();
+		locateFaces( point, 0, 1, precision == Precision.FLOAT, scratch );
+		return Arrays.asList( points.get( scratch.vertex0[ 0 ] ), points.get( scratch.vertex1[ 0 ] ), points.get( scratch.vertex2[ 0 ] ) );
 	}
 
 	private double[] minMax()
@@ -183,9 +860,9 @@ public class StarConvexPolyhedron
 		double minX = Double.MAX_VALUE;
 		double minY = Double.MAX_VALUE;
 		double minZ = Double.MAX_VALUE;
-		double maxX = Double.MIN_VALUE;
-		double maxY = Double.MIN_VALUE;
-		double maxZ = Double.MIN_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		double maxZ = -Double.MAX_VALUE;
 
 		for ( double[] vector : points )
 		{
@@ -205,6 +882,242 @@ public class StarConvexPolyhedron
 		return new double[] { minX, minY, minZ, maxX, maxY, maxZ };
 	}
 
+	/**
+	 * Vertices of a polyhedron in structure of arrays layout.
+	 */
+	private static class BatchGeometry
+	{
+		private final double[] vertexX;
+
+		private final double[] vertexY;
+
+		private final double[] vertexZ;
+
+		/**
+		 * Single precision copies of the arrays above, only present for {@link Precision#FLOAT}, which does not need the double arrays.
+		 */
+		private final float[] vertexXf;
+
+		private final float[] vertexYf;
+
+		private final float[] vertexZf;
+
+		private BatchGeometry( final List< double[] > vertices, final Precision precision )
+		{
+			int n = vertices.size();
+			boolean isFloat = precision == Precision.FLOAT;
+			vertexX = isFloat ? null : new double[ n ];
+			vertexY = isFloat ? null : new double[ n ];
+			vertexZ = isFloat ? null : new double[ n ];
+			vertexXf = isFloat ? new float[ n ] : null;
+			vertexYf = isFloat ? new float[ n ] : null;
+			vertexZf = isFloat ? new float[ n ] : null;
+			for ( int i = 0; i < n; i++ )
+			{
+				double[] v = vertices.get( i );
+				if ( isFloat )
+				{
+					vertexXf[ i ] = ( float ) v[ 0 ];
+					vertexYf[ i ] = ( float ) v[ 1 ];
+					vertexZf[ i ] = ( float ) v[ 2 ];
+				}
+				else
+				{
+					vertexX[ i ] = v[ 0 ];
+					vertexY[ i ] = v[ 1 ];
+					vertexZ[ i ] = v[ 2 ];
+				}
+			}
+		}
+
+		private boolean isFloat()
+		{
+			return vertexXf != null;
+		}
+	}
+
+	/**
+	 * Triangles of the surface of a polyhedron in structure of arrays layout, together with their bounding spheres.<p>
+	 * The bounding sphere of a triangle is centered at its centroid and contains its vertices. The distance of a point to the triangle is at
+	 * least the distance of the point to the center of the sphere minus its radius.
+	 */
+	private static class SurfaceGeometry
+	{
+		private final int numTriangles;
+
+		/**
+		 * Vertices a, b and c of the triangles.
+		 */
+		private final double[] ax;
+
+		private final double[] ay;
+
+		private final double[] az;
+
+		private final double[] bx;
+
+		private final double[] by;
+
+		private final double[] bz;
+
+		private final double[] cx;
+
+		private final double[] cy;
+
+		private final double[] cz;
+
+		/**
+		 * Centers and radii of the bounding spheres.
+		 */
+		private final double[] sphereX;
+
+		private final double[] sphereY;
+
+		private final double[] sphereZ;
+
+		private final double[] radius;
+
+		private SurfaceGeometry( final List< double[] > vertices, final FaceTopology topology )
+		{
+			numTriangles = topology.numTriangles();
+			ax = new double[ numTriangles ];
+			ay = new double[ numTriangles ];
+			az = new double[ numTriangles ];
+			bx = new double[ numTriangles ];
+			by = new double[ numTriangles ];
+			bz = new double[ numTriangles ];
+			cx = new double[ numTriangles ];
+			cy = new double[ numTriangles ];
+			cz = new double[ numTriangles ];
+			sphereX = new double[ numTriangles ];
+			sphereY = new double[ numTriangles ];
+			sphereZ = new double[ numTriangles ];
+			radius = new double[ numTriangles ];
+			final double[] centroid = new double[ 3 ];
+			for ( int t = 0; t < numTriangles; t++ )
+			{
+				double[] a = vertices.get( topology.vertex( t, 0 ) );
+				double[] b = vertices.get( topology.vertex( t, 1 ) );
+				double[] c = vertices.get( topology.vertex( t, 2 ) );
+				ax[ t ] = a[ 0 ];
+				ay[ t ] = a[ 1 ];
+				az[ t ] = a[ 2 ];
+				bx[ t ] = b[ 0 ];
+				by[ t ] = b[ 1 ];
+				bz[ t ] = b[ 2 ];
+				cx[ t ] = c[ 0 ];
+				cy[ t ] = c[ 1 ];
+				cz[ t ] = c[ 2 ];
+				for ( int d = 0; d < 3; d++ )
+					centroid[ d ] = ( a[ d ] + b[ d ] + c[ d ] ) / 3;
+				sphereX[ t ] = centroid[ 0 ];
+				sphereY[ t ] = centroid[ 1 ];
+				sphereZ[ t ] = centroid[ 2 ];
+				// enlarge the radius slightly, such that rounding errors do not exclude the triangle
+				radius[ t ] = Math.max( LinAlgHelpers.distance( centroid, a ),
+						Math.max( LinAlgHelpers.distance( centroid, b ), LinAlgHelpers.distance( centroid, c ) ) ) * ( 1 + 1e-9 );
+			}
+		}
+
+		/**
+		 * Computes the distance of the point {@code p} to the surface. The given array is used as scratch space for the squared distances
+		 * to the centers of the bounding spheres.
+		 */
+		private double distance( final double px, final double py, final double pz, final double[] squaredDistances )
+		{
+			// the triangle with the closest bounding sphere is tested first, its distance is usually close to the final one
+			int first = 0;
+			double smallestBound = Double.POSITIVE_INFINITY;
+			for ( int t = 0; t < numTriangles; t++ )
+			{
+				double dx = px - sphereX[ t ];
+				double dy = py - sphereY[ t ];
+				double dz = pz - sphereZ[ t ];
+				double squaredDistance = dx * dx + dy * dy + dz * dz;
+				squaredDistances[ t ] = squaredDistance;
+				if ( squaredDistance < smallestBound )
+				{
+					smallestBound = squaredDistance;
+					first = t;
+				}
+			}
+
+			double squaredDistance = squaredDistance( px, py, pz, first );
+			double distance = Math.sqrt( squaredDistance );
+			for ( int t = 0; t < numTriangles; t++ )
+			{
+				// the triangle cannot be closer than the distance found so far, if the point is further than radius + distance from the
+				// center of its bounding sphere
+				double limit = radius[ t ] + distance;
+				if ( squaredDistances[ t ] >= limit * limit || t == first )
+					continue;
+				double candidate = squaredDistance( px, py, pz, t );
+				if ( candidate < squaredDistance )
+				{
+					squaredDistance = candidate;
+					distance = Math.sqrt( candidate );
+				}
+			}
+			return distance;
+		}
+
+		private double squaredDistance( final double px, final double py, final double pz, final int t )
+		{
+			return TriangleGeometry.squaredDistancePointTriangle( px, py, pz, ax[ t ], ay[ t ], az[ t ], bx[ t ], by[ t ], bz[ t ], cx[ t ],
+					cy[ t ], cz[ t ] );
+		}
+	}
+
+	/**
+	 * Per thread scratch space of the batched containment tests.
+	 */
+	private static class BatchScratch
+	{
+		private final int[] vertex0 = new int[ BATCH_BLOCK_SIZE ];
+
+		private final int[] vertex1 = new int[ BATCH_BLOCK_SIZE ];
+
+		private final int[] vertex2 = new int[ BATCH_BLOCK_SIZE ];
+
+		private final boolean[] inside = new boolean[ BATCH_BLOCK_SIZE ];
+
+		private double[] scores = new double[ DEFAULT_SIZE ];
+
+		private double[] sphereDistances = new double[ 2 * DEFAULT_SIZE ];
+
+		private double[] projected = new double[ 2 * DEFAULT_SIZE ];
+
+		private int[] outcodes = new int[ DEFAULT_SIZE ];
+
+		private double[] scores( final int n )
+		{
+			if ( scores.length < n )
+				scores = new double[ n ];
+			return scores;
+		}
+
+		private double[] sphereDistances( final int n )
+		{
+			if ( sphereDistances.length < n )
+				sphereDistances = new double[ n ];
+			return sphereDistances;
+		}
+
+		private double[] projected( final int n )
+		{
+			if ( projected.length < 2 * n )
+				projected = new double[ 2 * n ];
+			return projected;
+		}
+
+		private int[] outcodes( final int n )
+		{
+			if ( outcodes.length < n )
+				outcodes = new int[ n ];
+			return outcodes;
+		}
+	}
+
 	class BoundingBox3D
 	{
 		private final double[] minPoint;
@@ -240,5 +1153,32 @@ public class StarConvexPolyhedron
 					&& point[ 1 ] >= minPoint[ 1 ] && point[ 1 ] <= maxPoint[ 1 ]
 					&& point[ 2 ] >= minPoint[ 2 ] && point[ 2 ] <= maxPoint[ 2 ];
 		}
+
+		/**
+		 * Computes the parameter {@code t}, where the ray {@code origin + t * direction, t >= 0} enters this box, with the slab method.
+		 *
+		 * @return the parameter of the entry point, 0 if the origin lies inside, {@link Double#POSITIVE_INFINITY}, if the ray misses the
+		 *         box.
+		 */
+		double intersectRay( final double[] origin, final double[] direction )
+		{
+			double entry = 0;
+			double exit = Double.POSITIVE_INFINITY;
+			for ( int d = 0; d < 3; d++ )
+			{
+				if ( direction[ d ] == 0 )
+				{
+					// the ray is parallel to the slab
+					if ( origin[ d ] < minPoint[ d ] || origin[ d ] > maxPoint[ d ] )
+						return Double.POSITIVE_INFINITY;
+					continue;
+				}
+				double t1 = ( minPoint[ d ] - origin[ d ] ) / direction[ d ];
+				double t2 = ( maxPoint[ d ] - origin[ d ] ) / direction[ d ];
+				entry = Math.max( entry, Math.min( t1, t2 ) );
+				exit = Math.min( exit, Math.max( t1, t2 ) );
+			}
+			return entry <= exit ? entry : Double.POSITIVE_INFINITY;
+		}
 	}
 }
@@ -0,0 +1,353 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.FinalRealInterval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Graph of the polyhedra of a collection, which touch or come within a maximum distance of each other, e.g. the neighbouring nuclei of a
+ * tissue. The graph is computed directly from the geometry of the polyhedra, without a label image, and stored in compressed sparse row
+ * (CSR) form: the neighbours of polyhedron {@code i} are {@code neighbours[ offsets[ i ] ] ... neighbours[ offsets[ i + 1 ] - 1 ]} in
+ * ascending order. The graph is undirected, i.e. each edge is stored for both of its polyhedra.<p>
+ * The distance of two polyhedra is the distance between their triangulated surfaces (see {@link FaceTopology}), or 0, if they overlap.
+ * Candidate pairs are found with a {@link StarConvexPolyhedronIndex} and tested in parallel. Most pairs are decided by comparing the
+ * distance of the centers with the radii of the spheres inscribing and enclosing the polyhedra. Only the triangles of the remaining pairs,
+ * which lie within the maximum distance of the bounding box of the other polyhedron, are tested against each other.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronAdjacency
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private final int[] offsets;
+
+	private final int[] neighbours;
+
+	private final double[] distances;
+
+	private StarConvexPolyhedronAdjacency( final int[] offsets, final int[] neighbours, final double[] distances )
+	{
+		this.offsets = offsets;
+		this.neighbours = neighbours;
+		this.distances = distances;
+	}
+
+	/**
+	 * Computes the graph of the given polyhedra, which come within the given distance of each other.
+	 *
+	 * @param polyhedra the polyhedra. Must not be null.
+	 * @param maximumDistance the maximum distance between the surfaces of neighbours. 0 for overlapping or touching polyhedra only. Must
+	 *            not be negative.
+	 * @return the graph. The nodes are the indices of the polyhedra in the given list.
+	 */
+	public static StarConvexPolyhedronAdjacency compute( final List< StarConvexPolyhedron > polyhedra, final double maximumDistance )
+	{
+		if ( polyhedra == null )
+			throw new IllegalArgumentException( "polyhedra cannot be null." );
+		return compute( new StarConvexPolyhedronIndex( polyhedra ), maximumDistance );
+	}
+
+	/**
+	 * Computes the graph of the polyhedra of the given index, which come within the given distance of each other.
+	 *
+	 * @param index the index of the polyhedra. Must not be null.
+	 * @param maximumDistance the maximum distance between the surfaces of neighbours. 0 for overlapping or touching polyhedra only. Must
+	 *            not be negative.
+	 * @return the graph. The nodes are the indices of the polyhedra in the index.
+	 */
+	public static StarConvexPolyhedronAdjacency compute( final StarConvexPolyhedronIndex index, final double maximumDistance )
+	{
+		if ( index == null )
+			throw new IllegalArgumentException( "index cannot be null." );
+		if ( !( maximumDistance >= 0 ) )
+			throw new IllegalArgumentException( "maximumDistance must not be negative, but is: " + maximumDistance );
+		final int n = index.size();
+		final double[] innerRadii = new double[ n ];
+		final double[] outerRadii = new double[ n ];
+		IntStream.range( 0, n ).parallel().forEach( i -> {
+			innerRadii[ i ] = innerRadius( index.get( i ) );
+			outerRadii[ i ] = outerRadius( index.get( i ) );
+		} );
+
+		// per polyhedron, its neighbours with a larger index
+		final int[][] pairNeighbours = new int[ n ][];
+		final double[][] pairDistances = new double[ n ][];
+		IntStream.range( 0, n ).parallel().forEach( i -> {
+			StarConvexPolyhedron polyhedron = index.get( i );
+			double[] min = polyhedron.getBoundingBox3D().getMinPoint();
+			double[] max = polyhedron.getBoundingBox3D().getMaxPoint();
+			int[] candidates = index.findIntersecting( new FinalRealInterval(
+					new double[] { min[ 0 ] - maximumDistance, min[ 1 ] - maximumDistance, min[ 2 ] - maximumDistance },
+					new double[] { max[ 0 ] + maximumDistance, max[ 1 ] + maximumDistance, max[ 2 ] + maximumDistance } ) );
+			int[] found = new int[ candidates.length ];
+			double[] foundDistances = new double[ candidates.length ];
+			int count = 0;
+			for ( int j : candidates )
+			{
+				if ( j <= i )
+					continue;
+				double distance = distance( polyhedron, innerRadii[ i ], outerRadii[ i ], index.get( j ), innerRadii[ j ], outerRadii[ j ],
+						maximumDistance );
+				if ( distance <= maximumDistance )
+				{
+					found[ count ] = j;
+					foundDistances[ count ] = distance;
+					count++;
+				}
+			}
+			pairNeighbours[ i ] = Arrays.copyOf( found, count );
+			pairDistances[ i ] = Arrays.copyOf( foundDistances, count );
+		} );
+
+		final int[] offsets = new int[ n + 1 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			offsets[ i + 1 ] += pairNeighbours[ i ].length;
+			for ( int j : pairNeighbours[ i ] )
+				offsets[ j + 1 ]++;
+		}
+		for ( int i = 0; i < n; i++ )
+			offsets[ i + 1 ] += offsets[ i ];
+		final int[] neighbours = new int[ offsets[ n ] ];
+		final double[] distances = new double[ offsets[ n ] ];
+		final int[] fill = Arrays.copyOf( offsets, n );
+		// rows are filled in ascending order: first by the smaller polyhedra, then by the polyhedron itself
+		for ( int i = 0; i < n; i++ )
+			for ( int k = 0; k < pairNeighbours[ i ].length; k++ )
+			{
+				int j = pairNeighbours[ i ][ k ];
+				double distance = pairDistances[ i ][ k ];
+				neighbours[ fill[ i ] ] = j;
+				distances[ fill[ i ]++ ] = distance;
+				neighbours[ fill[ j ] ] = i;
+				distances[ fill[ j ]++ ] = distance;
+			}
+		logger.debug( "found {} pairs of neighbours among {} polyhedra.", offsets[ n ] / 2, n );
+		return new StarConvexPolyhedronAdjacency( offsets, neighbours, distances );
+	}
+
+	/**
+	 * Computes the distance between the surfaces of the given polyhedra, if it does not exceed the given maximum distance.
+	 *
+	 * @return the distance, 0 if the polyhedra overlap, or infinity, if the distance exceeds the maximum distance.
+	 */
+	static double distance( final StarConvexPolyhedron a, final double innerRadiusA, final double outerRadiusA,
+			final StarConvexPolyhedron b, final double innerRadiusB, final double outerRadiusB, final double maximumDistance )
+	{
+		final double[] centerA = a.getCenter();
+		final double[] centerB = b.getCenter();
+		final double centerDistance = Math.sqrt( squaredDistance( centerA, centerB ) );
+		if ( centerDistance - outerRadiusA - outerRadiusB > maximumDistance )
+			return Double.POSITIVE_INFINITY;
+		if ( centerDistance < innerRadiusA + innerRadiusB || b.contains( centerA ) || a.contains( centerB ) )
+			return 0;
+
+		final double[] trianglesA = nearTriangles( a, b, maximumDistance );
+		final double[] trianglesB = nearTriangles( b, a, maximumDistance );
+		final FaceTopology topologyA = a.getFaceTopology();
+		final FaceTopology topologyB = b.getFaceTopology();
+		final List< double[] > pointsA = a.getPoints();
+		final List< double[] > pointsB = b.getPoints();
+		double bound = maximumDistance * maximumDistance;
+		boolean found = false;
+		for ( int i = 0; i < trianglesA.length; i += 7 )
+		{
+			int ta = ( int ) trianglesA[ i ];
+			double[] a0 = pointsA.get( topologyA.vertex( ta, 0 ) );
+			double[] a1 = pointsA.get( topologyA.vertex( ta, 1 ) );
+			double[] a2 = pointsA.get( topologyA.vertex( ta, 2 ) );
+			for ( int j = 0; j < trianglesB.length; j += 7 )
+			{
+				if ( squaredBoxDistance( trianglesA, i + 1, trianglesB, j + 1 ) > bound )
+					continue;
+				int tb = ( int ) trianglesB[ j ];
+				double squaredDistance = TriangleGeometry.squaredDistanceTriangleTriangle( a0, a1, a2, pointsB.get( topologyB.vertex( tb, 0 ) ),
+						pointsB.get( topologyB.vertex( tb, 1 ) ), pointsB.get( topologyB.vertex( tb, 2 ) ) );
+				if ( squaredDistance <= bound )
+				{
+					if ( squaredDistance == 0 )
+						return 0;
+					bound = squaredDistance;
+					found = true;
+				}
+			}
+		}
+		return found ? Math.sqrt( bound ) : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Finds the triangles of the given polyhedron, whose bounding boxes lie within the given distance of the bounding box of the other
+	 * polyhedron.
+	 *
+	 * @return 7 entries per triangle: its index and its bounding box (min x, min y, min z, max x, max y, max z).
+	 */
+	private static double[] nearTriangles( final StarConvexPolyhedron polyhedron, final StarConvexPolyhedron other,
+			final double maximumDistance )
+	{
+		final FaceTopology topology = polyhedron.getFaceTopology();
+		final List< double[] > points = polyhedron.getPoints();
+		final double[] otherBox = new double[ 6 ];
+		System.arraycopy( other.getBoundingBox3D().getMinPoint(), 0, otherBox, 0, 3 );
+		System.arraycopy( other.getBoundingBox3D().getMaxPoint(), 0, otherBox, 3, 3 );
+		final double bound = maximumDistance * maximumDistance;
+		final double[] result = new double[ 7 * topology.numTriangles() ];
+		int count = 0;
+		for ( int t = 0; t < topology.numTriangles(); t++ )
+		{
+			double[] a = points.get( topology.vertex( t, 0 ) );
+			double[] b = points.get( topology.vertex( t, 1 ) );
+			double[] c = points.get( topology.vertex( t, 2 ) );
+			int offset = 7 * count;
+			result[ offset ] = t;
+			for ( int d = 0; d < 3; d++ )
+			{
+				result[ offset + 1 + d ] = Math.min( a[ d ], Math.min( b[ d ], c[ d ] ) );
+				result[ offset + 4 + d ] = Math.max( a[ d ], Math.max( b[ d ], c[ d ] ) );
+			}
+			if ( squaredBoxDistance( result, offset + 1, otherBox, 0 ) <= bound )
+				count++;
+		}
+		return Arrays.copyOf( result, 7 * count );
+	}
+
+	/**
+	 * Computes the squared distance between two boxes, each given by 6 entries starting at the given offsets.
+	 */
+	private static double squaredBoxDistance( final double[] boxes1, final int offset1, final double[] boxes2, final int offset2 )
+	{
+		double sum = 0;
+		for ( int d = 0; d < 3; d++ )
+		{
+			double gap = Math.max( boxes2[ offset2 + d ] - boxes1[ offset1 + 3 + d ], boxes1[ offset1 + d ] - boxes2[ offset2 + 3 + d ] );
+			if ( gap > 0 )
+				sum += gap * gap;
+		}
+		return sum;
+	}
+
+	/**
+	 * Computes the radius of the largest sphere around the center, which lies within the polyhedron, i.e. the distance of the center to
+	 * the closest triangle of its surface.
+	 */
+	private static double innerRadius( final StarConvexPolyhedron polyhedron )
+	{
+		final FaceTopology topology = polyhedron.getFaceTopology();
+		final List< double[] > points = polyhedron.getPoints();
+		final double[] center = polyhedron.getCenter();
+		double min = Double.POSITIVE_INFINITY;
+		for ( int t = 0; t < topology.numTriangles(); t++ )
+			min = Math.min( min, TriangleGeometry.squaredDistancePointTriangle( center, points.get( topology.vertex( t, 0 ) ),
+					points.get( topology.vertex( t, 1 ) ), points.get( topology.vertex( t, 2 ) ) ) );
+		return Math.sqrt( min );
+	}
+
+	/**
+	 * Computes the radius of the smallest sphere around the center, which contains the polyhedron, i.e. the largest distance of a vertex.
+	 */
+	private static double outerRadius( final StarConvexPolyhedron polyhedron )
+	{
+		final double[] center = polyhedron.getCenter();
+		double max = 0;
+		for ( double[] point : polyhedron.getPoints() )
+			max = Math.max( max, squaredDistance( center, point ) );
+		return Math.sqrt( max );
+	}
+
+	private static double squaredDistance( final double[] a, final double[] b )
+	{
+		final double dx = a[ 0 ] - b[ 0 ], dy = a[ 1 ] - b[ 1 ], dz = a[ 2 ] - b[ 2 ];
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * @return the number of polyhedra, i.e. nodes of the graph.
+	 */
+	public int size()
+	{
+		return offsets.length - 1;
+	}
+
+	/**
+	 * @return the number of pairs of neighbours, i.e. undirected edges of the graph.
+	 */
+	public int numEdges()
+	{
+		return neighbours.length / 2;
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @return the number of neighbours of the polyhedron.
+	 */
+	public int degree( final int polyhedron )
+	{
+		return offsets[ polyhedron + 1 ] - offsets[ polyhedron ];
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param k the index of the neighbour, from 0 to {@link #degree(int)} - 1.
+	 * @return the index of the k-th neighbour of the polyhedron.
+	 */
+	public int neighbour( final int polyhedron, final int k )
+	{
+		return neighbours[ offsets[ polyhedron ] + k ];
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param k the index of the neighbour, from 0 to {@link #degree(int)} - 1.
+	 * @return the distance between the surfaces of the polyhedron and its k-th neighbour, 0 if they overlap.
+	 */
+	public double distance( final int polyhedron, final int k )
+	{
+		return distances[ offsets[ polyhedron ] + k ];
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @return the indices of the neighbours of the polyhedron in ascending order.
+	 */
+	public int[] neighbours( final int polyhedron )
+	{
+		return Arrays.copyOfRange( neighbours, offsets[ polyhedron ], offsets[ polyhedron + 1 ] );
+	}
+
+	/**
+	 * @return true, if the given polyhedra are neighbours.
+	 */
+	public boolean areNeighbours( final int polyhedron1, final int polyhedron2 )
+	{
+		return Arrays.binarySearch( neighbours, offsets[ polyhedron1 ], offsets[ polyhedron1 + 1 ], polyhedron2 ) >= 0;
+	}
+
+	/**
+	 * @return a copy of the row offsets of the CSR representation, {@link #size()} + 1 entries.
+	 */
+	public int[] getOffsets()
+	{
+		return offsets.clone();
+	}
+
+	/**
+	 * @return a copy of the column indices of the CSR representation, i.e. the neighbours of all polyhedra.
+	 */
+	public int[] getNeighbours()
+	{
+		return neighbours.clone();
+	}
+
+	/**
+	 * @return a copy of the distances, in the same order as {@link #getNeighbours()}.
+	 */
+	public double[] getDistances()
+	{
+		return distances.clone();
+	}
+}
@@ -0,0 +1,202 @@
+package net.stefanhahmann.polyhedron;
+
+import bdv.viewer.Source;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Iterates over the voxels of many star convex polyhedra in an order that is friendly to the cache of cell backed sources (e.g. HDF5 or
+ * N5).<p>
+ * The polyhedra are grouped by the block of cells of the source image, which their vertices touch in source coordinates. The blocks are
+ * sorted in Z-order (Morton order) of their first cell and then of their last cell, i.e. of the cells containing the minimum and the
+ * maximum corner of the bounding box. As the Morton code grows with each coordinate, these are the first and the last touched cell in
+ * Z-order. Thus, polyhedra reading the same cells are visited one after another, a polyhedron is visited as soon as the first of its
+ * cells is visited, and neighbouring cells are visited close in time, while they are still cached. Without this ordering, visiting
+ * polyhedra in list order loads, evicts and reloads the same cells again and again.<p>
+ * Cell coordinates are counted from the minimum cell touched by any of the polyhedra, such that polyhedra outside the image, e.g. at
+ * negative coordinates, are ordered as well. Only the lowest {@value #MORTON_BITS} bits of these coordinates are used, i.e. polyhedra,
+ * which are more than {@code 2^21} cells apart, are not ordered correctly.
+ *
+ * @param <T> the pixel type of the source.
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronBatch< T >
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	/**
+	 * Cell dimensions used, if the source image is not a cell image.
+	 */
+	private static final int[] DEFAULT_CELL_DIMENSIONS = new int[] { 64, 64, 64 };
+
+	/**
+	 * Number of bits per dimension in a Morton code.
+	 */
+	private static final int MORTON_BITS = 21;
+
+	private final Source< T > source;
+
+	private final int[] fallbackCellDimensions;
+
+	private final StarConvexPolyhedronIterable< T > iterable;
+
+	/**
+	 * Creates a batch iteration over the given source. If the source image is not a cell image, cells of 64x64x64 voxels are assumed.
+	 *
+	 * @param source the source to iterate.
+	 */
+	public StarConvexPolyhedronBatch( final Source< T > source )
+	{
+		this( source, DEFAULT_CELL_DIMENSIONS );
+	}
+
+	/**
+	 * Creates a batch iteration over the given source.
+	 *
+	 * @param source the source to iterate.
+	 * @param fallbackCellDimensions the cell dimensions to assume, if the source image is not a cell image, e.g. because it is wrapped in
+	 *            a view. Must have 3 entries.
+	 */
+	public StarConvexPolyhedronBatch( final Source< T > source, final int[] fallbackCellDimensions )
+	{
+		if ( source == null )
+			throw new IllegalArgumentException( "source cannot be null." );
+		if ( fallbackCellDimensions == null || fallbackCellDimensions.length != 3 )
+			throw new IllegalArgumentException( "fallbackCellDimensions must have 3 entries." );
+		this.source = source;
+		this.fallbackCellDimensions = fallbackCellDimensions.clone();
+		this.iterable = new StarConvexPolyhedronIterable<>( source );
+	}
+
+	/**
+	 * Visits the voxels of all given polyhedra in cache friendly order.<p>
+	 * The given action receives the iterable, which has been reset to the next polyhedron, and the index of this polyhedron in the given
+	 * list. The iterable is reused for all polyhedra, so it must not be kept beyond the call of the action.
+	 *
+	 * @param polyhedra the polyhedra to visit.
+	 * @param timepoint the timepoint of the source.
+	 * @param resolutionLevel the resolution level of the source.
+	 * @param action the action to perform for each polyhedron.
+	 */
+	public void forEach( final List< StarConvexPolyhedron > polyhedra, final int timepoint, final int resolutionLevel,
+			final ObjIntConsumer< StarConvexPolyhedronIterable< T > > action )
+	{
+		for ( int index : order( polyhedra, timepoint, resolutionLevel ) )
+		{
+			iterable.reset( polyhedra.get( index ), timepoint, resolutionLevel );
+			action.accept( iterable, index );
+		}
+	}
+
+	/**
+	 * Computes the cache friendly order, in which {@link #forEach(List, int, int, ObjIntConsumer)} visits the given polyhedra.
+	 *
+	 * @param polyhedra the polyhedra to order.
+	 * @param timepoint the timepoint of the source.
+	 * @param resolutionLevel the resolution level of the source.
+	 * @return the indices of the polyhedra in visiting order.
+	 */
+	public int[] order( final List< StarConvexPolyhedron > polyhedra, final int timepoint, final int resolutionLevel )
+	{
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( timepoint, resolutionLevel, sourceTransform );
+		final AffineTransform3D inverse = sourceTransform.inverse();
+		final int[] cellDimensions = cellDimensions( source.getSource( timepoint, resolutionLevel ) );
+		logger.debug( "ordering {} polyhedra by cells of size ({},{},{}).", polyhedra.size(), cellDimensions[ 0 ], cellDimensions[ 1 ],
+				cellDimensions[ 2 ] );
+
+		// first and last cell touched by the vertices of each polyhedron
+		final int n = polyhedra.size();
+		final long[][] firstCells = new long[ n ][ 3 ];
+		final long[][] lastCells = new long[ n ][ 3 ];
+		final long[] origin = new long[] { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		final double[] vertex = new double[ 3 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			Arrays.fill( firstCells[ i ], Long.MAX_VALUE );
+			Arrays.fill( lastCells[ i ], Long.MIN_VALUE );
+			for ( double[] point : polyhedra.get( i ).getPoints() )
+			{
+				inverse.apply( point, vertex );
+				for ( int d = 0; d < 3; d++ )
+				{
+					long cell = ( long ) Math.floor( vertex[ d ] / cellDimensions[ d ] );
+					firstCells[ i ][ d ] = Math.min( firstCells[ i ][ d ], cell );
+					lastCells[ i ][ d ] = Math.max( lastCells[ i ][ d ], cell );
+				}
+			}
+			for ( int d = 0; d < 3; d++ )
+				origin[ d ] = Math.min( origin[ d ], firstCells[ i ][ d ] );
+		}
+
+		// morton codes relative to the minimum cell
+		final long[] firstCodes = new long[ n ];
+		final long[] lastCodes = new long[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+			{
+				firstCells[ i ][ d ] -= origin[ d ];
+				lastCells[ i ][ d ] -= origin[ d ];
+			}
+			firstCodes[ i ] = mortonCode( firstCells[ i ] );
+			lastCodes[ i ] = mortonCode( lastCells[ i ] );
+		}
+		return sortedIndices( firstCodes, lastCodes );
+	}
+
+	private int[] cellDimensions( final RandomAccessibleInterval< T > img )
+	{
+		if ( img instanceof AbstractCellImg )
+		{
+			int[] cellDimensions = new int[ 3 ];
+			( ( AbstractCellImg< ?, ?, ?, ? > ) img ).getCellGrid().cellDimensions( cellDimensions );
+			return cellDimensions;
+		}
+		return fallbackCellDimensions;
+	}
+
+	/**
+	 * Interleaves the lowest {@value #MORTON_BITS} bits of the given cell coordinates. Coordinates outside {@code [0, 2^21)} are clamped to
+	 * this range.
+	 */
+	static long mortonCode( final long[] cell )
+	{
+		return spreadBits( cell[ 0 ] ) | ( spreadBits( cell[ 1 ] ) << 1 ) | ( spreadBits( cell[ 2 ] ) << 2 );
+	}
+
+	/**
+	 * Inserts two zero bits between each of the lowest {@value #MORTON_BITS} bits of the given value.
+	 */
+	private static long spreadBits( final long value )
+	{
+		long x = Math.max( 0, Math.min( value, ( 1L << MORTON_BITS ) - 1 ) );
+		x = ( x | ( x << 32 ) ) & 0x1f00000000ffffL;
+		x = ( x | ( x << 16 ) ) & 0x1f0000ff0000ffL;
+		x = ( x | ( x << 8 ) ) & 0x100f00f00f00f00fL;
+		x = ( x | ( x << 4 ) ) & 0x10c30c30c30c30c3L;
+		x = ( x | ( x << 2 ) ) & 0x1249249249249249L;
+		return x;
+	}
+
+	/**
+	 * Returns the indices of the given codes sorted by the first codes and then by the last codes. Equal codes keep their original order.
+	 */
+	private static int[] sortedIndices( final long[] firstCodes, final long[] lastCodes )
+	{
+		return IntStream.range( 0, firstCodes.length ).boxed()
+				.sorted( Comparator.< Integer >comparingLong( i -> firstCodes[ i ] ).thenComparingLong( i -> lastCodes[ i ] ) )
+				.mapToInt( Integer::intValue )
+				.toArray();
+	}
+}
@@ -0,0 +1,657 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Post-processing of a StarDist prediction, which does not fit into memory, in blocks.<p>
+ * The prediction is split into blocks. Each block is processed independently by thresholding the probabilities and non-maximum
+ * suppression (NMS) with {@link StarConvexPolyhedronCandidates}, but within the block extended by a halo. The halo is twice the maximum ray
+ * length, such that it contains the centers of all polyhedra, which overlap with a polyhedron centered in the block, and of their
+ * suppressors. Of the selected polyhedra, only those centered in the block are kept and written to a result file per block.<p>
+ * The result is an approximation of NMS over the whole prediction: no two kept polyhedra overlap more than the NMS threshold, but a
+ * suppressor may itself be suppressed by a polyhedron outside of the halo. Along such chains of suppressions, which cross a block
+ * boundary, a different subset of the polyhedra may be kept than by NMS over the whole prediction. No halo of fixed width avoids this, as
+ * the chains may be arbitrarily long.<p>
+ * The blocks are distributed over any number of worker processes through a {@link DirectoryWorkQueue} in the directory of the job, e.g.
+ * several JVMs on one machine or the nodes of a cluster with a shared file system. Workers are started with
+ * {@code java ... StarConvexPolyhedronBlockJob work <directory>} and load their part of the prediction with a {@link PredictionLoader},
+ * whose class and argument are stored in the job. While a worker processes a block, it signals a {@link DirectoryWorkQueue#heartbeat(String)
+ * heartbeat} every {@link #setHeartbeatInterval(long) heartbeat interval}, such that {@link DirectoryWorkQueue#requeueStale(long)} with a
+ * timeout of several intervals only returns the blocks of crashed workers. Finally, {@link #stitch(Path)} resolves the remaining overlaps
+ * between polyhedra of neighbouring blocks by NMS over the polyhedra close to block boundaries. The result only depends on the prediction
+ * and the parameters, including the block size, not on the number of workers or the order, in which the blocks have been processed.<p>
+ * The rays of the model are given as the number of rays of a {@link RaySet#fibonacci(int) Fibonacci lattice} or as a {@link RaySet}, e.g.
+ * read with {@link RaySet#fromModelConfig(Path)}. The directions and triangles of other ray sets are stored in the job.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronBlockJob
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private static final String JOB_FILE = "job.properties";
+
+	private static final String RESULTS = "results";
+
+	private static final long DEFAULT_HEARTBEAT_INTERVAL = 60_000;
+
+	/**
+	 * Loads parts of a prediction, e.g. from a chunked file format. Implementations used by worker processes need a public constructor
+	 * with a single {@link String} argument, e.g. the path of the prediction, which is stored in the job.
+	 */
+	public interface PredictionLoader
+	{
+		/**
+		 * Loads the probabilities within the given interval.
+		 *
+		 * @param interval the interval in xyz.
+		 * @return the probabilities with dimensions xyz, in the coordinates of the whole prediction. Must contain the given interval.
+		 * @throws IOException if the probabilities cannot be loaded.
+		 */
+		RandomAccessibleInterval< FloatType > probabilities( Interval interval ) throws IOException;
+
+		/**
+		 * Loads the distances within the given interval.
+		 *
+		 * @param interval the interval in xyz.
+		 * @return the distances with dimensions xyz and ray, in the coordinates of the whole prediction. Must contain the given interval.
+		 * @throws IOException if the distances cannot be loaded.
+		 */
+		RandomAccessibleInterval< FloatType > distances( Interval interval ) throws IOException;
+
+		/**
+		 * Creates a loader for a prediction held in memory, e.g. to process it with several threads of one JVM.
+		 *
+		 * @param distances the distances with dimensions x, y, z, 1, ray, as returned by StarDist.
+		 * @param probabilities the probabilities with dimensions x, y, z, 1, 1, as returned by StarDist.
+		 * @return the loader.
+		 */
+		static PredictionLoader of( final RandomAccessibleInterval< FloatType > distances,
+				final RandomAccessibleInterval< FloatType > probabilities )
+		{
+			if ( distances.numDimensions() != 5 || probabilities.numDimensions() != 5 )
+				throw new IllegalArgumentException( "Input is expected to have 5 dimensions." );
+			final RandomAccessibleInterval< FloatType > distances4D = Views.hyperSlice( distances, 3, distances.min( 3 ) );
+			final RandomAccessibleInterval< FloatType > probabilities3D =
+					Views.hyperSlice( Views.hyperSlice( probabilities, 4, probabilities.min( 4 ) ), 3, probabilities.min( 3 ) );
+			return new PredictionLoader()
+			{
+				@Override
+				public RandomAccessibleInterval< FloatType > probabilities( final Interval interval )
+				{
+					return probabilities3D;
+				}
+
+				@Override
+				public RandomAccessibleInterval< FloatType > distances( final Interval interval )
+				{
+					return distances4D;
+				}
+			};
+		}
+	}
+
+	private final Path directory;
+
+	private final DirectoryWorkQueue queue;
+
+	private final long[] dimensions;
+
+	private final long[] blockSize;
+
+	private final long[] numBlocks;
+
+	private final double maximumRayLength;
+
+	private final RaySet rays;
+
+	private final double probabilityThreshold;
+
+	private final double nmsThreshold;
+
+	private final String loaderClass;
+
+	private final String loaderArgument;
+
+	private long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+
+	private StarConvexPolyhedronBlockJob( final Path directory, final Properties properties ) throws IOException
+	{
+		this.directory = directory;
+		this.queue = new DirectoryWorkQueue( directory.resolve( "queue" ) );
+		this.dimensions = parseLongs( properties.getProperty( "dimensions" ) );
+		this.blockSize = parseLongs( properties.getProperty( "blockSize" ) );
+		this.maximumRayLength = Double.parseDouble( properties.getProperty( "maximumRayLength" ) );
+		if ( properties.getProperty( "rays" ) == null )
+			this.rays = RaySet.fibonacci( Integer.parseInt( properties.getProperty( "numberOfRays" ) ) );
+		else
+			this.rays = RaySet.restore( properties.getProperty( "rays" ), parseDirections( properties.getProperty( "rayDirections" ) ),
+					parseInts( properties.getProperty( "rayTriangles" ) ) );
+		this.probabilityThreshold = Double.parseDouble( properties.getProperty( "probabilityThreshold" ) );
+		this.nmsThreshold = Double.parseDouble( properties.getProperty( "nmsThreshold" ) );
+		this.loaderClass = properties.getProperty( "loaderClass", "" );
+		this.loaderArgument = properties.getProperty( "loaderArgument", "" );
+		this.numBlocks = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			numBlocks[ d ] = ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+	}
+
+	/**
+	 * Creates a job for a model with the rays of a Fibonacci lattice in the given directory and submits one task per block to its queue.
+	 *
+	 * @param directory the directory of the job. Must be empty or not exist. Must be accessible by all workers.
+	 * @param dimensions the dimensions of the prediction in xyz. Must have 3 positive entries.
+	 * @param blockSize the size of the blocks in xyz, without halo. Must have 3 positive entries.
+	 * @param maximumRayLength the maximum length of a ray, i.e. the maximum distance predicted by the model. Determines the halo. Must be
+	 *        positive.
+	 * @param numberOfRays the number of rays of the model.
+	 * @param probabilityThreshold the minimum probability of a polyhedron.
+	 * @param nmsThreshold the maximum IoU of two selected polyhedra. Must be within (0, 1].
+	 * @param loaderClass the name of the {@link PredictionLoader} class used by worker processes. Null, if all workers are given a loader.
+	 * @param loaderArgument the argument of the constructor of the loader, e.g. the path of the prediction.
+	 * @return the job.
+	 * @throws IOException if the job cannot be written.
+	 */
+	public static StarConvexPolyhedronBlockJob create( final Path directory, final long[] dimensions, final long[] blockSize,
+			final double maximumRayLength, final int numberOfRays, final double probabilityThreshold, final double nmsThreshold,
+			final String loaderClass, final String loaderArgument ) throws IOException
+	{
+		return create( directory, dimensions, blockSize, maximumRayLength, RaySet.fibonacci( numberOfRays ), probabilityThreshold,
+				nmsThreshold, loaderClass, loaderArgument );
+	}
+
+	/**
+	 * Creates a job for a model with the given rays in the given directory and submits one task per block to its queue.
+	 *
+	 * @param directory the directory of the job. Must be empty or not exist. Must be accessible by all workers.
+	 * @param dimensions the dimensions of the prediction in xyz. Must have 3 positive entries.
+	 * @param blockSize the size of the blocks in xyz, without halo. Must have 3 positive entries.
+	 * @param maximumRayLength the maximum length of a ray, i.e. the maximum distance predicted by the model. Determines the halo. Must be
+	 *        positive.
+	 * @param rays the rays of the model. Must not be null.
+	 * @param probabilityThreshold the minimum probability of a polyhedron.
+	 * @param nmsThreshold the maximum IoU of two selected polyhedra. Must be within (0, 1].
+	 * @param loaderClass the name of the {@link PredictionLoader} class used by worker processes. Null, if all workers are given a loader.
+	 * @param loaderArgument the argument of the constructor of the loader, e.g. the path of the prediction.
+	 * @return the job.
+	 * @throws IOException if the job cannot be written.
+	 */
+	public static StarConvexPolyhedronBlockJob create( final Path directory, final long[] dimensions, final long[] blockSize,
+			final double maximumRayLength, final RaySet rays, final double probabilityThreshold, final double nmsThreshold,
+			final String loaderClass, final String loaderArgument ) throws IOException
+	{
+		if ( directory == null )
+			throw new IllegalArgumentException( "directory cannot be null." );
+		if ( dimensions == null || dimensions.length != 3 || Arrays.stream( dimensions ).anyMatch( d -> d <= 0 ) )
+			throw new IllegalArgumentException( "dimensions must have 3 positive entries, but is: " + Arrays.toString( dimensions ) );
+		if ( blockSize == null || blockSize.length != 3 || Arrays.stream( blockSize ).anyMatch( d -> d <= 0 ) )
+			throw new IllegalArgumentException( "blockSize must have 3 positive entries, but is: " + Arrays.toString( blockSize ) );
+		if ( !( maximumRayLength > 0 ) )
+			throw new IllegalArgumentException( "maximumRayLength must be positive, but is: " + maximumRayLength );
+		if ( !( nmsThreshold > 0 && nmsThreshold <= 1 ) )
+			throw new IllegalArgumentException( "nmsThreshold must be within (0, 1], but is: " + nmsThreshold );
+		if ( rays == null )
+			throw new IllegalArgumentException( "rays cannot be null." );
+		if ( Files.isDirectory( directory ) )
+			try (java.util.stream.Stream< Path > files = Files.list( directory ))
+			{
+				if ( files.findAny().isPresent() )
+					throw new IllegalArgumentException( "directory must be empty: " + directory );
+			}
+		Files.createDirectories( directory.resolve( RESULTS ) );
+
+		Properties properties = new Properties();
+		properties.setProperty( "dimensions", formatLongs( dimensions ) );
+		properties.setProperty( "blockSize", formatLongs( blockSize ) );
+		properties.setProperty( "maximumRayLength", Double.toString( maximumRayLength ) );
+		properties.setProperty( "numberOfRays", Integer.toString( rays.size() ) );
+		if ( !rays.isFibonacci() )
+		{
+			properties.setProperty( "rays", rays.toString() );
+			properties.setProperty( "rayDirections", rays.getDirections().stream()
+					.map( direction -> Arrays.stream( direction ).mapToObj( Double::toString ).collect( Collectors.joining( "," ) ) )
+					.collect( Collectors.joining( "," ) ) );
+			properties.setProperty( "rayTriangles",
+					Arrays.stream( rays.getFaceTopology().triangles() ).mapToObj( Integer::toString ).collect( Collectors.joining( "," ) ) );
+		}
+		properties.setProperty( "probabilityThreshold", Double.toString( probabilityThreshold ) );
+		properties.setProperty( "nmsThreshold", Double.toString( nmsThreshold ) );
+		if ( loaderClass != null )
+			properties.setProperty( "loaderClass", loaderClass );
+		if ( loaderArgument != null )
+			properties.setProperty( "loaderArgument", loaderArgument );
+		try (Writer writer = Files.newBufferedWriter( directory.resolve( JOB_FILE ), StandardCharsets.UTF_8 ))
+		{
+			properties.store( writer, "block-wise post-processing of a StarDist prediction" );
+		}
+
+		StarConvexPolyhedronBlockJob job = new StarConvexPolyhedronBlockJob( directory, properties );
+		for ( int block = 0; block < job.numBlocks(); block++ )
+			job.queue.submit( taskName( block ) );
+		logger.info( "Created job with {} blocks of size {} in {}.", job.numBlocks(), Arrays.toString( blockSize ), directory );
+		return job;
+	}
+
+	/**
+	 * Opens an existing job, e.g. in a worker process.
+	 *
+	 * @param directory the directory of the job.
+	 * @return the job.
+	 * @throws IOException if the job cannot be read.
+	 */
+	public static StarConvexPolyhedronBlockJob open( final Path directory ) throws IOException
+	{
+		if ( directory == null )
+			throw new IllegalArgumentException( "directory cannot be null." );
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader( directory.resolve( JOB_FILE ), StandardCharsets.UTF_8 ))
+		{
+			properties.load( reader );
+		}
+		return new StarConvexPolyhedronBlockJob( directory, properties );
+	}
+
+	/**
+	 * @return the queue of the blocks.
+	 */
+	public DirectoryWorkQueue getQueue()
+	{
+		return queue;
+	}
+
+	/**
+	 * Sets the interval, in which {@link #work(PredictionLoader)} signals a heartbeat for the block, which it is processing. Default: 1
+	 * minute.
+	 *
+	 * @param heartbeatInterval the interval in milliseconds. Must be positive.
+	 */
+	public void setHeartbeatInterval( final long heartbeatInterval )
+	{
+		if ( heartbeatInterval <= 0 )
+			throw new IllegalArgumentException( "heartbeatInterval must be positive, but is: " + heartbeatInterval );
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	/**
+	 * @return the number of blocks.
+	 */
+	public int numBlocks()
+	{
+		return ( int ) ( numBlocks[ 0 ] * numBlocks[ 1 ] * numBlocks[ 2 ] );
+	}
+
+	/**
+	 * @return the width of the halo around each block, i.e. twice the maximum ray length, rounded up. See the class description for the
+	 *         chains of suppressions, which are not covered by the halo.
+	 */
+	public long getHalo()
+	{
+		return 2 * ( long ) Math.ceil( maximumRayLength );
+	}
+
+	/**
+	 * @param block the index of the block.
+	 * @return the interval of the block without halo.
+	 */
+	public Interval core( final int block )
+	{
+		long[] position = new long[] { block % numBlocks[ 0 ], ( block / numBlocks[ 0 ] ) % numBlocks[ 1 ],
+				block / ( numBlocks[ 0 ] * numBlocks[ 1 ] ) };
+		long[] min = new long[ 3 ];
+		long[] max = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			min[ d ] = position[ d ] * blockSize[ d ];
+			max[ d ] = Math.min( dimensions[ d ], min[ d ] + blockSize[ d ] ) - 1;
+		}
+		return new FinalInterval( min, max );
+	}
+
+	/**
+	 * @param block the index of the block.
+	 * @return the interval of the block extended by the halo, within the prediction.
+	 */
+	public Interval halo( final int block )
+	{
+		return Intervals.intersect( Intervals.expand( core( block ), getHalo() ), new FinalInterval( dimensions ) );
+	}
+
+	/**
+	 * Processes blocks until the queue is empty. Uses the loader stored in the job.
+	 *
+	 * @return the number of processed blocks.
+	 * @throws IOException if the queue cannot be accessed.
+	 */
+	public int work() throws IOException
+	{
+		return work( createLoader() );
+	}
+
+	/**
+	 * Processes blocks until the queue is empty. Several threads or processes may work on the same job concurrently. Blocks, which cannot
+	 * be processed, are marked as failed in the queue. A heartbeat is signalled for the block being processed in a background thread.<p>
+	 * If a block has been returned to the queue while it was processed, e.g. because the heartbeat was delayed beyond the timeout given to
+	 * {@link DirectoryWorkQueue#requeueStale(long)}, its result is not counted and the block is processed again by the next worker, which
+	 * claims it. As the result only depends on the prediction, processing a block twice does no harm.
+	 *
+	 * @param loader the loader of the prediction.
+	 * @return the number of processed blocks.
+	 * @throws IOException if the queue cannot be accessed.
+	 */
+	public int work( final PredictionLoader loader ) throws IOException
+	{
+		if ( loader == null )
+			throw new IllegalArgumentException( "loader cannot be null." );
+		final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor( runnable -> {
+			Thread thread = new Thread( runnable, "block-job-heartbeat" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		try
+		{
+			int count = 0;
+			for ( String claimed = queue.claim(); claimed != null; claimed = queue.claim() )
+			{
+				final String task = claimed;
+				final ScheduledFuture< ? > heartbeat = heartbeats.scheduleAtFixedRate( () -> heartbeat( task ), heartbeatInterval,
+						heartbeatInterval, TimeUnit.MILLISECONDS );
+				try
+				{
+					process( blockIndex( task ), loader );
+				}
+				catch ( IOException | RuntimeException e )
+				{
+					logger.error( "Processing of {} failed.", task, e );
+					heartbeat.cancel( false );
+					move( task, false );
+					continue;
+				}
+				heartbeat.cancel( false );
+				if ( move( task, true ) )
+					count++;
+			}
+			return count;
+		}
+		finally
+		{
+			heartbeats.shutdownNow();
+		}
+	}
+
+	private void heartbeat( final String task )
+	{
+		try
+		{
+			queue.heartbeat( task );
+		}
+		catch ( NoSuchFileException e )
+		{
+			// completed or returned to the queue in the meantime, the latter is detected, when the block is completed
+			logger.debug( "{} is not running anymore.", task );
+		}
+		catch ( IOException e )
+		{
+			logger.warn( "Could not signal a heartbeat for {}.", task, e );
+		}
+	}
+
+	/**
+	 * Marks the given running task as done or as failed.
+	 *
+	 * @return false, if the task has been returned to the queue while it was processed.
+	 */
+	private boolean move( final String task, final boolean done ) throws IOException
+	{
+		try
+		{
+			if ( done )
+				queue.complete( task );
+			else
+				queue.fail( task );
+			return true;
+		}
+		catch ( NoSuchFileException e )
+		{
+			logger.warn( "{} has been returned to the queue while it was processed.", task );
+			return false;
+		}
+	}
+
+	/**
+	 * Thresholds the given block with its halo, applies NMS and writes the selected polyhedra centered in the block to its result file.
+	 */
+	private void process( final int block, final PredictionLoader loader ) throws IOException
+	{
+		final Interval core = core( block );
+		final Interval halo = halo( block );
+		final RandomAccessibleInterval< FloatType > probabilities = loader.probabilities( halo );
+		final RandomAccess< FloatType > distances = loader.distances( halo ).randomAccess();
+		final List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		final List< Double > scores = new ArrayList<>();
+		final Cursor< FloatType > cursor = Views.interval( probabilities, halo ).localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			float score = cursor.next().getRealFloat();
+			if ( !( score > probabilityThreshold ) )
+				continue;
+			List< Double > distanceList = new ArrayList<>( rays.size() );
+			for ( int i = 0; i < rays.size(); i++ )
+				distanceList.add( distances.setPositionAndGet( cursor.getLongPosition( 0 ), cursor.getLongPosition( 1 ),
+						cursor.getLongPosition( 2 ), i ).getRealDouble() );
+			polyhedra.add( new StarConvexPolyhedron( new double[] { cursor.getLongPosition( 0 ), cursor.getLongPosition( 1 ),
+					cursor.getLongPosition( 2 ) }, distanceList, rays ) );
+			scores.add( ( double ) score );
+		}
+		final StarConvexPolyhedronCandidates candidates = new StarConvexPolyhedronCandidates( polyhedra,
+				scores.stream().mapToDouble( Double::doubleValue ).toArray(), probabilityThreshold, nmsThreshold );
+		final int[] selected = candidates.select( probabilityThreshold, nmsThreshold );
+
+		// written to a temporary file first, such that a crashed worker does not leave an incomplete result
+		final Path result = resultFile( block );
+		final Path temporary = result.resolveSibling( result.getFileName() + ".tmp" );
+		int count = 0;
+		try (StarConvexPolyhedronWriter writer = new StarConvexPolyhedronWriter( temporary ))
+		{
+			for ( int i : selected )
+				if ( contains( core, polyhedra.get( i ).getCenter() ) )
+				{
+					writer.add( 0, polyhedra.get( i ), scores.get( i ).floatValue() );
+					count++;
+				}
+		}
+		Files.move( temporary, result, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		logger.debug( "{}: {} candidates, {} selected, {} centered in the block.", taskName( block ), polyhedra.size(), selected.length,
+				count );
+	}
+
+	/**
+	 * Combines the results of all blocks and writes them to the given file.<p>
+	 * Polyhedra of different blocks may still overlap, as each block only knows the polyhedra selected in its halo, not those selected by
+	 * its neighbours. Such duplicates are resolved by NMS over the polyhedra, which reach within one maximum ray length of the boundary of
+	 * their block, as only these can overlap with polyhedra of other blocks. These are visited by decreasing score and, for equal scores,
+	 * by their centers in z, y, x order. All other polyhedra are kept.
+	 *
+	 * @param output the file to write the polyhedra to, see {@link StarConvexPolyhedronWriter}. Null, if they should only be returned.
+	 * @return the polyhedra, ordered by block and by their order within the block.
+	 * @throws IOException if the results cannot be read or written.
+	 * @throws IllegalStateException if blocks are not processed yet or have failed.
+	 */
+	public List< StarConvexPolyhedron > stitch( final Path output ) throws IOException
+	{
+		if ( !queue.isFinished() )
+			throw new IllegalStateException( "Not all blocks have been processed yet." );
+		if ( !queue.getFailed().isEmpty() )
+			throw new IllegalStateException( "The following blocks have failed: " + queue.getFailed() );
+		final List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		final List< Float > scores = new ArrayList<>();
+		final List< Boolean > boundary = new ArrayList<>();
+		for ( int block = 0; block < numBlocks(); block++ )
+		{
+			Interval core = core( block );
+			StarConvexPolyhedronReader reader = new StarConvexPolyhedronReader( resultFile( block ) );
+			for ( long i = 0; i < reader.size(); i++ )
+			{
+				StarConvexPolyhedron polyhedron = reader.get( i );
+				polyhedra.add( polyhedron );
+				scores.add( reader.getScore( i ) );
+				boundary.add( !inside( polyhedron.getBoundingBox3D(), core, maximumRayLength ) );
+			}
+		}
+
+		// polyhedra close to the block boundaries in a deterministic order
+		final int[] order = IntStream.range( 0, polyhedra.size() ).filter( boundary::get ).boxed()
+				.sorted( Comparator.comparingDouble( ( Integer i ) -> -scores.get( i ) )
+						.thenComparingDouble( i -> polyhedra.get( i ).getCenter()[ 2 ] )
+						.thenComparingDouble( i -> polyhedra.get( i ).getCenter()[ 1 ] )
+						.thenComparingDouble( i -> polyhedra.get( i ).getCenter()[ 0 ] ) )
+				.mapToInt( Integer::intValue ).toArray();
+		final List< StarConvexPolyhedron > candidates = Arrays.stream( order ).mapToObj( polyhedra::get ).collect( Collectors.toList() );
+		final double[] candidateScores = Arrays.stream( order ).mapToDouble( scores::get ).toArray();
+		final boolean[] kept = new boolean[ polyhedra.size() ];
+		for ( int i = 0; i < kept.length; i++ )
+			kept[ i ] = !boundary.get( i );
+		for ( int selected : new StarConvexPolyhedronCandidates( candidates, candidateScores, Double.NEGATIVE_INFINITY, nmsThreshold )
+				.select( Double.NEGATIVE_INFINITY, nmsThreshold ) )
+			kept[ order[ selected ] ] = true;
+
+		final List< StarConvexPolyhedron > result = new ArrayList<>();
+		for ( int i = 0; i < kept.length; i++ )
+			if ( kept[ i ] )
+				result.add( polyhedra.get( i ) );
+		if ( output != null )
+			try (StarConvexPolyhedronWriter writer = new StarConvexPolyhedronWriter( output ))
+			{
+				for ( int i = 0; i < kept.length; i++ )
+					if ( kept[ i ] )
+						writer.add( 0, polyhedra.get( i ), scores.get( i ) );
+			}
+		logger.info( "Stitched {} blocks: {} polyhedra, {} close to block boundaries, {} removed as duplicates.", numBlocks(),
+				polyhedra.size(), order.length, polyhedra.size() - result.size() );
+		return result;
+	}
+
+	/**
+	 * Runs a worker or stitches the results.<p>
+	 * Usage: {@code work <directory>} or {@code stitch <directory> <output file>}.
+	 *
+	 * @param args the arguments.
+	 * @throws IOException if the job cannot be accessed.
+	 */
+	public static void main( final String[] args ) throws IOException
+	{
+		if ( args.length == 2 && args[ 0 ].equals( "work" ) )
+		{
+			int count = open( Paths.get( args[ 1 ] ) ).work();
+			logger.info( "Processed {} blocks.", count );
+		}
+		else if ( args.length == 3 && args[ 0 ].equals( "stitch" ) )
+			open( Paths.get( args[ 1 ] ) ).stitch( Paths.get( args[ 2 ] ) );
+		else
+			throw new IllegalArgumentException( "Usage: work <directory> | stitch <directory> <output file>" );
+	}
+
+	private PredictionLoader createLoader()
+	{
+		if ( loaderClass.isEmpty() )
+			throw new IllegalStateException( "The job has no loader class, a loader has to be given to the workers." );
+		try
+		{
+			return Class.forName( loaderClass ).asSubclass( PredictionLoader.class ).getConstructor( String.class )
+					.newInstance( loaderArgument );
+		}
+		catch ( ReflectiveOperationException | ClassCastException e )
+		{
+			throw new IllegalStateException( "Cannot create prediction loader " + loaderClass + " with argument: " + loaderArgument, e );
+		}
+	}
+
+	private Path resultFile( final int block )
+	{
+		return directory.resolve( RESULTS ).resolve( taskName( block ) + ".scph" );
+	}
+
+	private static String taskName( final int block )
+	{
+		return String.format( Locale.ROOT, "block-%06d", block );
+	}
+
+	private static int blockIndex( final String task )
+	{
+		return Integer.parseInt( task.substring( "block-".length() ) );
+	}
+
+	private static boolean contains( final Interval interval, final double[] point )
+	{
+		for ( int d = 0; d < 3; d++ )
+			if ( point[ d ] < interval.min( d ) || point[ d ] > interval.max( d ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Tests, if the given box lies inside the interval shrunk by the given margin.
+	 */
+	private static boolean inside( final StarConvexPolyhedron.BoundingBox3D box, final Interval interval, final double margin )
+	{
+		for ( int d = 0; d < 3; d++ )
+			if ( box.getMinPoint()[ d ] < interval.min( d ) + margin || box.getMaxPoint()[ d ] > interval.max( d ) - margin )
+				return false;
+		return true;
+	}
+
+	private static long[] parseLongs( final String value )
+	{
+		return Arrays.stream( value.split( "," ) ).map( String::trim ).mapToLong( Long::parseLong ).toArray();
+	}
+
+	private static int[] parseInts( final String value )
+	{
+		return Arrays.stream( value.split( "," ) ).map( String::trim ).mapToInt( Integer::parseInt ).toArray();
+	}
+
+	private static List< double[] > parseDirections( final String value )
+	{
+		final double[] coordinates = Arrays.stream( value.split( "," ) ).map( String::trim ).mapToDouble( Double::parseDouble ).toArray();
+		final List< double[] > directions = new ArrayList<>( coordinates.length / 3 );
+		for ( int i = 0; i + 2 < coordinates.length; i += 3 )
+			directions.add( new double[] { coordinates[ i ], coordinates[ i + 1 ], coordinates[ i + 2 ] } );
+		return directions;
+	}
+
+	private static String formatLongs( final long[] values )
+	{
+		return Arrays.stream( values ).mapToObj( Long::toString ).collect( Collectors.joining( "," ) );
+	}
+}
@@ -0,0 +1,253 @@
+package net.stefanhahmann.polyhedron;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Candidates of a detection, e.g. the star convex polyhedra predicted by StarDist with their probabilities, prepared for repeated
+ * non-maximum suppression (NMS) with different thresholds.<p>
+ * All candidates with a score of at least a low minimum score are kept, sorted by decreasing score. The overlaps of all pairs of
+ * candidates with an IoU of at least a minimum IoU are computed once per pair with {@link StarConvexPolyhedronLinker#overlaps(List)} and
+ * stored as a sparse suppression graph: for each candidate, the candidates with a higher score, which overlap with it. Afterwards,
+ * {@link #select(double, double)} resolves any combination of a score threshold and an NMS threshold by one greedy pass over the graph,
+ * without computing any overlaps again. This takes milliseconds even for many candidates, such that thresholds can be tuned
+ * interactively.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronCandidates
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private final double minimumScore;
+
+	private final double minimumIou;
+
+	/**
+	 * Indices of the candidates in the list given to the constructor, sorted by decreasing score.
+	 */
+	private final int[] indices;
+
+	/**
+	 * Scores of the candidates, in the same order as {@link #indices}.
+	 */
+	private final double[] scores;
+
+	private final List< StarConvexPolyhedron > polyhedra;
+
+	/**
+	 * Suppression graph in compressed sparse row format. The candidates, which have a higher score than the candidate at rank {@code r}
+	 * and overlap with it, are at positions {@code offsets[r]} to {@code offsets[r + 1] - 1} of {@link #suppressors}, in ascending order.
+	 */
+	private final int[] offsets;
+
+	/**
+	 * Ranks of the candidates with higher scores, see {@link #offsets}.
+	 */
+	private final int[] suppressors;
+
+	/**
+	 * IoU of the pairs in {@link #suppressors}.
+	 */
+	private final double[] ious;
+
+	/**
+	 * Creates the candidates from the given polyhedra and computes their overlaps on a grid with step 1.
+	 *
+	 * @param polyhedra the polyhedra. Must not be null. Must not contain null.
+	 * @param scores the scores of the polyhedra, e.g. the predicted probabilities. Must not be null. Must have one entry per polyhedron.
+	 * @param minimumScore the lowest score threshold, which will be used. Polyhedra with lower scores are discarded.
+	 * @param minimumIou the lowest NMS threshold, which will be used. Overlaps with lower IoU are not stored. Must be within (0, 1].
+	 */
+	public StarConvexPolyhedronCandidates( final List< StarConvexPolyhedron > polyhedra, final double[] scores, final double minimumScore,
+			final double minimumIou )
+	{
+		this( polyhedra, scores, minimumScore, new StarConvexPolyhedronLinker( minimumIou ) );
+	}
+
+	/**
+	 * Creates the candidates from the given polyhedra and computes their overlaps with the given linker, e.g. to use a coarser sampling
+	 * step for large polyhedra.
+	 *
+	 * @param polyhedra the polyhedra. Must not be null. Must not contain null.
+	 * @param scores the scores of the polyhedra, e.g. the predicted probabilities. Must not be null. Must have one entry per polyhedron.
+	 * @param minimumScore the lowest score threshold, which will be used. Polyhedra with lower scores are discarded.
+	 * @param linker the linker to compute the overlaps with. Must not be null. Its minimum IoU is the lowest NMS threshold, which will be
+	 *        used.
+	 */
+	public StarConvexPolyhedronCandidates( final List< StarConvexPolyhedron > polyhedra, final double[] scores, final double minimumScore,
+			final StarConvexPolyhedronLinker linker )
+	{
+		if ( polyhedra == null )
+			throw new IllegalArgumentException( "polyhedra cannot be null." );
+		if ( scores == null )
+			throw new IllegalArgumentException( "scores cannot be null." );
+		if ( scores.length != polyhedra.size() )
+			throw new IllegalArgumentException( "Expected " + polyhedra.size() + " scores, but got: " + scores.length );
+		if ( linker == null )
+			throw new IllegalArgumentException( "linker cannot be null." );
+		this.minimumScore = minimumScore;
+		this.minimumIou = linker.getMinimumIou();
+		// stable sort, candidates with equal scores keep their order
+		this.indices = IntStream.range( 0, polyhedra.size() ).filter( i -> scores[ i ] >= minimumScore ).boxed()
+				.sorted( Comparator.comparingDouble( ( Integer i ) -> scores[ i ] ).reversed() ).mapToInt( Integer::intValue ).toArray();
+		final int n = indices.length;
+		this.scores = new double[ n ];
+		this.polyhedra = new ArrayList<>( n );
+		for ( int r = 0; r < n; r++ )
+		{
+			this.scores[ r ] = scores[ indices[ r ] ];
+			StarConvexPolyhedron polyhedron = polyhedra.get( indices[ r ] );
+			if ( polyhedron == null )
+				throw new IllegalArgumentException( "polyhedra cannot contain null, but contains null at index: " + indices[ r ] );
+			this.polyhedra.add( polyhedron );
+		}
+
+		// each pair is contained once in the overlaps, with the higher ranked candidate as source, which suppresses the target
+		final StarConvexPolyhedronOverlaps overlaps = linker.overlaps( this.polyhedra );
+		this.offsets = new int[ n + 1 ];
+		for ( int e = 0; e < overlaps.size(); e++ )
+			offsets[ overlaps.target( e ) + 1 ]++;
+		for ( int r = 0; r < n; r++ )
+			offsets[ r + 1 ] += offsets[ r ];
+		this.suppressors = new int[ offsets[ n ] ];
+		this.ious = new double[ offsets[ n ] ];
+		final int[] next = Arrays.copyOf( offsets, n );
+		// the entries are sorted by source, i.e. the suppressors of each candidate are added in ascending order
+		for ( int e = 0; e < overlaps.size(); e++ )
+		{
+			int source = overlaps.source( e );
+			int target = overlaps.target( e );
+			suppressors[ next[ target ] ] = source;
+			ious[ next[ target ] ] = overlaps.iou( e );
+			next[ target ]++;
+		}
+		logger.debug( "{} of {} candidates have a score of at least {}, {} pairs overlap with an IoU of at least {}.", n, polyhedra.size(),
+				minimumScore, suppressors.length, minimumIou );
+	}
+
+	/**
+	 * @return the number of candidates, i.e. of the polyhedra with a score of at least the minimum score.
+	 */
+	public int size()
+	{
+		return indices.length;
+	}
+
+	/**
+	 * @return the number of overlapping pairs of candidates in the suppression graph.
+	 */
+	public int numOverlaps()
+	{
+		return suppressors.length;
+	}
+
+	/**
+	 * @param rank the rank of the candidate, 0 for the highest score.
+	 * @return the index of the candidate in the list given to the constructor.
+	 */
+	public int index( final int rank )
+	{
+		return indices[ rank ];
+	}
+
+	/**
+	 * @param rank the rank of the candidate, 0 for the highest score.
+	 * @return the score of the candidate.
+	 */
+	public double score( final int rank )
+	{
+		return scores[ rank ];
+	}
+
+	/**
+	 * @param rank the rank of the candidate, 0 for the highest score.
+	 * @return the polyhedron of the candidate.
+	 */
+	public StarConvexPolyhedron get( final int rank )
+	{
+		return polyhedra.get( rank );
+	}
+
+	/**
+	 * Selects the candidates by greedy non-maximum suppression: the candidates with a score of at least the score threshold are visited by
+	 * decreasing score. A candidate is kept, if its IoU with each kept candidate is at most the NMS threshold.
+	 *
+	 * @param scoreThreshold the minimum score of a kept candidate. Must not be lower than the minimum score given to the constructor.
+	 * @param iouThreshold the maximum IoU of a kept candidate with any other kept candidate. Must not be lower than the minimum IoU given
+	 *        to the constructor.
+	 * @return the indices of the kept candidates in the list given to the constructor, by decreasing score.
+	 */
+	public int[] select( final double scoreThreshold, final double iouThreshold )
+	{
+		if ( scoreThreshold < minimumScore )
+			throw new IllegalArgumentException(
+					"scoreThreshold must not be lower than the minimum score " + minimumScore + ", but is: " + scoreThreshold );
+		if ( iouThreshold < minimumIou )
+			throw new IllegalArgumentException(
+					"iouThreshold must not be lower than the minimum IoU " + minimumIou + ", but is: " + iouThreshold );
+		final int n = count( scoreThreshold );
+		final boolean[] kept = new boolean[ n ];
+		int numKept = 0;
+		for ( int r = 0; r < n; r++ )
+		{
+			boolean suppressed = false;
+			for ( int j = offsets[ r ]; j < offsets[ r + 1 ] && !suppressed; j++ )
+				suppressed = kept[ suppressors[ j ] ] && ious[ j ] > iouThreshold;
+			kept[ r ] = !suppressed;
+			if ( kept[ r ] )
+				numKept++;
+		}
+		final int[] result = new int[ numKept ];
+		for ( int r = 0, i = 0; r < n; r++ )
+			if ( kept[ r ] )
+				result[ i++ ] = indices[ r ];
+		return result;
+	}
+
+	/**
+	 * Selects the candidates by greedy non-maximum suppression, see {@link #select(double, double)}.
+	 *
+	 * @param scoreThreshold the minimum score of a kept candidate.
+	 * @param iouThreshold the maximum IoU of a kept candidate with any other kept candidate.
+	 * @return the kept polyhedra, by decreasing score.
+	 */
+	public List< StarConvexPolyhedron > suppress( final double scoreThreshold, final double iouThreshold )
+	{
+		final int[] selected = select( scoreThreshold, iouThreshold );
+		final List< StarConvexPolyhedron > result = new ArrayList<>( selected.length );
+		int rank = 0;
+		for ( int index : selected )
+		{
+			while ( indices[ rank ] != index )
+				rank++;
+			result.add( polyhedra.get( rank ) );
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of candidates with a score of at least the given threshold, i.e. the rank of the first candidate below it.
+	 */
+	private int count( final double scoreThreshold )
+	{
+		int low = 0;
+		int high = scores.length;
+		while ( low < high )
+		{
+			int middle = ( low + high ) >>> 1;
+			if ( scores[ middle ] >= scoreThreshold )
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
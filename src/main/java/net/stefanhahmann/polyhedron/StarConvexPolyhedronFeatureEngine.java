@@ -0,0 +1,351 @@
+package net.stefanhahmann.polyhedron;
+
+import bdv.viewer.Source;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Computes intensity statistics (count, sum, sum of squares, min, max and optionally a histogram for quantiles) of many star convex
+ * polyhedra in one or more channels in a single pass over the image.<p>
+ * Instead of iterating the bounding box of each polyhedron in each channel separately, the region covered by all polyhedra is split into
+ * blocks, which are processed in parallel. Each voxel of a block is read once per channel and accumulated for all polyhedra containing it.
+ * The candidate polyhedra of a block are found with a {@link StarConvexPolyhedronIndex}, their voxels with
+ * {@link StarConvexPolyhedron#containsBatch(double[], int, boolean[])}.<p>
+ * All sources are expected to share the same voxel grid, i.e. the same dimensions and source transform at the given timepoint and
+ * resolution level.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronFeatureEngine
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private static final int DEFAULT_BLOCK_SIZE = 64;
+
+	private final List< ? extends Source< ? extends RealType< ? > > > sources;
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	private int histogramBins = 0;
+
+	private double histogramMin;
+
+	private double histogramMax;
+
+	/**
+	 * Creates a feature engine for the given channels.
+	 *
+	 * @param sources the channels. Must not be null or empty.
+	 */
+	public StarConvexPolyhedronFeatureEngine( final List< ? extends Source< ? extends RealType< ? > > > sources )
+	{
+		if ( sources == null || sources.isEmpty() )
+			throw new IllegalArgumentException( "sources cannot be null or empty." );
+		this.sources = sources;
+	}
+
+	/**
+	 * Sets the edge length of the blocks, in which the image is processed. Default: {@value #DEFAULT_BLOCK_SIZE}.
+	 *
+	 * @param blockSize the edge length in voxels. Must be positive.
+	 */
+	public void setBlockSize( final int blockSize )
+	{
+		if ( blockSize < 1 )
+			throw new IllegalArgumentException( "blockSize must be positive, but is: " + blockSize );
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Enables the computation of histograms, from which quantiles can be approximated. The same bins are used for all channels. By default,
+	 * no histograms are computed.
+	 *
+	 * @param bins the number of bins. Must be positive. 0 disables the computation of histograms.
+	 * @param min the lower bound of the first bin.
+	 * @param max the upper bound of the last bin. Must be larger than {@code min}.
+	 */
+	public void setHistogram( final int bins, final double min, final double max )
+	{
+		if ( bins < 0 )
+			throw new IllegalArgumentException( "bins cannot be negative, but is: " + bins );
+		if ( bins > 0 && !( max > min ) )
+			throw new IllegalArgumentException( "max must be larger than min, but min is: " + min + " and max is: " + max );
+		this.histogramBins = bins;
+		this.histogramMin = min;
+		this.histogramMax = max;
+	}
+
+	/**
+	 * Computes the statistics of the given polyhedra in all channels.
+	 *
+	 * @param polyhedra the polyhedra in global coordinates.
+	 * @param timepoint the timepoint of the sources.
+	 * @param resolutionLevel the resolution level of the sources.
+	 * @return the statistics.
+	 */
+	public StarConvexPolyhedronFeatures compute( final List< StarConvexPolyhedron > polyhedra, final int timepoint,
+			final int resolutionLevel )
+	{
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		final List< RandomAccessibleInterval< ? extends RealType< ? > > > images = getImages( timepoint, resolutionLevel, sourceTransform );
+		final RandomAccessibleInterval< ? extends RealType< ? > > image = images.get( 0 );
+
+		// transform polyhedra into source coordinates
+		final AffineTransform3D inverse = sourceTransform.inverse();
+		final List< StarConvexPolyhedron > sourcePolyhedra =
+				polyhedra.parallelStream().map( polyhedron -> polyhedron.transform( inverse ) ).collect( Collectors.toList() );
+		final StarConvexPolyhedronIndex index = new StarConvexPolyhedronIndex( sourcePolyhedra );
+
+		final StarConvexPolyhedronFeatures features =
+				new StarConvexPolyhedronFeatures( polyhedra.size(), images.size(), histogramBins, histogramMin, histogramMax );
+		final Interval region = coveredRegion( sourcePolyhedra, image );
+		if ( region == null )
+			return features;
+
+		// split region into blocks
+		final long[] gridSize = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			gridSize[ d ] = ( region.dimension( d ) + blockSize - 1 ) / blockSize;
+		final long numBlocks = gridSize[ 0 ] * gridSize[ 1 ] * gridSize[ 2 ];
+		if ( numBlocks > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Too many blocks: " + numBlocks + ". Increase the block size." );
+		logger.debug( "computing features of {} polyhedra in {} channels in {} blocks.", polyhedra.size(), images.size(), numBlocks );
+
+		IntStream.range( 0, ( int ) numBlocks ).parallel().forEach( block -> {
+			long[] blockMin = new long[ 3 ];
+			long[] blockMax = new long[ 3 ];
+			long remainder = block;
+			for ( int d = 0; d < 3; d++ )
+			{
+				blockMin[ d ] = region.min( d ) + ( remainder % gridSize[ d ] ) * blockSize;
+				blockMax[ d ] = Math.min( region.max( d ), blockMin[ d ] + blockSize - 1 );
+				remainder /= gridSize[ d ];
+			}
+			processBlock( new FinalInterval( blockMin, blockMax ), images, index, features );
+		} );
+		return features;
+	}
+
+	private List< RandomAccessibleInterval< ? extends RealType< ? > > > getImages( final int timepoint, final int resolutionLevel,
+			final AffineTransform3D sourceTransform )
+	{
+		final List< RandomAccessibleInterval< ? extends RealType< ? > > > images = new ArrayList<>();
+		final AffineTransform3D channelTransform = new AffineTransform3D();
+		for ( int channel = 0; channel < sources.size(); channel++ )
+		{
+			Source< ? extends RealType< ? > > source = sources.get( channel );
+			RandomAccessibleInterval< ? extends RealType< ? > > image = source.getSource( timepoint, resolutionLevel );
+			if ( channel == 0 )
+				source.getSourceTransform( timepoint, resolutionLevel, sourceTransform );
+			else
+			{
+				source.getSourceTransform( timepoint, resolutionLevel, channelTransform );
+				if ( !Arrays.equals( sourceTransform.getRowPackedCopy(), channelTransform.getRowPackedCopy() )
+						|| !Intervals.equals( image, images.get( 0 ) ) )
+					throw new IllegalArgumentException( "All sources must share the same voxel grid, but source " + channel
+							+ " differs from source 0 in its dimensions or source transform." );
+			}
+			images.add( image );
+		}
+		return images;
+	}
+
+	/**
+	 * @return the smallest interval of the image, which contains all voxels of all polyhedra, or {@code null}, if no polyhedron overlaps
+	 *         with the image.
+	 */
+	private static Interval coveredRegion( final List< StarConvexPolyhedron > sourcePolyhedra, final Interval image )
+	{
+		long[] min = new long[] { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		long[] max = new long[] { Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE };
+		boolean empty = true;
+		for ( StarConvexPolyhedron polyhedron : sourcePolyhedra )
+		{
+			Interval interval = StarConvexPolyhedronIterable.sourceInterval( polyhedron, image );
+			if ( interval == null )
+				continue;
+			empty = false;
+			for ( int d = 0; d < 3; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], interval.min( d ) );
+				max[ d ] = Math.max( max[ d ], interval.max( d ) );
+			}
+		}
+		return empty ? null : new FinalInterval( min, max );
+	}
+
+	private void processBlock( final Interval block, final List< RandomAccessibleInterval< ? extends RealType< ? > > > images,
+			final StarConvexPolyhedronIndex index, final StarConvexPolyhedronFeatures features )
+	{
+		final int[] candidates = index.findIntersecting( new FinalRealInterval( block ) );
+		if ( candidates.length == 0 )
+			return;
+
+		final int numChannels = images.size();
+		final List< RandomAccess< ? extends RealType< ? > > > accesses = new ArrayList<>();
+		for ( RandomAccessibleInterval< ? extends RealType< ? > > image : images )
+			accesses.add( image.randomAccess( block ) );
+
+		final int width = ( int ) block.dimension( 0 );
+		final double[][] values = new double[ numChannels ][ width ];
+		final double[] xyz = new double[ 3 * width ];
+		final boolean[] inside = new boolean[ width ];
+		final BlockAccumulator accumulator = new BlockAccumulator( candidates.length, numChannels, features );
+
+		for ( long z = block.min( 2 ); z <= block.max( 2 ); z++ )
+		{
+			for ( long y = block.min( 1 ); y <= block.max( 1 ); y++ )
+			{
+				boolean rowRead = false;
+				for ( int j = 0; j < candidates.length; j++ )
+				{
+					StarConvexPolyhedron polyhedron = index.get( candidates[ j ] );
+					double[] min = polyhedron.getBoundingBox3D().getMinPoint();
+					double[] max = polyhedron.getBoundingBox3D().getMaxPoint();
+					if ( y < min[ 1 ] || y > max[ 1 ] || z < min[ 2 ] || z > max[ 2 ] )
+						continue;
+					long x0 = Math.max( block.min( 0 ), ( long ) Math.ceil( min[ 0 ] ) );
+					long x1 = Math.min( block.max( 0 ), ( long ) Math.floor( max[ 0 ] ) );
+					if ( x0 > x1 )
+						continue;
+					if ( !rowRead )
+					{
+						readRow( accesses, block.min( 0 ), y, z, values );
+						rowRead = true;
+					}
+					int length = ( int ) ( x1 - x0 + 1 );
+					for ( int k = 0; k < length; k++ )
+					{
+						xyz[ 3 * k ] = x0 + k;
+						xyz[ 3 * k + 1 ] = y;
+						xyz[ 3 * k + 2 ] = z;
+					}
+					polyhedron.containsBatch( xyz, length, inside );
+					int offset = ( int ) ( x0 - block.min( 0 ) );
+					for ( int k = 0; k < length; k++ )
+						if ( inside[ k ] )
+							accumulator.add( j, values, offset + k );
+				}
+			}
+		}
+		accumulator.mergeInto( features, candidates );
+	}
+
+	private static void readRow( final List< RandomAccess< ? extends RealType< ? > > > accesses, final long x, final long y,
+			final long z, final double[][] values )
+	{
+		for ( int channel = 0; channel < accesses.size(); channel++ )
+		{
+			RandomAccess< ? extends RealType< ? > > access = accesses.get( channel );
+			access.setPosition( x, 0 );
+			access.setPosition( y, 1 );
+			access.setPosition( z, 2 );
+			double[] row = values[ channel ];
+			for ( int k = 0; k < row.length; k++ )
+			{
+				row[ k ] = access.get().getRealDouble();
+				access.fwd( 0 );
+			}
+		}
+	}
+
+	/**
+	 * Statistics of the candidate polyhedra of one block. Merged into the shared statistics after the block has been processed.
+	 */
+	private static class BlockAccumulator
+	{
+		private final int numCandidates;
+
+		private final int numChannels;
+
+		private final StarConvexPolyhedronFeatures features;
+
+		private final int bins;
+
+		private final long[] count;
+
+		private final double[] sum;
+
+		private final double[] sumOfSquares;
+
+		private final double[] min;
+
+		private final double[] max;
+
+		private final long[] histogram;
+
+		private BlockAccumulator( final int numCandidates, final int numChannels, final StarConvexPolyhedronFeatures features )
+		{
+			this.numCandidates = numCandidates;
+			this.numChannels = numChannels;
+			this.features = features;
+			this.bins = features.histogramBins();
+			int entries = numCandidates * numChannels;
+			this.count = new long[ numCandidates ];
+			this.sum = new double[ entries ];
+			this.sumOfSquares = new double[ entries ];
+			this.min = new double[ entries ];
+			this.max = new double[ entries ];
+			Arrays.fill( min, Double.POSITIVE_INFINITY );
+			Arrays.fill( max, Double.NEGATIVE_INFINITY );
+			this.histogram = new long[ entries * bins ];
+		}
+
+		private void add( final int candidate, final double[][] values, final int x )
+		{
+			count[ candidate ]++;
+			for ( int channel = 0; channel < numChannels; channel++ )
+			{
+				double value = values[ channel ][ x ];
+				int i = channel * numCandidates + candidate;
+				sum[ i ] += value;
+				sumOfSquares[ i ] += value * value;
+				min[ i ] = Math.min( min[ i ], value );
+				max[ i ] = Math.max( max[ i ], value );
+				if ( bins > 0 )
+					histogram[ i * bins + features.bin( value ) ]++;
+			}
+		}
+
+		private void mergeInto( final StarConvexPolyhedronFeatures features, final int[] candidates )
+		{
+			int numPolyhedra = features.numPolyhedra();
+			synchronized ( features )
+			{
+				for ( int j = 0; j < numCandidates; j++ )
+				{
+					if ( count[ j ] == 0 )
+						continue;
+					int polyhedron = candidates[ j ];
+					features.count[ polyhedron ] += count[ j ];
+					for ( int channel = 0; channel < numChannels; channel++ )
+					{
+						int i = channel * numCandidates + j;
+						int target = channel * numPolyhedra + polyhedron;
+						features.sum[ target ] += sum[ i ];
+						features.sumOfSquares[ target ] += sumOfSquares[ i ];
+						features.min[ target ] = Math.min( features.min[ target ], min[ i ] );
+						features.max[ target ] = Math.max( features.max[ target ], max[ i ] );
+						for ( int bin = 0; bin < bins; bin++ )
+							features.histogram[ target * bins + bin ] += histogram[ i * bins + bin ];
+					}
+				}
+			}
+		}
+	}
+}
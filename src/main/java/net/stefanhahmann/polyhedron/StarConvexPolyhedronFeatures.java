@@ -0,0 +1,219 @@
+package net.stefanhahmann.polyhedron;
+
+import java.util.Arrays;
+
+/**
+ * Intensity statistics of a collection of star convex polyhedra in one or more channels, as computed by
+ * {@link StarConvexPolyhedronFeatureEngine}.<p>
+ * All statistics are stored in primitive arrays. Polyhedra are referenced by their index in the collection the statistics have been
+ * computed for, channels by the index of their source.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronFeatures
+{
+	private final int numPolyhedra;
+
+	private final int numChannels;
+
+	private final int histogramBins;
+
+	private final double histogramMin;
+
+	private final double histogramMax;
+
+	/**
+	 * Number of voxels per polyhedron.
+	 */
+	final long[] count;
+
+	/**
+	 * Entries per polyhedron and channel, index: {@code channel * numPolyhedra + polyhedron}.
+	 */
+	final double[] sum;
+
+	final double[] sumOfSquares;
+
+	final double[] min;
+
+	final double[] max;
+
+	/**
+	 * Histogram per polyhedron and channel, index: {@code ( channel * numPolyhedra + polyhedron ) * histogramBins + bin}. Empty, if no
+	 * histogram is computed.
+	 */
+	final long[] histogram;
+
+	StarConvexPolyhedronFeatures( final int numPolyhedra, final int numChannels, final int histogramBins, final double histogramMin,
+			final double histogramMax )
+	{
+		this.numPolyhedra = numPolyhedra;
+		this.numChannels = numChannels;
+		this.histogramBins = histogramBins;
+		this.histogramMin = histogramMin;
+		this.histogramMax = histogramMax;
+		int entries = numPolyhedra * numChannels;
+		this.count = new long[ numPolyhedra ];
+		this.sum = new double[ entries ];
+		this.sumOfSquares = new double[ entries ];
+		this.min = new double[ entries ];
+		this.max = new double[ entries ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		this.histogram = new long[ entries * histogramBins ];
+	}
+
+	/**
+	 * @return the number of polyhedra.
+	 */
+	public int numPolyhedra()
+	{
+		return numPolyhedra;
+	}
+
+	/**
+	 * @return the number of channels.
+	 */
+	public int numChannels()
+	{
+		return numChannels;
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @return the number of voxels inside the polyhedron.
+	 */
+	public long count( final int polyhedron )
+	{
+		return count[ polyhedron ];
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param channel the index of the channel.
+	 * @return the sum of the intensities inside the polyhedron.
+	 */
+	public double sum( final int polyhedron, final int channel )
+	{
+		return sum[ index( polyhedron, channel ) ];
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param channel the index of the channel.
+	 * @return the sum of the squared intensities inside the polyhedron.
+	 */
+	public double sumOfSquares( final int polyhedron, final int channel )
+	{
+		return sumOfSquares[ index( polyhedron, channel ) ];
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param channel the index of the channel.
+	 * @return the mean intensity inside the polyhedron or {@code NaN}, if the polyhedron contains no voxel.
+	 */
+	public double mean( final int polyhedron, final int channel )
+	{
+		return sum( polyhedron, channel ) / count[ polyhedron ];
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param channel the index of the channel.
+	 * @return the (population) variance of the intensities inside the polyhedron or {@code NaN}, if the polyhedron contains no voxel.
+	 */
+	public double variance( final int polyhedron, final int channel )
+	{
+		double mean = mean( polyhedron, channel );
+		return Math.max( 0, sumOfSquares( polyhedron, channel ) / count[ polyhedron ] - mean * mean );
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param channel the index of the channel.
+	 * @return the standard deviation of the intensities inside the polyhedron or {@code NaN}, if the polyhedron contains no voxel.
+	 */
+	public double standardDeviation( final int polyhedron, final int channel )
+	{
+		return Math.sqrt( variance( polyhedron, channel ) );
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param channel the index of the channel.
+	 * @return the minimum intensity inside the polyhedron or {@link Double#POSITIVE_INFINITY}, if the polyhedron contains no voxel.
+	 */
+	public double min( final int polyhedron, final int channel )
+	{
+		return min[ index( polyhedron, channel ) ];
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @param channel the index of the channel.
+	 * @return the maximum intensity inside the polyhedron or {@link Double#NEGATIVE_INFINITY}, if the polyhedron contains no voxel.
+	 */
+	public double max( final int polyhedron, final int channel )
+	{
+		return max[ index( polyhedron, channel ) ];
+	}
+
+	/**
+	 * @return true, if histograms have been computed and {@link #quantile(int, int, double)} is available.
+	 */
+	public boolean hasHistogram()
+	{
+		return histogramBins > 0;
+	}
+
+	/**
+	 * Approximates a quantile of the intensities inside the polyhedron from its histogram. The result is the center of the histogram bin,
+	 * in which the quantile lies.
+	 *
+	 * @param polyhedron the index of the polyhedron.
+	 * @param channel the index of the channel.
+	 * @param q the quantile. Must be within [0, 1], e.g. 0.5 for the median.
+	 * @return the approximated quantile or {@code NaN}, if the polyhedron contains no voxel.
+	 */
+	public double quantile( final int polyhedron, final int channel, final double q )
+	{
+		if ( !hasHistogram() )
+			throw new IllegalStateException( "No histogram has been computed." );
+		if ( q < 0 || q > 1 )
+			throw new IllegalArgumentException( "q must be within [0, 1], but is: " + q );
+		long total = count[ polyhedron ];
+		if ( total == 0 )
+			return Double.NaN;
+		long rank = Math.max( 1, ( long ) Math.ceil( q * total ) );
+		int offset = index( polyhedron, channel ) * histogramBins;
+		long cumulative = 0;
+		int bin = 0;
+		for ( ; bin < histogramBins - 1; bin++ )
+		{
+			cumulative += histogram[ offset + bin ];
+			if ( cumulative >= rank )
+				break;
+		}
+		return histogramMin + ( bin + 0.5 ) * ( histogramMax - histogramMin ) / histogramBins;
+	}
+
+	/**
+	 * @return the bin of the histogram for the given value. Values outside the histogram range are counted in the first or last bin.
+	 */
+	int bin( final double value )
+	{
+		int bin = ( int ) ( ( value - histogramMin ) / ( histogramMax - histogramMin ) * histogramBins );
+		return Math.max( 0, Math.min( histogramBins - 1, bin ) );
+	}
+
+	int histogramBins()
+	{
+		return histogramBins;
+	}
+
+	private int index( final int polyhedron, final int channel )
+	{
+		return channel * numPolyhedra + polyhedron;
+	}
+}
@@ -0,0 +1,607 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.RealInterval;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Static bounding volume hierarchy (BVH) over the bounding boxes of a collection of star convex polyhedra.<p>
+ * The hierarchy is built once from the given polyhedra (in parallel for large collections) and cannot be modified afterwards. All queries
+ * are thread safe. Query results are the indices of the polyhedra in the list given to the constructor.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronIndex
+{
+	/**
+	 * Maximum number of polyhedra in a leaf of the hierarchy.
+	 */
+	private static final int LEAF_SIZE = 4;
+
+	/**
+	 * Subtrees with more polyhedra than this are built in parallel.
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+	private final List< StarConvexPolyhedron > polyhedra;
+
+	/**
+	 * Bounding boxes of the polyhedra. 6 entries per polyhedron: min x, min y, min z, max x, max y, max z.
+	 */
+	private final double[] boxes;
+
+	/**
+	 * Centers of the polyhedra. 3 entries per polyhedron: x, y, z.
+	 */
+	private final double[] centers;
+
+	/**
+	 * Indices of the polyhedra, sorted such that each leaf references a contiguous range.
+	 */
+	private final int[] order;
+
+	/**
+	 * Bounding boxes of the nodes. 6 entries per node, same layout as {@link #boxes}.
+	 */
+	private final double[] nodeBoxes;
+
+	/**
+	 * Index of the left child of a node or -1, if the node is a leaf.
+	 */
+	private final int[] nodeLeft;
+
+	/**
+	 * Index of the right child of a node or -1, if the node is a leaf.
+	 */
+	private final int[] nodeRight;
+
+	/**
+	 * First position in {@link #order} of a leaf.
+	 */
+	private final int[] nodeStart;
+
+	/**
+	 * Position after the last position in {@link #order} of a leaf.
+	 */
+	private final int[] nodeEnd;
+
+	private final int numNodes;
+
+	/**
+	 * Creates an index over the given polyhedra.
+	 *
+	 * @param polyhedra the polyhedra to index. Must not be null. Must not contain null. The list must not be modified afterwards.
+	 */
+	public StarConvexPolyhedronIndex( final List< StarConvexPolyhedron > polyhedra )
+	{
+		if ( polyhedra == null )
+			throw new IllegalArgumentException( "polyhedra cannot be null." );
+		this.polyhedra = polyhedra;
+		int n = polyhedra.size();
+		this.boxes = new double[ 6 * n ];
+		this.centers = new double[ 3 * n ];
+		this.order = new int[ n ];
+		IntStream.range( 0, n ).parallel().forEach( this::initPrimitive );
+
+		int maxNodes = Math.max( 1, 2 * n );
+		this.nodeBoxes = new double[ 6 * maxNodes ];
+		this.nodeLeft = new int[ maxNodes ];
+		this.nodeRight = new int[ maxNodes ];
+		this.nodeStart = new int[ maxNodes ];
+		this.nodeEnd = new int[ maxNodes ];
+		if ( n == 0 )
+		{
+			this.numNodes = 0;
+			return;
+		}
+		AtomicInteger nodeCounter = new AtomicInteger( 1 );
+		BuildTask root = new BuildTask( 0, 0, n, nodeCounter );
+		if ( n > PARALLEL_THRESHOLD )
+			ForkJoinPool.commonPool().invoke( root );
+		else
+			root.compute();
+		this.numNodes = nodeCounter.get();
+	}
+
+	private void initPrimitive( final int i )
+	{
+		StarConvexPolyhedron polyhedron = polyhedra.get( i );
+		if ( polyhedron == null )
+			throw new IllegalArgumentException( "polyhedra cannot contain null, but contains null at index: " + i );
+		double[] center = polyhedron.getCenter();
+		double[] min = polyhedron.getBoundingBox3D().getMinPoint();
+		double[] max = polyhedron.getBoundingBox3D().getMaxPoint();
+		for ( int d = 0; d < 3; d++ )
+		{
+			centers[ 3 * i + d ] = center[ d ];
+			// the box is extended to contain the center, which is required by the nearest center search
+			boxes[ 6 * i + d ] = Math.min( min[ d ], center[ d ] );
+			boxes[ 6 * i + 3 + d ] = Math.max( max[ d ], center[ d ] );
+		}
+		order[ i ] = i;
+	}
+
+	/**
+	 * @return the number of indexed polyhedra.
+	 */
+	public int size()
+	{
+		return polyhedra.size();
+	}
+
+	/**
+	 * @param index the index of the polyhedron.
+	 * @return the polyhedron with the given index.
+	 */
+	public StarConvexPolyhedron get( final int index )
+	{
+		return polyhedra.get( index );
+	}
+
+	/**
+	 * @return the indexed polyhedra.
+	 */
+	public List< StarConvexPolyhedron > getPolyhedra()
+	{
+		return polyhedra;
+	}
+
+	/**
+	 * Finds all polyhedra that contain the given point.
+	 *
+	 * @param point the point. Must not be null. Expected order: xyz.
+	 * @return the indices of the polyhedra that contain the point, in ascending order.
+	 */
+	public int[] findContaining( final double[] point )
+	{
+		if ( point == null )
+			throw new IllegalArgumentException( "point cannot be null." );
+		IntStream.Builder result = IntStream.builder();
+		int[] stack = new int[ 64 ];
+		int top = 0;
+		if ( numNodes > 0 )
+			stack[ top++ ] = 0;
+		while ( top > 0 )
+		{
+			int node = stack[ --top ];
+			if ( !boxContains( nodeBoxes, node, point ) )
+				continue;
+			if ( nodeLeft[ node ] < 0 )
+			{
+				for ( int j = nodeStart[ node ]; j < nodeEnd[ node ]; j++ )
+				{
+					int i = order[ j ];
+					if ( boxContains( boxes, i, point ) && polyhedra.get( i ).contains( point, 0 ) )
+						result.add( i );
+				}
+				continue;
+			}
+			stack = ensureCapacity( stack, top + 2 );
+			stack[ top++ ] = nodeLeft[ node ];
+			stack[ top++ ] = nodeRight[ node ];
+		}
+		return sorted( result );
+	}
+
+	/**
+	 * Finds all polyhedra, whose bounding boxes intersect the given box.
+	 *
+	 * @param box the box. Must not be null. Must have 3 dimensions.
+	 * @return the indices of the polyhedra, whose bounding boxes intersect the given box, in ascending order.
+	 */
+	public int[] findIntersecting( final RealInterval box )
+	{
+		if ( box == null )
+			throw new IllegalArgumentException( "box cannot be null." );
+		if ( box.numDimensions() != 3 )
+			throw new IllegalArgumentException( "box must have 3 dimensions, but has: " + box.numDimensions() );
+		double[] query = new double[] { box.realMin( 0 ), box.realMin( 1 ), box.realMin( 2 ), box.realMax( 0 ), box.realMax( 1 ),
+				box.realMax( 2 ) };
+		IntStream.Builder result = IntStream.builder();
+		int[] stack = new int[ 64 ];
+		int top = 0;
+		if ( numNodes > 0 )
+			stack[ top++ ] = 0;
+		while ( top > 0 )
+		{
+			int node = stack[ --top ];
+			if ( !boxesIntersect( nodeBoxes, node, query ) )
+				continue;
+			if ( nodeLeft[ node ] < 0 )
+			{
+				for ( int j = nodeStart[ node ]; j < nodeEnd[ node ]; j++ )
+				{
+					int i = order[ j ];
+					if ( boxesIntersect( boxes, i, query ) )
+						result.add( i );
+				}
+				continue;
+			}
+			stack = ensureCapacity( stack, top + 2 );
+			stack[ top++ ] = nodeLeft[ node ];
+			stack[ top++ ] = nodeRight[ node ];
+		}
+		return sorted( result );
+	}
+
+	/**
+	 * Finds all polyhedra, whose bounding boxes intersect the plane of the points {@code p} with {@code normal . p + offset = 0}.
+	 *
+	 * @param normal the normal of the plane. Must not be null. Expected order: xyz. Needs not to be normalized.
+	 * @param offset the offset of the plane.
+	 * @return the indices of the polyhedra, whose bounding boxes intersect the plane, in ascending order.
+	 */
+	public int[] findIntersectingPlane( final double[] normal, final double offset )
+	{
+		if ( normal == null )
+			throw new IllegalArgumentException( "normal cannot be null." );
+		IntStream.Builder result = IntStream.builder();
+		int[] stack = new int[ 64 ];
+		int top = 0;
+		if ( numNodes > 0 )
+			stack[ top++ ] = 0;
+		while ( top > 0 )
+		{
+			int node = stack[ --top ];
+			if ( !boxIntersectsPlane( nodeBoxes, node, normal, offset ) )
+				continue;
+			if ( nodeLeft[ node ] < 0 )
+			{
+				for ( int j = nodeStart[ node ]; j < nodeEnd[ node ]; j++ )
+				{
+					int i = order[ j ];
+					if ( boxIntersectsPlane( boxes, i, normal, offset ) )
+						result.add( i );
+				}
+				continue;
+			}
+			stack = ensureCapacity( stack, top + 2 );
+			stack[ top++ ] = nodeLeft[ node ];
+			stack[ top++ ] = nodeRight[ node ];
+		}
+		return sorted( result );
+	}
+
+	/**
+	 * Finds the polyhedra, whose centers are nearest to the given point.
+	 *
+	 * @param point the point. Must not be null. Expected order: xyz.
+	 * @param k the number of polyhedra to find. Must not be negative.
+	 * @return the indices of the {@code min(k, size())} polyhedra, whose centers are nearest to the given point, ordered by increasing
+	 *         distance.
+	 */
+	public int[] kNearestCenters( final double[] point, final int k )
+	{
+		if ( point == null )
+			throw new IllegalArgumentException( "point cannot be null." );
+		if ( k < 0 )
+			throw new IllegalArgumentException( "k cannot be negative, but is: " + k );
+		int capacity = Math.min( k, size() );
+		int[] bestIndices = new int[ capacity ];
+		double[] bestDistances = new double[ capacity ];
+		Arrays.fill( bestDistances, Double.POSITIVE_INFINITY );
+		if ( capacity == 0 )
+			return bestIndices;
+		int found = 0;
+		int[] stack = new int[ 64 ];
+		int top = 0;
+		stack[ top++ ] = 0;
+		while ( top > 0 )
+		{
+			int node = stack[ --top ];
+			if ( squaredDistanceToBox( nodeBoxes, node, point ) >= bestDistances[ capacity - 1 ] )
+				continue;
+			if ( nodeLeft[ node ] < 0 )
+			{
+				for ( int j = nodeStart[ node ]; j < nodeEnd[ node ]; j++ )
+				{
+					int i = order[ j ];
+					double dx = centers[ 3 * i ] - point[ 0 ];
+					double dy = centers[ 3 * i + 1 ] - point[ 1 ];
+					double dz = centers[ 3 * i + 2 ] - point[ 2 ];
+					double distance = dx * dx + dy * dy + dz * dz;
+					if ( distance >= bestDistances[ capacity - 1 ] )
+						continue;
+					// insertion into the sorted list of best candidates
+					int position = Math.min( found, capacity - 1 );
+					while ( position > 0 && bestDistances[ position - 1 ] > distance )
+					{
+						bestDistances[ position ] = bestDistances[ position - 1 ];
+						bestIndices[ position ] = bestIndices[ position - 1 ];
+						position--;
+					}
+					bestDistances[ position ] = distance;
+					bestIndices[ position ] = i;
+					found = Math.min( found + 1, capacity );
+				}
+				continue;
+			}
+			// push the farther child first, so that the nearer child is visited first
+			int left = nodeLeft[ node ];
+			int right = nodeRight[ node ];
+			stack = ensureCapacity( stack, top + 2 );
+			if ( squaredDistanceToBox( nodeBoxes, left, point ) < squaredDistanceToBox( nodeBoxes, right, point ) )
+			{
+				stack[ top++ ] = right;
+				stack[ top++ ] = left;
+			}
+			else
+			{
+				stack[ top++ ] = left;
+				stack[ top++ ] = right;
+			}
+		}
+		return bestIndices;
+	}
+
+	/**
+	 * Finds the polyhedron, which is hit first by the ray {@code origin + t * direction, t >= 0}, e.g. the object under the mouse in a
+	 * viewer. The nodes are traversed front to back and nodes, which the ray enters behind the nearest hit found so far, are skipped. Only
+	 * the polyhedra, whose bounding boxes are hit before that, are intersected with the ray, see
+	 * {@link StarConvexPolyhedron#intersectRay(double[], double[])}.
+	 *
+	 * @param origin the origin of the ray. Must not be null. Expected order: xyz.
+	 * @param direction the direction of the ray. Must not be null. Must not be zero. Expected order: xyz. Needs not to be normalized.
+	 * @return the index of the polyhedron with the nearest entry point or -1, if the ray misses all polyhedra. If several polyhedra are
+	 *         entered at the same point, e.g. because the origin lies in all of them, the smallest index is returned.
+	 */
+	public int findFirstHit( final double[] origin, final double[] direction )
+	{
+		if ( origin == null )
+			throw new IllegalArgumentException( "origin cannot be null." );
+		if ( direction == null )
+			throw new IllegalArgumentException( "direction cannot be null." );
+		if ( direction[ 0 ] == 0 && direction[ 1 ] == 0 && direction[ 2 ] == 0 )
+			throw new IllegalArgumentException( "direction cannot be zero." );
+		double[] inverse = new double[] { 1 / direction[ 0 ], 1 / direction[ 1 ], 1 / direction[ 2 ] };
+		int bestIndex = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		int[] stack = new int[ 64 ];
+		int top = 0;
+		if ( numNodes > 0 && rayEntry( nodeBoxes, 0, origin, inverse, bestDistance ) < Double.POSITIVE_INFINITY )
+			stack[ top++ ] = 0;
+		while ( top > 0 )
+		{
+			int node = stack[ --top ];
+			if ( node != 0 && rayEntry( nodeBoxes, node, origin, inverse, bestDistance ) == Double.POSITIVE_INFINITY )
+				continue;
+			if ( nodeLeft[ node ] < 0 )
+			{
+				for ( int j = nodeStart[ node ]; j < nodeEnd[ node ]; j++ )
+				{
+					int i = order[ j ];
+					if ( rayEntry( boxes, i, origin, inverse, bestDistance ) == Double.POSITIVE_INFINITY )
+						continue;
+					double distance = polyhedra.get( i ).intersectRay( origin, direction );
+					if ( distance < bestDistance || ( distance == bestDistance && distance < Double.POSITIVE_INFINITY && i < bestIndex ) )
+					{
+						bestDistance = distance;
+						bestIndex = i;
+					}
+				}
+				continue;
+			}
+			// push the farther child first, so that the nearer child is visited first. The children are tested again, when they are popped,
+			// as a nearer hit may have been found in between
+			int left = nodeLeft[ node ];
+			int right = nodeRight[ node ];
+			double leftEntry = rayEntry( nodeBoxes, left, origin, inverse, bestDistance );
+			double rightEntry = rayEntry( nodeBoxes, right, origin, inverse, bestDistance );
+			stack = ensureCapacity( stack, top + 2 );
+			if ( leftEntry < rightEntry )
+			{
+				if ( rightEntry < Double.POSITIVE_INFINITY )
+					stack[ top++ ] = right;
+				stack[ top++ ] = left;
+			}
+			else
+			{
+				if ( leftEntry < Double.POSITIVE_INFINITY )
+					stack[ top++ ] = left;
+				if ( rightEntry < Double.POSITIVE_INFINITY )
+					stack[ top++ ] = right;
+			}
+		}
+		return bestIndex;
+	}
+
+	private static boolean boxContains( final double[] boxes, final int i, final double[] point )
+	{
+		int o = 6 * i;
+		return point[ 0 ] >= boxes[ o ] && point[ 0 ] <= boxes[ o + 3 ]
+				&& point[ 1 ] >= boxes[ o + 1 ] && point[ 1 ] <= boxes[ o + 4 ]
+				&& point[ 2 ] >= boxes[ o + 2 ] && point[ 2 ] <= boxes[ o + 5 ];
+	}
+
+	private static boolean boxesIntersect( final double[] boxes, final int i, final double[] query )
+	{
+		int o = 6 * i;
+		return boxes[ o ] <= query[ 3 ] && boxes[ o + 3 ] >= query[ 0 ]
+				&& boxes[ o + 1 ] <= query[ 4 ] && boxes[ o + 4 ] >= query[ 1 ]
+				&& boxes[ o + 2 ] <= query[ 5 ] && boxes[ o + 5 ] >= query[ 2 ];
+	}
+
+	private static boolean boxIntersectsPlane( final double[] boxes, final int i, final double[] normal, final double offset )
+	{
+		int o = 6 * i;
+		// the corners of the box, which are farthest below and above the plane
+		double below = offset;
+		double above = offset;
+		for ( int d = 0; d < 3; d++ )
+		{
+			double low = normal[ d ] * boxes[ o + d ];
+			double high = normal[ d ] * boxes[ o + 3 + d ];
+			below += Math.min( low, high );
+			above += Math.max( low, high );
+		}
+		return below <= 0 && above >= 0;
+	}
+
+	private static double squaredDistanceToBox( final double[] boxes, final int i, final double[] point )
+	{
+		int o = 6 * i;
+		double distance = 0;
+		for ( int d = 0; d < 3; d++ )
+		{
+			double delta = Math.max( 0, Math.max( boxes[ o + d ] - point[ d ], point[ d ] - boxes[ o + 3 + d ] ) );
+			distance += delta * delta;
+		}
+		return distance;
+	}
+
+	/**
+	 * Computes the parameter {@code t} where the ray {@code origin + t * direction} enters the box with the given index, with the slab
+	 * method. {@code inverse} holds the inverse components of the direction, which are infinite for zero components.
+	 *
+	 * @return the entry parameter, 0 if the origin lies inside the box, or {@link Double#POSITIVE_INFINITY}, if the ray misses the box or
+	 *         enters it after {@code limit}.
+	 */
+	private static double rayEntry( final double[] boxes, final int i, final double[] origin, final double[] inverse, final double limit )
+	{
+		int o = 6 * i;
+		double entry = 0;
+		double exit = limit;
+		for ( int d = 0; d < 3; d++ )
+		{
+			if ( Double.isInfinite( inverse[ d ] ) )
+			{
+				// the ray is parallel to the slab
+				if ( origin[ d ] < boxes[ o + d ] || origin[ d ] > boxes[ o + 3 + d ] )
+					return Double.POSITIVE_INFINITY;
+				continue;
+			}
+			double t1 = ( boxes[ o + d ] - origin[ d ] ) * inverse[ d ];
+			double t2 = ( boxes[ o + 3 + d ] - origin[ d ] ) * inverse[ d ];
+			entry = Math.max( entry, Math.min( t1, t2 ) );
+			exit = Math.min( exit, Math.max( t1, t2 ) );
+		}
+		return entry <= exit ? entry : Double.POSITIVE_INFINITY;
+	}
+
+	private static int[] ensureCapacity( final int[] stack, final int capacity )
+	{
+		return capacity <= stack.length ? stack : Arrays.copyOf( stack, 2 * capacity );
+	}
+
+	private static int[] sorted( final IntStream.Builder builder )
+	{
+		int[] result = builder.build().toArray();
+		Arrays.sort( result );
+		return result;
+	}
+
+	/**
+	 * Builds the subtree for the polyhedra {@code order[start]} to {@code order[end - 1]}. Splits at the median of the centers along the
+	 * axis with the largest extent of the centers.
+	 */
+	private class BuildTask extends RecursiveAction
+	{
+		private final int node;
+
+		private final int start;
+
+		private final int end;
+
+		private final AtomicInteger nodeCounter;
+
+		private BuildTask( final int node, final int start, final int end, final AtomicInteger nodeCounter )
+		{
+			this.node = node;
+			this.start = start;
+			this.end = end;
+			this.nodeCounter = nodeCounter;
+		}
+
+		@Override
+		protected void compute()
+		{
+			double[] centerMin = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+			double[] centerMax = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+			int o = 6 * node;
+			for ( int d = 0; d < 3; d++ )
+			{
+				nodeBoxes[ o + d ] = Double.POSITIVE_INFINITY;
+				nodeBoxes[ o + 3 + d ] = Double.NEGATIVE_INFINITY;
+			}
+			for ( int j = start; j < end; j++ )
+			{
+				int i = order[ j ];
+				for ( int d = 0; d < 3; d++ )
+				{
+					nodeBoxes[ o + d ] = Math.min( nodeBoxes[ o + d ], boxes[ 6 * i + d ] );
+					nodeBoxes[ o + 3 + d ] = Math.max( nodeBoxes[ o + 3 + d ], boxes[ 6 * i + 3 + d ] );
+					centerMin[ d ] = Math.min( centerMin[ d ], centers[ 3 * i + d ] );
+					centerMax[ d ] = Math.max( centerMax[ d ], centers[ 3 * i + d ] );
+				}
+			}
+			if ( end - start <= LEAF_SIZE )
+			{
+				nodeLeft[ node ] = -1;
+				nodeRight[ node ] = -1;
+				nodeStart[ node ] = start;
+				nodeEnd[ node ] = end;
+				return;
+			}
+			int axis = 0;
+			for ( int d = 1; d < 3; d++ )
+				if ( centerMax[ d ] - centerMin[ d ] > centerMax[ axis ] - centerMin[ axis ] )
+					axis = d;
+			int middle = ( start + end ) >>> 1;
+			select( start, end - 1, middle, axis );
+
+			int left = nodeCounter.getAndIncrement();
+			int right = nodeCounter.getAndIncrement();
+			nodeLeft[ node ] = left;
+			nodeRight[ node ] = right;
+			BuildTask leftTask = new BuildTask( left, start, middle, nodeCounter );
+			BuildTask rightTask = new BuildTask( right, middle, end, nodeCounter );
+			if ( end - start > PARALLEL_THRESHOLD )
+				invokeAll( leftTask, rightTask );
+			else
+			{
+				leftTask.compute();
+				rightTask.compute();
+			}
+		}
+
+		/**
+		 * Partially sorts {@code order[lo..hi]}, such that {@code order[k]} holds the polyhedron with the k-th smallest center coordinate
+		 * along the given axis, and all polyhedra before / after it have smaller / larger coordinates.
+		 */
+		private void select( int lo, int hi, final int k, final int axis )
+		{
+			while ( hi > lo )
+			{
+				double pivot = centers[ 3 * order[ ( lo + hi ) >>> 1 ] + axis ];
+				int i = lo;
+				int j = hi;
+				while ( i <= j )
+				{
+					while ( centers[ 3 * order[ i ] + axis ] < pivot )
+						i++;
+					while ( centers[ 3 * order[ j ] + axis ] > pivot )
+						j--;
+					if ( i <= j )
+					{
+						int swap = order[ i ];
+						order[ i ] = order[ j ];
+						order[ j ] = swap;
+						i++;
+						j--;
+					}
+				}
+				if ( k <= j )
+					hi = j;
+				else if ( k >= i )
+					lo = i;
+				else
+					return;
+			}
+		}
+	}
+}
@@ -2,25 +2,36 @@ package net.stefanhahmann.polyhedron;
 
 import bdv.viewer.Source;
 import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.Localizable;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.position.FunctionRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.roi.BoundaryType;
 import net.imglib2.roi.KnownConstant;
 import net.imglib2.roi.Regions;
 import net.imglib2.roi.mask.integer.DefaultMask;
-import net.imglib2.util.Intervals;
+import net.imglib2.type.logic.BoolType;
 import net.imglib2.view.Views;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class StarConvexPolyhedronIterable< T > implements IterableInterval< T >, Localizable
 {
@@ -35,6 +46,16 @@ public class StarConvexPolyhedronIterable< T > implements IterableInterval< T >,
 
 	private IterableInterval< T > polyhedronVoxels;
 
+	/**
+	 * image of the resolution level used by the last reset
+	 */
+	private RandomAccessibleInterval< T > img;
+
+	/**
+	 * polyhedron of the last reset in source coordinates, null if it does not overlap with the image
+	 */
+	private StarConvexPolyhedron sourcePolyhedron;
+
 	/**
 	 * position of a single voxel in source coordinates
 	 */
@@ -66,6 +87,16 @@ public class StarConvexPolyhedronIterable< T > implements IterableInterval< T >,
 	 */
 	private final long[] max = new long[ 3 ];
 
+	/**
+	 * resolution level used by the last reset
+	 */
+	private int resolutionLevel;
+
+	/**
+	 * temporary transform used for the selection of the resolution level
+	 */
+	private final AffineTransform3D levelTransform = new AffineTransform3D();
+
 	public StarConvexPolyhedronIterable( final Source< T > source )
 	{
 		this.source = source;
@@ -108,6 +139,112 @@ public class StarConvexPolyhedronIterable< T > implements IterableInterval< T >,
 		return polyhedronVoxels.iterator();
 	}
 
+	/**
+	 * Creates a spliterator over the voxels of the polyhedron, which splits the bounding box into slabs along z. Each part evaluates the
+	 * containment of its voxels row by row with {@link StarConvexPolyhedron#containsBatch(double[], int, long[])} in its own buffers, so
+	 * the parts can be traversed by different threads.<p>
+	 * As for a {@link Cursor}, the elements are accessors, whose value changes with each advance. They must be copied, if they are kept.
+	 * The spliterator refers to the polyhedron of the current reset and is not affected by later resets.
+	 *
+	 * @return the spliterator.
+	 */
+	@Override
+	public Spliterator< T > spliterator()
+	{
+		return new SlabSpliterator<>( img, sourcePolyhedron, min.clone(), max.clone(), min[ 2 ], max[ 2 ] );
+	}
+
+	/**
+	 * @return a sequential stream over the voxels of the polyhedron.
+	 * @see #spliterator()
+	 */
+	public Stream< T > stream()
+	{
+		return StreamSupport.stream( spliterator(), false );
+	}
+
+	/**
+	 * Creates a parallel stream over the voxels of the polyhedron, e.g. to sum up intensities of large objects on all cores with
+	 * {@code parallelStream().mapToDouble( RealType::getRealDouble ).sum()}. Operations must not keep the elements without copying them.
+	 *
+	 * @return a parallel stream over the voxels of the polyhedron.
+	 * @see #spliterator()
+	 */
+	public Stream< T > parallelStream()
+	{
+		return StreamSupport.stream( spliterator(), true );
+	}
+
+	/**
+	 * Visits the voxels of the polyhedron in parallel with per thread accumulators, which are combined afterwards. The bounding box is
+	 * split into slabs along z. Each slab is visited by one thread with its own accumulator. The accumulators of the slabs are combined in
+	 * the order of the slabs, so the result is deterministic, if the combiner is associative.
+	 *
+	 * @param supplier creates an empty accumulator.
+	 * @param visitor adds a voxel to an accumulator. The position and the value are only valid during the call.
+	 * @param combiner combines two accumulators, e.g. by adding the second to the first and returning the first.
+	 * @param <A> the type of the accumulators.
+	 * @return the combined accumulator.
+	 */
+	public < A > A collect( final Supplier< A > supplier, final VoxelVisitor< A, T > visitor, final BinaryOperator< A > combiner )
+	{
+		final RandomAccessibleInterval< T > image = img;
+		final StarConvexPolyhedron polyhedron = sourcePolyhedron;
+		final long[] intervalMin = min.clone();
+		final long[] intervalMax = max.clone();
+		final long depth = intervalMax[ 2 ] - intervalMin[ 2 ] + 1;
+		final int numSlabs = ( int ) Math.min( depth, 4L * ForkJoinPool.getCommonPoolParallelism() );
+		return IntStream.range( 0, numSlabs ).parallel().mapToObj( slab -> {
+			A accumulator = supplier.get();
+			SlabSpliterator< T > voxels = new SlabSpliterator<>( image, polyhedron, intervalMin, intervalMax,
+					intervalMin[ 2 ] + depth * slab / numSlabs, intervalMin[ 2 ] + depth * ( slab + 1 ) / numSlabs - 1 );
+			while ( voxels.advance() )
+				visitor.accept( accumulator, voxels.access, voxels.access.get() );
+			return accumulator;
+		} ).reduce( combiner ).orElseGet( supplier );
+	}
+
+	/**
+	 * Gets the voxels of the bounding box of the polyhedron in the image. Together with {@link #getMask()}, they can be traversed by
+	 * {@link net.imglib2.loops.LoopBuilder}, e.g. multi threaded with per chunk accumulators:
+	 * <pre>
+	 * List&lt; Sum &gt; sums = LoopBuilder.setImages( iterable.getVoxels(), iterable.getMask() ).multiThreaded().forEachChunk( chunk -&gt; {
+	 * 	Sum sum = new Sum();
+	 * 	chunk.forEachPixel( ( value, inside ) -&gt; {
+	 * 		if ( inside.get() )
+	 * 			sum.add( value );
+	 * 	} );
+	 * 	return sum;
+	 * } );
+	 * </pre>
+	 *
+	 * @return the voxels of the bounding box.
+	 */
+	public RandomAccessibleInterval< T > getVoxels()
+	{
+		return Views.interval( img, new FinalInterval( min, max ) );
+	}
+
+	/**
+	 * Gets a lazy mask of the polyhedron over its bounding box. The containment is evaluated on every access. Each random access of the
+	 * mask has its own buffer, so the mask can be accessed by multiple threads.
+	 *
+	 * @return the mask, true for the voxels of the polyhedron.
+	 * @see #getVoxels()
+	 */
+	public RandomAccessibleInterval< BoolType > getMask()
+	{
+		final StarConvexPolyhedron polyhedron = sourcePolyhedron;
+		final RandomAccessible< BoolType > mask = new FunctionRandomAccessible<>( 3, () -> {
+			final double[] position = new double[ 3 ];
+			return ( localizable, inside ) -> {
+				localizable.localize( position );
+				inside.set( polyhedron != null && polyhedron.contains( position ) );
+			};
+		}, BoolType::new );
+		return Views.interval( mask, new FinalInterval( min, max ) );
+	}
+
 	@Override
 	public long min( int d )
 	{
@@ -144,6 +281,119 @@ public class StarConvexPolyhedronIterable< T > implements IterableInterval< T >,
 		reset( polyhedron, timepoint, 0 );
 	}
 
+	/**
+	 * Resets this iterable to that it iterates over the specified polyhedron. The
+	 * pixel iterated are taken from the coarsest resolution level of the source, at
+	 * which the polyhedron still covers at least the specified number of voxels.
+	 * The selected level is returned and can also be queried with
+	 * {@link #getResolutionLevel()}, e.g. to rescale measurements.
+	 *
+	 * @param polyhedron
+	 *            the polyhedron to iterate.
+	 * @param minimumVoxels
+	 *            the minimum number of voxels the polyhedron should cover at the
+	 *            selected resolution level.
+	 * @return the selected resolution level.
+	 * @see #selectResolutionLevel(StarConvexPolyhedron, int, double)
+	 */
+	public int resetAtCoarsestLevel( final StarConvexPolyhedron polyhedron, final int timepoint, final double minimumVoxels )
+	{
+		int level = selectResolutionLevel( polyhedron, timepoint, minimumVoxels );
+		reset( polyhedron, timepoint, level );
+		return level;
+	}
+
+	/**
+	 * Selects the coarsest resolution level of the source, at which the specified
+	 * polyhedron covers at least the specified number of voxels. The number of
+	 * voxels is estimated from the volume of the polyhedron and the voxel volume
+	 * given by the source transform of each level. If no level satisfies the
+	 * requirement, level 0 is returned.
+	 *
+	 * @param polyhedron
+	 *            the polyhedron.
+	 * @param minimumVoxels
+	 *            the minimum number of voxels the polyhedron should cover.
+	 * @return the selected resolution level.
+	 */
+	public int selectResolutionLevel( final StarConvexPolyhedron polyhedron, final int timepoint, final double minimumVoxels )
+	{
+		double volume = polyhedron.estimateVolume();
+		for ( int level = source.getNumMipmapLevels() - 1; level > 0; level-- )
+		{
+			source.getSourceTransform( timepoint, level, levelTransform );
+			double voxels = volume / voxelVolume( levelTransform );
+			if ( voxels >= minimumVoxels )
+			{
+				logger.debug( "selected resolution level {}, polyhedron covers approx. {} voxels.", level, voxels );
+				return level;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the resolution level used by the last reset.
+	 */
+	public int getResolutionLevel()
+	{
+		return resolutionLevel;
+	}
+
+	/**
+	 * Gets the transform from source coordinates of the resolution level used by
+	 * the last reset to global coordinates.
+	 *
+	 * @param transform
+	 *            is set to the source transform.
+	 */
+	public void getSourceTransform( final AffineTransform3D transform )
+	{
+		transform.set( sourceTransform );
+	}
+
+	/**
+	 * Computes the interval of the image, which contains the bounding box of the
+	 * given polyhedron. The bounding box is computed from the vertices of the
+	 * polyhedron, so it is tight even if the polyhedron has been rotated or sheared
+	 * into source coordinates. The interval is clamped to the min and max of the
+	 * image.
+	 *
+	 * @param sourcePolyhedron
+	 *            the polyhedron in source coordinates.
+	 * @param image
+	 *            the image.
+	 * @return the interval or {@code null}, if the polyhedron does not overlap with
+	 *         the image.
+	 */
+	static Interval sourceInterval( final StarConvexPolyhedron sourcePolyhedron, final Interval image )
+	{
+		final double[] polyhedronMin = sourcePolyhedron.getBoundingBox3D().getMinPoint();
+		final double[] polyhedronMax = sourcePolyhedron.getBoundingBox3D().getMaxPoint();
+		final long[] intervalMin = new long[ 3 ];
+		final long[] intervalMax = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			intervalMin[ d ] = Math.max( image.min( d ), ( long ) Math.floor( polyhedronMin[ d ] ) );
+			intervalMax[ d ] = Math.min( image.max( d ), ( long ) Math.ceil( polyhedronMax[ d ] ) );
+			if ( intervalMin[ d ] > intervalMax[ d ] )
+				return null;
+		}
+		return new FinalInterval( intervalMin, intervalMax );
+	}
+
+	/**
+	 * Computes the volume of a voxel in global coordinates, i.e. the absolute
+	 * value of the determinant of the linear part of the given transform.
+	 */
+	private static double voxelVolume( final AffineTransform3D transform )
+	{
+		double a = transform.get( 0, 0 ), b = transform.get( 0, 1 ), c = transform.get( 0, 2 );
+		double d = transform.get( 1, 0 ), e = transform.get( 1, 1 ), f = transform.get( 1, 2 );
+		double g = transform.get( 2, 0 ), h = transform.get( 2, 1 ), i = transform.get( 2, 2 );
+		return Math.abs( a * ( e * i - f * h ) - b * ( d * i - f * g ) + c * ( d * h - e * g ) );
+	}
+
 	/**
 	 * Resets this iterable to that it iterates over the specified polyhedron, at the
 	 * specified resolution level in the source. Generate an error of the
@@ -157,29 +407,26 @@ public class StarConvexPolyhedronIterable< T > implements IterableInterval< T >,
 	public void reset( final StarConvexPolyhedron polyhedron, final int timepoint, final int resolutionLevel )
 	{
 		// get source transform from source
+		this.resolutionLevel = resolutionLevel;
 		source.getSourceTransform( timepoint, resolutionLevel, sourceTransform );
 		final RandomAccessibleInterval< T > img = source.getSource( timepoint, resolutionLevel );
 
-		// transform spot position into source coordinates
-		sourceTransform.inverse().apply( polyhedron.getCenter(), center );
-
-		// transform polyhedron vertices into source coordinates
-		List< double[] > vertices = new ArrayList<>( polyhedron.getPoints() );
-		vertices.forEach( vertex -> sourceTransform.inverse().apply( vertex, vertex ) );
-
-		// transform bounding box into source coordinates
-		sourceTransform.inverse().apply( polyhedron.getBoundingBox3D().getMinPoint(), minPoint );
-		sourceTransform.inverse().apply( polyhedron.getBoundingBox3D().getMaxPoint(), maxPoint );
-
-		// transform lattice on unit sphere into source coordinates
-		List< double[] > lattice = polyhedron.getLattice();
-		lattice.forEach( vertex -> sourceTransform.inverse().apply( vertex, vertex ) );
-
-		// get transformed bounding box with long coordinates
+		// transform polyhedron (center, vertices and lattice) into source coordinates
+		StarConvexPolyhedron transformedPolyhedron = polyhedron.transform( sourceTransform.inverse() );
+		this.img = img;
+		System.arraycopy( transformedPolyhedron.getCenter(), 0, center, 0, 3 );
+		System.arraycopy( transformedPolyhedron.getBoundingBox3D().getMinPoint(), 0, minPoint, 0, 3 );
+		System.arraycopy( transformedPolyhedron.getBoundingBox3D().getMaxPoint(), 0, maxPoint, 0, 3 );
+
+		// get bounding box of the transformed vertices with long coordinates, clamped to the image
+		final Interval interval = sourceInterval( transformedPolyhedron, img );
+		final boolean empty = interval == null;
+		this.sourcePolyhedron = empty ? null : transformedPolyhedron;
 		for ( int d = 0; d < 3; d++ )
 		{
-			min[ d ] = Math.max( 0, ( long ) Math.floor( minPoint[ d ] ) );
-			max[ d ] = Math.min( img.max( d ), ( long ) Math.ceil( maxPoint[ d ] ) );
+			// if the polyhedron does not overlap with the image, we iterate a single pixel of the image with an empty mask
+			min[ d ] = empty ? img.min( d ) : interval.min( d );
+			max[ d ] = empty ? img.min( d ) : interval.max( d );
 		}
 		logger.debug( "bounding volume of polyhedra defined by min ({},{},{}) and max ({},{},{}).", minPoint[ 0 ], minPoint[ 1 ],
 				minPoint[ 2 ], maxPoint[ 0 ], maxPoint[ 1 ], maxPoint[ 2 ] );
@@ -189,22 +436,14 @@ public class StarConvexPolyhedronIterable< T > implements IterableInterval< T >,
 				max[ 0 ] - min[ 0 ], max[ 1 ] - min[ 1 ], max[ 2 ] - min[ 2 ] );
 		logger.debug( "bounding volume size = {}", ( max[ 0 ] - min[ 0 ] ) * ( max[ 1 ] - min[ 1 ] ) * ( max[ 2 ] - min[ 2 ] ) );
 
-		// if bounding box is empty, we set it to cover pixel at (0,0,0)
-		// this will hopefully not cause problems, because it would not overlap
-		// with polyhedra, so the polyhedra iterable could be empty.
-		if ( Intervals.isEmpty( this ) )
-			for ( int d = 0; d < 3; ++d )
-				min[ d ] = max[ d ] = 0;
-
-		// create a new polyhedron with the vertices transformed into source coordinates
-		StarConvexPolyhedron transformedPolyhedron = new StarConvexPolyhedron( center, vertices, minPoint, maxPoint, lattice );
-
 		// inflate polyhedra by .5 pixels on either side
 		// TODO
 
 		AtomicInteger count = new AtomicInteger( 0 );
 		// create mask
 		final Predicate< Localizable > contains = localizable -> {
+			if ( empty )
+				return false;
 			count.incrementAndGet();
 			if ( count.get() % 100_000 == 0 )
 				logger.debug( "contains count = {}", count.get() );
@@ -215,4 +454,161 @@ public class StarConvexPolyhedronIterable< T > implements IterableInterval< T >,
 		final DefaultMask mask = new DefaultMask( 3, BoundaryType.UNSPECIFIED, contains, KnownConstant.UNKNOWN );
 		polyhedronVoxels = Regions.sampleWithMask( mask, Views.interval( img, this ) );
 	}
+
+	/**
+	 * Visits a voxel of a polyhedron, see {@link #collect(Supplier, VoxelVisitor, BinaryOperator)}.
+	 *
+	 * @param <A> the type of the accumulator.
+	 * @param <T> the type of the voxels.
+	 */
+	@FunctionalInterface
+	public interface VoxelVisitor< A, T >
+	{
+		void accept( A accumulator, Localizable position, T value );
+	}
+
+	/**
+	 * Spliterator over the voxels of a polyhedron within a slab of z slices of its bounding box. The containment is evaluated for a whole
+	 * row of voxels at once.
+	 */
+	private static class SlabSpliterator< T > implements Spliterator< T >
+	{
+		private final RandomAccessible< T > image;
+
+		private final StarConvexPolyhedron polyhedron;
+
+		private final long[] min;
+
+		private final long[] max;
+
+		private final int rowLength;
+
+		private RandomAccess< T > access;
+
+		private double[] xyz;
+
+		private long[] bits;
+
+		private long y;
+
+		private long z;
+
+		private long lastZ;
+
+		private int x;
+
+		private boolean started;
+
+		private SlabSpliterator( final RandomAccessible< T > image, final StarConvexPolyhedron polyhedron, final long[] min,
+				final long[] max, final long firstZ, final long lastZ )
+		{
+			this.image = image;
+			this.polyhedron = polyhedron;
+			this.min = min;
+			this.max = max;
+			this.rowLength = ( int ) ( max[ 0 ] - min[ 0 ] + 1 );
+			this.x = rowLength;
+			this.y = min[ 1 ];
+			this.z = firstZ;
+			// a polyhedron, which does not overlap with the image, has no voxels
+			this.lastZ = polyhedron == null ? firstZ - 1 : lastZ;
+		}
+
+		/**
+		 * Moves the random access to the next voxel of the polyhedron.
+		 *
+		 * @return false, if there are no more voxels.
+		 */
+		private boolean advance()
+		{
+			while ( true )
+			{
+				while ( x < rowLength )
+				{
+					int i = x++;
+					if ( ( bits[ i >>> 6 ] & ( 1L << i ) ) != 0 )
+					{
+						access.setPosition( min[ 0 ] + i, 0 );
+						return true;
+					}
+				}
+				if ( !nextRow() )
+					return false;
+			}
+		}
+
+		private boolean nextRow()
+		{
+			if ( !started )
+			{
+				started = true;
+				access = image.randomAccess();
+				xyz = new double[ 3 * rowLength ];
+				bits = new long[ ( rowLength + 63 ) / 64 ];
+			}
+			else if ( ++y > max[ 1 ] )
+			{
+				y = min[ 1 ];
+				z++;
+			}
+			if ( z > lastZ )
+				return false;
+			for ( int i = 0; i < rowLength; i++ )
+			{
+				xyz[ 3 * i ] = min[ 0 ] + i;
+				xyz[ 3 * i + 1 ] = y;
+				xyz[ 3 * i + 2 ] = z;
+			}
+			polyhedron.containsBatch( xyz, rowLength, bits );
+			access.setPosition( y, 1 );
+			access.setPosition( z, 2 );
+			x = 0;
+			return true;
+		}
+
+		@Override
+		public boolean tryAdvance( final Consumer< ? super T > action )
+		{
+			if ( !advance() )
+				return false;
+			action.accept( access.get() );
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining( final Consumer< ? super T > action )
+		{
+			while ( advance() )
+				action.accept( access.get() );
+		}
+
+		/**
+		 * Splits off the upper half of the slices, which have not been started yet.
+		 */
+		@Override
+		public Spliterator< T > trySplit()
+		{
+			final long first = started ? z + 1 : z;
+			if ( lastZ - first < 1 )
+				return null;
+			final long middle = first + ( lastZ - first + 1 ) / 2;
+			final SlabSpliterator< T > upper = new SlabSpliterator<>( image, polyhedron, min, max, middle, lastZ );
+			lastZ = middle - 1;
+			return upper;
+		}
+
+		@Override
+		public long estimateSize()
+		{
+			// the voxels of the remaining rows of the bounding box, an upper bound of the remaining voxels of the polyhedron
+			final long rows = ( lastZ - z + 1 ) * ( max[ 1 ] - min[ 1 ] + 1 ) - ( started ? y - min[ 1 ] : 0 );
+			return Math.max( 0, rows * rowLength );
+		}
+
+		@Override
+		public int characteristics()
+		{
+			return ORDERED | NONNULL;
+		}
+	}
 }
@@ -0,0 +1,307 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Virtual label image of a collection of star convex polyhedra. The voxels inside polyhedron {@code i} have label {@code i + 1}, the
+ * background has label 0. If polyhedra overlap, the one with the smallest index wins.<p>
+ * No label image is held in memory. The labels are computed on demand per cell, using a {@link StarConvexPolyhedronIndex} to find the
+ * polyhedra overlapping a cell. Computed cells are kept in a cache with a bounded number of cells, from which the least recently used cells
+ * are evicted. Cells can be computed in parallel in the background with {@link #prefetch(Interval)}, e.g. for the region visible in a
+ * viewer.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronLabelImg extends AbstractInterval implements RandomAccessibleInterval< UnsignedIntType >
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private static final int[] DEFAULT_CELL_DIMENSIONS = new int[] { 32, 32, 32 };
+
+	private static final int DEFAULT_MAX_CACHED_CELLS = 1024;
+
+	private final StarConvexPolyhedronIndex index;
+
+	private final int[] cellDimensions;
+
+	private final long[] gridDimensions;
+
+	private final int cellSize;
+
+	private final ExecutorService executor;
+
+	private final Map< Long, FutureTask< int[] > > cells;
+
+	/**
+	 * Creates a label image with cells of 32x32x32 voxels, which caches up to 1024 cells and computes prefetched cells in the common
+	 * fork join pool.
+	 *
+	 * @param polyhedra the polyhedra in the voxel coordinates of the image.
+	 * @param interval the interval of the image.
+	 */
+	public StarConvexPolyhedronLabelImg( final List< StarConvexPolyhedron > polyhedra, final Interval interval )
+	{
+		this( polyhedra, interval, DEFAULT_CELL_DIMENSIONS, DEFAULT_MAX_CACHED_CELLS, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Creates a label image.
+	 *
+	 * @param polyhedra the polyhedra in the voxel coordinates of the image.
+	 * @param interval the interval of the image. Must have 3 dimensions.
+	 * @param cellDimensions the dimensions of the cells, in which labels are computed and cached. Must have 3 entries.
+	 * @param maxCachedCells the maximum number of cells kept in the cache.
+	 * @param executor the executor, which computes prefetched cells.
+	 */
+	public StarConvexPolyhedronLabelImg( final List< StarConvexPolyhedron > polyhedra, final Interval interval, final int[] cellDimensions,
+			final int maxCachedCells, final ExecutorService executor )
+	{
+		super( interval );
+		if ( interval.numDimensions() != 3 )
+			throw new IllegalArgumentException( "interval must have 3 dimensions, but has: " + interval.numDimensions() );
+		if ( cellDimensions == null || cellDimensions.length != 3 )
+			throw new IllegalArgumentException( "cellDimensions must have 3 entries." );
+		if ( maxCachedCells < 1 )
+			throw new IllegalArgumentException( "maxCachedCells must be positive, but is: " + maxCachedCells );
+		if ( executor == null )
+			throw new IllegalArgumentException( "executor cannot be null." );
+		this.index = new StarConvexPolyhedronIndex( polyhedra );
+		this.cellDimensions = cellDimensions.clone();
+		this.gridDimensions = new long[ 3 ];
+		long size = 1;
+		for ( int d = 0; d < 3; d++ )
+		{
+			if ( cellDimensions[ d ] < 1 )
+				throw new IllegalArgumentException( "cellDimensions must be positive." );
+			gridDimensions[ d ] = ( dimension( d ) + cellDimensions[ d ] - 1 ) / cellDimensions[ d ];
+			size *= cellDimensions[ d ];
+		}
+		if ( size > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "cells must have less than 2^31 voxels." );
+		this.cellSize = ( int ) size;
+		this.executor = executor;
+		this.cells = new LinkedHashMap< Long, FutureTask< int[] > >( 16, 0.75f, true )
+		{
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Long, FutureTask< int[] > > eldest )
+			{
+				return size() > maxCachedCells;
+			}
+		};
+	}
+
+	/**
+	 * Computes the cells overlapping the given interval in the background, if they are not cached yet. Returns immediately.
+	 *
+	 * @param interval the interval to compute.
+	 */
+	public void prefetch( final Interval interval )
+	{
+		long[] minCell = new long[ 3 ];
+		long[] maxCell = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			minCell[ d ] = Math.max( 0, ( interval.min( d ) - min( d ) ) / cellDimensions[ d ] );
+			maxCell[ d ] = Math.min( gridDimensions[ d ] - 1, ( interval.max( d ) - min( d ) ) / cellDimensions[ d ] );
+			if ( interval.max( d ) < min( d ) || minCell[ d ] > maxCell[ d ] )
+				return;
+		}
+		for ( long z = minCell[ 2 ]; z <= maxCell[ 2 ]; z++ )
+			for ( long y = minCell[ 1 ]; y <= maxCell[ 1 ]; y++ )
+				for ( long x = minCell[ 0 ]; x <= maxCell[ 0 ]; x++ )
+				{
+					long key = x + gridDimensions[ 0 ] * ( y + gridDimensions[ 1 ] * z );
+					FutureTask< int[] > task;
+					synchronized ( cells )
+					{
+						if ( cells.containsKey( key ) )
+							continue;
+						task = new FutureTask<>( () -> computeCell( key ) );
+						cells.put( key, task );
+					}
+					executor.execute( task );
+				}
+	}
+
+	/**
+	 * @return the number of cells currently cached.
+	 */
+	public int numCachedCells()
+	{
+		synchronized ( cells )
+		{
+			return cells.size();
+		}
+	}
+
+	/**
+	 * Gets the labels of the cell with the given key. Computes them in the calling thread, unless they are cached or being computed in the
+	 * background.
+	 */
+	private int[] getCell( final long key )
+	{
+		FutureTask< int[] > task;
+		synchronized ( cells )
+		{
+			task = cells.get( key );
+			if ( task == null )
+			{
+				task = new FutureTask<>( () -> computeCell( key ) );
+				cells.put( key, task );
+			}
+		}
+		// runs the task, if nobody has started it yet, otherwise waits for its result
+		task.run();
+		try
+		{
+			return task.get();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException( "Interrupted while waiting for cell " + key, e );
+		}
+		catch ( ExecutionException e )
+		{
+			throw new IllegalStateException( "Could not compute cell " + key, e.getCause() );
+		}
+	}
+
+	private int[] computeCell( final long key )
+	{
+		final long[] cellMin = new long[ 3 ];
+		long remainder = key;
+		for ( int d = 0; d < 3; d++ )
+		{
+			cellMin[ d ] = min( d ) + ( remainder % gridDimensions[ d ] ) * cellDimensions[ d ];
+			remainder /= gridDimensions[ d ];
+		}
+		final int sx = cellDimensions[ 0 ];
+		final int sy = cellDimensions[ 1 ];
+		final int sz = cellDimensions[ 2 ];
+		final int[] labels = new int[ cellSize ];
+		final int[] candidates = index.findIntersecting( new FinalRealInterval(
+				new double[] { cellMin[ 0 ], cellMin[ 1 ], cellMin[ 2 ] },
+				new double[] { cellMin[ 0 ] + sx - 1, cellMin[ 1 ] + sy - 1, cellMin[ 2 ] + sz - 1 } ) );
+		if ( candidates.length == 0 )
+			return labels;
+
+		final double[] row = new double[ 3 * sx ];
+		final long[] inside = new long[ ( sx + 63 ) / 64 ];
+		for ( int x = 0; x < sx; x++ )
+			row[ 3 * x ] = cellMin[ 0 ] + x;
+		for ( int z = 0; z < sz; z++ )
+			for ( int y = 0; y < sy; y++ )
+			{
+				final double py = cellMin[ 1 ] + y;
+				final double pz = cellMin[ 2 ] + z;
+				for ( int x = 0; x < sx; x++ )
+				{
+					row[ 3 * x + 1 ] = py;
+					row[ 3 * x + 2 ] = pz;
+				}
+				final int offset = ( z * sy + y ) * sx;
+				// candidates are sorted ascending, so the polyhedron with the smallest index is tested first and wins
+				for ( int candidate : candidates )
+				{
+					StarConvexPolyhedron polyhedron = index.get( candidate );
+					double[] boxMin = polyhedron.getBoundingBox3D().getMinPoint();
+					double[] boxMax = polyhedron.getBoundingBox3D().getMaxPoint();
+					if ( py < boxMin[ 1 ] || py > boxMax[ 1 ] || pz < boxMin[ 2 ] || pz > boxMax[ 2 ] )
+						continue;
+					polyhedron.containsBatch( row, sx, inside );
+					for ( int x = 0; x < sx; x++ )
+						if ( labels[ offset + x ] == 0 && ( inside[ x >>> 6 ] & ( 1L << ( x & 63 ) ) ) != 0 )
+							labels[ offset + x ] = candidate + 1;
+				}
+			}
+		logger.trace( "computed cell {} with {} candidate polyhedra.", key, candidates.length );
+		return labels;
+	}
+
+	@Override
+	public RandomAccess< UnsignedIntType > randomAccess()
+	{
+		return new LabelRandomAccess();
+	}
+
+	@Override
+	public RandomAccess< UnsignedIntType > randomAccess( final Interval interval )
+	{
+		return randomAccess();
+	}
+
+	private class LabelRandomAccess extends Point implements RandomAccess< UnsignedIntType >
+	{
+		private final UnsignedIntType type = new UnsignedIntType();
+
+		private long lastKey = -1;
+
+		private int[] lastCell;
+
+		private LabelRandomAccess()
+		{
+			super( 3 );
+		}
+
+		private LabelRandomAccess( final LabelRandomAccess other )
+		{
+			this();
+			setPosition( other );
+		}
+
+		@Override
+		public UnsignedIntType get()
+		{
+			long key = 0;
+			long stride = 1;
+			int offset = 0;
+			int cellStride = 1;
+			for ( int d = 0; d < 3; d++ )
+			{
+				long relative = position[ d ] - min( d );
+				if ( relative < 0 || position[ d ] > max( d ) )
+				{
+					// outside of the image
+					type.set( 0 );
+					return type;
+				}
+				long cell = relative / cellDimensions[ d ];
+				key += cell * stride;
+				stride *= gridDimensions[ d ];
+				offset += ( int ) ( relative - cell * cellDimensions[ d ] ) * cellStride;
+				cellStride *= cellDimensions[ d ];
+			}
+			if ( key != lastKey )
+			{
+				lastCell = getCell( key );
+				lastKey = key;
+			}
+			type.set( lastCell[ offset ] );
+			return type;
+		}
+
+		@Override
+		public LabelRandomAccess copy()
+		{
+			return new LabelRandomAccess( this );
+		}
+	}
+}
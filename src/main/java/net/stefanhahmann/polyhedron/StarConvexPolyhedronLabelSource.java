@@ -0,0 +1,113 @@
+package net.stefanhahmann.polyhedron;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BigDataViewer source showing the labels of star convex polyhedra at a single timepoint, backed by a
+ * {@link StarConvexPolyhedronLabelImg}.<p>
+ * Only the cells of the label image requested by the viewer are computed and a bounded number of them is cached, so no full label image
+ * is needed in memory. Labels are never interpolated.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronLabelSource implements Source< UnsignedIntType >
+{
+	private final StarConvexPolyhedronLabelImg img;
+
+	private final AffineTransform3D sourceTransform;
+
+	private final int timepoint;
+
+	private final String name;
+
+	/**
+	 * Creates a label source.
+	 *
+	 * @param polyhedra the polyhedra in global coordinates.
+	 * @param interval the interval of the label image in voxel coordinates.
+	 * @param sourceTransform the transform from voxel coordinates to global coordinates.
+	 * @param timepoint the timepoint, at which the labels are present.
+	 * @param name the name of the source.
+	 */
+	public StarConvexPolyhedronLabelSource( final List< StarConvexPolyhedron > polyhedra, final Interval interval,
+			final AffineTransform3D sourceTransform, final int timepoint, final String name )
+	{
+		this.sourceTransform = sourceTransform.copy();
+		this.timepoint = timepoint;
+		this.name = name;
+		final AffineTransform3D inverse = sourceTransform.inverse();
+		final List< StarConvexPolyhedron > voxelPolyhedra = new ArrayList<>( polyhedra.size() );
+		for ( StarConvexPolyhedron polyhedron : polyhedra )
+			voxelPolyhedra.add( polyhedron.transform( inverse ) );
+		this.img = new StarConvexPolyhedronLabelImg( voxelPolyhedra, interval );
+	}
+
+	/**
+	 * @return the label image, e.g. to {@link StarConvexPolyhedronLabelImg#prefetch(Interval) prefetch} a region.
+	 */
+	public StarConvexPolyhedronLabelImg getLabelImg()
+	{
+		return img;
+	}
+
+	@Override
+	public boolean isPresent( final int t )
+	{
+		return t == timepoint;
+	}
+
+	@Override
+	public RandomAccessibleInterval< UnsignedIntType > getSource( final int t, final int level )
+	{
+		return img;
+	}
+
+	@Override
+	public RealRandomAccessible< UnsignedIntType > getInterpolatedSource( final int t, final int level, final Interpolation method )
+	{
+		return Views.interpolate( Views.extendZero( img ), new NearestNeighborInterpolatorFactory<>() );
+	}
+
+	@Override
+	public void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
+	{
+		transform.set( sourceTransform );
+	}
+
+	@Override
+	public UnsignedIntType getType()
+	{
+		return new UnsignedIntType();
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions()
+	{
+		return new FinalVoxelDimensions( "pixel", 1, 1, 1 );
+	}
+
+	@Override
+	public int getNumMipmapLevels()
+	{
+		return 1;
+	}
+}
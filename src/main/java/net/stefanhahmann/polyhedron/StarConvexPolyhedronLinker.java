@@ -0,0 +1,445 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.FinalRealInterval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Links star convex polyhedra of consecutive timepoints by their overlap.<p>
+ * Candidate pairs are found with a {@link StarConvexPolyhedronIndex} over the bounding boxes of the polyhedra of the later timepoint. For
+ * each candidate pair, the intersection over union (IoU) is computed by counting the points of a regular grid, which lie inside both
+ * polyhedra, only within the intersection of their bounding boxes. The volumes of the single polyhedra are counted once per polyhedron on the
+ * same grid. The result is a sparse matrix of overlaps, from which links are selected either greedily by decreasing IoU or by an optimal
+ * assignment (Hungarian method) per connected component of the candidate graph. Thus, the effort grows linearly with the number of
+ * polyhedra, as long as each polyhedron only overlaps with few others.<p>
+ * The polyhedra are expected in (isotropic) voxel coordinates, such that a grid step of 1 samples each voxel once.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronLinker
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	/**
+	 * The method to select links from the overlaps.
+	 */
+	public enum Assignment
+	{
+		/**
+		 * Links the pairs in order of decreasing IoU, as long as both polyhedra are not linked yet.
+		 */
+		GREEDY,
+		/**
+		 * Links the pairs, such that the sum of the IoU of all links is maximal.
+		 */
+		HUNGARIAN
+	}
+
+	private final double minimumIou;
+
+	private double samplingStep = 1;
+
+	private Assignment assignment = Assignment.HUNGARIAN;
+
+	/**
+	 * Creates a linker.
+	 *
+	 * @param minimumIou the minimum IoU of two polyhedra to be linked. Must be within (0, 1].
+	 */
+	public StarConvexPolyhedronLinker( final double minimumIou )
+	{
+		if ( !( minimumIou > 0 && minimumIou <= 1 ) )
+			throw new IllegalArgumentException( "minimumIou must be within (0, 1], but is: " + minimumIou );
+		this.minimumIou = minimumIou;
+	}
+
+	/**
+	 * @return the minimum IoU of two polyhedra to be linked.
+	 */
+	public double getMinimumIou()
+	{
+		return minimumIou;
+	}
+
+	/**
+	 * Sets the distance between the points of the grid, on which volumes are counted. Default: 1, i.e. one point per voxel. Larger steps are
+	 * faster, but less accurate for small polyhedra.
+	 *
+	 * @param samplingStep the distance between grid points. Must be positive.
+	 */
+	public void setSamplingStep( final double samplingStep )
+	{
+		if ( !( samplingStep > 0 ) )
+			throw new IllegalArgumentException( "samplingStep must be positive, but is: " + samplingStep );
+		this.samplingStep = samplingStep;
+	}
+
+	/**
+	 * Sets the method to select links from the overlaps. Default: {@link Assignment#HUNGARIAN}.
+	 *
+	 * @param assignment the method.
+	 */
+	public void setAssignment( final Assignment assignment )
+	{
+		if ( assignment == null )
+			throw new IllegalArgumentException( "assignment cannot be null." );
+		this.assignment = assignment;
+	}
+
+	/**
+	 * Links the polyhedra of each pair of consecutive timepoints. The pairs of timepoints are processed in parallel.
+	 *
+	 * @param timepoints the polyhedra per timepoint.
+	 * @return per pair of consecutive timepoints {@code t} and {@code t + 1}, the index of the linked polyhedron at {@code t + 1} for each
+	 *         polyhedron at {@code t}, or -1, if it is not linked. The result has one entry less than the given list.
+	 */
+	public List< int[] > link( final List< List< StarConvexPolyhedron > > timepoints )
+	{
+		return IntStream.range( 0, Math.max( 0, timepoints.size() - 1 ) ).parallel()
+				.mapToObj( t -> link( timepoints.get( t ), timepoints.get( t + 1 ) ) )
+				.collect( Collectors.toList() );
+	}
+
+	/**
+	 * Links the given source polyhedra to the given target polyhedra.
+	 *
+	 * @param sources the polyhedra of the earlier timepoint.
+	 * @param targets the polyhedra of the later timepoint.
+	 * @return the index of the linked target for each source, or -1, if it is not linked.
+	 */
+	public int[] link( final List< StarConvexPolyhedron > sources, final List< StarConvexPolyhedron > targets )
+	{
+		StarConvexPolyhedronOverlaps overlaps = overlaps( sources, targets );
+		int[] links = assignment == Assignment.GREEDY ? greedy( overlaps ) : hungarian( overlaps );
+		logger.debug( "linked {} of {} polyhedra to {} polyhedra, {} candidate pairs.", Arrays.stream( links ).filter( l -> l >= 0 ).count(),
+				sources.size(), targets.size(), overlaps.size() );
+		return links;
+	}
+
+	/**
+	 * Computes the overlaps of all pairs of the given source and target polyhedra, whose IoU is at least the minimum IoU of this linker.
+	 *
+	 * @param sources the source polyhedra.
+	 * @param targets the target polyhedra.
+	 * @return the sparse matrix of overlaps.
+	 */
+	public StarConvexPolyhedronOverlaps overlaps( final List< StarConvexPolyhedron > sources, final List< StarConvexPolyhedron > targets )
+	{
+		return overlaps( sources, targets, false );
+	}
+
+	/**
+	 * Computes the overlaps of all pairs of distinct polyhedra of the given list, whose IoU is at least the minimum IoU of this linker, e.g.
+	 * for non-maximum suppression. The IoU is symmetric, so each pair is computed once and stored once with the lower index as source and
+	 * the higher index as target. The volume of each polyhedron is counted once. The result contains the entries of
+	 * {@link #overlaps(List, List) overlaps( polyhedra, polyhedra )} with {@code target > source}, at about half of the cost.
+	 *
+	 * @param polyhedra the polyhedra.
+	 * @return the sparse matrix of overlaps with entries above the diagonal only.
+	 */
+	public StarConvexPolyhedronOverlaps overlaps( final List< StarConvexPolyhedron > polyhedra )
+	{
+		return overlaps( polyhedra, polyhedra, true );
+	}
+
+	/**
+	 * Computes the overlaps of the given source and target polyhedra. If {@code symmetric} is set, sources and targets are the same
+	 * polyhedra and only the pairs with {@code target > source} are computed.
+	 */
+	private StarConvexPolyhedronOverlaps overlaps( final List< StarConvexPolyhedron > sources, final List< StarConvexPolyhedron > targets,
+			final boolean symmetric )
+	{
+		final StarConvexPolyhedronIndex index = new StarConvexPolyhedronIndex( targets );
+		final long[] sourceVolumes = sources.parallelStream().mapToLong( p -> count( p, null, boundingBox( p ) ) ).toArray();
+		final long[] targetVolumes =
+				symmetric ? sourceVolumes : targets.parallelStream().mapToLong( p -> count( p, null, boundingBox( p ) ) ).toArray();
+		final List< double[] > entries = IntStream.range( 0, sources.size() ).parallel().boxed().flatMap( s -> {
+			StarConvexPolyhedron source = sources.get( s );
+			double[] box = boundingBox( source );
+			List< double[] > pairs = new ArrayList<>();
+			int[] candidates = index.findIntersecting( new FinalRealInterval( new double[] { box[ 0 ], box[ 1 ], box[ 2 ] },
+					new double[] { box[ 3 ], box[ 4 ], box[ 5 ] } ) );
+			// the entries are sorted by source and then by target
+			Arrays.sort( candidates );
+			for ( int t : candidates )
+			{
+				if ( symmetric && t <= s )
+					continue;
+				double[] intersection = intersect( box, boundingBox( targets.get( t ) ) );
+				if ( intersection == null )
+					continue;
+				long inBoth = count( source, targets.get( t ), intersection );
+				if ( inBoth == 0 )
+					continue;
+				double iou = ( double ) inBoth / ( sourceVolumes[ s ] + targetVolumes[ t ] - inBoth );
+				if ( iou >= minimumIou )
+					pairs.add( new double[] { s, t, iou } );
+			}
+			return pairs.stream();
+		} ).collect( Collectors.toList() );
+
+		final int n = entries.size();
+		final int[] sourceIndices = new int[ n ];
+		final int[] targetIndices = new int[ n ];
+		final double[] iou = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			double[] entry = entries.get( i );
+			sourceIndices[ i ] = ( int ) entry[ 0 ];
+			targetIndices[ i ] = ( int ) entry[ 1 ];
+			iou[ i ] = entry[ 2 ];
+		}
+		return new StarConvexPolyhedronOverlaps( sources.size(), targets.size(), sourceIndices, targetIndices, iou );
+	}
+
+	/**
+	 * Counts the grid points within the given box, which lie inside the first polyhedron and, if given, inside the second polyhedron.
+	 */
+	private long count( final StarConvexPolyhedron first, final StarConvexPolyhedron second, final double[] box )
+	{
+		final long minX = ( long ) Math.ceil( box[ 0 ] / samplingStep );
+		final long maxX = ( long ) Math.floor( box[ 3 ] / samplingStep );
+		final long minY = ( long ) Math.ceil( box[ 1 ] / samplingStep );
+		final long maxY = ( long ) Math.floor( box[ 4 ] / samplingStep );
+		final long minZ = ( long ) Math.ceil( box[ 2 ] / samplingStep );
+		final long maxZ = ( long ) Math.floor( box[ 5 ] / samplingStep );
+		if ( minX > maxX || minY > maxY || minZ > maxZ )
+			return 0;
+		final int length = ( int ) ( maxX - minX + 1 );
+		final double[] row = new double[ 3 * length ];
+		final long[] insideFirst = new long[ ( length + 63 ) / 64 ];
+		final long[] insideSecond = new long[ insideFirst.length ];
+		for ( int x = 0; x < length; x++ )
+			row[ 3 * x ] = ( minX + x ) * samplingStep;
+		long count = 0;
+		for ( long z = minZ; z <= maxZ; z++ )
+			for ( long y = minY; y <= maxY; y++ )
+			{
+				for ( int x = 0; x < length; x++ )
+				{
+					row[ 3 * x + 1 ] = y * samplingStep;
+					row[ 3 * x + 2 ] = z * samplingStep;
+				}
+				first.containsBatch( row, length, insideFirst );
+				if ( second != null )
+					second.containsBatch( row, length, insideSecond );
+				for ( int w = 0; w < insideFirst.length; w++ )
+					count += Long.bitCount( second == null ? insideFirst[ w ] : insideFirst[ w ] & insideSecond[ w ] );
+			}
+		return count;
+	}
+
+	private static double[] boundingBox( final StarConvexPolyhedron polyhedron )
+	{
+		double[] min = polyhedron.getBoundingBox3D().getMinPoint();
+		double[] max = polyhedron.getBoundingBox3D().getMaxPoint();
+		return new double[] { min[ 0 ], min[ 1 ], min[ 2 ], max[ 0 ], max[ 1 ], max[ 2 ] };
+	}
+
+	private static double[] intersect( final double[] a, final double[] b )
+	{
+		double[] result = new double[ 6 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			result[ d ] = Math.max( a[ d ], b[ d ] );
+			result[ d + 3 ] = Math.min( a[ d + 3 ], b[ d + 3 ] );
+			if ( result[ d ] > result[ d + 3 ] )
+				return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Links the pairs in order of decreasing IoU, as long as both polyhedra are not linked yet.
+	 */
+	static int[] greedy( final StarConvexPolyhedronOverlaps overlaps )
+	{
+		final int[] links = new int[ overlaps.numSources() ];
+		Arrays.fill( links, -1 );
+		final boolean[] linkedTargets = new boolean[ overlaps.numTargets() ];
+		final int[] order = IntStream.range( 0, overlaps.size() ).boxed()
+				.sorted( Comparator.comparingDouble( overlaps::iou ).reversed() )
+				.mapToInt( Integer::intValue ).toArray();
+		for ( int entry : order )
+		{
+			int source = overlaps.source( entry );
+			int target = overlaps.target( entry );
+			if ( links[ source ] < 0 && !linkedTargets[ target ] )
+			{
+				links[ source ] = target;
+				linkedTargets[ target ] = true;
+			}
+		}
+		return links;
+	}
+
+	/**
+	 * Links the pairs, such that the sum of the IoU of all links is maximal. The assignment problem is solved separately for each connected
+	 * component of the bipartite graph of overlapping pairs.
+	 */
+	static int[] hungarian( final StarConvexPolyhedronOverlaps overlaps )
+	{
+		return hungarian( overlaps, false );
+	}
+
+	/**
+	 * Links the pairs, such that the sum of the IoU of all links is maximal. If {@code maximiseLinks} is set, the number of links is
+	 * maximised first and the sum of the IoU only decides between assignments with the same number of links.
+	 */
+	static int[] hungarian( final StarConvexPolyhedronOverlaps overlaps, final boolean maximiseLinks )
+	{
+		final int numSources = overlaps.numSources();
+		final int[] links = new int[ numSources ];
+		Arrays.fill( links, -1 );
+
+		// connected components, sources are nodes 0 .. numSources - 1, targets follow
+		final int[] parent = IntStream.range( 0, numSources + overlaps.numTargets() ).toArray();
+		for ( int e = 0; e < overlaps.size(); e++ )
+			union( parent, overlaps.source( e ), numSources + overlaps.target( e ) );
+		final int[] order = IntStream.range( 0, overlaps.size() ).boxed()
+				.sorted( Comparator.comparingInt( e -> find( parent, overlaps.source( e ) ) ) )
+				.mapToInt( Integer::intValue ).toArray();
+
+		for ( int begin = 0; begin < order.length; )
+		{
+			int component = find( parent, overlaps.source( order[ begin ] ) );
+			int end = begin;
+			while ( end < order.length && find( parent, overlaps.source( order[ end ] ) ) == component )
+				end++;
+			assignComponent( overlaps, Arrays.copyOfRange( order, begin, end ), maximiseLinks, links );
+			begin = end;
+		}
+		return links;
+	}
+
+	private static void assignComponent( final StarConvexPolyhedronOverlaps overlaps, final int[] entries, final boolean maximiseLinks,
+			final int[] links )
+	{
+		// local indices of the sources and targets of the component
+		final int[] rows = Arrays.stream( entries ).map( overlaps::source ).distinct().sorted().toArray();
+		final int[] columns = Arrays.stream( entries ).map( overlaps::target ).distinct().sorted().toArray();
+		final boolean transposed = rows.length > columns.length;
+		final int n = transposed ? columns.length : rows.length;
+		final int m = transposed ? rows.length : columns.length;
+		// cost 1 for pairs without overlap, such that linking them is never better than not linking
+		final double[][] cost = new double[ n ][ m ];
+		for ( double[] line : cost )
+			Arrays.fill( line, 1 );
+		final boolean[][] overlapping = new boolean[ n ][ m ];
+		for ( int e : entries )
+		{
+			int row = Arrays.binarySearch( rows, overlaps.source( e ) );
+			int column = Arrays.binarySearch( columns, overlaps.target( e ) );
+			int i = transposed ? column : row;
+			int j = transposed ? row : column;
+			// scaled by 1 / ( 2 n ), the IoU of all links sums up to at most 1 / 2, so one more link always lowers the cost
+			cost[ i ][ j ] = maximiseLinks ? -overlaps.iou( e ) / ( 2 * n ) : overlaps.cost( e );
+			overlapping[ i ][ j ] = true;
+		}
+		final int[] assigned = solveAssignment( cost, n, m );
+		for ( int i = 0; i < n; i++ )
+		{
+			int j = assigned[ i ];
+			if ( !overlapping[ i ][ j ] )
+				continue;
+			if ( transposed )
+				links[ rows[ j ] ] = columns[ i ];
+			else
+				links[ rows[ i ] ] = columns[ j ];
+		}
+	}
+
+	/**
+	 * Solves the assignment problem for the given cost matrix with {@code n <= m} by the Hungarian method with potentials in
+	 * {@code O(n^2 m)}.
+	 *
+	 * @return the column assigned to each row.
+	 */
+	static int[] solveAssignment( final double[][] cost, final int n, final int m )
+	{
+		final double[] u = new double[ n + 1 ];
+		final double[] v = new double[ m + 1 ];
+		// p[j]: row assigned to column j, 1 based, 0 if none
+		final int[] p = new int[ m + 1 ];
+		final int[] way = new int[ m + 1 ];
+		final double[] minv = new double[ m + 1 ];
+		final boolean[] used = new boolean[ m + 1 ];
+		for ( int i = 1; i <= n; i++ )
+		{
+			p[ 0 ] = i;
+			int j0 = 0;
+			Arrays.fill( minv, Double.POSITIVE_INFINITY );
+			Arrays.fill( used, false );
+			do
+			{
+				used[ j0 ] = true;
+				int i0 = p[ j0 ];
+				int j1 = 0;
+				double delta = Double.POSITIVE_INFINITY;
+				for ( int j = 1; j <= m; j++ )
+				{
+					if ( used[ j ] )
+						continue;
+					double current = cost[ i0 - 1 ][ j - 1 ] - u[ i0 ] - v[ j ];
+					if ( current < minv[ j ] )
+					{
+						minv[ j ] = current;
+						way[ j ] = j0;
+					}
+					if ( minv[ j ] < delta )
+					{
+						delta = minv[ j ];
+						j1 = j;
+					}
+				}
+				for ( int j = 0; j <= m; j++ )
+				{
+					if ( used[ j ] )
+					{
+						u[ p[ j ] ] += delta;
+						v[ j ] -= delta;
+					}
+					else
+						minv[ j ] -= delta;
+				}
+				j0 = j1;
+			}
+			while ( p[ j0 ] != 0 );
+			do
+			{
+				int j1 = way[ j0 ];
+				p[ j0 ] = p[ j1 ];
+				j0 = j1;
+			}
+			while ( j0 != 0 );
+		}
+		final int[] assigned = new int[ n ];
+		for ( int j = 1; j <= m; j++ )
+			if ( p[ j ] != 0 )
+				assigned[ p[ j ] - 1 ] = j - 1;
+		return assigned;
+	}
+
+	private static int find( final int[] parent, int node )
+	{
+		while ( parent[ node ] != node )
+		{
+			parent[ node ] = parent[ parent[ node ] ];
+			node = parent[ node ];
+		}
+		return node;
+	}
+
+	private static void union( final int[] parent, final int a, final int b )
+	{
+		parent[ find( parent, a ) ] = find( parent, b );
+	}
+}
@@ -0,0 +1,111 @@
+package net.stefanhahmann.polyhedron;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * Triangle mesh of the surfaces of many star convex polyhedra in direct buffers, e.g. for uploading to OpenGL or for in-process
+ * analysis.<p>
+ * The vertices of all polyhedra are stored one after another in a {@link FloatBuffer} (xyz interleaved). The triangles are stored as
+ * vertex indices into this buffer in an {@link IntBuffer}, 3 per triangle. The triangles of each polyhedron are taken from its shared
+ * {@link FaceTopology}.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronMesh
+{
+	private final FloatBuffer vertices;
+
+	private final IntBuffer indices;
+
+	private final int[] vertexOffsets;
+
+	private StarConvexPolyhedronMesh( final FloatBuffer vertices, final IntBuffer indices, final int[] vertexOffsets )
+	{
+		this.vertices = vertices;
+		this.indices = indices;
+		this.vertexOffsets = vertexOffsets;
+	}
+
+	/**
+	 * Creates the mesh of the given polyhedra.
+	 *
+	 * @param polyhedra the polyhedra.
+	 * @return the mesh.
+	 */
+	public static StarConvexPolyhedronMesh of( final List< StarConvexPolyhedron > polyhedra )
+	{
+		final int[] vertexOffsets = new int[ polyhedra.size() + 1 ];
+		long numVertices = 0;
+		long numIndices = 0;
+		for ( int i = 0; i < polyhedra.size(); i++ )
+		{
+			vertexOffsets[ i ] = ( int ) numVertices;
+			StarConvexPolyhedron polyhedron = polyhedra.get( i );
+			numVertices += polyhedron.getPoints().size();
+			numIndices += 3L * polyhedron.getFaceTopology().numTriangles();
+		}
+		if ( 3 * numVertices > Integer.MAX_VALUE / 4 || numIndices > Integer.MAX_VALUE / 4 )
+			throw new IllegalArgumentException( "Too many polyhedra for a single mesh: " + polyhedra.size() );
+		vertexOffsets[ polyhedra.size() ] = ( int ) numVertices;
+
+		final FloatBuffer vertices = ByteBuffer.allocateDirect( ( int ) ( 12 * numVertices ) ).order( ByteOrder.nativeOrder() ).asFloatBuffer();
+		final IntBuffer indices = ByteBuffer.allocateDirect( ( int ) ( 4 * numIndices ) ).order( ByteOrder.nativeOrder() ).asIntBuffer();
+		for ( int i = 0; i < polyhedra.size(); i++ )
+		{
+			StarConvexPolyhedron polyhedron = polyhedra.get( i );
+			for ( double[] point : polyhedron.getPoints() )
+				vertices.put( ( float ) point[ 0 ] ).put( ( float ) point[ 1 ] ).put( ( float ) point[ 2 ] );
+			int offset = vertexOffsets[ i ];
+			for ( int index : polyhedron.getFaceTopology().triangles() )
+				indices.put( offset + index );
+		}
+		vertices.flip();
+		indices.flip();
+		return new StarConvexPolyhedronMesh( vertices, indices, vertexOffsets );
+	}
+
+	/**
+	 * @return a read only view of the vertices, xyz interleaved.
+	 */
+	public FloatBuffer getVertices()
+	{
+		return vertices.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a read only view of the vertex indices, 3 per triangle.
+	 */
+	public IntBuffer getIndices()
+	{
+		return indices.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return the number of vertices.
+	 */
+	public int numVertices()
+	{
+		return vertices.limit() / 3;
+	}
+
+	/**
+	 * @return the number of triangles.
+	 */
+	public int numTriangles()
+	{
+		return indices.limit() / 3;
+	}
+
+	/**
+	 * @param polyhedron the index of the polyhedron.
+	 * @return the index of the first vertex of the given polyhedron.
+	 */
+	public int firstVertex( final int polyhedron )
+	{
+		return vertexOffsets[ polyhedron ];
+	}
+}
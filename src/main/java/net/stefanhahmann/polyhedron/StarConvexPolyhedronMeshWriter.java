@@ -0,0 +1,338 @@
+package net.stefanhahmann.polyhedron;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the surfaces of many star convex polyhedra into a single triangle mesh file.<p>
+ * The polyhedra are streamed, i.e. each added polyhedron is written immediately and the memory used by the writer does not grow with the
+ * number of polyhedra. The triangles of each polyhedron are taken from its {@link FaceTopology}, which is shared by all polyhedra with the
+ * same lattice, so no polyhedron is triangulated on its own. Supported formats are binary PLY, binary STL and OBJ. Element counts required
+ * by the headers of PLY and STL are patched in on {@link #close()}.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronMeshWriter implements Closeable
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	/**
+	 * The supported mesh formats.
+	 */
+	public enum Format
+	{
+		/**
+		 * Binary little endian PLY with float vertices and int vertex indices. Vertices are shared between the triangles of a polyhedron.
+		 */
+		PLY,
+		/**
+		 * Wavefront OBJ, which is a text format. Each polyhedron is written as an object of its own.
+		 */
+		OBJ,
+		/**
+		 * Binary STL. Each triangle stores its own vertices and its normal.
+		 */
+		STL
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int STL_HEADER_SIZE = 80;
+
+	/**
+	 * Width of the element counts in the PLY header, such that the header can be patched in place.
+	 */
+	private static final int PLY_COUNT_WIDTH = 10;
+
+	private final Format format;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+
+	/**
+	 * Runs of consecutive polyhedra with the same topology, whose faces are written after all vertices in PLY files.
+	 */
+	private final List< FaceTopology > runTopologies = new ArrayList<>();
+
+	private final List< long[] > runCounts = new ArrayList<>();
+
+	private long numPolyhedra;
+
+	private long numVertices;
+
+	private long numTriangles;
+
+	private boolean closed;
+
+	/**
+	 * Creates a writer for the format given by the file extension ({@code .ply}, {@code .obj} or {@code .stl}).
+	 *
+	 * @param path the path of the file to write. An existing file is overwritten.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public StarConvexPolyhedronMeshWriter( final Path path ) throws IOException
+	{
+		this( path, formatOf( path ) );
+	}
+
+	/**
+	 * Creates a writer for the given format.
+	 *
+	 * @param path the path of the file to write. An existing file is overwritten.
+	 * @param format the format of the file.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public StarConvexPolyhedronMeshWriter( final Path path, final Format format ) throws IOException
+	{
+		if ( path == null )
+			throw new IllegalArgumentException( "path cannot be null." );
+		if ( format == null )
+			throw new IllegalArgumentException( "format cannot be null." );
+		this.format = format;
+		this.channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+		switch ( format )
+		{
+		case PLY:
+			putAscii( plyHeader() );
+			break;
+		case STL:
+			putAscii( "binary STL of star convex polyhedra" );
+			while ( buffer.position() < STL_HEADER_SIZE + 4 )
+				buffer.put( ( byte ) 0 );
+			break;
+		default:
+			putAscii( "# star convex polyhedra\n" );
+		}
+	}
+
+	private static Format formatOf( final Path path )
+	{
+		String name = path.getFileName().toString().toLowerCase( Locale.ROOT );
+		for ( Format format : Format.values() )
+			if ( name.endsWith( "." + format.name().toLowerCase( Locale.ROOT ) ) )
+				return format;
+		throw new IllegalArgumentException( "Cannot derive mesh format from file name: " + name );
+	}
+
+	/**
+	 * Writes the surface of the given polyhedron.
+	 *
+	 * @param polyhedron the polyhedron.
+	 * @throws IOException if the polyhedron cannot be written.
+	 */
+	public void add( final StarConvexPolyhedron polyhedron ) throws IOException
+	{
+		if ( closed )
+			throw new IllegalStateException( "Writer has already been closed." );
+		final List< double[] > points = polyhedron.getPoints();
+		final FaceTopology topology = polyhedron.getFaceTopology();
+		switch ( format )
+		{
+		case PLY:
+			for ( double[] point : points )
+				putVertex( point );
+			addRun( topology );
+			break;
+		case STL:
+			final int[] triangles = topology.triangles();
+			for ( int t = 0; t < triangles.length; t += 3 )
+				putStlTriangle( points.get( triangles[ t ] ), points.get( triangles[ t + 1 ] ), points.get( triangles[ t + 2 ] ) );
+			break;
+		default:
+			putObj( points, topology );
+		}
+		numPolyhedra++;
+		numVertices += points.size();
+		numTriangles += topology.numTriangles();
+	}
+
+	/**
+	 * Writes the surfaces of the given polyhedra.
+	 *
+	 * @param polyhedra the polyhedra.
+	 * @throws IOException if a polyhedron cannot be written.
+	 */
+	public void addAll( final Iterable< StarConvexPolyhedron > polyhedra ) throws IOException
+	{
+		for ( StarConvexPolyhedron polyhedron : polyhedra )
+			add( polyhedron );
+	}
+
+	private void addRun( final FaceTopology topology )
+	{
+		int last = runTopologies.size() - 1;
+		if ( last >= 0 && runTopologies.get( last ) == topology )
+		{
+			runCounts.get( last )[ 0 ]++;
+			return;
+		}
+		runTopologies.add( topology );
+		runCounts.add( new long[] { 1 } );
+	}
+
+	/**
+	 * Completes the file. For PLY files, the faces are written after the vertices.
+	 *
+	 * @throws IOException if the file cannot be written.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if ( closed )
+			return;
+		closed = true;
+		try
+		{
+			if ( format == Format.PLY )
+				putPlyFaces();
+			flush();
+			if ( format == Format.PLY )
+			{
+				channel.write( ByteBuffer.wrap( plyHeader().getBytes( StandardCharsets.US_ASCII ) ), 0 );
+			}
+			else if ( format == Format.STL )
+			{
+				if ( numTriangles > 0xffffffffL )
+					throw new IOException( "Binary STL supports at most 2^32 - 1 triangles, but got: " + numTriangles );
+				ByteBuffer count = ByteBuffer.allocate( 4 ).order( ByteOrder.LITTLE_ENDIAN ).putInt( ( int ) numTriangles );
+				count.flip();
+				channel.write( count, STL_HEADER_SIZE );
+			}
+			logger.debug( "wrote {} polyhedra with {} vertices and {} triangles as {}.", numPolyhedra, numVertices, numTriangles, format );
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private String plyHeader()
+	{
+		return "ply\n"
+				+ "format binary_little_endian 1.0\n"
+				+ "comment star convex polyhedra\n"
+				+ "element vertex " + padded( numVertices ) + "\n"
+				+ "property float x\n"
+				+ "property float y\n"
+				+ "property float z\n"
+				+ "element face " + padded( numTriangles ) + "\n"
+				+ "property list uchar int vertex_indices\n"
+				+ "end_header\n";
+	}
+
+	private static String padded( final long count )
+	{
+		StringBuilder value = new StringBuilder( Long.toString( count ) );
+		while ( value.length() < PLY_COUNT_WIDTH )
+			value.insert( 0, '0' );
+		return value.toString();
+	}
+
+	private void putPlyFaces() throws IOException
+	{
+		long vertexOffset = 0;
+		for ( int r = 0; r < runTopologies.size(); r++ )
+		{
+			FaceTopology topology = runTopologies.get( r );
+			int[] triangles = topology.triangles();
+			for ( long i = 0; i < runCounts.get( r )[ 0 ]; i++ )
+			{
+				if ( vertexOffset + topology.numVertices() > Integer.MAX_VALUE )
+					throw new IOException( "PLY vertex indices are limited to " + Integer.MAX_VALUE + "." );
+				for ( int t = 0; t < triangles.length; t += 3 )
+				{
+					ensureRemaining( 13 );
+					buffer.put( ( byte ) 3 );
+					buffer.putInt( ( int ) ( vertexOffset + triangles[ t ] ) );
+					buffer.putInt( ( int ) ( vertexOffset + triangles[ t + 1 ] ) );
+					buffer.putInt( ( int ) ( vertexOffset + triangles[ t + 2 ] ) );
+				}
+				vertexOffset += topology.numVertices();
+			}
+		}
+	}
+
+	private void putVertex( final double[] point ) throws IOException
+	{
+		ensureRemaining( 12 );
+		buffer.putFloat( ( float ) point[ 0 ] );
+		buffer.putFloat( ( float ) point[ 1 ] );
+		buffer.putFloat( ( float ) point[ 2 ] );
+	}
+
+	private void putStlTriangle( final double[] a, final double[] b, final double[] c ) throws IOException
+	{
+		double e1x = b[ 0 ] - a[ 0 ], e1y = b[ 1 ] - a[ 1 ], e1z = b[ 2 ] - a[ 2 ];
+		double e2x = c[ 0 ] - a[ 0 ], e2y = c[ 1 ] - a[ 1 ], e2z = c[ 2 ] - a[ 2 ];
+		double nx = e1y * e2z - e1z * e2y;
+		double ny = e1z * e2x - e1x * e2z;
+		double nz = e1x * e2y - e1y * e2x;
+		double norm = Math.sqrt( nx * nx + ny * ny + nz * nz );
+		double inverseNorm = norm > 0 ? 1 / norm : 0;
+		ensureRemaining( 50 );
+		buffer.putFloat( ( float ) ( nx * inverseNorm ) );
+		buffer.putFloat( ( float ) ( ny * inverseNorm ) );
+		buffer.putFloat( ( float ) ( nz * inverseNorm ) );
+		putVertex( a );
+		putVertex( b );
+		putVertex( c );
+		buffer.putShort( ( short ) 0 );
+	}
+
+	private void putObj( final List< double[] > points, final FaceTopology topology ) throws IOException
+	{
+		StringBuilder text = new StringBuilder();
+		text.append( "o polyhedron_" ).append( numPolyhedra ).append( '\n' );
+		for ( double[] point : points )
+			text.append( "v " ).append( ( float ) point[ 0 ] ).append( ' ' ).append( ( float ) point[ 1 ] ).append( ' ' )
+					.append( ( float ) point[ 2 ] ).append( '\n' );
+		// OBJ indices are 1 based
+		long offset = numVertices + 1;
+		int[] triangles = topology.triangles();
+		for ( int t = 0; t < triangles.length; t += 3 )
+			text.append( "f " ).append( offset + triangles[ t ] ).append( ' ' ).append( offset + triangles[ t + 1 ] ).append( ' ' )
+					.append( offset + triangles[ t + 2 ] ).append( '\n' );
+		putAscii( text.toString() );
+	}
+
+	private void putAscii( final String text ) throws IOException
+	{
+		byte[] bytes = text.getBytes( StandardCharsets.US_ASCII );
+		int written = 0;
+		while ( written < bytes.length )
+		{
+			ensureRemaining( 1 );
+			int length = Math.min( buffer.remaining(), bytes.length - written );
+			buffer.put( bytes, written, length );
+			written += length;
+		}
+	}
+
+	private void ensureRemaining( final int bytes ) throws IOException
+	{
+		if ( buffer.remaining() < bytes )
+			flush();
+	}
+
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+		buffer.clear();
+	}
+}
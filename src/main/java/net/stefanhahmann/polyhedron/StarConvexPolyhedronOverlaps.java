@@ -0,0 +1,91 @@
+package net.stefanhahmann.polyhedron;
+
+/**
+ * Sparse matrix of the overlaps between two collections of star convex polyhedra, e.g. the detections of two consecutive timepoints, as
+ * computed by {@link StarConvexPolyhedronLinker}.<p>
+ * Only pairs with an IoU of at least the minimum IoU of the linker are stored. The entries are sorted by source index and then by target index. The cost of linking
+ * a pair is {@code 1 - iou}.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronOverlaps
+{
+	private final int numSources;
+
+	private final int numTargets;
+
+	private final int[] sources;
+
+	private final int[] targets;
+
+	private final double[] iou;
+
+	StarConvexPolyhedronOverlaps( final int numSources, final int numTargets, final int[] sources, final int[] targets, final double[] iou )
+	{
+		this.numSources = numSources;
+		this.numTargets = numTargets;
+		this.sources = sources;
+		this.targets = targets;
+		this.iou = iou;
+	}
+
+	/**
+	 * @return the number of polyhedra in the source collection.
+	 */
+	public int numSources()
+	{
+		return numSources;
+	}
+
+	/**
+	 * @return the number of polyhedra in the target collection.
+	 */
+	public int numTargets()
+	{
+		return numTargets;
+	}
+
+	/**
+	 * @return the number of overlapping pairs.
+	 */
+	public int size()
+	{
+		return sources.length;
+	}
+
+	/**
+	 * @param entry the index of the entry.
+	 * @return the index of the source polyhedron of the given entry.
+	 */
+	public int source( final int entry )
+	{
+		return sources[ entry ];
+	}
+
+	/**
+	 * @param entry the index of the entry.
+	 * @return the index of the target polyhedron of the given entry.
+	 */
+	public int target( final int entry )
+	{
+		return targets[ entry ];
+	}
+
+	/**
+	 * @param entry the index of the entry.
+	 * @return the intersection over union of the polyhedra of the given entry, within (0, 1].
+	 */
+	public double iou( final int entry )
+	{
+		return iou[ entry ];
+	}
+
+	/**
+	 * @param entry the index of the entry.
+	 * @return the cost of linking the polyhedra of the given entry, i.e. {@code 1 - iou}.
+	 */
+	public double cost( final int entry )
+	{
+		return 1 - iou[ entry ];
+	}
+}
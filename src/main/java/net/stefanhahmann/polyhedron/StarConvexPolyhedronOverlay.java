@@ -0,0 +1,191 @@
+package net.stefanhahmann.polyhedron;
+
+import bdv.viewer.OverlayRenderer;
+import bdv.viewer.TransformListener;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BigDataViewer overlay, which draws the outlines of star convex polyhedra in the current slice.<p>
+ * The outlines are computed analytically by {@link StarConvexPolyhedron#crossSection(AffineTransform3D)}. Only polyhedra, whose bounding
+ * boxes intersect the current slice, are taken into account. The outlines are cached per slice, i.e. per viewer transform without its
+ * translation within the slice, so panning and repainting do not recompute them and scrolling back to a recently visited slice is cheap.<p>
+ * Usage:
+ * <pre>
+ * StarConvexPolyhedronOverlay overlay = new StarConvexPolyhedronOverlay( polyhedra );
+ * viewer.getDisplay().overlays().add( overlay );
+ * viewer.addTransformListener( overlay );
+ * </pre>
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronOverlay implements OverlayRenderer, TransformListener< AffineTransform3D >
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	/**
+	 * Number of slices, whose outlines are cached.
+	 */
+	private static final int CACHED_SLICES = 16;
+
+	private final AffineTransform3D viewerTransform = new AffineTransform3D();
+
+	private final Map< SliceKey, List< double[] > > outlineCache = new LinkedHashMap< SliceKey, List< double[] > >( CACHED_SLICES, 0.75f, true )
+	{
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< SliceKey, List< double[] > > eldest )
+		{
+			return size() > CACHED_SLICES;
+		}
+	};
+
+	private StarConvexPolyhedronIndex index;
+
+	private Color color = Color.MAGENTA;
+
+	/**
+	 * Creates an overlay for the given polyhedra, which are given in global coordinates.
+	 *
+	 * @param polyhedra the polyhedra to draw.
+	 */
+	public StarConvexPolyhedronOverlay( final List< StarConvexPolyhedron > polyhedra )
+	{
+		setPolyhedra( polyhedra );
+	}
+
+	/**
+	 * Replaces the polyhedra to draw, e.g. when the timepoint changes.
+	 *
+	 * @param polyhedra the polyhedra to draw.
+	 */
+	public synchronized void setPolyhedra( final List< StarConvexPolyhedron > polyhedra )
+	{
+		if ( polyhedra == null )
+			throw new IllegalArgumentException( "polyhedra cannot be null." );
+		index = new StarConvexPolyhedronIndex( polyhedra );
+		outlineCache.clear();
+	}
+
+	/**
+	 * @param color the color of the outlines.
+	 */
+	public synchronized void setColor( final Color color )
+	{
+		this.color = color;
+	}
+
+	@Override
+	public synchronized void transformChanged( final AffineTransform3D transform )
+	{
+		viewerTransform.set( transform );
+	}
+
+	@Override
+	public void setCanvasSize( final int width, final int height )
+	{
+		// outlines do not depend on the canvas size
+	}
+
+	@Override
+	public void drawOverlays( final Graphics g )
+	{
+		final double translationX;
+		final double translationY;
+		final List< double[] > outlines;
+		final Color outlineColor;
+		synchronized ( this )
+		{
+			translationX = viewerTransform.get( 0, 3 );
+			translationY = viewerTransform.get( 1, 3 );
+			outlines = getOutlines( viewerTransform );
+			outlineColor = color;
+		}
+
+		final Path2D.Double path = new Path2D.Double();
+		for ( double[] outline : outlines )
+		{
+			path.moveTo( outline[ 0 ] + translationX, outline[ 1 ] + translationY );
+			for ( int i = 2; i < outline.length; i += 2 )
+				path.lineTo( outline[ i ] + translationX, outline[ i + 1 ] + translationY );
+			path.closePath();
+		}
+		final Graphics2D graphics = ( Graphics2D ) g;
+		graphics.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+		graphics.setColor( outlineColor );
+		graphics.setStroke( new BasicStroke( 1 ) );
+		graphics.draw( path );
+	}
+
+	/**
+	 * Gets the outlines in the slice of the given viewer transform, relative to its translation within the slice.
+	 */
+	List< double[] > getOutlines( final AffineTransform3D transform )
+	{
+		final SliceKey key = new SliceKey( transform );
+		List< double[] > outlines = outlineCache.get( key );
+		if ( outlines == null )
+		{
+			outlines = computeOutlines( transform );
+			outlineCache.put( key, outlines );
+		}
+		return outlines;
+	}
+
+	private List< double[] > computeOutlines( final AffineTransform3D transform )
+	{
+		final AffineTransform3D slice = transform.copy();
+		slice.set( 0, 0, 3 );
+		slice.set( 0, 1, 3 );
+		final double[] normal = new double[] { slice.get( 2, 0 ), slice.get( 2, 1 ), slice.get( 2, 2 ) };
+		final int[] candidates = index.findIntersectingPlane( normal, slice.get( 2, 3 ) );
+		final List< double[] > outlines = new ArrayList<>();
+		for ( int i : candidates )
+			outlines.addAll( index.get( i ).crossSection( slice ) );
+		logger.debug( "computed {} outlines of {} polyhedra intersecting the slice.", outlines.size(), candidates.length );
+		return Collections.unmodifiableList( outlines );
+	}
+
+	/**
+	 * Identifies a slice by the rotation, scaling and z translation of a viewer transform. The translation within the slice does not change
+	 * the outlines relative to it.
+	 */
+	private static class SliceKey
+	{
+		private final double[] values = new double[ 10 ];
+
+		private SliceKey( final AffineTransform3D transform )
+		{
+			for ( int row = 0; row < 3; row++ )
+				for ( int column = 0; column < 3; column++ )
+					values[ 3 * row + column ] = transform.get( row, column );
+			values[ 9 ] = transform.get( 2, 3 );
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			return o instanceof SliceKey && Arrays.equals( values, ( ( SliceKey ) o ).values );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode( values );
+		}
+	}
+}
@@ -0,0 +1,389 @@
+package net.stefanhahmann.polyhedron;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads star convex polyhedra from a file written by {@link StarConvexPolyhedronWriter}.<p>
+ * Opening a file only reads its header and timepoint index. The columns are memory mapped, so the polyhedra are decoded on access and
+ * only the pages of the file, which contain the requested polyhedra, are read from disk. Thus, files with millions of polyhedra open
+ * instantly and random access to single polyhedra is cheap.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronReader
+{
+	/**
+	 * Size of the mapped regions. A power of 2, such that no element crosses the border of two regions.
+	 */
+	static final long DEFAULT_REGION_SIZE = 1L << 30;
+
+	private final long count;
+
+	private final double quantisationStep;
+
+	private final int[] timepoints;
+
+	private final long[] timepointStarts;
+
+	private final long[] timepointCounts;
+
+	private final MappedColumn centers;
+
+	private final MappedColumn scores;
+
+	private final MappedColumn rayCounts;
+
+	private final MappedColumn latticeIds;
+
+	private final MappedColumn distanceOffsets;
+
+	private final MappedColumn distances;
+
+	/**
+	 * The ray sets other than the Fibonacci lattice, the lattice id of a ray set is its index + 1.
+	 */
+	private final List< RaySet > raySets;
+
+	/**
+	 * Opens the given file.
+	 *
+	 * @param path the path of the file.
+	 * @throws IOException if the file cannot be read or has not been written by {@link StarConvexPolyhedronWriter}.
+	 */
+	public StarConvexPolyhedronReader( final Path path ) throws IOException
+	{
+		this( path, DEFAULT_REGION_SIZE );
+	}
+
+	StarConvexPolyhedronReader( final Path path, final long regionSize ) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ))
+		{
+			ByteBuffer header = read( channel, 0, StarConvexPolyhedronWriter.HEADER_SIZE );
+			if ( header.getInt() != StarConvexPolyhedronWriter.MAGIC )
+				throw new IOException( "File " + path + " is not a polyhedron file." );
+			int version = header.getInt();
+			if ( version < 1 || version > StarConvexPolyhedronWriter.VERSION )
+				throw new IOException( "Unsupported version of polyhedron file " + path + ": " + version );
+			boolean quantised = ( header.getInt() & StarConvexPolyhedronWriter.FLAG_QUANTISED ) != 0;
+			float step = header.getFloat();
+			this.quantisationStep = quantised ? step : 0;
+			this.count = header.getLong();
+			int numTimepoints = header.getInt();
+			header.getInt();
+			long[] offsets = new long[ 8 ];
+			for ( int i = 0; i < offsets.length; i++ )
+				offsets[ i ] = header.getLong();
+			if ( offsets[ 6 ] + numTimepoints * 24L > channel.size() )
+				throw new IOException( "File " + path + " is too short." );
+
+			this.centers = new MappedColumn( channel, offsets[ 0 ], count * 24, regionSize );
+			this.scores = new MappedColumn( channel, offsets[ 1 ], count * 4, regionSize );
+			this.rayCounts = new MappedColumn( channel, offsets[ 2 ], count * 2, regionSize );
+			this.latticeIds = new MappedColumn( channel, offsets[ 3 ], count, regionSize );
+			this.distanceOffsets = new MappedColumn( channel, offsets[ 4 ], count * 8, regionSize );
+			this.distances = new MappedColumn( channel, offsets[ 5 ], offsets[ 6 ] - offsets[ 5 ], regionSize );
+
+			ByteBuffer index = read( channel, offsets[ 6 ], numTimepoints * 24 );
+			this.timepoints = new int[ numTimepoints ];
+			this.timepointStarts = new long[ numTimepoints ];
+			this.timepointCounts = new long[ numTimepoints ];
+			for ( int i = 0; i < numTimepoints; i++ )
+			{
+				timepoints[ i ] = index.getInt();
+				index.getInt();
+				timepointStarts[ i ] = index.getLong();
+				timepointCounts[ i ] = index.getLong();
+			}
+			// version 1 files have no ray sets section
+			this.raySets = version < 2 ? new ArrayList<>() : readRaySets( channel, offsets[ 7 ], path );
+		}
+	}
+
+	private static List< RaySet > readRaySets( final FileChannel channel, final long offset, final Path path ) throws IOException
+	{
+		if ( offset + 8 > channel.size() )
+			throw new IOException( "File " + path + " is too short." );
+		ByteBuffer section = read( channel, offset, ( int ) ( channel.size() - offset ) );
+		List< RaySet > raySets = new ArrayList<>();
+		try
+		{
+			int numRaySets = section.getInt();
+			section.getInt();
+			for ( int i = 0; i < numRaySets; i++ )
+			{
+				byte[] name = new byte[ section.getInt() ];
+				int numRays = section.getInt();
+				int[] triangles = new int[ 3 * section.getInt() ];
+				section.getInt();
+				section.get( name );
+				section.position( ( int ) align( section.position() ) );
+				List< double[] > directions = new ArrayList<>( numRays );
+				for ( int r = 0; r < numRays; r++ )
+					directions.add( new double[] { section.getDouble(), section.getDouble(), section.getDouble() } );
+				for ( int t = 0; t < triangles.length; t++ )
+					triangles[ t ] = section.getInt();
+				section.position( ( int ) align( section.position() ) );
+				raySets.add( RaySet.restore( new String( name, StandardCharsets.UTF_8 ), directions, triangles ) );
+			}
+		}
+		catch ( BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e )
+		{
+			throw new IOException( "Invalid ray sets in polyhedron file " + path, e );
+		}
+		return raySets;
+	}
+
+	private static long align( final long offset )
+	{
+		return ( offset + 7 ) & ~7L;
+	}
+
+	private static ByteBuffer read( final FileChannel channel, final long position, final int size ) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate( size ).order( ByteOrder.LITTLE_ENDIAN );
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer, position + buffer.position() ) < 0 )
+				throw new IOException( "Unexpected end of file." );
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @return the number of polyhedra in the file.
+	 */
+	public long size()
+	{
+		return count;
+	}
+
+	/**
+	 * @return true, if the distances are stored as quantised 16-bit values.
+	 */
+	public boolean isQuantised()
+	{
+		return quantisationStep > 0;
+	}
+
+	/**
+	 * @return the timepoints, which contain polyhedra, in ascending order.
+	 */
+	public int[] getTimepoints()
+	{
+		return timepoints.clone();
+	}
+
+	/**
+	 * @param timepoint the timepoint.
+	 * @return the index of the first polyhedron of the given timepoint or -1, if the timepoint contains no polyhedra.
+	 */
+	public long firstIndex( final int timepoint )
+	{
+		int i = timepointIndex( timepoint );
+		return i < 0 ? -1 : timepointStarts[ i ];
+	}
+
+	/**
+	 * @param timepoint the timepoint.
+	 * @return the number of polyhedra of the given timepoint.
+	 */
+	public long size( final int timepoint )
+	{
+		int i = timepointIndex( timepoint );
+		return i < 0 ? 0 : timepointCounts[ i ];
+	}
+
+	private int timepointIndex( final int timepoint )
+	{
+		int i = Arrays.binarySearch( timepoints, timepoint );
+		return i < 0 ? -1 : i;
+	}
+
+	/**
+	 * @param index the index of the polyhedron.
+	 * @param center is set to the center of the polyhedron.
+	 */
+	public void getCenter( final long index, final double[] center )
+	{
+		checkIndex( index );
+		for ( int d = 0; d < 3; d++ )
+			center[ d ] = centers.getDouble( index * 24 + d * 8 );
+	}
+
+	/**
+	 * @param index the index of the polyhedron.
+	 * @return the score of the polyhedron.
+	 */
+	public float getScore( final long index )
+	{
+		checkIndex( index );
+		return scores.getFloat( index * 4 );
+	}
+
+	/**
+	 * @param index the index of the polyhedron.
+	 * @return the number of rays of the polyhedron.
+	 */
+	public int getRayCount( final long index )
+	{
+		checkIndex( index );
+		return rayCounts.getShort( index * 2 ) & 0xffff;
+	}
+
+	/**
+	 * @param index the index of the polyhedron.
+	 * @return the id of the lattice of the rays of the polyhedron, {@link StarConvexPolyhedronWriter#FIBONACCI_LATTICE} for the Fibonacci
+	 *         lattice, otherwise the number of its ray set in the file.
+	 */
+	public int getLatticeId( final long index )
+	{
+		checkIndex( index );
+		return latticeIds.get( index ) & 0xff;
+	}
+
+	/**
+	 * Reads the distances of the rays of a polyhedron.
+	 *
+	 * @param index the index of the polyhedron.
+	 * @param out is set to the distances. Must have at least {@link #getRayCount(long)} entries.
+	 */
+	public void getDistances( final long index, final double[] out )
+	{
+		int rays = getRayCount( index );
+		if ( out.length < rays )
+			throw new IllegalArgumentException( "out must have at least " + rays + " entries, but has: " + out.length );
+		long first = distanceOffsets.getLong( index * 8 );
+		for ( int i = 0; i < rays; i++ )
+		{
+			long ray = first + i;
+			out[ i ] = isQuantised() ? ( distances.getShort( ray * 2 ) & 0xffff ) * quantisationStep : distances.getFloat( ray * 4 );
+		}
+	}
+
+	/**
+	 * @param index the index of the polyhedron.
+	 * @return the rays of the polyhedron.
+	 * @throws IOException if the file does not contain the ray set of the polyhedron.
+	 */
+	public RaySet getRaySet( final long index ) throws IOException
+	{
+		int latticeId = getLatticeId( index );
+		if ( latticeId == StarConvexPolyhedronWriter.FIBONACCI_LATTICE )
+			return RaySet.fibonacci( getRayCount( index ) );
+		if ( latticeId > raySets.size() )
+			throw new IOException( "Unknown lattice id of polyhedron " + index + ": " + latticeId );
+		RaySet rays = raySets.get( latticeId - 1 );
+		if ( rays.size() != getRayCount( index ) )
+			throw new IOException( "Polyhedron " + index + " has " + getRayCount( index ) + " distances, but its rays " + rays + " have: "
+					+ rays.size() );
+		return rays;
+	}
+
+	/**
+	 * Creates the polyhedron with the given index.
+	 *
+	 * @param index the index of the polyhedron.
+	 * @return the polyhedron.
+	 * @throws IOException if the file does not contain the ray set of the polyhedron.
+	 */
+	public StarConvexPolyhedron get( final long index ) throws IOException
+	{
+		RaySet rays = getRaySet( index );
+		double[] center = new double[ 3 ];
+		getCenter( index, center );
+		double[] values = new double[ getRayCount( index ) ];
+		getDistances( index, values );
+		List< Double > distanceList = new ArrayList<>( values.length );
+		for ( double value : values )
+			distanceList.add( value );
+		return new StarConvexPolyhedron( center, distanceList, rays );
+	}
+
+	/**
+	 * Creates all polyhedra of the given timepoint.
+	 *
+	 * @param timepoint the timepoint.
+	 * @return the polyhedra in the order they have been written.
+	 * @throws IOException if the file does not contain the ray set of a polyhedron.
+	 */
+	public List< StarConvexPolyhedron > getTimepoint( final int timepoint ) throws IOException
+	{
+		long first = firstIndex( timepoint );
+		long n = size( timepoint );
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>( ( int ) n );
+		for ( long i = first; i < first + n; i++ )
+			polyhedra.add( get( i ) );
+		return polyhedra;
+	}
+
+	private void checkIndex( final long index )
+	{
+		if ( index < 0 || index >= count )
+			throw new IndexOutOfBoundsException( "Index " + index + " is out of bounds for " + count + " polyhedra." );
+	}
+
+	/**
+	 * A section of a file, which is mapped as one or more regions, such that it may exceed 2 GB. Elements must be aligned to their size,
+	 * relative to the start of the section.
+	 */
+	private static class MappedColumn
+	{
+		private final ByteBuffer[] regions;
+
+		private final int shift;
+
+		private final long mask;
+
+		private MappedColumn( final FileChannel channel, final long offset, final long length, final long regionSize ) throws IOException
+		{
+			if ( offset + length > channel.size() )
+				throw new IOException( "File is too short. Expected at least " + ( offset + length ) + " bytes, but has: " + channel.size() );
+			this.shift = Long.numberOfTrailingZeros( regionSize );
+			this.mask = regionSize - 1;
+			int numRegions = ( int ) Math.max( 1, ( length + regionSize - 1 ) / regionSize );
+			this.regions = new ByteBuffer[ numRegions ];
+			for ( int r = 0; r < numRegions; r++ )
+			{
+				long start = r * regionSize;
+				MappedByteBuffer region = channel.map( FileChannel.MapMode.READ_ONLY, offset + start, Math.min( regionSize, length - start ) );
+				regions[ r ] = region.order( ByteOrder.LITTLE_ENDIAN );
+			}
+		}
+
+		private byte get( final long position )
+		{
+			return regions[ ( int ) ( position >>> shift ) ].get( ( int ) ( position & mask ) );
+		}
+
+		private short getShort( final long position )
+		{
+			return regions[ ( int ) ( position >>> shift ) ].getShort( ( int ) ( position & mask ) );
+		}
+
+		private float getFloat( final long position )
+		{
+			return regions[ ( int ) ( position >>> shift ) ].getFloat( ( int ) ( position & mask ) );
+		}
+
+		private long getLong( final long position )
+		{
+			return regions[ ( int ) ( position >>> shift ) ].getLong( ( int ) ( position & mask ) );
+		}
+
+		private double getDouble( final long position )
+		{
+			return regions[ ( int ) ( position >>> shift ) ].getDouble( ( int ) ( position & mask ) );
+		}
+	}
+}
@@ -0,0 +1,447 @@
+package net.stefanhahmann.polyhedron;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes star convex polyhedra to a compact binary file, which can be reopened with {@link StarConvexPolyhedronReader}.<p>
+ * The polyhedra are streamed, i.e. only a small buffer per column is held in memory, so arbitrarily many polyhedra can be written. They
+ * have to be added in the order of their timepoints. Each column is first written to a temporary file next to the target file. On
+ * {@link #close()}, the header, the columns and the timepoint index are assembled into the target file and the temporary files are
+ * deleted.<p>
+ * File layout (version {@value #VERSION}, all values little endian, all sections aligned to 8 bytes):
+ * <ul>
+ *     <li>header of {@value #HEADER_SIZE} bytes: magic {@code SCPH}, version, flags, quantisation step, number of polyhedra, number of
+ *     timepoints and the byte offsets of the sections below</li>
+ *     <li>centers: 3 doubles (xyz) per polyhedron</li>
+ *     <li>scores: 1 float per polyhedron</li>
+ *     <li>ray counts: 1 unsigned short per polyhedron</li>
+ *     <li>lattice ids: 1 byte per polyhedron, {@value #FIBONACCI_LATTICE} for the Fibonacci lattice with as many rays as the polyhedron
+ *     has, otherwise the number of the entry in the ray sets section</li>
+ *     <li>distance offsets: 1 long per polyhedron, the index of its first distance in the distances section</li>
+ *     <li>distances: 1 float per ray or, if quantised, 1 unsigned short per ray, which has to be multiplied with the quantisation step</li>
+ *     <li>timepoint index: per timepoint an int timepoint, 4 bytes padding, the long index of its first polyhedron and the long number of
+ *     its polyhedra</li>
+ *     <li>ray sets: the int number of ray sets other than the Fibonacci lattice, then per ray set the int length of its UTF-8 encoded
+ *     {@link RaySet#toString() name}, its int number of rays, its int number of triangles, 4 bytes padding, the name, padded to 8 bytes,
+ *     3 doubles (xyz) per ray direction and 3 ints per triangle, padded to 8 bytes</li>
+ * </ul>
+ * Version 1 files, which have no ray sets section, are still read.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarConvexPolyhedronWriter implements Closeable
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	static final int MAGIC = 'S' | 'C' << 8 | 'P' << 16 | 'H' << 24;
+
+	static final int VERSION = 2;
+
+	static final int HEADER_SIZE = 96;
+
+	/**
+	 * Flag signaling that the distances are stored as 16-bit unsigned integers.
+	 */
+	static final int FLAG_QUANTISED = 1;
+
+	/**
+	 * Lattice id of the Fibonacci lattice, which is used by {@link StarConvexPolyhedron#StarConvexPolyhedron(double[], List)}.
+	 */
+	public static final int FIBONACCI_LATTICE = 0;
+
+	/**
+	 * Largest lattice id, i.e. at most this many ray sets other than the Fibonacci lattice can be stored in a file.
+	 */
+	static final int MAX_LATTICE_ID = 0xff;
+
+	static final int MAX_RAYS = 0xffff;
+
+	static final int MAX_QUANTISED = 0xffff;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Path path;
+
+	private final double quantisationStep;
+
+	private final ColumnOutput centers;
+
+	private final ColumnOutput scores;
+
+	private final ColumnOutput rayCounts;
+
+	private final ColumnOutput latticeIds;
+
+	private final ColumnOutput distanceOffsets;
+
+	private final ColumnOutput distances;
+
+	private final List< long[] > timepointIndex = new ArrayList<>();
+
+	/**
+	 * The ray sets other than the Fibonacci lattice, the lattice id of a ray set is its index + 1.
+	 */
+	private final List< RaySet > raySets = new ArrayList<>();
+
+	private final Map< RaySet, Integer > latticeIdMap = new HashMap<>();
+
+	private long count;
+
+	private long numDistances;
+
+	private boolean closed;
+
+	/**
+	 * Creates a writer, which stores the distances as 32-bit floats.
+	 *
+	 * @param path the path of the file to write. An existing file is overwritten on {@link #close()}.
+	 * @throws IOException if the temporary files cannot be created.
+	 */
+	public StarConvexPolyhedronWriter( final Path path ) throws IOException
+	{
+		this( path, 0 );
+	}
+
+	/**
+	 * Creates a writer, which stores the distances quantised to 16-bit unsigned integers, i.e. half of the size of 32-bit floats. The
+	 * distances are rounded to multiples of the given quantisation step. Thus, the absolute error of a distance is at most half of the step
+	 * and the largest distance that can be stored is {@code 65535 * quantisationStep}.
+	 *
+	 * @param path the path of the file to write. An existing file is overwritten on {@link #close()}.
+	 * @param quantisationStep the quantisation step, e.g. 0.01 for distances measured in pixels. 0 disables quantisation.
+	 * @throws IOException if the temporary files cannot be created.
+	 */
+	public StarConvexPolyhedronWriter( final Path path, final double quantisationStep ) throws IOException
+	{
+		if ( path == null )
+			throw new IllegalArgumentException( "path cannot be null." );
+		if ( !( quantisationStep >= 0 ) || Double.isInfinite( quantisationStep ) )
+			throw new IllegalArgumentException( "quantisationStep must be a non-negative number, but is: " + quantisationStep );
+		this.path = path;
+		this.quantisationStep = ( float ) quantisationStep;
+		this.centers = new ColumnOutput( path, "centers" );
+		this.scores = new ColumnOutput( path, "scores" );
+		this.rayCounts = new ColumnOutput( path, "rays" );
+		this.latticeIds = new ColumnOutput( path, "lattices" );
+		this.distanceOffsets = new ColumnOutput( path, "offsets" );
+		this.distances = new ColumnOutput( path, "distances" );
+	}
+
+	/**
+	 * Adds the given polyhedron, which has been detected with the given score. Polyhedra with the Fibonacci lattice are stored with
+	 * {@link #FIBONACCI_LATTICE}. The directions and triangles of other {@link RaySet ray sets} are stored once per file.
+	 *
+	 * @param timepoint the timepoint of the polyhedron. Must not be smaller than the timepoint of the previously added polyhedron.
+	 * @param polyhedron the polyhedron.
+	 * @param score the score (probability) of the detection.
+	 * @throws IOException if the polyhedron cannot be written.
+	 */
+	public void add( final int timepoint, final StarConvexPolyhedron polyhedron, final float score ) throws IOException
+	{
+		if ( closed )
+			throw new IllegalStateException( "Writer has already been closed." );
+		if ( polyhedron == null )
+			throw new IllegalArgumentException( "polyhedron cannot be null." );
+		long[] current = timepointIndex.isEmpty() ? null : timepointIndex.get( timepointIndex.size() - 1 );
+		if ( current != null && timepoint < current[ 0 ] )
+			throw new IllegalArgumentException(
+					"Polyhedra must be added ordered by timepoint, but timepoint " + timepoint + " follows timepoint " + current[ 0 ] );
+		List< double[] > points = polyhedron.getPoints();
+		if ( points.size() > MAX_RAYS )
+			throw new IllegalArgumentException( "At most " + MAX_RAYS + " rays are supported, but polyhedron has: " + points.size() );
+		int latticeId = latticeId( polyhedron.getRaySet() );
+
+		// all distances are checked before anything is written, such that a rejected polyhedron leaves the columns consistent
+		double[] center = polyhedron.getCenter();
+		double[] rayDistances = new double[ points.size() ];
+		for ( int i = 0; i < rayDistances.length; i++ )
+		{
+			double[] point = points.get( i );
+			double dx = point[ 0 ] - center[ 0 ];
+			double dy = point[ 1 ] - center[ 1 ];
+			double dz = point[ 2 ] - center[ 2 ];
+			rayDistances[ i ] = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			if ( quantisationStep > 0 && Math.round( rayDistances[ i ] / quantisationStep ) > MAX_QUANTISED )
+				throw new IllegalArgumentException( "Distance " + rayDistances[ i ]
+						+ " exceeds the largest distance that can be stored with quantisation step " + quantisationStep + ": "
+						+ MAX_QUANTISED * quantisationStep );
+		}
+
+		for ( int d = 0; d < 3; d++ )
+			centers.putDouble( center[ d ] );
+		scores.putFloat( score );
+		rayCounts.putShort( ( short ) points.size() );
+		latticeIds.put( ( byte ) latticeId );
+		distanceOffsets.putLong( numDistances );
+		for ( double distance : rayDistances )
+		{
+			if ( quantisationStep == 0 )
+				distances.putFloat( ( float ) distance );
+			else
+				distances.putShort( ( short ) Math.round( distance / quantisationStep ) );
+		}
+		numDistances += points.size();
+		count++;
+		if ( current == null || timepoint != current[ 0 ] )
+			timepointIndex.add( new long[] { timepoint, count - 1, 0 } );
+		timepointIndex.get( timepointIndex.size() - 1 )[ 2 ]++;
+	}
+
+	/**
+	 * @return the lattice id of the given ray set. Registers the ray set, if it has not been stored yet.
+	 */
+	private int latticeId( final RaySet rays )
+	{
+		if ( rays.isFibonacci() )
+			return FIBONACCI_LATTICE;
+		Integer id = latticeIdMap.get( rays );
+		if ( id != null )
+			return id;
+		// ray sets, which are not registered, e.g. explicit ones, may be equal without being the same instance
+		for ( int i = 0; i < raySets.size() && id == null; i++ )
+			if ( equal( raySets.get( i ), rays ) )
+				id = i + 1;
+		if ( id == null )
+		{
+			if ( raySets.size() >= MAX_LATTICE_ID )
+				throw new IllegalArgumentException( "At most " + MAX_LATTICE_ID + " different ray sets are supported per file." );
+			raySets.add( rays );
+			id = raySets.size();
+		}
+		latticeIdMap.put( rays, id );
+		return id;
+	}
+
+	private static boolean equal( final RaySet a, final RaySet b )
+	{
+		if ( !a.toString().equals( b.toString() ) || a.size() != b.size() )
+			return false;
+		for ( int i = 0; i < a.size(); i++ )
+			if ( !Arrays.equals( a.getDirections().get( i ), b.getDirections().get( i ) ) )
+				return false;
+		return Arrays.equals( a.getFaceTopology().triangles(), b.getFaceTopology().triangles() );
+	}
+
+	/**
+	 * @return the number of polyhedra added so far.
+	 */
+	public long size()
+	{
+		return count;
+	}
+
+	/**
+	 * Assembles the file and deletes the temporary files.
+	 *
+	 * @throws IOException if the file cannot be written.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if ( closed )
+			return;
+		closed = true;
+		ColumnOutput[] columns = { centers, scores, rayCounts, latticeIds, distanceOffsets, distances };
+		try (FileChannel out = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING ))
+		{
+			long[] offsets = new long[ columns.length + 2 ];
+			long offset = HEADER_SIZE;
+			for ( int i = 0; i < columns.length; i++ )
+			{
+				columns[ i ].finish();
+				offsets[ i ] = offset;
+				offset = align( offset + columns[ i ].size() );
+			}
+			offsets[ columns.length ] = offset;
+			ByteBuffer index = timepointIndex();
+			offsets[ columns.length + 1 ] = align( offset + index.remaining() );
+
+			out.write( header( offsets ), 0 );
+			for ( int i = 0; i < columns.length; i++ )
+				columns[ i ].transferTo( out, offsets[ i ] );
+			out.write( index, offsets[ columns.length ] );
+			out.write( raySets(), offsets[ columns.length + 1 ] );
+			logger.debug( "wrote {} polyhedra with {} distances at {} timepoints to {}, {} bytes.", count, numDistances,
+					timepointIndex.size(), path, out.size() );
+		}
+		finally
+		{
+			for ( ColumnOutput column : columns )
+				column.delete();
+		}
+	}
+
+	private ByteBuffer header( final long[] offsets )
+	{
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+		header.putInt( MAGIC );
+		header.putInt( VERSION );
+		header.putInt( quantisationStep > 0 ? FLAG_QUANTISED : 0 );
+		header.putFloat( ( float ) quantisationStep );
+		header.putLong( count );
+		header.putInt( timepointIndex.size() );
+		header.putInt( 0 );
+		for ( long offset : offsets )
+			header.putLong( offset );
+		header.rewind();
+		return header;
+	}
+
+	private ByteBuffer timepointIndex()
+	{
+		ByteBuffer index = ByteBuffer.allocate( timepointIndex.size() * 24 ).order( ByteOrder.LITTLE_ENDIAN );
+		for ( long[] entry : timepointIndex )
+		{
+			index.putInt( ( int ) entry[ 0 ] );
+			index.putInt( 0 );
+			index.putLong( entry[ 1 ] );
+			index.putLong( entry[ 2 ] );
+		}
+		index.rewind();
+		return index;
+	}
+
+	private ByteBuffer raySets()
+	{
+		List< byte[] > names = new ArrayList<>();
+		int size = 8;
+		for ( RaySet rays : raySets )
+		{
+			byte[] name = rays.toString().getBytes( StandardCharsets.UTF_8 );
+			names.add( name );
+			size += 16 + align( name.length ) + 24 * rays.size() + align( 12L * rays.getFaceTopology().numTriangles() );
+		}
+		ByteBuffer buffer = ByteBuffer.allocate( size ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.putInt( raySets.size() );
+		buffer.putInt( 0 );
+		for ( int i = 0; i < raySets.size(); i++ )
+		{
+			RaySet rays = raySets.get( i );
+			int[] triangles = rays.getFaceTopology().triangles();
+			buffer.putInt( names.get( i ).length );
+			buffer.putInt( rays.size() );
+			buffer.putInt( triangles.length / 3 );
+			buffer.putInt( 0 );
+			buffer.put( names.get( i ) );
+			buffer.position( ( int ) align( buffer.position() ) );
+			for ( double[] direction : rays.getDirections() )
+				for ( int d = 0; d < 3; d++ )
+					buffer.putDouble( direction[ d ] );
+			for ( int vertex : triangles )
+				buffer.putInt( vertex );
+			buffer.position( ( int ) align( buffer.position() ) );
+		}
+		buffer.rewind();
+		return buffer;
+	}
+
+	private static long align( final long offset )
+	{
+		return ( offset + 7 ) & ~7L;
+	}
+
+	/**
+	 * A column, which is buffered in memory and streamed to a temporary file.
+	 */
+	private static class ColumnOutput
+	{
+		private final Path file;
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+
+		private ColumnOutput( final Path target, final String name ) throws IOException
+		{
+			Path directory = target.toAbsolutePath().getParent();
+			this.file = Files.createTempFile( directory, target.getFileName() + "." + name + ".", ".tmp" );
+			this.channel = FileChannel.open( file, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		}
+
+		private void ensureRemaining( final int bytes ) throws IOException
+		{
+			if ( buffer.remaining() < bytes )
+				flush();
+		}
+
+		private void flush() throws IOException
+		{
+			buffer.flip();
+			while ( buffer.hasRemaining() )
+				channel.write( buffer );
+			buffer.clear();
+		}
+
+		private void put( final byte value ) throws IOException
+		{
+			ensureRemaining( 1 );
+			buffer.put( value );
+		}
+
+		private void putShort( final short value ) throws IOException
+		{
+			ensureRemaining( 2 );
+			buffer.putShort( value );
+		}
+
+		private void putFloat( final float value ) throws IOException
+		{
+			ensureRemaining( 4 );
+			buffer.putFloat( value );
+		}
+
+		private void putLong( final long value ) throws IOException
+		{
+			ensureRemaining( 8 );
+			buffer.putLong( value );
+		}
+
+		private void putDouble( final double value ) throws IOException
+		{
+			ensureRemaining( 8 );
+			buffer.putDouble( value );
+		}
+
+		private void finish() throws IOException
+		{
+			flush();
+		}
+
+		private long size() throws IOException
+		{
+			return channel.size();
+		}
+
+		private void transferTo( final FileChannel out, final long position ) throws IOException
+		{
+			long size = channel.size();
+			long transferred = 0;
+			while ( transferred < size )
+				transferred += channel.transferTo( transferred, size - transferred, out.position( position + transferred ) );
+		}
+
+		private void delete() throws IOException
+		{
+			channel.close();
+			Files.deleteIfExists( file );
+		}
+	}
+}
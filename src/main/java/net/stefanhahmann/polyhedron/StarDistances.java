@@ -0,0 +1,356 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the star distances of the objects of a 3D label image, i.e. for a voxel of an object, the distance along each ray of a
+ * {@link RaySet}, by default a spherical Fibonacci lattice, from the voxel to the boundary of the object. This is the inverse of creating {@link StarConvexPolyhedron}s from
+ * predicted distances and corresponds to {@code star_dist3D} of StarDist, e.g. to create training data or to fit polyhedra to ground truth
+ * labels.<p>
+ * Rays are marched through the label image in steps of one voxel, until they reach a voxel with a different label or leave the image. The
+ * overshoot of the last step is corrected by half a voxel. Rays are directions in physical space. For anisotropic images, they are scaled
+ * by the inverse of the voxel size into voxel space and distances are measured in physical units, such that the polyhedra described by
+ * the distances are star convex in physical space.<p>
+ * The distances can be computed for all voxels, processed in parallel in blocks of z slices, or only for the centroid of each object.
+ *
+ * @author Stefan Hahmann
+ */
+public class StarDistances
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	private static final int DEFAULT_BLOCK_SIZE = 8;
+
+	private final RaySet rays;
+
+	private final List< double[] > lattice;
+
+	private final double[] voxelSize = new double[] { 1, 1, 1 };
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * Creates a star distance computation with the given number of rays of a spherical Fibonacci lattice. The rays are in the order of
+	 * {@link FibonacciLattices#getValues(int)}, i.e. the order expected by {@link StarConvexPolyhedron}.
+	 *
+	 * @param numRays the number of rays. Must be at least 4.
+	 */
+	public StarDistances( final int numRays )
+	{
+		this( RaySet.fibonacci( numRays ) );
+	}
+
+	/**
+	 * Creates a star distance computation with the given rays, e.g. the rays of the StarDist model, which is to be trained with the
+	 * distances.
+	 *
+	 * @param rays the rays. Must not be null.
+	 */
+	public StarDistances( final RaySet rays )
+	{
+		if ( rays == null )
+			throw new IllegalArgumentException( "rays cannot be null." );
+		this.rays = rays;
+		this.lattice = rays.getDirections();
+	}
+
+	/**
+	 * Sets the size of a voxel in physical units. Default: 1, 1, 1.
+	 *
+	 * @param voxelSize the size of a voxel in x, y and z. Must be positive.
+	 */
+	public void setVoxelSize( final double... voxelSize )
+	{
+		if ( voxelSize == null || voxelSize.length != 3 )
+			throw new IllegalArgumentException( "voxelSize must have 3 entries." );
+		for ( double size : voxelSize )
+			if ( !( size > 0 ) )
+				throw new IllegalArgumentException( "voxelSize must be positive, but is: " + Arrays.toString( voxelSize ) );
+		System.arraycopy( voxelSize, 0, this.voxelSize, 0, 3 );
+	}
+
+	/**
+	 * Sets the number of z slices, which are processed together in parallel. Default: {@value #DEFAULT_BLOCK_SIZE}.
+	 *
+	 * @param blockSize the number of z slices. Must be positive.
+	 */
+	public void setBlockSize( final int blockSize )
+	{
+		if ( blockSize < 1 )
+			throw new IllegalArgumentException( "blockSize must be positive, but is: " + blockSize );
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return the number of rays.
+	 */
+	public int numRays()
+	{
+		return lattice.size();
+	}
+
+	/**
+	 * Computes the star distances of all voxels of the given label image. Background voxels (label 0) have distance 0 on all rays.
+	 *
+	 * @param labels the label image. Must have 3 dimensions.
+	 * @return the distances with dimensions {@code rays, x, y, z}, i.e. the rays of a voxel are adjacent in memory. The image starts at 0,
+	 *         i.e. voxel {@code (x, y, z)} of the labels is at {@code (ray, x - min x, y - min y, z - min z)}.
+	 */
+	public ArrayImg< FloatType, FloatArray > compute( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels )
+	{
+		checkDimensions( labels );
+		final int numRays = numRays();
+		final long sx = labels.dimension( 0 );
+		final long sy = labels.dimension( 1 );
+		final long sz = labels.dimension( 2 );
+		if ( numRays * sx * sy * sz > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "The distances of " + sx * sy * sz + " voxels do not fit into a single array." );
+		final ArrayImg< FloatType, FloatArray > distances = ArrayImgs.floats( numRays, sx, sy, sz );
+		final float[] data = distances.update( null ).getCurrentStorageArray();
+		final double[][] steps = steps();
+		logger.debug( "computing {} star distances of {} voxels.", numRays, sx * sy * sz );
+
+		forEachSlab( labels, ( cursor, position ) -> {
+			RandomAccess< ? extends IntegerType< ? > > access = labels.randomAccess();
+			float[] rays = new float[ numRays ];
+			while ( cursor.hasNext() )
+			{
+				long label = cursor.next().getIntegerLong();
+				if ( label == 0 )
+					continue;
+				cursor.localize( position );
+				march( labels, access, position, label, steps, rays );
+				int offset = numRays * ( int ) ( ( position[ 0 ] - labels.min( 0 ) )
+						+ sx * ( ( position[ 1 ] - labels.min( 1 ) ) + sy * ( position[ 2 ] - labels.min( 2 ) ) ) );
+				System.arraycopy( rays, 0, data, offset, numRays );
+			}
+		} );
+		return distances;
+	}
+
+	/**
+	 * Computes the star distances from the centroid of each object of the given label image and creates a polyhedron from them. If the
+	 * voxel nearest to the centroid does not belong to the object, e.g. for a bent object, the voxel of the object nearest to the centroid
+	 * is used instead.
+	 *
+	 * @param labels the label image. Must have 3 dimensions.
+	 * @return the polyhedron per label, sorted by label, in the voxel coordinates of the label image.
+	 */
+	public SortedMap< Long, StarConvexPolyhedron > computeAtCentroids( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels )
+	{
+		checkDimensions( labels );
+		// the new label of a sequential relabeling minus 1 is the index of a label
+		final SequentialRelabeling indices = SequentialRelabeling.of( labels );
+		final long[] sortedLabels = indices.getOriginalLabels();
+
+		// sum of the positions and number of voxels per label
+		final double[] sums = new double[ 4 * sortedLabels.length ];
+		forEachSlab( labels, ( cursor, position ) -> {
+			double[] local = new double[ sums.length ];
+			while ( cursor.hasNext() )
+			{
+				long label = cursor.next().getIntegerLong();
+				if ( label == 0 )
+					continue;
+				cursor.localize( position );
+				int i = 4 * ( int ) ( indices.forward( label ) - 1 );
+				local[ i ] += position[ 0 ];
+				local[ i + 1 ] += position[ 1 ];
+				local[ i + 2 ] += position[ 2 ];
+				local[ i + 3 ]++;
+			}
+			synchronized ( sums )
+			{
+				for ( int i = 0; i < sums.length; i++ )
+					sums[ i ] += local[ i ];
+			}
+		} );
+
+		// voxel nearest to the centroid, which belongs to the object
+		final long[][] centers = new long[ sortedLabels.length ][ 3 ];
+		final boolean[] outside = new boolean[ sortedLabels.length ];
+		final RandomAccess< ? extends IntegerType< ? > > access = labels.randomAccess();
+		for ( int i = 0; i < sortedLabels.length; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+				centers[ i ][ d ] = Math.round( sums[ 4 * i + d ] / sums[ 4 * i + 3 ] );
+			outside[ i ] = access.setPositionAndGet( centers[ i ] ).getIntegerLong() != sortedLabels[ i ];
+		}
+		if ( IntStream.range( 0, outside.length ).anyMatch( i -> outside[ i ] ) )
+			moveIntoObjects( labels, sortedLabels, indices, sums, centers, outside );
+
+		final double[][] steps = steps();
+		final AffineTransform3D toVoxels = new AffineTransform3D();
+		toVoxels.set( 1 / voxelSize[ 0 ], 0, 0, 0, 0, 1 / voxelSize[ 1 ], 0, 0, 0, 0, 1 / voxelSize[ 2 ], 0 );
+		final boolean isotropic = voxelSize[ 0 ] == 1 && voxelSize[ 1 ] == 1 && voxelSize[ 2 ] == 1;
+		final StarConvexPolyhedron[] polyhedra = new StarConvexPolyhedron[ sortedLabels.length ];
+		IntStream.range( 0, sortedLabels.length ).parallel().forEach( i -> {
+			float[] rays = new float[ numRays() ];
+			march( labels, labels.randomAccess(), centers[ i ], sortedLabels[ i ], steps, rays );
+			List< Double > distances = new ArrayList<>( rays.length );
+			for ( float ray : rays )
+				distances.add( ( double ) ray );
+			double[] center = new double[ 3 ];
+			for ( int d = 0; d < 3; d++ )
+				center[ d ] = centers[ i ][ d ] * voxelSize[ d ];
+			StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( center, distances, this.rays );
+			polyhedra[ i ] = isotropic ? polyhedron : polyhedron.transform( toVoxels );
+		} );
+		final SortedMap< Long, StarConvexPolyhedron > result = new TreeMap<>();
+		for ( int i = 0; i < sortedLabels.length; i++ )
+			result.put( sortedLabels[ i ], polyhedra[ i ] );
+		logger.debug( "computed star distances at the centroids of {} objects.", sortedLabels.length );
+		return result;
+	}
+
+	/**
+	 * Marches all rays from the given voxel to the boundary of the object with the given label.
+	 */
+	private void march( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels, final RandomAccess< ? extends IntegerType< ? > > access,
+			final long[] origin, final long label, final double[][] steps, final float[] distances )
+	{
+		for ( int ray = 0; ray < steps.length; ray++ )
+		{
+			final double dx = steps[ ray ][ 0 ];
+			final double dy = steps[ ray ][ 1 ];
+			final double dz = steps[ ray ][ 2 ];
+			double x = 0;
+			double y = 0;
+			double z = 0;
+			while ( true )
+			{
+				x += dx;
+				y += dy;
+				z += dz;
+				long px = origin[ 0 ] + Math.round( x );
+				long py = origin[ 1 ] + Math.round( y );
+				long pz = origin[ 2 ] + Math.round( z );
+				if ( px < labels.min( 0 ) || px > labels.max( 0 ) || py < labels.min( 1 ) || py > labels.max( 1 ) || pz < labels.min( 2 )
+						|| pz > labels.max( 2 ) || access.setPositionAndGet( px, py, pz ).getIntegerLong() != label )
+				{
+					// the boundary is crossed within the last step, on average half a voxel before the first voxel outside
+					double correction = 0.5 / Math.max( Math.abs( dx ), Math.max( Math.abs( dy ), Math.abs( dz ) ) ) - 1;
+					x += correction * dx;
+					y += correction * dy;
+					z += correction * dz;
+					distances[ ray ] = ( float ) Math.sqrt( x * x * voxelSize[ 0 ] * voxelSize[ 0 ] + y * y * voxelSize[ 1 ] * voxelSize[ 1 ]
+							+ z * z * voxelSize[ 2 ] * voxelSize[ 2 ] );
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the step of each ray in voxel space, i.e. its direction in physical space scaled by the inverse voxel size and normalised to a
+	 * length of one voxel.
+	 */
+	private double[][] steps()
+	{
+		final double[][] steps = new double[ lattice.size() ][ 3 ];
+		for ( int ray = 0; ray < steps.length; ray++ )
+		{
+			double length = 0;
+			for ( int d = 0; d < 3; d++ )
+			{
+				steps[ ray ][ d ] = lattice.get( ray )[ d ] / voxelSize[ d ];
+				length += steps[ ray ][ d ] * steps[ ray ][ d ];
+			}
+			length = Math.sqrt( length );
+			for ( int d = 0; d < 3; d++ )
+				steps[ ray ][ d ] /= length;
+		}
+		return steps;
+	}
+
+	private void moveIntoObjects( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels, final long[] sortedLabels,
+			final SequentialRelabeling indices, final double[] sums, final long[][] centers, final boolean[] outside )
+	{
+		final double[] nearest = new double[ sortedLabels.length ];
+		Arrays.fill( nearest, Double.POSITIVE_INFINITY );
+		forEachSlab( labels, ( cursor, position ) -> {
+			double[] localNearest = new double[ nearest.length ];
+			long[][] localCenters = new long[ nearest.length ][ 3 ];
+			Arrays.fill( localNearest, Double.POSITIVE_INFINITY );
+			while ( cursor.hasNext() )
+			{
+				long label = cursor.next().getIntegerLong();
+				if ( label == 0 )
+					continue;
+				int i = ( int ) ( indices.forward( label ) - 1 );
+				if ( !outside[ i ] )
+					continue;
+				cursor.localize( position );
+				double distance = 0;
+				for ( int d = 0; d < 3; d++ )
+				{
+					double difference = ( position[ d ] - sums[ 4 * i + d ] / sums[ 4 * i + 3 ] ) * voxelSize[ d ];
+					distance += difference * difference;
+				}
+				if ( distance < localNearest[ i ] )
+				{
+					localNearest[ i ] = distance;
+					System.arraycopy( position, 0, localCenters[ i ], 0, 3 );
+				}
+			}
+			synchronized ( nearest )
+			{
+				for ( int i = 0; i < nearest.length; i++ )
+					if ( localNearest[ i ] < nearest[ i ] )
+					{
+						nearest[ i ] = localNearest[ i ];
+						centers[ i ] = localCenters[ i ];
+					}
+			}
+		} );
+	}
+
+	/**
+	 * Visits the voxels of a block of z slices.
+	 */
+	private interface SlabVisitor
+	{
+		void visit( Cursor< ? extends IntegerType< ? > > cursor, long[] position );
+	}
+
+	private void forEachSlab( final RandomAccessibleInterval< ? extends IntegerType< ? > > labels, final SlabVisitor visitor )
+	{
+		final long sz = labels.dimension( 2 );
+		final int numBlocks = ( int ) ( ( sz + blockSize - 1 ) / blockSize );
+		IntStream.range( 0, numBlocks ).parallel().forEach( block -> {
+			long[] min = new long[ 3 ];
+			long[] max = new long[ 3 ];
+			labels.min( min );
+			labels.max( max );
+			min[ 2 ] = labels.min( 2 ) + ( long ) block * blockSize;
+			max[ 2 ] = Math.min( labels.max( 2 ), min[ 2 ] + blockSize - 1 );
+			visitor.visit( Views.flatIterable( Views.interval( labels, new FinalInterval( min, max ) ) ).cursor(), new long[ 3 ] );
+		} );
+	}
+
+	private static void checkDimensions( final RandomAccessibleInterval< ? > labels )
+	{
+		if ( labels.numDimensions() != 3 )
+			throw new IllegalArgumentException( "labels must have 3 dimensions, but has: " + labels.numDimensions() );
+	}
+}
@@ -0,0 +1,352 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the timepoints of a time-lapse in the background, while the previous timepoints are processed, e.g. predicted with StarDist and
+ * post-processed.<p>
+ * The {@link TimepointLoader} is expected to return lazily loaded images, e.g. from
+ * {@code spimData.getSequenceDescription().getImgLoader().getSetupImgLoader( setup ).getImage( timepoint )}. The prefetcher copies them
+ * into memory in the background, which reads and decodes all their voxels. Up to {@code window} timepoints following the current one are
+ * read ahead, as long as the timepoints in flight, i.e. the current timepoint and those read ahead, fit into the memory budget. The
+ * current timepoint is released from the budget by the next call of {@link #next()}, i.e. the processing of a timepoint should not keep
+ * references to its image afterwards. A timepoint, which has not been started in the background yet, when it is requested, is read in the
+ * calling thread.<p>
+ * Not thread safe, {@link #next()} is expected to be called by one thread.
+ *
+ * @param <T> the type of the voxels.
+ *
+ * @author Stefan Hahmann
+ */
+public class TimepointPrefetcher< T extends NativeType< T > > implements Closeable
+{
+	private static final Logger logger = LoggerFactory.getLogger( MethodHandles.lookup().lookupClass() );
+
+	/**
+	 * Loads the image of a timepoint.
+	 *
+	 * @param <T> the type of the voxels.
+	 */
+	@FunctionalInterface
+	public interface TimepointLoader< T >
+	{
+		/**
+		 * Gets the image of the given timepoint. Should return quickly, i.e. return a lazily loaded image, as it is called by the thread,
+		 * which processes the timepoints, to determine the size of the image.
+		 *
+		 * @param timepoint the timepoint.
+		 * @return the image.
+		 * @throws IOException if the image cannot be loaded.
+		 */
+		RandomAccessibleInterval< T > load( int timepoint ) throws IOException;
+	}
+
+	private final TimepointLoader< T > loader;
+
+	private final int[] timepoints;
+
+	private final int window;
+
+	private final long memoryBudget;
+
+	private final ExecutorService executor;
+
+	private final boolean ownsExecutor;
+
+	/**
+	 * The current timepoint and the timepoints read ahead, in the order of {@link #timepoints}.
+	 */
+	private final Deque< Prefetch > inFlight = new ArrayDeque<>();
+
+	/**
+	 * Index of the next timepoint to be scheduled.
+	 */
+	private int scheduled;
+
+	/**
+	 * The image of the timepoint at {@link #scheduled}, if it has been loaded, but did not fit into the memory budget.
+	 */
+	private RandomAccessibleInterval< T > pending;
+
+	/**
+	 * Number of timepoints returned by {@link #next()}.
+	 */
+	private int position;
+
+	private long bytesInFlight;
+
+	private int current = -1;
+
+	private long waitNanos;
+
+	private boolean closed;
+
+	/**
+	 * Creates a prefetcher, which reads ahead with {@code window} background threads.
+	 *
+	 * @param loader the loader of the timepoints.
+	 * @param timepoints the timepoints in the order, in which they are processed.
+	 * @param window the maximum number of timepoints read ahead of the current one. Must be positive.
+	 * @param memoryBudget the maximum number of bytes of the timepoints in flight. A single timepoint is read, even if it exceeds the
+	 *        budget.
+	 */
+	public TimepointPrefetcher( final TimepointLoader< T > loader, final int[] timepoints, final int window, final long memoryBudget )
+	{
+		this( loader, timepoints, window, memoryBudget, newExecutor( window ), true );
+	}
+
+	/**
+	 * Creates a prefetcher, which reads ahead with the given executor, e.g. a pool shared by several prefetchers.
+	 *
+	 * @param loader the loader of the timepoints.
+	 * @param timepoints the timepoints in the order, in which they are processed.
+	 * @param window the maximum number of timepoints read ahead of the current one. 0 disables reading ahead.
+	 * @param memoryBudget the maximum number of bytes of the timepoints in flight. A single timepoint is read, even if it exceeds the
+	 *        budget.
+	 * @param executor the executor, which reads the timepoints. Not shut down by {@link #close()}.
+	 */
+	public TimepointPrefetcher( final TimepointLoader< T > loader, final int[] timepoints, final int window, final long memoryBudget,
+			final ExecutorService executor )
+	{
+		this( loader, timepoints, window, memoryBudget, executor, false );
+	}
+
+	private TimepointPrefetcher( final TimepointLoader< T > loader, final int[] timepoints, final int window, final long memoryBudget,
+			final ExecutorService executor, final boolean ownsExecutor )
+	{
+		if ( loader == null )
+			throw new IllegalArgumentException( "loader cannot be null." );
+		if ( timepoints == null )
+			throw new IllegalArgumentException( "timepoints cannot be null." );
+		if ( window < 0 )
+			throw new IllegalArgumentException( "window must not be negative, but is: " + window );
+		if ( memoryBudget < 0 )
+			throw new IllegalArgumentException( "memoryBudget must not be negative, but is: " + memoryBudget );
+		if ( executor == null )
+			throw new IllegalArgumentException( "executor cannot be null." );
+		this.loader = loader;
+		this.timepoints = timepoints.clone();
+		this.window = window;
+		this.memoryBudget = memoryBudget;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+
+	/**
+	 * @return true, if there are timepoints left.
+	 */
+	public boolean hasNext()
+	{
+		return position < timepoints.length;
+	}
+
+	/**
+	 * Releases the current timepoint and returns the image of the next one, waiting for it to be read, if necessary. Starts reading the
+	 * following timepoints in the background.
+	 *
+	 * @return the image of the next timepoint, in memory.
+	 * @throws IOException if the timepoint cannot be read.
+	 */
+	public RandomAccessibleInterval< T > next() throws IOException
+	{
+		if ( closed )
+			throw new IllegalStateException( "The prefetcher is closed." );
+		if ( !hasNext() )
+			throw new NoSuchElementException();
+		release();
+		position++;
+		schedule();
+		final Prefetch prefetch = inFlight.peekFirst();
+		current = prefetch.timepoint;
+		final long start = System.nanoTime();
+		// reads the timepoint in this thread, if no background thread has started it yet, otherwise waits for it
+		prefetch.task.run();
+		final RandomAccessibleInterval< T > image;
+		try
+		{
+			image = prefetch.task.get();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for timepoint " + current );
+		}
+		catch ( ExecutionException e )
+		{
+			if ( e.getCause() instanceof IOException )
+				throw ( IOException ) e.getCause();
+			throw new IllegalStateException( "Could not read timepoint " + current, e.getCause() );
+		}
+		finally
+		{
+			waitNanos += System.nanoTime() - start;
+		}
+		logger.debug( "Timepoint {}: {} timepoints in flight, {} bytes.", current, inFlight.size(), bytesInFlight );
+		return image;
+	}
+
+	/**
+	 * @return the timepoint of the image returned by the last call of {@link #next()}, or -1, if it has not been called yet.
+	 */
+	public int getTimepoint()
+	{
+		return current;
+	}
+
+	/**
+	 * @return the number of timepoints currently in flight, i.e. the current timepoint and the timepoints read ahead.
+	 */
+	public int numInFlight()
+	{
+		return inFlight.size();
+	}
+
+	/**
+	 * @return the number of bytes of the timepoints currently in flight.
+	 */
+	public long getBytesInFlight()
+	{
+		return bytesInFlight;
+	}
+
+	/**
+	 * @return the total time in nanoseconds, which {@link #next()} has spent waiting for or reading timepoints, i.e. the time, which has
+	 *         not been hidden by reading ahead.
+	 */
+	public long getWaitNanos()
+	{
+		return waitNanos;
+	}
+
+	/**
+	 * Cancels the timepoints, which have not been started yet, and shuts down the background threads, if they have been created by this
+	 * prefetcher.
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+		for ( Prefetch prefetch : inFlight )
+			prefetch.task.cancel( false );
+		inFlight.clear();
+		bytesInFlight = 0;
+		if ( ownsExecutor )
+			executor.shutdownNow();
+	}
+
+	/**
+	 * Releases the current timepoint, if any, from the memory budget.
+	 */
+	private void release()
+	{
+		if ( current < 0 )
+			return;
+		final Prefetch prefetch = inFlight.pollFirst();
+		if ( prefetch != null )
+			bytesInFlight -= prefetch.bytes;
+	}
+
+	/**
+	 * Schedules the timepoints up to the window after the current one, as long as they fit into the memory budget. The current timepoint is
+	 * always scheduled, and is read in the calling thread, if it has not been read ahead.
+	 */
+	private void schedule()
+	{
+		while ( scheduled < timepoints.length && scheduled < position + window )
+		{
+			if ( pending == null )
+				try
+				{
+					pending = loader.load( timepoints[ scheduled ] );
+				}
+				catch ( IOException | RuntimeException e )
+				{
+					// reported, when the timepoint is requested
+					inFlight.addLast( new Prefetch( timepoints[ scheduled ], 0, new FutureTask<>( () -> {
+						throw e;
+					} ) ) );
+					scheduled++;
+					continue;
+				}
+			final long bytes = sizeInBytes( pending );
+			if ( !inFlight.isEmpty() && bytesInFlight + bytes > memoryBudget )
+				return;
+			final RandomAccessibleInterval< T > source = pending;
+			final Prefetch prefetch = new Prefetch( timepoints[ scheduled ], bytes, new FutureTask<>( () -> copy( source ) ) );
+			pending = null;
+			inFlight.addLast( prefetch );
+			bytesInFlight += bytes;
+			if ( scheduled >= position )
+				executor.execute( prefetch.task );
+			scheduled++;
+		}
+	}
+
+	private static < T extends NativeType< T > > RandomAccessibleInterval< T > copy( final RandomAccessibleInterval< T > source )
+	{
+		final T type = Util.getTypeFromInterval( source ).createVariable();
+		final Img< T > target = Util.getSuitableImgFactory( source, type ).create( source );
+		final RandomAccessibleInterval< T > translated = Views.translate( target, Intervals.minAsLongArray( source ) );
+		LoopBuilder.setImages( source, translated ).forEachPixel( ( s, t ) -> t.set( s ) );
+		return translated;
+	}
+
+	/**
+	 * @return the number of bytes needed to hold the given image in memory.
+	 */
+	static < T extends NativeType< T > > long sizeInBytes( final RandomAccessibleInterval< T > image )
+	{
+		final T type = Util.getTypeFromInterval( image );
+		final long entities = type.getEntitiesPerPixel().mulCeil( Intervals.numElements( image ) );
+		return entities * type.getNativeTypeFactory().getPrimitiveType().getByteCount();
+	}
+
+	private static ExecutorService newExecutor( final int threads )
+	{
+		if ( threads < 1 )
+			throw new IllegalArgumentException( "window must be positive, but is: " + threads );
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool( threads, runnable -> {
+			Thread thread = new Thread( runnable, "timepoint-prefetcher-" + count.incrementAndGet() );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	private class Prefetch
+	{
+		private final int timepoint;
+
+		private final long bytes;
+
+		private final FutureTask< RandomAccessibleInterval< T > > task;
+
+		private Prefetch( final int timepoint, final long bytes, final FutureTask< RandomAccessibleInterval< T > > task )
+		{
+			this.timepoint = timepoint;
+			this.bytes = bytes;
+			this.task = task;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package net.stefanhahmann.polyhedron;
+
+/**
+ * Distance and intersection tests between points, segments and triangles in 3D, which operate on the vertices of star convex polyhedra.
+ * The closest point computations follow Ericson, Real-Time Collision Detection, sections 5.1.5 and 5.1.9. No memory is allocated.
+ *
+ * @author Stefan Hahmann
+ */
+final class TriangleGeometry
+{
+	private static final double EPSILON = 1e-12;
+
+	private TriangleGeometry()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * Computes the squared distance between a point and a triangle.
+	 */
+	static double squaredDistancePointTriangle( final double[] p, final double[] a, final double[] b, final double[] c )
+	{
+		return squaredDistancePointTriangle( p[ 0 ], p[ 1 ], p[ 2 ], a[ 0 ], a[ 1 ], a[ 2 ], b[ 0 ], b[ 1 ], b[ 2 ], c[ 0 ], c[ 1 ], c[ 2 ] );
+	}
+
+	/**
+	 * Computes the squared distance between the point {@code p} and the triangle {@code a b c}, given by their coordinates.
+	 */
+	static double squaredDistancePointTriangle( final double px, final double py, final double pz, final double ax, final double ay,
+			final double az, final double bx, final double by, final double bz, final double cx, final double cy, final double cz )
+	{
+		final double abx = bx - ax, aby = by - ay, abz = bz - az;
+		final double acx = cx - ax, acy = cy - ay, acz = cz - az;
+		final double apx = px - ax, apy = py - ay, apz = pz - az;
+		final double d1 = abx * apx + aby * apy + abz * apz;
+		final double d2 = acx * apx + acy * apy + acz * apz;
+		// vertex region of a
+		if ( d1 <= 0 && d2 <= 0 )
+			return squaredLength( apx, apy, apz );
+		final double bpx = px - bx, bpy = py - by, bpz = pz - bz;
+		final double d3 = abx * bpx + aby * bpy + abz * bpz;
+		final double d4 = acx * bpx + acy * bpy + acz * bpz;
+		// vertex region of b
+		if ( d3 >= 0 && d4 <= d3 )
+			return squaredLength( bpx, bpy, bpz );
+		// edge region of ab
+		final double vc = d1 * d4 - d3 * d2;
+		if ( vc <= 0 && d1 >= 0 && d3 <= 0 )
+		{
+			double v = d1 / ( d1 - d3 );
+			return squaredLength( apx - v * abx, apy - v * aby, apz - v * abz );
+		}
+		final double cpx = px - cx, cpy = py - cy, cpz = pz - cz;
+		final double d5 = abx * cpx + aby * cpy + abz * cpz;
+		final double d6 = acx * cpx + acy * cpy + acz * cpz;
+		// vertex region of c
+		if ( d6 >= 0 && d5 <= d6 )
+			return squaredLength( cpx, cpy, cpz );
+		// edge region of ac
+		final double vb = d5 * d2 - d1 * d6;
+		if ( vb <= 0 && d2 >= 0 && d6 <= 0 )
+		{
+			double w = d2 / ( d2 - d6 );
+			return squaredLength( apx - w * acx, apy - w * acy, apz - w * acz );
+		}
+		// edge region of bc
+		final double va = d3 * d6 - d5 * d4;
+		if ( va <= 0 && d4 - d3 >= 0 && d5 - d6 >= 0 )
+		{
+			double w = ( d4 - d3 ) / ( ( d4 - d3 ) + ( d5 - d6 ) );
+			return squaredLength( bpx - w * ( cx - bx ), bpy - w * ( cy - by ), bpz - w * ( cz - bz ) );
+		}
+		// face region
+		final double denominator = va + vb + vc;
+		if ( denominator <= 0 )
+			// degenerate triangle, all edge regions have been checked
+			return Math.min( squaredLength( apx, apy, apz ), Math.min( squaredLength( bpx, bpy, bpz ), squaredLength( cpx, cpy, cpz ) ) );
+		final double v = vb / denominator;
+		final double w = vc / denominator;
+		return squaredLength( apx - abx * v - acx * w, apy - aby * v - acy * w, apz - abz * v - acz * w );
+	}
+
+	/**
+	 * Computes the squared distance between the segments {@code p1 q1} and {@code p2 q2}.
+	 */
+	static double squaredDistanceSegmentSegment( final double[] p1, final double[] q1, final double[] p2, final double[] q2 )
+	{
+		final double d1x = q1[ 0 ] - p1[ 0 ], d1y = q1[ 1 ] - p1[ 1 ], d1z = q1[ 2 ] - p1[ 2 ];
+		final double d2x = q2[ 0 ] - p2[ 0 ], d2y = q2[ 1 ] - p2[ 1 ], d2z = q2[ 2 ] - p2[ 2 ];
+		final double rx = p1[ 0 ] - p2[ 0 ], ry = p1[ 1 ] - p2[ 1 ], rz = p1[ 2 ] - p2[ 2 ];
+		final double a = d1x * d1x + d1y * d1y + d1z * d1z;
+		final double e = d2x * d2x + d2y * d2y + d2z * d2z;
+		final double f = d2x * rx + d2y * ry + d2z * rz;
+		double s;
+		double t;
+		if ( a <= EPSILON && e <= EPSILON )
+		{
+			s = 0;
+			t = 0;
+		}
+		else if ( a <= EPSILON )
+		{
+			s = 0;
+			t = clamp( f / e );
+		}
+		else
+		{
+			final double c = d1x * rx + d1y * ry + d1z * rz;
+			if ( e <= EPSILON )
+			{
+				t = 0;
+				s = clamp( -c / a );
+			}
+			else
+			{
+				final double b = d1x * d2x + d1y * d2y + d1z * d2z;
+				final double denominator = a * e - b * b;
+				// parallel segments: any s is fine, take 0
+				s = denominator != 0 ? clamp( ( b * f - c * e ) / denominator ) : 0;
+				t = ( b * s + f ) / e;
+				if ( t < 0 )
+				{
+					t = 0;
+					s = clamp( -c / a );
+				}
+				else if ( t > 1 )
+				{
+					t = 1;
+					s = clamp( ( b - c ) / a );
+				}
+			}
+		}
+		final double dx = rx + d1x * s - d2x * t;
+		final double dy = ry + d1y * s - d2y * t;
+		final double dz = rz + d1z * s - d2z * t;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Tests, if the segment {@code p q} intersects the triangle {@code a b c}. Segments parallel to the plane of the triangle are considered
+	 * as not intersecting. Such contacts are found by the distance tests of the edges and vertices.
+	 */
+	static boolean segmentIntersectsTriangle( final double[] p, final double[] q, final double[] a, final double[] b, final double[] c )
+	{
+		return intersectRayTriangle( p[ 0 ], p[ 1 ], p[ 2 ], q[ 0 ] - p[ 0 ], q[ 1 ] - p[ 1 ], q[ 2 ] - p[ 2 ], a[ 0 ], a[ 1 ], a[ 2 ], b[ 0 ],
+				b[ 1 ], b[ 2 ], c[ 0 ], c[ 1 ], c[ 2 ] ) <= 1;
+	}
+
+	/**
+	 * Computes the intersection of the ray {@code o + t * d, t >= 0} with the triangle {@code a b c}, given by their coordinates, following
+	 * Möller and Trumbore. Rays parallel to the plane of the triangle are considered as not intersecting.
+	 *
+	 * @return the parameter {@code t} of the intersection or {@link Double#POSITIVE_INFINITY}, if the ray misses the triangle.
+	 */
+	static double intersectRayTriangle( final double ox, final double oy, final double oz, final double dx, final double dy,
+			final double dz, final double ax, final double ay, final double az, final double bx, final double by, final double bz,
+			final double cx, final double cy, final double cz )
+	{
+		final double e1x = bx - ax, e1y = by - ay, e1z = bz - az;
+		final double e2x = cx - ax, e2y = cy - ay, e2z = cz - az;
+		final double hx = dy * e2z - dz * e2y, hy = dz * e2x - dx * e2z, hz = dx * e2y - dy * e2x;
+		final double determinant = e1x * hx + e1y * hy + e1z * hz;
+		if ( Math.abs( determinant ) < EPSILON )
+			return Double.POSITIVE_INFINITY;
+		final double inverse = 1 / determinant;
+		final double sx = ox - ax, sy = oy - ay, sz = oz - az;
+		final double u = inverse * ( sx * hx + sy * hy + sz * hz );
+		if ( u < 0 || u > 1 )
+			return Double.POSITIVE_INFINITY;
+		final double qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+		final double v = inverse * ( dx * qx + dy * qy + dz * qz );
+		if ( v < 0 || u + v > 1 )
+			return Double.POSITIVE_INFINITY;
+		final double t = inverse * ( e2x * qx + e2y * qy + e2z * qz );
+		return t >= 0 ? t : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Computes the squared distance between the triangles {@code a0 a1 a2} and {@code b0 b1 b2}. It is 0, if they intersect. Otherwise, the
+	 * closest points lie on the boundary of one of the triangles, i.e. the distance is the minimum of the distances of the vertices to the
+	 * other triangle and of the distances between the edges.
+	 */
+	static double squaredDistanceTriangleTriangle( final double[] a0, final double[] a1, final double[] a2, final double[] b0,
+			final double[] b1, final double[] b2 )
+	{
+		if ( segmentIntersectsTriangle( a0, a1, b0, b1, b2 ) || segmentIntersectsTriangle( a1, a2, b0, b1, b2 )
+				|| segmentIntersectsTriangle( a2, a0, b0, b1, b2 ) || segmentIntersectsTriangle( b0, b1, a0, a1, a2 )
+				|| segmentIntersectsTriangle( b1, b2, a0, a1, a2 ) || segmentIntersectsTriangle( b2, b0, a0, a1, a2 ) )
+			return 0;
+		double best = squaredDistancePointTriangle( a0, b0, b1, b2 );
+		best = Math.min( best, squaredDistancePointTriangle( a1, b0, b1, b2 ) );
+		best = Math.min( best, squaredDistancePointTriangle( a2, b0, b1, b2 ) );
+		best = Math.min( best, squaredDistancePointTriangle( b0, a0, a1, a2 ) );
+		best = Math.min( best, squaredDistancePointTriangle( b1, a0, a1, a2 ) );
+		best = Math.min( best, squaredDistancePointTriangle( b2, a0, a1, a2 ) );
+		best = Math.min( best, squaredDistanceSegmentEdges( a0, a1, b0, b1, b2 ) );
+		best = Math.min( best, squaredDistanceSegmentEdges( a1, a2, b0, b1, b2 ) );
+		best = Math.min( best, squaredDistanceSegmentEdges( a2, a0, b0, b1, b2 ) );
+		return best;
+	}
+
+	/**
+	 * Computes the squared distance between the segment {@code p q} and the edges of the triangle {@code a b c}.
+	 */
+	private static double squaredDistanceSegmentEdges( final double[] p, final double[] q, final double[] a, final double[] b,
+			final double[] c )
+	{
+		return Math.min( squaredDistanceSegmentSegment( p, q, a, b ),
+				Math.min( squaredDistanceSegmentSegment( p, q, b, c ), squaredDistanceSegmentSegment( p, q, c, a ) ) );
+	}
+
+	private static double squaredLength( final double x, final double y, final double z )
+	{
+		return x * x + y * y + z * z;
+	}
+
+	private static double clamp( final double value )
+	{
+		return value < 0 ? 0 : value > 1 ? 1 : value;
+	}
+}
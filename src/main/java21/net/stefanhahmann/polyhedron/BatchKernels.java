@@ -0,0 +1,57 @@
+package net.stefanhahmann.polyhedron;
+
+/**
+ * Hot loops of the batched containment tests of {@link StarConvexPolyhedron}.<p>
+ * This is the implementation for Java 21 and newer. If the module {@code jdk.incubator.vector} is available at runtime (e.g. started with
+ * {@code --add-modules jdk.incubator.vector}), the loops are delegated to {@link VectorKernels}. Otherwise, the same scalar loops as in the
+ * Java 8 implementation are used. Both compute bitwise identical results.
+ *
+ * @author Stefan Hahmann
+ */
+final class BatchKernels
+{
+	private static final boolean VECTORIZED = ModuleLayer.boot().findModule( "jdk.incubator.vector" ).isPresent();
+
+	private BatchKernels()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * @return a short description of the implementation in use, e.g. for logging.
+	 */
+	static String implementation()
+	{
+		return VECTORIZED ? VectorKernels.implementation() : "scalar";
+	}
+
+	/**
+	 * Computes the score of the candidates {@code from} to {@code from + count - 1} of a {@link FaceLocator} for the direction
+	 * {@code u = (x, y, z)}, i.e. the minimum of {@code u.n} over the 3 edge plane normals {@code n} of each candidate. The normals are
+	 * stored in 9 consecutive sections of {@code stride} entries: x, y and z of the first plane, x, y and z of the second plane, ... The
+	 * score of candidate {@code from + i} is written to {@code scores[i]}. The cone of the candidate contains {@code u}, if its score is not
+	 * negative.
+	 */
+	static void faceScores( final double[] normals, final int stride, final int from, final int count, final double x, final double y,
+			final double z, final double[] scores )
+	{
+		if ( VECTORIZED )
+		{
+			VectorKernels.faceScores( normals, stride, from, count, x, y, z, scores );
+			return;
+		}
+		for ( int i = 0; i < count; i++ )
+			scores[ i ] = faceScore( normals, stride, from + i, x, y, z );
+	}
+
+	/**
+	 * @return the score of candidate {@code k}, see {@link #faceScores(double[], int, int, int, double, double, double, double[])}.
+	 */
+	static double faceScore( final double[] normals, final int stride, final int k, final double x, final double y, final double z )
+	{
+		final double d0 = x * normals[ k ] + y * normals[ stride + k ] + z * normals[ 2 * stride + k ];
+		final double d1 = x * normals[ 3 * stride + k ] + y * normals[ 4 * stride + k ] + z * normals[ 5 * stride + k ];
+		final double d2 = x * normals[ 6 * stride + k ] + y * normals[ 7 * stride + k ] + z * normals[ 8 * stride + k ];
+		return Math.min( d0, Math.min( d1, d2 ) );
+	}
+}
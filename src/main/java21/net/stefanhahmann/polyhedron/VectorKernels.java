@@ -0,0 +1,49 @@
+package net.stefanhahmann.polyhedron;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API implementations of the loops in {@link BatchKernels}. Only loaded, if the module {@code jdk.incubator.vector} is available.
+ * The operations are the same as in the scalar loops and are applied in the same order, without fused multiply add, so the results are
+ * bitwise identical.
+ *
+ * @author Stefan Hahmann
+ */
+final class VectorKernels
+{
+	private static final VectorSpecies< Double > SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	private VectorKernels()
+	{
+		// prevent from instantiation
+	}
+
+	static String implementation()
+	{
+		return "vector (" + SPECIES.length() + " lanes)";
+	}
+
+	static void faceScores( final double[] normals, final int stride, final int from, final int count, final double x, final double y,
+			final double z, final double[] scores )
+	{
+		final int bound = SPECIES.loopBound( count );
+		int i = 0;
+		for ( ; i < bound; i += SPECIES.length() )
+		{
+			final int k = from + i;
+			DoubleVector d0 = DoubleVector.fromArray( SPECIES, normals, k ).mul( x )
+					.add( DoubleVector.fromArray( SPECIES, normals, stride + k ).mul( y ) )
+					.add( DoubleVector.fromArray( SPECIES, normals, 2 * stride + k ).mul( z ) );
+			DoubleVector d1 = DoubleVector.fromArray( SPECIES, normals, 3 * stride + k ).mul( x )
+					.add( DoubleVector.fromArray( SPECIES, normals, 4 * stride + k ).mul( y ) )
+					.add( DoubleVector.fromArray( SPECIES, normals, 5 * stride + k ).mul( z ) );
+			DoubleVector d2 = DoubleVector.fromArray( SPECIES, normals, 6 * stride + k ).mul( x )
+					.add( DoubleVector.fromArray( SPECIES, normals, 7 * stride + k ).mul( y ) )
+					.add( DoubleVector.fromArray( SPECIES, normals, 8 * stride + k ).mul( z ) );
+			d0.min( d1.min( d2 ) ).intoArray( scores, i );
+		}
+		for ( ; i < count; i++ )
+			scores[ i ] = BatchKernels.faceScore( normals, stride, from + i, x, y, z );
+	}
+}
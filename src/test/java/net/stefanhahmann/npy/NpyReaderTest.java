@@ -0,0 +1,86 @@
+package net.stefanhahmann.npy;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NpyReaderTest
+{
+	@TempDir
+	Path directory;
+
+	@Test
+	void testFloatCOrderInMultipleRegions() throws IOException
+	{
+		// shape (2, 3, 4), value = 100 * i + 10 * j + k
+		ByteBuffer data = ByteBuffer.allocate( 24 * 4 ).order( ByteOrder.LITTLE_ENDIAN );
+		for ( int i = 0; i < 2; i++ )
+			for ( int j = 0; j < 3; j++ )
+				for ( int k = 0; k < 4; k++ )
+					data.putFloat( 100 * i + 10 * j + k );
+		Path file = write( "{'descr': '<f4', 'fortran_order': False, 'shape': (2, 3, 4), }", data.array() );
+
+		RandomAccessibleInterval< FloatType > img = NpyReader.open( file, 16 );
+		assertArrayEquals( new long[] { 2, 3, 4 }, img.dimensionsAsLongArray() );
+		RandomAccess< FloatType > access = img.randomAccess();
+		for ( int i = 0; i < 2; i++ )
+			for ( int j = 0; j < 3; j++ )
+				for ( int k = 0; k < 4; k++ )
+					assertEquals( 100 * i + 10 * j + k, access.setPositionAndGet( i, j, k ).get() );
+	}
+
+	@Test
+	void testUnsignedShortFortranOrderBigEndian() throws IOException
+	{
+		// shape (3, 2), fortran order: axis 0 is the fastest, value = 10 * i + j + 60000
+		ByteBuffer data = ByteBuffer.allocate( 6 * 2 ).order( ByteOrder.BIG_ENDIAN );
+		for ( int j = 0; j < 2; j++ )
+			for ( int i = 0; i < 3; i++ )
+				data.putShort( ( short ) ( 10 * i + j + 60000 ) );
+		Path file = write( "{'descr': '>u2', 'fortran_order': True, 'shape': (3, 2), }", data.array() );
+
+		RandomAccessibleInterval< UnsignedShortType > img = NpyReader.open( file );
+		RandomAccess< UnsignedShortType > access = img.randomAccess();
+		for ( int i = 0; i < 3; i++ )
+			for ( int j = 0; j < 2; j++ )
+				assertEquals( 10 * i + j + 60000, access.setPositionAndGet( i, j ).get() );
+	}
+
+	@Test
+	void testStrides()
+	{
+		assertArrayEquals( new long[] { 12, 4, 1 }, NpyReader.strides( new long[] { 2, 3, 4 }, false ) );
+		assertArrayEquals( new long[] { 1, 2, 6 }, NpyReader.strides( new long[] { 2, 3, 4 }, true ) );
+	}
+
+	private Path write( final String dictionary, final byte[] data ) throws IOException
+	{
+		// pad the header with spaces and a newline, such that the data starts at a multiple of 64 bytes
+		StringBuilder header = new StringBuilder( dictionary );
+		while ( ( 10 + header.length() + 1 ) % 64 != 0 )
+			header.append( ' ' );
+		header.append( '\n' );
+		byte[] headerBytes = header.toString().getBytes( StandardCharsets.ISO_8859_1 );
+		ByteBuffer file = ByteBuffer.allocate( 10 + headerBytes.length + data.length ).order( ByteOrder.LITTLE_ENDIAN );
+		file.put( new byte[] { ( byte ) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0 } );
+		file.putShort( ( short ) headerBytes.length );
+		file.put( headerBytes );
+		file.put( data );
+		Path path = directory.resolve( "test.npy" );
+		Files.write( path, file.array() );
+		return path;
+	}
+}
@@ -0,0 +1,37 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BatchKernelsTest
+{
+	@Test
+	void testFaceScoresAreExact()
+	{
+		Random random = new Random( 42 );
+		// sizes, which are and are not multiples of common vector lengths
+		for ( int count : new int[] { 3, 8, 96, 101 } )
+		{
+			int from = 5;
+			int stride = from + count + 7;
+			double[] normals = new double[ 9 * stride ];
+			for ( int k = 0; k < normals.length; k++ )
+				normals[ k ] = random.nextGaussian();
+			double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+			double[] scores = new double[ count ];
+			BatchKernels.faceScores( normals, stride, from, count, x, y, z, scores );
+			for ( int i = 0; i < count; i++ )
+			{
+				int k = from + i;
+				double expected = Double.POSITIVE_INFINITY;
+				for ( int p = 0; p < 3; p++ )
+					expected = Math.min( expected, x * normals[ 3 * p * stride + k ] + y * normals[ ( 3 * p + 1 ) * stride + k ]
+							+ z * normals[ ( 3 * p + 2 ) * stride + k ] );
+				assertEquals( expected, scores[ i ], 0, BatchKernels.implementation() );
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryWorkQueueTest
+{
+	@TempDir
+	Path directory;
+
+	@Test
+	void testLifecycle() throws IOException
+	{
+		DirectoryWorkQueue queue = new DirectoryWorkQueue( directory );
+		queue.submit( "b" );
+		queue.submit( "a" );
+		queue.submit( "c" );
+		assertThrows( FileAlreadyExistsException.class, () -> queue.submit( "a" ) );
+		assertThrows( IllegalArgumentException.class, () -> queue.submit( "../d" ) );
+		assertEquals( Arrays.asList( "a", "b", "c" ), queue.getTodo() );
+
+		assertEquals( "a", queue.claim() );
+		assertEquals( "b", queue.claim() );
+		assertEquals( Arrays.asList( "a", "b" ), queue.getRunning() );
+		queue.complete( "a" );
+		queue.fail( "b" );
+		assertThrows( FileAlreadyExistsException.class, () -> queue.submit( "a" ) );
+		assertFalse( queue.isFinished() );
+
+		// opening the queue again, e.g. in another process, sees the same state
+		DirectoryWorkQueue other = new DirectoryWorkQueue( directory );
+		assertEquals( "c", other.claim() );
+		assertNull( other.claim() );
+		other.complete( "c" );
+		assertTrue( queue.isFinished() );
+		assertEquals( Arrays.asList( "a", "c" ), queue.getDone() );
+		assertEquals( Collections.singletonList( "b" ), queue.getFailed() );
+	}
+
+	@Test
+	void testRequeueStale() throws IOException
+	{
+		DirectoryWorkQueue queue = new DirectoryWorkQueue( directory );
+		queue.submit( "a" );
+		queue.submit( "b" );
+		queue.claim();
+		queue.claim();
+		assertEquals( 0, queue.requeueStale( 60_000 ) );
+		// the worker of task a has not signalled for two minutes
+		Files.setLastModifiedTime( directory.resolve( "running" ).resolve( "a" ),
+				FileTime.fromMillis( System.currentTimeMillis() - 120_000 ) );
+		queue.heartbeat( "b" );
+		assertEquals( 1, queue.requeueStale( 60_000 ) );
+		assertEquals( Collections.singletonList( "a" ), queue.getTodo() );
+		assertEquals( Collections.singletonList( "b" ), queue.getRunning() );
+		assertEquals( "a", queue.claim() );
+	}
+
+	@Test
+	void testConcurrentClaims() throws Exception
+	{
+		DirectoryWorkQueue queue = new DirectoryWorkQueue( directory );
+		for ( int i = 0; i < 200; i++ )
+			queue.submit( String.format( "task-%03d", i ) );
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try
+		{
+			List< Future< List< String > > > futures = new ArrayList<>();
+			for ( int worker = 0; worker < 4; worker++ )
+				futures.add( executor.submit( () -> {
+					// each worker opens the queue itself, like a separate process
+					DirectoryWorkQueue own = new DirectoryWorkQueue( directory );
+					List< String > claimed = new ArrayList<>();
+					for ( String task = own.claim(); task != null; task = own.claim() )
+					{
+						claimed.add( task );
+						own.complete( task );
+					}
+					return claimed;
+				} ) );
+			List< String > all = new ArrayList<>();
+			for ( Future< List< String > > future : futures )
+				all.addAll( future.get() );
+			Collections.sort( all );
+			assertEquals( queue.getDone(), all, "each task must be claimed exactly once" );
+			assertEquals( 200, all.size() );
+			assertTrue( queue.isFinished() );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
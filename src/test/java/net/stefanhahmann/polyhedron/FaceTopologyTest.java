@@ -0,0 +1,45 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FaceTopologyTest
+{
+	@Test
+	void testFibonacciTopologyIsClosedAndOriented()
+	{
+		for ( int n : new int[] { 5, 32, 96, 200 } )
+		{
+			FaceTopology topology = FaceTopology.fibonacci( n );
+			List< double[] > lattice = FibonacciLattices.getValues( n );
+			// closed triangulation of a sphere: Euler characteristic 2
+			assertEquals( n, topology.numVertices() );
+			assertEquals( 2 * n - 4, topology.numTriangles() );
+			// each directed edge exists exactly once, its reverse belongs to the neighbouring triangle
+			Set< Long > edges = new HashSet<>();
+			for ( int t = 0; t < topology.numTriangles(); t++ )
+			{
+				for ( int c = 0; c < 3; c++ )
+					assertTrue( edges.add( ( long ) topology.vertex( t, c ) << 32 | topology.vertex( t, ( c + 1 ) % 3 ) ) );
+				// normals point outwards
+				double[] a = lattice.get( topology.vertex( t, 0 ) );
+				double[] b = lattice.get( topology.vertex( t, 1 ) );
+				double[] c = lattice.get( topology.vertex( t, 2 ) );
+				double[] e1 = { b[ 0 ] - a[ 0 ], b[ 1 ] - a[ 1 ], b[ 2 ] - a[ 2 ] };
+				double[] e2 = { c[ 0 ] - a[ 0 ], c[ 1 ] - a[ 1 ], c[ 2 ] - a[ 2 ] };
+				double[] normal = { e1[ 1 ] * e2[ 2 ] - e1[ 2 ] * e2[ 1 ], e1[ 2 ] * e2[ 0 ] - e1[ 0 ] * e2[ 2 ], e1[ 0 ] * e2[ 1 ] - e1[ 1 ] * e2[ 0 ] };
+				assertTrue( normal[ 0 ] * a[ 0 ] + normal[ 1 ] * a[ 1 ] + normal[ 2 ] * a[ 2 ] > 0 );
+			}
+			for ( long edge : edges )
+				assertTrue( edges.contains( ( edge & 0xffffffffL ) << 32 | edge >>> 32 ) );
+		}
+		assertSame( FaceTopology.fibonacci( 96 ), FaceTopology.fibonacci( 96 ) );
+	}
+}
@@ -0,0 +1,119 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LabelContingencyTableTest
+{
+	@Test
+	void testMatching()
+	{
+		ArrayImg< UnsignedIntType, IntArray > groundTruth = ArrayImgs.unsignedInts( 20, 10, 10 );
+		ArrayImg< UnsignedIntType, IntArray > prediction = ArrayImgs.unsignedInts( 20, 10, 10 );
+		// ground truth 7: 4x10x10 voxels, predicted 3 covers it and 1x10x10 more, IoU 0.8
+		fill( groundTruth, 0, 3, 7 );
+		fill( prediction, 0, 4, 3 );
+		// ground truth 9: 10x10x10 voxels, predicted 5 covers 4x10x10 of it, IoU 0.4
+		fill( groundTruth, 10, 19, 9 );
+		fill( prediction, 10, 13, 5 );
+		// predicted 3x10x10 voxels without ground truth
+		fill( prediction, 6, 8, 0xffffffffL );
+
+		LabelContingencyTable table = LabelContingencyTable.compute( groundTruth, prediction );
+		assertEquals( 2, table.numGroundTruthLabels() );
+		assertEquals( 3, table.numPredictedLabels() );
+		assertEquals( 7, table.groundTruthLabel( 0 ) );
+		assertEquals( 400, table.groundTruthSize( 0 ) );
+		assertEquals( 1000, table.groundTruthSize( 1 ) );
+		assertEquals( 0xffffffffL, table.predictedLabel( 2 ) );
+		assertEquals( 300, table.predictedSize( 2 ) );
+		assertEquals( 2, table.getOverlaps().size() );
+		assertEquals( 0.8, table.getOverlaps().iou( 0 ), 1e-12 );
+		assertEquals( 0.4, table.getOverlaps().iou( 1 ), 1e-12 );
+
+		List< LabelMatching > matchings = table.match( 0.3, 0.5, 0.9 );
+		LabelMatching low = matchings.get( 0 );
+		assertEquals( 2, low.truePositives() );
+		assertEquals( 1, low.falsePositives() );
+		assertEquals( 0, low.falseNegatives() );
+		assertEquals( 2d / 3, low.precision(), 1e-12 );
+		assertEquals( 1, low.recall(), 1e-12 );
+		assertEquals( 0.8, low.f1(), 1e-12 );
+		assertEquals( 0.6, low.meanMatchedIou(), 1e-12 );
+		LabelMatching medium = matchings.get( 1 );
+		assertEquals( 1, medium.truePositives() );
+		assertEquals( 2, medium.falsePositives() );
+		assertEquals( 1, medium.falseNegatives() );
+		assertEquals( 0.25, medium.accuracy(), 1e-12 );
+		assertEquals( 0.8, medium.meanMatchedIou(), 1e-12 );
+		assertEquals( 0.4, medium.meanTrueIou(), 1e-12 );
+		LabelMatching high = matchings.get( 2 );
+		assertEquals( 0, high.truePositives() );
+		assertEquals( 0, high.precision(), 0 );
+		assertEquals( 0, high.meanMatchedIou(), 0 );
+	}
+
+	@Test
+	void testMaximisesMatches()
+	{
+		// ground truth 1 overlaps predicted 1 (IoU 4 / 7) and 2 (IoU 2 / 7), ground truth 2 only overlaps predicted 1 (IoU 1 / 5)
+		ArrayImg< UnsignedIntType, IntArray > groundTruth = ArrayImgs.unsignedInts( 10, 1, 1 );
+		ArrayImg< UnsignedIntType, IntArray > prediction = ArrayImgs.unsignedInts( 10, 1, 1 );
+		int[] gt = { 0, 1, 1, 1, 1, 1, 1, 2, 0, 0 };
+		int[] pred = { 2, 2, 2, 1, 1, 1, 1, 1, 0, 0 };
+		for ( int x = 0; x < 10; x++ )
+		{
+			groundTruth.getAt( x, 0, 0 ).set( gt[ x ] );
+			prediction.getAt( x, 0, 0 ).set( pred[ x ] );
+		}
+		LabelMatching matching = LabelContingencyTable.compute( groundTruth, prediction ).match( 0.1 );
+		assertEquals( 2, matching.truePositives() );
+		assertEquals( ( 2d / 7 + 1d / 5 ) / 2, matching.meanMatchedIou(), 1e-12 );
+	}
+
+	@Test
+	void testManyLabels()
+	{
+		ArrayImg< UnsignedIntType, IntArray > groundTruth = ArrayImgs.unsignedInts( 50, 40, 30 );
+		ArrayImg< UnsignedIntType, IntArray > prediction = ArrayImgs.unsignedInts( 50, 40, 30 );
+		RandomAccess< UnsignedIntType > g = groundTruth.randomAccess();
+		RandomAccess< UnsignedIntType > p = prediction.randomAccess();
+		for ( int z = 0; z < 30; z++ )
+			for ( int y = 0; y < 40; y++ )
+				for ( int x = 0; x < 50; x++ )
+				{
+					g.setPositionAndGet( x, y, z ).set( 1 + x / 2 + 25L * ( y / 2 ) + 500L * ( z / 2 ) );
+					p.setPositionAndGet( x, y, z ).set( 1 + x / 2 + 25L * ( y / 2 ) + 500L * ( z / 2 ) );
+				}
+		LabelContingencyTable table = LabelContingencyTable.compute( groundTruth, prediction );
+		assertEquals( 7500, table.numGroundTruthLabels() );
+		assertEquals( 7500, table.getOverlaps().size() );
+		LabelMatching matching = table.match( 0.9 );
+		assertEquals( 7500, matching.truePositives() );
+		assertEquals( 1, matching.f1(), 0 );
+	}
+
+	@Test
+	void testDifferentIntervals()
+	{
+		assertThrows( IllegalArgumentException.class,
+				() -> LabelContingencyTable.compute( ArrayImgs.unsignedInts( 2, 2, 2 ), ArrayImgs.unsignedInts( 2, 2, 3 ) ) );
+	}
+
+	private static void fill( final ArrayImg< UnsignedIntType, IntArray > img, final int minX, final int maxX, final long label )
+	{
+		for ( int z = 0; z < img.dimension( 2 ); z++ )
+			for ( int y = 0; y < img.dimension( 1 ); y++ )
+				for ( int x = minX; x <= maxX; x++ )
+					img.getAt( x, y, z ).set( label );
+	}
+}
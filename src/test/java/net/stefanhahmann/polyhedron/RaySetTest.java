@@ -0,0 +1,245 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RaySetTest
+{
+	@TempDir
+	Path directory;
+
+	@Test
+	void testFibonacci()
+	{
+		RaySet rays = RaySet.fibonacci( 96 );
+		assertSame( rays, RaySet.fibonacci( 96 ) );
+		assertTrue( rays.isFibonacci() );
+		assertEquals( 96, rays.size() );
+		List< double[] > lattice = FibonacciLattices.getValues( 96 );
+		for ( int i = 0; i < 96; i++ )
+			assertArrayEquals( lattice.get( i ), rays.getDirections().get( i ), 0 );
+		assertSame( FaceTopology.fibonacci( 96 ), rays.getFaceTopology() );
+		assertSame( rays, RaySet.goldenSpiral( 96, new double[] { 2, 2, 2 } ) );
+	}
+
+	@Test
+	void testGoldenSpiralAnisotropic()
+	{
+		RaySet rays = RaySet.goldenSpiral( 96, new double[] { 1, 1, 2 } );
+		assertSame( rays, RaySet.goldenSpiral( 96, new double[] { 1, 1, 2 } ) );
+		assertFalse( rays.isFibonacci() );
+		assertEquals( 96, rays.size() );
+		assertEquals( 2 * 96 - 4, rays.getFaceTopology().numTriangles() );
+		assertUnitAndOutwards( rays );
+		// rays are denser towards the z axis, as the z axis is compressed
+		List< double[] > lattice = FibonacciLattices.getValues( 96 );
+		for ( int i = 0; i < 96; i++ )
+			assertTrue( Math.abs( rays.getDirections().get( i )[ 2 ] ) <= Math.abs( lattice.get( i )[ 2 ] ) + 1e-12 );
+	}
+
+	@Test
+	void testCartesian()
+	{
+		RaySet rays = RaySet.cartesian( 11, 5 );
+		assertEquals( 55, rays.size() );
+		assertEquals( 2 * 4 * 11, rays.getFaceTopology().numTriangles() );
+		assertArrayEquals( new double[] { 0, 0, 1 }, rays.getDirections().get( 0 ), 1e-9 );
+		assertArrayEquals( new double[] { 0, 0, -1 }, rays.getDirections().get( 54 ), 1e-9 );
+	}
+
+	@Test
+	void testSubDivided()
+	{
+		assertEquals( 4, RaySet.tetra( 1 ).size() );
+		assertEquals( 10, RaySet.tetra( 2 ).size() );
+		assertEquals( 34, RaySet.tetra( 3 ).size() );
+		assertEquals( 6, RaySet.octo( 1 ).size() );
+		assertEquals( 18, RaySet.octo( 2 ).size() );
+		assertEquals( 66, RaySet.octo( 3 ).size() );
+		assertEquals( 8 * 16, RaySet.octo( 3 ).getFaceTopology().numTriangles() );
+		assertUnitAndOutwards( RaySet.tetra( 3 ) );
+		assertUnitAndOutwards( RaySet.octo( 3 ) );
+		assertThrows( IllegalArgumentException.class, () -> RaySet.octo( 0 ) );
+	}
+
+	@Test
+	void testExplicit()
+	{
+		List< double[] > directions = new ArrayList<>();
+		for ( double[] direction : new double[][] { { 2, 0, 0 }, { 0, 2, 0 }, { -2, 0, 0 }, { 0, -2, 0 }, { 0, 0, 2 }, { 0, 0, -2 } } )
+			directions.add( direction );
+		// inconsistently oriented triangles of an octahedron
+		int[] triangles = { 0, 1, 4, 0, 1, 5, 1, 2, 4, 1, 2, 5, 2, 3, 4, 2, 3, 5, 3, 0, 4, 3, 0, 5 };
+		RaySet rays = RaySet.explicit( directions, triangles );
+		assertArrayEquals( new double[] { 1, 0, 0 }, rays.getDirections().get( 0 ), 0 );
+		assertUnitAndOutwards( rays );
+		assertThrows( IllegalArgumentException.class, () -> RaySet.explicit( directions, new int[] { 0, 1, 6 } ) );
+	}
+
+	@Test
+	void testFromModelConfig() throws IOException
+	{
+		Path config = Paths.get( "models", "stardist-3d-plant-nuclei", "rdf.yaml" );
+		RaySet rays = RaySet.fromModelConfig( config );
+		// anisotropy is (2, 1, 1) in zyx order
+		assertSame( RaySet.goldenSpiral( 96, new double[] { 1, 1, 2 } ), rays );
+		assertEquals( "Rays_GoldenSpiral_anisotropy_2.00_1.00_1.00_n_96", rays.toString() );
+	}
+
+	@Test
+	void testFromConfigJson()
+	{
+		Object json = ModelConfigReader.parseJson(
+				"{\"n_dim\": 3, \"rays_json\": {\"name\": \"Rays_Octo\", \"kwargs\": {\"n_level\": 2}}, \"grid\": [1, 2, 2]}" );
+		@SuppressWarnings( "unchecked" )
+		Map< String, ? > raysJson = ( Map< String, ? > ) ( ( Map< ?, ? > ) json ).get( "rays_json" );
+		assertSame( RaySet.octo( 2 ), RaySet.fromConfig( raysJson ) );
+		assertThrows( IllegalArgumentException.class,
+				() -> RaySet.fromConfig( Collections.singletonMap( "name", "Rays_Unknown" ) ) );
+	}
+
+	@Test
+	void testFromModelConfigYaml() throws IOException
+	{
+		// block mappings and sequences, a quoted key and a flow sequence, as written by the model zoo
+		Path config = directory.resolve( "rdf.yaml" );
+		Files.write( config, Arrays.asList( "config:", "  stardist:", "    config:", "      grid: [1, 2, 2]", "      rays_json:",
+				"        kwargs:", "          anisotropy:", "            - 2", "            - 1", "            - 1", "          'n': 96",
+				"        name: Rays_GoldenSpiral" ) );
+		assertSame( RaySet.goldenSpiral( 96, new double[] { 1, 1, 2 } ), RaySet.fromModelConfig( config ) );
+		Files.write( config, Collections.singletonList( "rays_json: [1, 2" ) );
+		assertThrows( IllegalArgumentException.class, () -> RaySet.fromModelConfig( config ) );
+	}
+
+	@Test
+	void testFromModelConfigJson() throws IOException
+	{
+		Path config = directory.resolve( "config.json" );
+		Files.write( config, Collections.singletonList(
+				"{\"n_dim\": 3, \"rays_json\": {\"name\": \"Rays_Cartesian\", \"kwargs\": {\"n_rays_x\": 8, \"n_rays_z\": 4}}}" ) );
+		assertSame( RaySet.cartesian( 8, 4 ), RaySet.fromModelConfig( config ) );
+		Files.write( config, Collections.singletonList( "{\"n_dim\": 3}" ) );
+		assertThrows( IllegalArgumentException.class, () -> RaySet.fromModelConfig( config ) );
+		Files.write( config, Collections.singletonList( "{\"rays_json\": [1, 2" ) );
+		assertThrows( IllegalArgumentException.class, () -> RaySet.fromModelConfig( config ) );
+	}
+
+	@Test
+	void testPolyhedron()
+	{
+		RaySet rays = RaySet.octo( 3 );
+		List< Double > distances = Collections.nCopies( rays.size(), 5d );
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( new double[] { 10, 10, 10 }, distances, rays );
+		assertSame( rays, polyhedron.getRaySet() );
+		assertSame( rays.getFaceTopology(), polyhedron.getFaceTopology() );
+		assertTrue( polyhedron.contains( new double[] { 10, 10, 10 } ) );
+		assertTrue( polyhedron.contains( new double[] { 10, 10, 14.5 } ) );
+		assertFalse( polyhedron.contains( new double[] { 10, 10, 15.5 } ) );
+		assertThrows( IllegalArgumentException.class,
+				() -> new StarConvexPolyhedron( new double[] { 0, 0, 0 }, Collections.nCopies( 10, 1d ), rays ) );
+	}
+
+	@Test
+	void testContainsCartesian()
+	{
+		RaySet rays = RaySet.cartesian( 11, 5 );
+		assertContains( rays );
+		// close to the poles, all pole rays almost coincide
+		List< Double > distances = Collections.nCopies( rays.size(), 5d );
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( new double[] { 10, 10, 10 }, distances, rays );
+		for ( double offset : new double[] { 0.01, 0.1, 0.3 } )
+			for ( int i = 0; i < 8; i++ )
+			{
+				double phi = i * Math.PI / 4;
+				double dx = offset * Math.cos( phi );
+				double dy = offset * Math.sin( phi );
+				assertTrue( polyhedron.contains( new double[] { 10 + dx, 10 + dy, 14.5 } ) );
+				assertTrue( polyhedron.contains( new double[] { 10 + dx, 10 + dy, 5.5 } ) );
+				assertFalse( polyhedron.contains( new double[] { 10 + dx, 10 + dy, 15.1 } ) );
+				assertFalse( polyhedron.contains( new double[] { 10 + dx, 10 + dy, 4.9 } ) );
+			}
+	}
+
+	@Test
+	void testContainsGoldenSpiralAnisotropic()
+	{
+		assertContains( RaySet.goldenSpiral( 96, new double[] { 1, 1, 2 } ) );
+		assertContains( RaySet.goldenSpiral( 64, new double[] { 3, 1, 1 } ) );
+	}
+
+	@Test
+	void testContainsSubDivided()
+	{
+		assertContains( RaySet.tetra( 1 ) );
+		assertContains( RaySet.octo( 3 ) );
+	}
+
+	/**
+	 * Compares {@link StarConvexPolyhedron#contains(double[])} and the batched variant with {@link TestPolyhedra#rayCast}.
+	 */
+	private static void assertContains( final RaySet rays )
+	{
+		Random random = new Random( 42 );
+		List< Double > distances = new ArrayList<>();
+		for ( int i = 0; i < rays.size(); i++ )
+			distances.add( 3 + 3 * random.nextDouble() );
+		double[] center = { 10, 20, 30 };
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( center, distances, rays );
+		int count = 20000;
+		double[] xyz = new double[ 3 * count ];
+		for ( int i = 0; i < xyz.length; i++ )
+			xyz[ i ] = center[ i % 3 ] - 7 + 14 * random.nextDouble();
+		boolean[] batch = new boolean[ count ];
+		polyhedron.containsBatch( xyz, count, batch );
+		int tested = 0;
+		for ( int i = 0; i < count; i++ )
+		{
+			double[] point = { xyz[ 3 * i ], xyz[ 3 * i + 1 ], xyz[ 3 * i + 2 ] };
+			double hit = TestPolyhedra.rayCast( polyhedron, point );
+			// points on the surface may be classified either way
+			if ( Math.abs( hit - 1 ) < 1e-6 )
+				continue;
+			assertEquals( hit > 1, polyhedron.contains( point ), rays + ", point " + i );
+			assertEquals( hit > 1, batch[ i ], rays + ", point " + i );
+			tested++;
+		}
+		assertTrue( tested > count - 10 );
+	}
+
+	private static void assertUnitAndOutwards( final RaySet rays )
+	{
+		List< double[] > directions = rays.getDirections();
+		for ( double[] direction : directions )
+			assertEquals( 1, Math.sqrt( direction[ 0 ] * direction[ 0 ] + direction[ 1 ] * direction[ 1 ] + direction[ 2 ] * direction[ 2 ] ),
+					1e-12 );
+		FaceTopology topology = rays.getFaceTopology();
+		for ( int t = 0; t < topology.numTriangles(); t++ )
+		{
+			double[] a = directions.get( topology.vertex( t, 0 ) );
+			double[] b = directions.get( topology.vertex( t, 1 ) );
+			double[] c = directions.get( topology.vertex( t, 2 ) );
+			double nx = ( b[ 1 ] - a[ 1 ] ) * ( c[ 2 ] - a[ 2 ] ) - ( b[ 2 ] - a[ 2 ] ) * ( c[ 1 ] - a[ 1 ] );
+			double ny = ( b[ 2 ] - a[ 2 ] ) * ( c[ 0 ] - a[ 0 ] ) - ( b[ 0 ] - a[ 0 ] ) * ( c[ 2 ] - a[ 2 ] );
+			double nz = ( b[ 0 ] - a[ 0 ] ) * ( c[ 1 ] - a[ 1 ] ) - ( b[ 1 ] - a[ 1 ] ) * ( c[ 0 ] - a[ 0 ] );
+			assertTrue( nx * ( a[ 0 ] + b[ 0 ] + c[ 0 ] ) + ny * ( a[ 1 ] + b[ 1 ] + c[ 1 ] ) + nz * ( a[ 2 ] + b[ 2 ] + c[ 2 ] ) > 0 );
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SequentialRelabelingTest
+{
+	@Test
+	void testRelabeling()
+	{
+		ArrayImg< LongType, LongArray > labels = ArrayImgs.longs( 10, 20, 30 );
+		long[] values = { 0, 7, 7, 3_000_000_000L, 42, 0, 7 };
+		int i = 0;
+		for ( LongType value : labels )
+			value.set( values[ i++ % values.length ] );
+
+		SequentialRelabeling relabeling = SequentialRelabeling.of( labels, 5 );
+		assertEquals( 3, relabeling.numLabels() );
+		assertEquals( 5, relabeling.getOffset() );
+		assertArrayEquals( new long[] { 7, 42, 3_000_000_000L }, relabeling.getOriginalLabels() );
+		assertEquals( 0, relabeling.forward( 0 ) );
+		assertEquals( 5, relabeling.forward( 7 ) );
+		assertEquals( 7, relabeling.forward( 3_000_000_000L ) );
+		assertEquals( 0, relabeling.forward( 8 ) );
+		assertEquals( 42, relabeling.inverse( 6 ) );
+		assertEquals( 0, relabeling.inverse( 4 ) );
+		assertEquals( 0, relabeling.inverse( 8 ) );
+
+		RandomAccessibleInterval< UnsignedShortType > view = relabeling.view( labels, new UnsignedShortType() );
+		assertEquals( 7, view.getAt( 3, 0, 0 ).get() );
+		assertEquals( 6, view.getAt( 4, 0, 0 ).get() );
+		assertEquals( 3_000_000_000L, labels.getAt( 3, 0, 0 ).get() );
+
+		relabeling.applyInPlace( labels );
+		i = 0;
+		for ( LongType value : labels )
+			assertEquals( relabeling.forward( values[ i++ % values.length ] ), value.get() );
+	}
+
+	@Test
+	void testNegativeLabels()
+	{
+		ArrayImg< LongType, LongArray > labels = ArrayImgs.longs( 2, 2, 2 );
+		labels.getAt( 1, 1, 1 ).set( -1 );
+		assertThrows( IllegalArgumentException.class, () -> SequentialRelabeling.of( labels ) );
+	}
+}
@@ -0,0 +1,198 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.stefanhahmann.polyhedron.TestPolyhedra.sphere;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarConvexPolyhedronAdjacencyTest
+{
+	@Test
+	void testChain()
+	{
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		polyhedra.add( sphere( 0, 0, 0, 5 ) );
+		// surface distance approx. 2 to the first sphere
+		polyhedra.add( sphere( 12, 0, 0, 5 ) );
+		// surface distance approx. 0.5 to the second sphere
+		polyhedra.add( sphere( 22.5, 0, 0, 5 ) );
+		// overlaps with the third sphere
+		polyhedra.add( sphere( 22.5, 8, 0, 5 ) );
+		// inside of the first sphere
+		polyhedra.add( sphere( 1, 0, 0, 2 ) );
+		// far away
+		polyhedra.add( sphere( 100, 100, 100, 5 ) );
+
+		StarConvexPolyhedronAdjacency touching = StarConvexPolyhedronAdjacency.compute( polyhedra, 0 );
+		assertEquals( 6, touching.size() );
+		assertEquals( 2, touching.numEdges() );
+		assertArrayEquals( new int[] { 4 }, touching.neighbours( 0 ) );
+		assertArrayEquals( new int[] { 3 }, touching.neighbours( 2 ) );
+		assertEquals( 0, touching.distance( 2, 0 ) );
+
+		StarConvexPolyhedronAdjacency close = StarConvexPolyhedronAdjacency.compute( polyhedra, 1 );
+		assertEquals( 3, close.numEdges() );
+		assertTrue( close.areNeighbours( 1, 2 ) );
+		assertTrue( close.areNeighbours( 2, 1 ) );
+		assertFalse( close.areNeighbours( 0, 1 ) );
+		assertEquals( 0.5, close.distance( 1, 0 ), 0.25 );
+
+		StarConvexPolyhedronAdjacency far = StarConvexPolyhedronAdjacency.compute( polyhedra, 3 );
+		assertArrayEquals( new int[] { 0, 2, 4, 6, 7, 8, 8 }, far.getOffsets() );
+		assertArrayEquals( new int[] { 1, 4, 0, 2, 1, 3, 2, 0 }, far.getNeighbours() );
+		assertEquals( 2, far.distance( 0, 0 ), 0.25 );
+		assertEquals( 0, far.degree( 5 ) );
+	}
+
+	@Test
+	void testRandom()
+	{
+		Random random = new Random( 42 );
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		for ( int i = 0; i < 200; i++ )
+		{
+			List< Double > distances = new ArrayList<>();
+			for ( int ray = 0; ray < 32; ray++ )
+				distances.add( 3 + 2 * random.nextDouble() );
+			polyhedra.add( new StarConvexPolyhedron(
+					new double[] { 100 * random.nextDouble(), 100 * random.nextDouble(), 30 * random.nextDouble() }, distances ) );
+		}
+		double maximumDistance = 2;
+		StarConvexPolyhedronAdjacency adjacency = StarConvexPolyhedronAdjacency.compute( polyhedra, maximumDistance );
+		assertTrue( adjacency.numEdges() > 0 );
+		List< SurfaceSamples > samples = new ArrayList<>();
+		for ( StarConvexPolyhedron polyhedron : polyhedra )
+			samples.add( new SurfaceSamples( polyhedron, 8 ) );
+		int decided = 0;
+		for ( int i = 0; i < polyhedra.size(); i++ )
+			for ( int j = 0; j < polyhedra.size(); j++ )
+			{
+				if ( i == j )
+					continue;
+				// centers further apart than twice the largest ray plus the maximum distance cannot be neighbours
+				if ( Math.sqrt( squaredDistance( polyhedra.get( i ).getCenter(), polyhedra.get( j ).getCenter() ) ) > 10 + maximumDistance )
+				{
+					assertFalse( adjacency.areNeighbours( i, j ) );
+					continue;
+				}
+				// the distance of the surfaces is at most the sampled distance and at least the sampled distance minus the sampling errors
+				double tolerance = samples.get( i ).error + samples.get( j ).error;
+				double sampled = sampledDistance( samples.get( i ), samples.get( j ), maximumDistance + tolerance );
+				if ( sampled <= maximumDistance )
+					assertTrue( adjacency.areNeighbours( i, j ), "pair " + i + ", " + j + ": " + sampled );
+				else if ( sampled > maximumDistance + tolerance )
+					assertFalse( adjacency.areNeighbours( i, j ), "pair " + i + ", " + j + ": " + sampled );
+				else
+					continue;
+				decided++;
+			}
+		assertTrue( decided > 100 );
+		int[] neighbours = adjacency.getNeighbours();
+		int[] offsets = adjacency.getOffsets();
+		for ( int i = 0; i < polyhedra.size(); i++ )
+		{
+			int[] row = Arrays.copyOfRange( neighbours, offsets[ i ], offsets[ i + 1 ] );
+			int[] sorted = row.clone();
+			Arrays.sort( sorted );
+			assertArrayEquals( sorted, row );
+		}
+	}
+
+	@Test
+	void testInvalid()
+	{
+		assertThrows( IllegalArgumentException.class,
+				() -> StarConvexPolyhedronAdjacency.compute( Collections.singletonList( sphere( 0, 0, 0, 1 ) ), -1 ) );
+		assertEquals( 0, StarConvexPolyhedronAdjacency.compute( Collections.emptyList(), 1 ).size() );
+	}
+
+	/**
+	 * Distance between the sampled surfaces, 0 if a sample or the center of one polyhedron lies in the other polyhedron. Only samples within
+	 * the given distance of the bounding box of the other polyhedron are compared, i.e. the result is infinite, if the distance exceeds it.
+	 */
+	private static double sampledDistance( final SurfaceSamples a, final SurfaceSamples b, final double maximumDistance )
+	{
+		if ( a.polyhedron.contains( b.polyhedron.getCenter() ) || b.polyhedron.contains( a.polyhedron.getCenter() ) )
+			return 0;
+		List< double[] > nearA = a.near( b.polyhedron, maximumDistance );
+		List< double[] > nearB = b.near( a.polyhedron, maximumDistance );
+		for ( double[] point : nearA )
+			if ( b.polyhedron.contains( point ) )
+				return 0;
+		for ( double[] point : nearB )
+			if ( a.polyhedron.contains( point ) )
+				return 0;
+		double best = Double.POSITIVE_INFINITY;
+		for ( double[] p : nearA )
+			for ( double[] q : nearB )
+				best = Math.min( best, squaredDistance( p, q ) );
+		return Math.sqrt( best );
+	}
+
+	/**
+	 * Points on a regular barycentric grid on each triangle of the surface of a polyhedron. Each point of the surface lies within
+	 * {@link #error} of a sample.
+	 */
+	private static class SurfaceSamples
+	{
+		private final StarConvexPolyhedron polyhedron;
+
+		private final List< double[] > points = new ArrayList<>();
+
+		private double error;
+
+		private SurfaceSamples( final StarConvexPolyhedron polyhedron, final int subdivisions )
+		{
+			this.polyhedron = polyhedron;
+			FaceTopology topology = polyhedron.getFaceTopology();
+			for ( int t = 0; t < topology.numTriangles(); t++ )
+			{
+				double[] a = polyhedron.getPoints().get( topology.vertex( t, 0 ) );
+				double[] b = polyhedron.getPoints().get( topology.vertex( t, 1 ) );
+				double[] c = polyhedron.getPoints().get( topology.vertex( t, 2 ) );
+				double longestEdge = Math.sqrt( Math.max( squaredDistance( a, b ), Math.max( squaredDistance( b, c ), squaredDistance( c, a ) ) ) );
+				error = Math.max( error, longestEdge / subdivisions );
+				for ( int i = 0; i <= subdivisions; i++ )
+					for ( int j = 0; i + j <= subdivisions; j++ )
+					{
+						double u = ( double ) i / subdivisions;
+						double v = ( double ) j / subdivisions;
+						double w = 1 - u - v;
+						points.add( new double[] { w * a[ 0 ] + u * b[ 0 ] + v * c[ 0 ], w * a[ 1 ] + u * b[ 1 ] + v * c[ 1 ],
+								w * a[ 2 ] + u * b[ 2 ] + v * c[ 2 ] } );
+					}
+			}
+		}
+
+		/**
+		 * @return the samples within the given distance of the bounding box of the given polyhedron.
+		 */
+		private List< double[] > near( final StarConvexPolyhedron other, final double distance )
+		{
+			double[] min = other.getBoundingBox3D().getMinPoint();
+			double[] max = other.getBoundingBox3D().getMaxPoint();
+			List< double[] > result = new ArrayList<>();
+			for ( double[] point : points )
+				if ( point[ 0 ] >= min[ 0 ] - distance && point[ 0 ] <= max[ 0 ] + distance && point[ 1 ] >= min[ 1 ] - distance
+						&& point[ 1 ] <= max[ 1 ] + distance && point[ 2 ] >= min[ 2 ] - distance && point[ 2 ] <= max[ 2 ] + distance )
+					result.add( point );
+			return result;
+		}
+	}
+
+	private static double squaredDistance( final double[] a, final double[] b )
+	{
+		double dx = a[ 0 ] - b[ 0 ], dy = a[ 1 ] - b[ 1 ], dz = a[ 2 ] - b[ 2 ];
+		return dx * dx + dy * dy + dz * dz;
+	}
+}
@@ -0,0 +1,51 @@
+package net.stefanhahmann.polyhedron;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static net.stefanhahmann.polyhedron.TestPolyhedra.sphere;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StarConvexPolyhedronBatchTest
+{
+	@Test
+	void testMortonCode()
+	{
+		assertEquals( 0, StarConvexPolyhedronBatch.mortonCode( new long[] { 0, 0, 0 } ) );
+		assertEquals( 1, StarConvexPolyhedronBatch.mortonCode( new long[] { 1, 0, 0 } ) );
+		assertEquals( 2, StarConvexPolyhedronBatch.mortonCode( new long[] { 0, 1, 0 } ) );
+		assertEquals( 4, StarConvexPolyhedronBatch.mortonCode( new long[] { 0, 0, 1 } ) );
+		assertEquals( 7, StarConvexPolyhedronBatch.mortonCode( new long[] { 1, 1, 1 } ) );
+		assertEquals( 8, StarConvexPolyhedronBatch.mortonCode( new long[] { 2, 0, 0 } ) );
+		assertEquals( 0, StarConvexPolyhedronBatch.mortonCode( new long[] { -5, 0, 0 } ) );
+		assertEquals( 0x7fffffffffffffffL, StarConvexPolyhedronBatch.mortonCode( new long[] { 1 << 21, 1 << 21, 1 << 21 } ) );
+	}
+
+	@Test
+	void testOrder()
+	{
+		StarConvexPolyhedronBatch< FloatType > batch = new StarConvexPolyhedronBatch<>(
+				new RandomAccessibleIntervalSource<>( ArrayImgs.floats( 100, 100, 100 ), new FloatType(), "image" ), new int[] { 10, 10, 10 } );
+		List< StarConvexPolyhedron > polyhedra = Arrays.asList(
+				// cell (7, 7, 7)
+				sphere( 75, 75, 75, 2 ),
+				// cell (0, 0, 0)
+				sphere( 5, 5, 5, 2 ),
+				// cells (0, 0, 0) to (1, 1, 1)
+				sphere( 10, 10, 10, 3 ),
+				// cell (0, 0, 0)
+				sphere( 5, 5, 5, 3 ),
+				// cell (-2, 0, 0) outside the image
+				sphere( -15, 5, 5, 2 ) );
+		assertArrayEquals( new int[] { 4, 1, 3, 2, 0 }, batch.order( polyhedra, 0, 0 ) );
+		assertArrayEquals( new int[] { 0 }, batch.order( Collections.singletonList( sphere( -1000, -1000, -1000, 2 ) ), 0, 0 ) );
+		assertArrayEquals( new int[ 0 ], batch.order( Collections.emptyList(), 0, 0 ) );
+	}
+}
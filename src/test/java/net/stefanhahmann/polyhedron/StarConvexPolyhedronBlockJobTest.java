@@ -0,0 +1,388 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarConvexPolyhedronBlockJobTest
+{
+	private static final long[] DIMENSIONS = { 40, 36, 24 };
+
+	private static final int RAYS = 32;
+
+	/**
+	 * Centers of the spheres, several of them on block boundaries.
+	 */
+	private static final double[][] CENTERS = { { 15, 16, 11 }, { 30, 8, 6 }, { 8, 28, 18 }, { 26, 26, 13 }, { 32, 31, 19 } };
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void testBlocks() throws Exception
+	{
+		StarConvexPolyhedronBlockJob single = StarConvexPolyhedronBlockJob.create( directory.resolve( "single" ), DIMENSIONS,
+				DIMENSIONS, 4, RAYS, 0.5, 0.3, null, null );
+		assertEquals( 1, single.numBlocks() );
+		assertEquals( 1, single.work( loader() ) );
+		List< StarConvexPolyhedron > expected = single.stitch( null );
+		assertEquals( CENTERS.length, expected.size() );
+
+		StarConvexPolyhedronBlockJob job = StarConvexPolyhedronBlockJob.create( directory.resolve( "blocks" ), DIMENSIONS,
+				new long[] { 16, 16, 12 }, 4, RAYS, 0.5, 0.3, null, null );
+		assertEquals( 18, job.numBlocks() );
+		assertEquals( 8, job.getHalo() );
+		assertArrayEquals( new long[] { 32, 32, 12 }, min( job.core( 17 ) ) );
+		assertArrayEquals( new long[] { 39, 35, 23 }, max( job.core( 17 ) ) );
+		assertArrayEquals( new long[] { 24, 24, 4 }, min( job.halo( 17 ) ) );
+		assertArrayEquals( new long[] { 39, 35, 23 }, max( job.halo( 17 ) ) );
+		assertThrows( IllegalStateException.class, () -> job.stitch( null ) );
+
+		// several workers, each with its own view on the job
+		ExecutorService executor = Executors.newFixedThreadPool( 3 );
+		try
+		{
+			List< Future< Integer > > futures = new ArrayList<>();
+			for ( int worker = 0; worker < 3; worker++ )
+				futures.add( executor.submit( () -> StarConvexPolyhedronBlockJob.open( directory.resolve( "blocks" ) ).work( loader() ) ) );
+			int processed = 0;
+			for ( Future< Integer > future : futures )
+				processed += future.get();
+			assertEquals( job.numBlocks(), processed );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		Path output = directory.resolve( "result.scph" );
+		List< StarConvexPolyhedron > actual = job.stitch( output );
+		assertEquals( sortedCenters( expected ), sortedCenters( actual ) );
+		assertEquals( actual.size(), new StarConvexPolyhedronReader( output ).size() );
+	}
+
+	@Test
+	void testRandom() throws IOException
+	{
+		Random random = new Random( 42 );
+		long[] dimensions = { 32, 32, 16 };
+		ArrayImg< FloatType, FloatArray > probabilities = ArrayImgs.floats( dimensions[ 0 ], dimensions[ 1 ], dimensions[ 2 ], 1, 1 );
+		ArrayImg< FloatType, FloatArray > distances = ArrayImgs.floats( dimensions[ 0 ], dimensions[ 1 ], dimensions[ 2 ], 1, RAYS );
+		for ( FloatType probability : probabilities )
+			probability.set( random.nextFloat() );
+		for ( FloatType distance : distances )
+			distance.set( 2 + 2 * random.nextFloat() );
+		StarConvexPolyhedronBlockJob job = StarConvexPolyhedronBlockJob.create( directory, dimensions, new long[] { 8, 8, 8 }, 4, RAYS,
+				0.9, 0.2, null, null );
+		job.work( StarConvexPolyhedronBlockJob.PredictionLoader.of( distances, probabilities ) );
+		List< StarConvexPolyhedron > polyhedra = job.stitch( null );
+		// chains of suppressions across blocks are resolved differently than by NMS over the whole prediction, but no two kept polyhedra
+		// overlap more than the NMS threshold
+		StarConvexPolyhedronOverlaps overlaps = new StarConvexPolyhedronLinker( 0.2 ).overlaps( polyhedra, polyhedra );
+		for ( int e = 0; e < overlaps.size(); e++ )
+			if ( overlaps.source( e ) != overlaps.target( e ) )
+				assertTrue( overlaps.iou( e ) <= 0.2 );
+		assertTrue( polyhedra.size() > 50 );
+	}
+
+	@Test
+	void testSuppressionChain() throws IOException
+	{
+		// a chain of spheres along x, each overlapping its neighbours more than the NMS threshold, with decreasing scores
+		long[] dimensions = { 48, 16, 16 };
+		ArrayImg< FloatType, FloatArray > probabilities = ArrayImgs.floats( dimensions[ 0 ], dimensions[ 1 ], dimensions[ 2 ], 1, 1 );
+		ArrayImg< FloatType, FloatArray > distances = ArrayImgs.floats( dimensions[ 0 ], dimensions[ 1 ], dimensions[ 2 ], 1, RAYS );
+		for ( FloatType distance : distances )
+			distance.set( 4 );
+		RandomAccess< FloatType > probability = probabilities.randomAccess();
+		for ( int x = 2; x <= 44; x += 2 )
+			probability.setPositionAndGet( x, 8, 8, 0, 0 ).set( 0.9f - x * 0.005f );
+		StarConvexPolyhedronBlockJob.PredictionLoader loader = StarConvexPolyhedronBlockJob.PredictionLoader.of( distances, probabilities );
+
+		StarConvexPolyhedronBlockJob single = StarConvexPolyhedronBlockJob.create( directory.resolve( "single" ), dimensions, dimensions, 4,
+				RAYS, 0.5, 0.3, null, null );
+		single.work( loader );
+		assertEquals( Arrays.asList( 2d, 6d, 10d, 14d, 18d, 22d, 26d, 30d, 34d, 38d, 42d ), sortedX( single.stitch( null ) ) );
+
+		// the halo of the second block starts at x = 16, where the chain is suppressed differently than over the whole prediction
+		StarConvexPolyhedronBlockJob job = StarConvexPolyhedronBlockJob.create( directory.resolve( "blocks" ), dimensions,
+				new long[] { 24, 16, 16 }, 4, RAYS, 0.5, 0.3, null, null );
+		job.work( loader );
+		List< StarConvexPolyhedron > polyhedra = job.stitch( null );
+		assertEquals( Arrays.asList( 2d, 6d, 10d, 14d, 18d, 22d, 28d, 32d, 36d, 40d, 44d ), sortedX( polyhedra ) );
+		StarConvexPolyhedronOverlaps overlaps = new StarConvexPolyhedronLinker( 0.3 ).overlaps( polyhedra, polyhedra );
+		for ( int e = 0; e < overlaps.size(); e++ )
+			if ( overlaps.source( e ) != overlaps.target( e ) )
+				assertTrue( overlaps.iou( e ) <= 0.3 );
+	}
+
+	@Test
+	void testWorkerProcess() throws IOException
+	{
+		Path jobDirectory = directory.resolve( "job" );
+		StarConvexPolyhedronBlockJob.create( jobDirectory, DIMENSIONS, new long[] { 20, 20, 20 }, 4, RAYS, 0.5, 0.3,
+				SphereLoader.class.getName(), "unused" );
+		// the loader is created from the class name stored in the job, as in a separate worker process
+		StarConvexPolyhedronBlockJob.main( new String[] { "work", jobDirectory.toString() } );
+		Path output = directory.resolve( "result.scph" );
+		StarConvexPolyhedronBlockJob.main( new String[] { "stitch", jobDirectory.toString(), output.toString() } );
+		StarConvexPolyhedronReader reader = new StarConvexPolyhedronReader( output );
+		assertEquals( CENTERS.length, reader.size() );
+		double[] center = new double[ 3 ];
+		List< double[] > centers = new ArrayList<>();
+		for ( int i = 0; i < reader.size(); i++ )
+		{
+			reader.getCenter( i, center );
+			centers.add( center.clone() );
+		}
+		centers.sort( Comparator.comparingDouble( ( double[] c ) -> c[ 0 ] ).thenComparingDouble( c -> c[ 1 ] ) );
+		List< double[] > sorted = new ArrayList<>( Arrays.asList( CENTERS ) );
+		sorted.sort( Comparator.comparingDouble( ( double[] c ) -> c[ 0 ] ).thenComparingDouble( c -> c[ 1 ] ) );
+		for ( int i = 0; i < CENTERS.length; i++ )
+			assertArrayEquals( sorted.get( i ), centers.get( i ) );
+	}
+
+	@Test
+	void testRaySet() throws IOException
+	{
+		Path jobDirectory = directory.resolve( "job" );
+		RaySet rays = RaySet.cartesian( 8, 4 );
+		StarConvexPolyhedronBlockJob.create( jobDirectory, DIMENSIONS, new long[] { 20, 20, 20 }, 4, rays, 0.5, 0.3, null, null );
+		// the rays are restored from the job properties
+		StarConvexPolyhedronBlockJob job = StarConvexPolyhedronBlockJob.open( jobDirectory );
+		job.work( loader() );
+		Path output = directory.resolve( "result.scph" );
+		List< StarConvexPolyhedron > polyhedra = job.stitch( output );
+		assertEquals( CENTERS.length, polyhedra.size() );
+		for ( StarConvexPolyhedron polyhedron : polyhedra )
+			assertSame( rays, polyhedron.getRaySet() );
+		StarConvexPolyhedronReader reader = new StarConvexPolyhedronReader( output );
+		assertEquals( CENTERS.length, reader.size() );
+		for ( int i = 0; i < reader.size(); i++ )
+			assertSame( rays, reader.getRaySet( i ) );
+	}
+
+	@Test
+	void testHeartbeat() throws Exception
+	{
+		StarConvexPolyhedronBlockJob job = StarConvexPolyhedronBlockJob.create( directory, DIMENSIONS, DIMENSIONS, 4, RAYS, 0.5, 0.3, null,
+				null );
+		job.setHeartbeatInterval( 20 );
+		CountDownLatch started = new CountDownLatch( 1 );
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			Future< Integer > processed = executor.submit( () -> job.work( new SlowLoader( started, 600 ) ) );
+			assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+			// the block is processed for longer than the timeout, but the heartbeat keeps it running
+			int requeued = 0;
+			for ( int i = 0; i < 10; i++ )
+			{
+				Thread.sleep( 50 );
+				requeued += job.getQueue().requeueStale( 200 );
+			}
+			assertEquals( 0, requeued );
+			assertEquals( 1, processed.get().intValue() );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertEquals( 1, job.getQueue().getDone().size() );
+		assertEquals( CENTERS.length, job.stitch( null ).size() );
+	}
+
+	@Test
+	void testRequeuedWhileProcessing() throws Exception
+	{
+		StarConvexPolyhedronBlockJob job = StarConvexPolyhedronBlockJob.create( directory, DIMENSIONS, DIMENSIONS, 4, RAYS, 0.5, 0.3, null,
+				null );
+		CountDownLatch started = new CountDownLatch( 1 );
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			Future< Integer > processed = executor.submit( () -> job.work( new SlowLoader( started, 300 ) ) );
+			assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+			// no heartbeat within the default interval, e.g. a worker, which has been paused
+			Thread.sleep( 50 );
+			assertEquals( 1, job.getQueue().requeueStale( 1 ) );
+			// the first result is not counted, the same worker claims the block again and completes it
+			assertEquals( 1, processed.get().intValue() );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertTrue( job.getQueue().getFailed().isEmpty() );
+		assertEquals( 1, job.getQueue().getDone().size() );
+		assertEquals( CENTERS.length, job.stitch( null ).size() );
+	}
+
+	@Test
+	void testFailedBlocks() throws IOException
+	{
+		StarConvexPolyhedronBlockJob job = StarConvexPolyhedronBlockJob.create( directory, DIMENSIONS, new long[] { 20, 20, 20 }, 4, RAYS,
+				0.5, 0.3, null, null );
+		StarConvexPolyhedronBlockJob.PredictionLoader failing = new StarConvexPolyhedronBlockJob.PredictionLoader()
+		{
+			@Override
+			public RandomAccessibleInterval< FloatType > probabilities( final Interval interval ) throws IOException
+			{
+				throw new IOException( "prediction not available" );
+			}
+
+			@Override
+			public RandomAccessibleInterval< FloatType > distances( final Interval interval ) throws IOException
+			{
+				throw new IOException( "prediction not available" );
+			}
+		};
+		assertEquals( 0, job.work( failing ) );
+		assertEquals( job.numBlocks(), job.getQueue().getFailed().size() );
+		assertThrows( IllegalStateException.class, () -> job.stitch( null ) );
+		assertThrows( IllegalStateException.class, job::work );
+		assertThrows( IllegalArgumentException.class, () -> StarConvexPolyhedronBlockJob.create( directory, DIMENSIONS, DIMENSIONS, 4,
+				RAYS, 0.5, 0.3, null, null ) );
+	}
+
+	/**
+	 * Loads a prediction of spheres of radius 4 around {@link #CENTERS}, whose probability decreases linearly from 1 at the center to 0 at
+	 * the surface.
+	 */
+	public static class SphereLoader implements StarConvexPolyhedronBlockJob.PredictionLoader
+	{
+		private final StarConvexPolyhedronBlockJob.PredictionLoader loader = loader();
+
+		public SphereLoader( final String argument )
+		{
+			// the prediction is synthetic, no argument needed
+		}
+
+		@Override
+		public RandomAccessibleInterval< FloatType > probabilities( final Interval interval ) throws IOException
+		{
+			return loader.probabilities( interval );
+		}
+
+		@Override
+		public RandomAccessibleInterval< FloatType > distances( final Interval interval ) throws IOException
+		{
+			return loader.distances( interval );
+		}
+	}
+
+	/**
+	 * Loads the prediction of {@link #loader()} slowly. Counts down the given latch, when loading starts.
+	 */
+	private static class SlowLoader implements StarConvexPolyhedronBlockJob.PredictionLoader
+	{
+		private final StarConvexPolyhedronBlockJob.PredictionLoader loader = loader();
+
+		private final CountDownLatch started;
+
+		private final long delayMillis;
+
+		private SlowLoader( final CountDownLatch started, final long delayMillis )
+		{
+			this.started = started;
+			this.delayMillis = delayMillis;
+		}
+
+		@Override
+		public RandomAccessibleInterval< FloatType > probabilities( final Interval interval ) throws IOException
+		{
+			started.countDown();
+			try
+			{
+				Thread.sleep( delayMillis );
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			return loader.probabilities( interval );
+		}
+
+		@Override
+		public RandomAccessibleInterval< FloatType > distances( final Interval interval ) throws IOException
+		{
+			return loader.distances( interval );
+		}
+	}
+
+	private static StarConvexPolyhedronBlockJob.PredictionLoader loader()
+	{
+		ArrayImg< FloatType, FloatArray > probabilities = ArrayImgs.floats( DIMENSIONS[ 0 ], DIMENSIONS[ 1 ], DIMENSIONS[ 2 ], 1, 1 );
+		ArrayImg< FloatType, FloatArray > distances = ArrayImgs.floats( DIMENSIONS[ 0 ], DIMENSIONS[ 1 ], DIMENSIONS[ 2 ], 1, RAYS );
+		for ( FloatType distance : distances )
+			distance.set( 4 );
+		Cursor< FloatType > cursor = Views.hyperSlice( Views.hyperSlice( probabilities, 4, 0 ), 3, 0 ).localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			float probability = 0;
+			for ( double[] center : CENTERS )
+			{
+				double distance = 0;
+				for ( int d = 0; d < 3; d++ )
+					distance += Math.pow( cursor.getDoublePosition( d ) - center[ d ], 2 );
+				probability = Math.max( probability, ( float ) ( 1 - Math.sqrt( distance ) / 4 ) );
+			}
+			cursor.get().set( probability );
+		}
+		return StarConvexPolyhedronBlockJob.PredictionLoader.of( distances, probabilities );
+	}
+
+	private static List< String > sortedCenters( final List< StarConvexPolyhedron > polyhedra )
+	{
+		List< String > centers = new ArrayList<>();
+		for ( StarConvexPolyhedron polyhedron : polyhedra )
+			centers.add( Arrays.toString( polyhedron.getCenter() ) );
+		centers.sort( null );
+		return centers;
+	}
+
+	private static List< Double > sortedX( final List< StarConvexPolyhedron > polyhedra )
+	{
+		return polyhedra.stream().map( polyhedron -> polyhedron.getCenter()[ 0 ] ).sorted().collect( Collectors.toList() );
+	}
+
+	private static long[] min( final Interval interval )
+	{
+		return new long[] { interval.min( 0 ), interval.min( 1 ), interval.min( 2 ) };
+	}
+
+	private static long[] max( final Interval interval )
+	{
+		return new long[] { interval.max( 0 ), interval.max( 1 ), interval.max( 2 ) };
+	}
+}
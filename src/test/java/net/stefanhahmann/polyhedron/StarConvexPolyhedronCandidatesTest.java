@@ -0,0 +1,96 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.stefanhahmann.polyhedron.TestPolyhedra.sphere;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarConvexPolyhedronCandidatesTest
+{
+	@Test
+	void testSelect()
+	{
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		polyhedra.add( sphere( 0, 0, 0, 5 ) );
+		// IoU approx. 0.6 with the first sphere
+		polyhedra.add( sphere( 2, 0, 0, 5 ) );
+		// IoU approx. 0.6 with the second sphere, approx. 0.3 with the first sphere
+		polyhedra.add( sphere( 4, 0, 0, 5 ) );
+		polyhedra.add( sphere( 30, 0, 0, 5 ) );
+		double[] scores = { 0.5, 0.9, 0.4, 0.05 };
+
+		StarConvexPolyhedronCandidates candidates = new StarConvexPolyhedronCandidates( polyhedra, scores, 0.1, 0.1 );
+		assertEquals( 3, candidates.size() );
+		assertEquals( 1, candidates.index( 0 ) );
+		assertEquals( 0.9, candidates.score( 0 ) );
+		assertSame( polyhedra.get( 2 ), candidates.get( 2 ) );
+		assertEquals( 3, candidates.numOverlaps() );
+
+		assertArrayEquals( new int[] { 1 }, candidates.select( 0.1, 0.5 ) );
+		assertArrayEquals( new int[] { 1, 0, 2 }, candidates.select( 0.1, 0.7 ) );
+		assertArrayEquals( new int[] { 1, 0 }, candidates.select( 0.45, 0.7 ) );
+		// the first sphere is suppressed by the second one, so it does not suppress the third one
+		assertArrayEquals( new int[] { 1 }, candidates.select( 0.1, 0.2 ) );
+		assertEquals( Collections.singletonList( polyhedra.get( 1 ) ), candidates.suppress( 0.1, 0.5 ) );
+		assertEquals( 0, candidates.select( 0.95, 0.5 ).length );
+
+		assertThrows( IllegalArgumentException.class, () -> candidates.select( 0.05, 0.5 ) );
+		assertThrows( IllegalArgumentException.class, () -> candidates.select( 0.5, 0.05 ) );
+		assertThrows( IllegalArgumentException.class,
+				() -> new StarConvexPolyhedronCandidates( polyhedra, new double[ 2 ], 0.1, 0.1 ) );
+		assertThrows( IllegalArgumentException.class, () -> new StarConvexPolyhedronCandidates( polyhedra, scores, 0.1, 0 ) );
+	}
+
+	@Test
+	void testRandom()
+	{
+		Random random = new Random( 42 );
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		double[] scores = new double[ 300 ];
+		for ( int i = 0; i < scores.length; i++ )
+		{
+			List< Double > distances = new ArrayList<>();
+			for ( int ray = 0; ray < 32; ray++ )
+				distances.add( 3 + 2 * random.nextDouble() );
+			polyhedra.add( new StarConvexPolyhedron(
+					new double[] { 40 * random.nextDouble(), 40 * random.nextDouble(), 20 * random.nextDouble() }, distances ) );
+			scores[ i ] = random.nextDouble();
+		}
+		StarConvexPolyhedronCandidates candidates = new StarConvexPolyhedronCandidates( polyhedra, scores, 0.2, 0.05 );
+		assertTrue( candidates.numOverlaps() > 0 );
+		StarConvexPolyhedronOverlaps overlaps = new StarConvexPolyhedronLinker( 0.05 ).overlaps( polyhedra, polyhedra );
+		double[][] iou = new double[ polyhedra.size() ][ polyhedra.size() ];
+		for ( int e = 0; e < overlaps.size(); e++ )
+			iou[ overlaps.source( e ) ][ overlaps.target( e ) ] = overlaps.iou( e );
+		for ( double scoreThreshold : new double[] { 0.2, 0.5, 0.8 } )
+			for ( double iouThreshold : new double[] { 0.05, 0.1, 0.3, 0.7 } )
+				assertArrayEquals( bruteForce( scores, iou, scoreThreshold, iouThreshold ),
+						candidates.select( scoreThreshold, iouThreshold ) );
+	}
+
+	/**
+	 * Greedy non-maximum suppression on the full matrix of overlaps.
+	 */
+	private static int[] bruteForce( final double[] scores, final double[][] iou, final double scoreThreshold, final double iouThreshold )
+	{
+		List< Integer > order = new ArrayList<>();
+		for ( int i = 0; i < scores.length; i++ )
+			if ( scores[ i ] >= scoreThreshold )
+				order.add( i );
+		order.sort( ( a, b ) -> Double.compare( scores[ b ], scores[ a ] ) );
+		List< Integer > kept = new ArrayList<>();
+		for ( int i : order )
+			if ( kept.stream().allMatch( k -> iou[ i ][ k ] <= iouThreshold ) )
+				kept.add( i );
+		return kept.stream().mapToInt( Integer::intValue ).toArray();
+	}
+}
@@ -0,0 +1,71 @@
+package net.stefanhahmann.polyhedron;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.Source;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarConvexPolyhedronFeatureEngineTest
+{
+	@Test
+	void testCompute()
+	{
+		Random random = new Random( 1 );
+		Img< FloatType > first = ArrayImgs.floats( 60, 50, 40 );
+		Img< FloatType > second = ArrayImgs.floats( 60, 50, 40 );
+		first.forEach( pixel -> pixel.set( random.nextFloat() * 100 ) );
+		LoopBuilder.setImages( first, second ).forEachPixel( ( a, b ) -> b.set( 2 * a.get() ) );
+		Source< FloatType > firstSource = new RandomAccessibleIntervalSource<>( first, new FloatType(), "first" );
+		Source< FloatType > secondSource = new RandomAccessibleIntervalSource<>( second, new FloatType(), "second" );
+
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		for ( int i = 0; i < 10; i++ )
+		{
+			double[] center = new double[] { random.nextDouble() * 60, random.nextDouble() * 50, random.nextDouble() * 40 };
+			List< Double > distances = random.doubles( 96, 2, 12 ).boxed().collect( Collectors.toList() );
+			polyhedra.add( new StarConvexPolyhedron( center, distances ) );
+		}
+
+		StarConvexPolyhedronFeatureEngine engine = new StarConvexPolyhedronFeatureEngine( Arrays.asList( firstSource, secondSource ) );
+		engine.setBlockSize( 16 );
+		engine.setHistogram( 100, 0, 200 );
+		StarConvexPolyhedronFeatures features = engine.compute( polyhedra, 0, 0 );
+
+		StarConvexPolyhedronIterable< FloatType > iterable = new StarConvexPolyhedronIterable<>( firstSource );
+		for ( int i = 0; i < polyhedra.size(); i++ )
+		{
+			iterable.reset( polyhedra.get( i ), 0 );
+			long count = 0;
+			double sum = 0;
+			double max = Double.NEGATIVE_INFINITY;
+			for ( FloatType pixel : iterable )
+			{
+				count++;
+				sum += pixel.get();
+				max = Math.max( max, pixel.get() );
+			}
+			assertEquals( count, features.count( i ) );
+			assertEquals( sum, features.sum( i, 0 ), 1e-3 );
+			assertEquals( 2 * sum, features.sum( i, 1 ), 1e-3 );
+			if ( count > 0 )
+			{
+				assertEquals( max, features.max( i, 0 ), 1e-6 );
+				assertEquals( 2 * max, features.max( i, 1 ), 1e-6 );
+				assertTrue( features.quantile( i, 0, 0.5 ) > features.min( i, 0 ) - 1 );
+				assertTrue( features.quantile( i, 0, 0.5 ) < features.max( i, 0 ) + 1 );
+			}
+		}
+	}
+}
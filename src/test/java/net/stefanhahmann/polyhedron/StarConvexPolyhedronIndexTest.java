@@ -0,0 +1,117 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.FinalRealInterval;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarConvexPolyhedronIndexTest
+{
+	private final Random random = new Random();
+
+	private List< StarConvexPolyhedron > polyhedra;
+
+	private StarConvexPolyhedronIndex index;
+
+	@BeforeEach
+	void setUp()
+	{
+		random.setSeed( 1 );
+		polyhedra = new ArrayList<>();
+		for ( int i = 0; i < 200; i++ )
+		{
+			double[] center = random.doubles( 3, -100, 100 ).toArray();
+			List< Double > distances = random.doubles( 96, 2, 10 ).boxed().collect( Collectors.toList() );
+			polyhedra.add( new StarConvexPolyhedron( center, distances ) );
+		}
+		index = new StarConvexPolyhedronIndex( polyhedra );
+	}
+
+	@Test
+	void testFindContaining()
+	{
+		for ( int p = 0; p < 2_000; p++ )
+		{
+			double[] point = random.doubles( 3, -100, 100 ).toArray();
+			int[] expected = IntStream.range( 0, polyhedra.size() ).filter( i -> polyhedra.get( i ).contains( point ) ).toArray();
+			assertArrayEquals( expected, index.findContaining( point ) );
+		}
+		assertTrue( Arrays.stream( index.findContaining( polyhedra.get( 7 ).getCenter() ) ).anyMatch( i -> i == 7 ) );
+	}
+
+	@Test
+	void testFindIntersecting()
+	{
+		double[] min = { -20, -30, -40 };
+		double[] max = { 30, 20, 10 };
+		int[] expected = IntStream.range( 0, polyhedra.size() ).filter( i -> {
+			StarConvexPolyhedron.BoundingBox3D box = polyhedra.get( i ).getBoundingBox3D();
+			for ( int d = 0; d < 3; d++ )
+				if ( box.getMinPoint()[ d ] > max[ d ] || box.getMaxPoint()[ d ] < min[ d ] )
+					return false;
+			return true;
+		} ).toArray();
+		assertArrayEquals( expected, index.findIntersecting( new FinalRealInterval( min, max ) ) );
+	}
+
+	@Test
+	void testKNearestCenters()
+	{
+		double[] point = { 10, -5, 3 };
+		int[] expected = IntStream.range( 0, polyhedra.size() ).boxed()
+				.sorted( Comparator.comparingDouble( i -> squaredDistance( polyhedra.get( i ).getCenter(), point ) ) )
+				.limit( 5 ).mapToInt( Integer::intValue ).toArray();
+		assertArrayEquals( expected, index.kNearestCenters( point, 5 ) );
+		assertEquals( polyhedra.size(), index.kNearestCenters( point, 1_000 ).length );
+		assertEquals( 0, new StarConvexPolyhedronIndex( new ArrayList<>() ).kNearestCenters( point, 3 ).length );
+	}
+
+	@Test
+	void testFindFirstHit()
+	{
+		for ( int r = 0; r < 500; r++ )
+		{
+			double[] origin = random.doubles( 3, -150, 150 ).toArray();
+			double[] direction = random.doubles( 3, -1, 1 ).toArray();
+			if ( r % 10 == 0 )
+				// rays parallel to an axis
+				direction = new double[] { 0, r % 20 == 0 ? 1 : -1, 0 };
+			int expected = -1;
+			double expectedDistance = Double.POSITIVE_INFINITY;
+			for ( int i = 0; i < polyhedra.size(); i++ )
+			{
+				double distance = polyhedra.get( i ).intersectRay( origin, direction );
+				if ( distance < expectedDistance )
+				{
+					expectedDistance = distance;
+					expected = i;
+				}
+			}
+			assertEquals( expected, index.findFirstHit( origin, direction ) );
+		}
+		// the center is inside, so the ray starting there enters polyhedron 7 immediately
+		assertEquals( 0, polyhedra.get( index.findFirstHit( polyhedra.get( 7 ).getCenter(), new double[] { 0, 0, 1 } ) )
+				.intersectRay( polyhedra.get( 7 ).getCenter(), new double[] { 0, 0, 1 } ) );
+		assertEquals( -1, index.findFirstHit( new double[] { 0, 0, 1_000 }, new double[] { 0, 0, 1 } ) );
+		assertEquals( -1, new StarConvexPolyhedronIndex( new ArrayList<>() ).findFirstHit( new double[ 3 ], new double[] { 1, 0, 0 } ) );
+	}
+
+	private static double squaredDistance( double[] a, double[] b )
+	{
+		double sum = 0;
+		for ( int d = 0; d < 3; d++ )
+			sum += ( a[ d ] - b[ d ] ) * ( a[ d ] - b[ d ] );
+		return sum;
+	}
+}
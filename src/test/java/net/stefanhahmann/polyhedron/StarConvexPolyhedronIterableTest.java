@@ -0,0 +1,257 @@
+package net.stefanhahmann.polyhedron;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarConvexPolyhedronIterableTest
+{
+	private final Interval image = new FinalInterval( 100, 100, 100 );
+
+	@Test
+	void testSourceIntervalRotated()
+	{
+		StarConvexPolyhedron polyhedron =
+				new StarConvexPolyhedron( new double[] { 50, 50, 50 }, Collections.nCopies( 96, 10d ) );
+		AffineTransform3D transform = new AffineTransform3D();
+		transform.translate( -50, -50, -50 );
+		transform.rotate( 0, Math.PI / 4 );
+		transform.rotate( 1, Math.PI / 3 );
+		transform.translate( 50, 50, 50 );
+		StarConvexPolyhedron rotated = polyhedron.transform( transform );
+
+		Interval interval = StarConvexPolyhedronIterable.sourceInterval( rotated, image );
+		for ( double[] vertex : rotated.getPoints() )
+			for ( int d = 0; d < 3; d++ )
+				assertTrue( vertex[ d ] >= interval.min( d ) && vertex[ d ] <= interval.max( d ) );
+		for ( int d = 0; d < 3; d++ )
+		{
+			assertTrue( interval.min( d ) < interval.max( d ) );
+			assertTrue( interval.min( d ) >= 39 );
+			assertTrue( interval.max( d ) <= 61 );
+		}
+	}
+
+	@Test
+	void testSourceIntervalClamped()
+	{
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( new double[] { 95, 2, 50 }, Collections.nCopies( 96, 10d ) );
+		Interval interval = StarConvexPolyhedronIterable.sourceInterval( polyhedron, image );
+		assertEquals( 99, interval.max( 0 ) );
+		assertEquals( 0, interval.min( 1 ) );
+	}
+
+	@Test
+	void testSourceIntervalOutside()
+	{
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( new double[] { -50, 50, 50 }, Collections.nCopies( 96, 10d ) );
+		assertNull( StarConvexPolyhedronIterable.sourceInterval( polyhedron, image ) );
+	}
+
+	@Test
+	void testParallelTraversal()
+	{
+		ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( 60, 60, 60 );
+		Cursor< FloatType > pixels = img.localizingCursor();
+		while ( pixels.hasNext() )
+		{
+			pixels.fwd();
+			pixels.get().set( pixels.getFloatPosition( 0 ) + 100 * pixels.getFloatPosition( 2 ) );
+		}
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( new double[] { 30, 31, 29 }, Collections.nCopies( 96, 12d ) );
+		StarConvexPolyhedronIterable< FloatType > iterable =
+				new StarConvexPolyhedronIterable<>( new RandomAccessibleIntervalSource<>( img, new FloatType(), "img" ) );
+		iterable.reset( polyhedron, 0 );
+
+		long expectedCount = 0;
+		double expectedSum = 0;
+		Cursor< FloatType > cursor = iterable.cursor();
+		while ( cursor.hasNext() )
+		{
+			expectedCount++;
+			expectedSum += cursor.next().get();
+		}
+		assertTrue( expectedCount > 0 );
+
+		assertEquals( expectedCount, iterable.stream().count() );
+		assertEquals( expectedCount, iterable.parallelStream().count() );
+		assertEquals( expectedSum, iterable.parallelStream().mapToDouble( FloatType::getRealDouble ).sum(), 1e-6 * expectedSum );
+
+		double[] collected = iterable.collect( () -> new double[ 2 ], ( sum, position, value ) -> {
+			assertTrue( polyhedron.contains( new double[] { position.getDoublePosition( 0 ), position.getDoublePosition( 1 ),
+					position.getDoublePosition( 2 ) } ) );
+			sum[ 0 ]++;
+			sum[ 1 ] += value.get();
+		}, ( a, b ) -> new double[] { a[ 0 ] + b[ 0 ], a[ 1 ] + b[ 1 ] } );
+		assertEquals( expectedCount, collected[ 0 ], 0 );
+		assertEquals( expectedSum, collected[ 1 ], 0 );
+
+		List< double[] > chunks = LoopBuilder.setImages( iterable.getVoxels(), iterable.getMask() ).multiThreaded().forEachChunk( chunk -> {
+			double[] sum = new double[ 2 ];
+			chunk.forEachPixel( ( value, inside ) -> {
+				if ( inside.get() )
+				{
+					sum[ 0 ]++;
+					sum[ 1 ] += value.get();
+				}
+			} );
+			return sum;
+		} );
+		assertEquals( expectedCount, chunks.stream().mapToDouble( sum -> sum[ 0 ] ).sum(), 0 );
+		assertEquals( expectedSum, chunks.stream().mapToDouble( sum -> sum[ 1 ] ).sum(), 1e-6 * expectedSum );
+	}
+
+	@Test
+	void testParallelTraversalOutside()
+	{
+		ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( 20, 20, 20 );
+		StarConvexPolyhedronIterable< FloatType > iterable =
+				new StarConvexPolyhedronIterable<>( new RandomAccessibleIntervalSource<>( img, new FloatType(), "img" ) );
+		iterable.reset( new StarConvexPolyhedron( new double[] { -50, 10, 10 }, Collections.nCopies( 96, 5d ) ), 0 );
+		assertEquals( 0, iterable.parallelStream().count() );
+		assertEquals( 0, iterable.collect( () -> new long[ 1 ], ( count, position, value ) -> count[ 0 ]++,
+				( a, b ) -> new long[] { a[ 0 ] + b[ 0 ] } )[ 0 ] );
+	}
+
+	@Test
+	void testSelectResolutionLevel()
+	{
+		StarConvexPolyhedronIterable< FloatType > iterable = new StarConvexPolyhedronIterable<>( new MipmapSource( 64, 3 ) );
+		// octahedron with volume 4 / 3 * 15^3 = 4500, i.e. 4500, 562.5 and 70.3 voxels at the levels 0, 1 and 2
+		StarConvexPolyhedron polyhedron = octahedron( 15 );
+		assertEquals( 2, iterable.selectResolutionLevel( polyhedron, 0, 0 ) );
+		assertEquals( 2, iterable.selectResolutionLevel( polyhedron, 0, 70 ) );
+		assertEquals( 1, iterable.selectResolutionLevel( polyhedron, 0, 71 ) );
+		assertEquals( 1, iterable.selectResolutionLevel( polyhedron, 0, 562 ) );
+		assertEquals( 0, iterable.selectResolutionLevel( polyhedron, 0, 563 ) );
+
+		// 36 voxels at level 0, no level satisfies the minimum
+		StarConvexPolyhedron small = octahedron( 3 );
+		assertEquals( 1, iterable.selectResolutionLevel( small, 0, 4 ) );
+		assertEquals( 0, iterable.selectResolutionLevel( small, 0, 5 ) );
+		assertEquals( 0, iterable.selectResolutionLevel( small, 0, 100 ) );
+
+		// 4500 voxels at level 2
+		StarConvexPolyhedron large = octahedron( 30 );
+		assertEquals( 2, iterable.selectResolutionLevel( large, 0, 100 ) );
+	}
+
+	private static StarConvexPolyhedron octahedron( final double radius )
+	{
+		return new StarConvexPolyhedron( new double[] { 32, 32, 32 }, Collections.nCopies( 6, radius ), RaySet.octo( 1 ) );
+	}
+
+	@Test
+	void testResetAtCoarsestLevel()
+	{
+		StarConvexPolyhedronIterable< FloatType > iterable = new StarConvexPolyhedronIterable<>( new MipmapSource( 64, 3 ) );
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( new double[] { 32, 32, 32 }, Collections.nCopies( 96, 20d ) );
+		assertEquals( 2, iterable.resetAtCoarsestLevel( polyhedron, 0, 100 ) );
+		assertEquals( 2, iterable.getResolutionLevel() );
+		AffineTransform3D transform = new AffineTransform3D();
+		iterable.getSourceTransform( transform );
+		assertEquals( 4, transform.get( 0, 0 ), 0 );
+		// the center in voxel coordinates of level 2
+		for ( int d = 0; d < 3; d++ )
+			assertEquals( 8, iterable.getLongPosition( d ) );
+		// each voxel of a level holds the level, the polyhedron covers about 490 voxels of level 2
+		long count = iterable.stream().peek( value -> assertEquals( 2, value.get(), 0 ) ).count();
+		assertTrue( count > 400 && count < 650, "count: " + count );
+
+		assertEquals( 0, iterable.resetAtCoarsestLevel( polyhedron, 0, 1e6 ) );
+		assertEquals( 0, iterable.getResolutionLevel() );
+		assertTrue( iterable.stream().allMatch( value -> value.get() == 0 ) );
+	}
+
+	/**
+	 * Source with the given number of resolution levels, which are downsampled by 2 per level. Each voxel holds its level.
+	 */
+	private static class MipmapSource implements Source< FloatType >
+	{
+		private final List< RandomAccessibleInterval< FloatType > > levels = new ArrayList<>();
+
+		private MipmapSource( final long size, final int numLevels )
+		{
+			for ( int level = 0; level < numLevels; level++ )
+			{
+				ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( size >> level, size >> level, size >> level );
+				for ( FloatType value : img )
+					value.set( level );
+				levels.add( img );
+			}
+		}
+
+		@Override
+		public boolean isPresent( final int t )
+		{
+			return t == 0;
+		}
+
+		@Override
+		public RandomAccessibleInterval< FloatType > getSource( final int t, final int level )
+		{
+			return levels.get( level );
+		}
+
+		@Override
+		public RealRandomAccessible< FloatType > getInterpolatedSource( final int t, final int level, final Interpolation method )
+		{
+			return Views.interpolate( Views.extendZero( getSource( t, level ) ), new NearestNeighborInterpolatorFactory<>() );
+		}
+
+		@Override
+		public void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
+		{
+			transform.identity();
+			transform.scale( 1 << level );
+		}
+
+		@Override
+		public FloatType getType()
+		{
+			return new FloatType();
+		}
+
+		@Override
+		public String getName()
+		{
+			return "mipmap";
+		}
+
+		@Override
+		public VoxelDimensions getVoxelDimensions()
+		{
+			return new FinalVoxelDimensions( "pixel", 1, 1, 1 );
+		}
+
+		@Override
+		public int getNumMipmapLevels()
+		{
+			return levels.size();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarConvexPolyhedronLabelImgTest
+{
+	@Test
+	void testLabelsMatchContains() throws InterruptedException
+	{
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		polyhedra.add( new StarConvexPolyhedron( new double[] { 10, 10, 10 }, Collections.nCopies( 96, 6d ) ) );
+		polyhedra.add( new StarConvexPolyhedron( new double[] { 15, 12, 11 }, Collections.nCopies( 96, 5d ) ) );
+		polyhedra.add( new StarConvexPolyhedron( new double[] { 28, 5, 20 }, Collections.nCopies( 96, 4d ) ) );
+		FinalInterval interval = new FinalInterval( new long[] { 2, 0, 1 }, new long[] { 33, 24, 27 } );
+		ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		StarConvexPolyhedronLabelImg img = new StarConvexPolyhedronLabelImg( polyhedra, interval, new int[] { 8, 8, 8 }, 4, executor );
+
+		img.prefetch( new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 12, 12, 12 } ) );
+		executor.shutdown();
+		assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+		assertEquals( 4, img.numCachedCells() );
+
+		RandomAccess< UnsignedIntType > access = img.randomAccess();
+		double[] point = new double[ 3 ];
+		for ( long z = interval.min( 2 ); z <= interval.max( 2 ); z++ )
+			for ( long y = interval.min( 1 ); y <= interval.max( 1 ); y++ )
+				for ( long x = interval.min( 0 ); x <= interval.max( 0 ); x++ )
+				{
+					point[ 0 ] = x;
+					point[ 1 ] = y;
+					point[ 2 ] = z;
+					int expected = 0;
+					for ( int i = polyhedra.size() - 1; i >= 0; i-- )
+						if ( polyhedra.get( i ).contains( point ) )
+							expected = i + 1;
+					assertEquals( expected, access.setPositionAndGet( x, y, z ).getInteger() );
+				}
+		assertTrue( img.numCachedCells() <= 4 );
+		assertEquals( 0, access.setPositionAndGet( 0, 0, 0 ).getInteger() );
+	}
+}
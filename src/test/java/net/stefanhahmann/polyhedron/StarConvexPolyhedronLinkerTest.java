@@ -0,0 +1,120 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static net.stefanhahmann.polyhedron.TestPolyhedra.sphere;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StarConvexPolyhedronLinkerTest
+{
+	@Test
+	void testOverlaps()
+	{
+		List< StarConvexPolyhedron > sources = Arrays.asList( sphere( 10, 10, 10, 5 ), sphere( 30, 10, 10, 4 ) );
+		List< StarConvexPolyhedron > targets = Arrays.asList( sphere( 31, 11, 10, 4 ), sphere( 12, 10, 10, 5 ), sphere( 60, 60, 60, 3 ) );
+		StarConvexPolyhedronOverlaps overlaps = new StarConvexPolyhedronLinker( 0.1 ).overlaps( sources, targets );
+
+		assertEquals( 2, overlaps.numSources() );
+		assertEquals( 3, overlaps.numTargets() );
+		assertEquals( 2, overlaps.size() );
+		assertEquals( 0, overlaps.source( 0 ) );
+		assertEquals( 1, overlaps.target( 0 ) );
+		assertEquals( 1, overlaps.source( 1 ) );
+		assertEquals( 0, overlaps.target( 1 ) );
+		for ( int e = 0; e < overlaps.size(); e++ )
+		{
+			double expected = bruteForceIou( sources.get( overlaps.source( e ) ), targets.get( overlaps.target( e ) ) );
+			assertEquals( expected, overlaps.iou( e ), 1e-12 );
+			assertEquals( 1 - expected, overlaps.cost( e ), 1e-12 );
+		}
+	}
+
+	@Test
+	void testSymmetricOverlaps()
+	{
+		List< StarConvexPolyhedron > polyhedra = Arrays.asList( sphere( 10, 10, 10, 5 ), sphere( 12, 10, 10, 5 ), sphere( 30, 10, 10, 4 ),
+				sphere( 11, 11, 10, 4 ), sphere( 31, 11, 10, 4 ) );
+		StarConvexPolyhedronLinker linker = new StarConvexPolyhedronLinker( 0.1 );
+		StarConvexPolyhedronOverlaps all = linker.overlaps( polyhedra, polyhedra );
+		StarConvexPolyhedronOverlaps symmetric = linker.overlaps( polyhedra );
+
+		assertEquals( 5, symmetric.numSources() );
+		assertEquals( 5, symmetric.numTargets() );
+		int e = 0;
+		for ( int a = 0; a < all.size(); a++ )
+		{
+			if ( all.target( a ) <= all.source( a ) )
+				continue;
+			assertEquals( all.source( a ), symmetric.source( e ) );
+			assertEquals( all.target( a ), symmetric.target( e ) );
+			assertEquals( all.iou( a ), symmetric.iou( e ), 0 );
+			e++;
+		}
+		assertEquals( e, symmetric.size() );
+		// 0-1, 0-3, 1-3 and 2-4
+		assertEquals( 4, symmetric.size() );
+	}
+
+	@Test
+	void testLink()
+	{
+		List< List< StarConvexPolyhedron > > timepoints = new ArrayList<>();
+		timepoints.add( Arrays.asList( sphere( 10, 10, 10, 5 ), sphere( 30, 10, 10, 4 ) ) );
+		timepoints.add( Arrays.asList( sphere( 31, 11, 10, 4 ), sphere( 12, 10, 10, 5 ), sphere( 60, 60, 60, 3 ) ) );
+		timepoints.add( Collections.singletonList( sphere( 60, 61, 60, 3 ) ) );
+
+		for ( StarConvexPolyhedronLinker.Assignment assignment : StarConvexPolyhedronLinker.Assignment.values() )
+		{
+			StarConvexPolyhedronLinker linker = new StarConvexPolyhedronLinker( 0.3 );
+			linker.setAssignment( assignment );
+			List< int[] > links = linker.link( timepoints );
+			assertEquals( 2, links.size() );
+			assertArrayEquals( new int[] { 1, 0 }, links.get( 0 ) );
+			assertArrayEquals( new int[] { -1, -1, 0 }, links.get( 1 ) );
+		}
+	}
+
+	@Test
+	void testHungarianBeatsGreedy()
+	{
+		StarConvexPolyhedronOverlaps overlaps = new StarConvexPolyhedronOverlaps( 2, 3, new int[] { 0, 0, 1 }, new int[] { 0, 1, 0 },
+				new double[] { 0.9, 0.8, 0.7 } );
+		assertArrayEquals( new int[] { 0, -1 }, StarConvexPolyhedronLinker.greedy( overlaps ) );
+		assertArrayEquals( new int[] { 1, 0 }, StarConvexPolyhedronLinker.hungarian( overlaps ) );
+	}
+
+	@Test
+	void testSolveAssignment()
+	{
+		double[][] cost = new double[][] { { 4, 1, 3 }, { 2, 0, 5 } };
+		assertArrayEquals( new int[] { 1, 0 }, StarConvexPolyhedronLinker.solveAssignment( cost, 2, 3 ) );
+	}
+
+	private static double bruteForceIou( final StarConvexPolyhedron a, final StarConvexPolyhedron b )
+	{
+		long inA = 0;
+		long inB = 0;
+		long inBoth = 0;
+		double[] point = new double[ 3 ];
+		for ( int z = 0; z < 70; z++ )
+			for ( int y = 0; y < 70; y++ )
+				for ( int x = 0; x < 70; x++ )
+				{
+					point[ 0 ] = x;
+					point[ 1 ] = y;
+					point[ 2 ] = z;
+					boolean containedInA = a.contains( point );
+					boolean containedInB = b.contains( point );
+					inA += containedInA ? 1 : 0;
+					inB += containedInB ? 1 : 0;
+					inBoth += containedInA && containedInB ? 1 : 0;
+				}
+		return ( double ) inBoth / ( inA + inB - inBoth );
+	}
+}
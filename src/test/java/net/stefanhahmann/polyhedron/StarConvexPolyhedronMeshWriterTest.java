@@ -0,0 +1,93 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarConvexPolyhedronMeshWriterTest
+{
+	@TempDir
+	Path directory;
+
+	private final List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+
+	StarConvexPolyhedronMeshWriterTest()
+	{
+		polyhedra.add( new StarConvexPolyhedron( new double[] { 0, 0, 0 }, Collections.nCopies( 96, 2d ) ) );
+		polyhedra.add( new StarConvexPolyhedron( new double[] { 10, 0, 0 }, Collections.nCopies( 96, 3d ) ) );
+		polyhedra.add( new StarConvexPolyhedron( new double[] { 0, 10, 0 }, Collections.nCopies( 32, 1d ) ) );
+	}
+
+	@Test
+	void testPly() throws IOException
+	{
+		Path file = write( "mesh.ply" );
+		int vertices = 96 + 96 + 32;
+		int triangles = 188 + 188 + 60;
+		String header = new String( Files.readAllBytes( file ), StandardCharsets.US_ASCII );
+		header = header.substring( 0, header.indexOf( "end_header\n" ) + "end_header\n".length() );
+		assertTrue( header.contains( "element vertex 0000000224\n" ) );
+		assertTrue( header.contains( "element face 0000000436\n" ) );
+		assertEquals( header.length() + 12L * vertices + 13L * triangles, Files.size( file ) );
+		// the first face of the third polyhedron refers to its own vertices
+		ByteBuffer data = ByteBuffer.wrap( Files.readAllBytes( file ) ).order( ByteOrder.LITTLE_ENDIAN );
+		int face = header.length() + 12 * vertices + 13 * ( 188 + 188 );
+		assertEquals( 3, data.get( face ) );
+		int index = data.getInt( face + 1 );
+		assertTrue( index >= 192 && index < 224 );
+	}
+
+	@Test
+	void testStl() throws IOException
+	{
+		Path file = write( "mesh.stl" );
+		ByteBuffer data = ByteBuffer.wrap( Files.readAllBytes( file ) ).order( ByteOrder.LITTLE_ENDIAN );
+		assertEquals( 436, data.getInt( 80 ) );
+		assertEquals( 84 + 50 * 436, data.capacity() );
+	}
+
+	@Test
+	void testObj() throws IOException
+	{
+		Path file = write( "mesh.obj" );
+		List< String > lines = Files.readAllLines( file );
+		assertEquals( 224, lines.stream().filter( line -> line.startsWith( "v " ) ).count() );
+		assertEquals( 436, lines.stream().filter( line -> line.startsWith( "f " ) ).count() );
+		assertTrue( lines.stream().filter( line -> line.startsWith( "f " ) ).flatMap( line -> Arrays.stream( line.substring( 2 )
+				.split( " " ) ) ).mapToInt( Integer::parseInt ).allMatch( i -> i >= 1 && i <= 224 ) );
+	}
+
+	@Test
+	void testMesh()
+	{
+		StarConvexPolyhedronMesh mesh = StarConvexPolyhedronMesh.of( polyhedra );
+		assertEquals( 224, mesh.numVertices() );
+		assertEquals( 436, mesh.numTriangles() );
+		assertEquals( 192, mesh.firstVertex( 2 ) );
+		assertEquals( 10f, mesh.getVertices().get( 3 * 96 ), 3f );
+		assertEquals( 96 + polyhedra.get( 1 ).getFaceTopology().vertex( 0, 0 ), mesh.getIndices().get( 3 * 188 ) );
+	}
+
+	private Path write( final String name ) throws IOException
+	{
+		Path file = directory.resolve( name );
+		try (StarConvexPolyhedronMeshWriter writer = new StarConvexPolyhedronMeshWriter( file ))
+		{
+			writer.addAll( polyhedra );
+		}
+		return file;
+	}
+}
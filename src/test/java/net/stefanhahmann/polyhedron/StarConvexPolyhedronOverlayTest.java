@@ -0,0 +1,39 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.realtransform.AffineTransform3D;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class StarConvexPolyhedronOverlayTest
+{
+	@Test
+	void testOutlinesAreCulledAndCachedPerSlice()
+	{
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		for ( int i = 0; i < 10; i++ )
+			polyhedra.add( new StarConvexPolyhedron( new double[] { 20 * i, 0, 10 * i }, Collections.nCopies( 96, 6d ) ) );
+		StarConvexPolyhedronOverlay overlay = new StarConvexPolyhedronOverlay( polyhedra );
+
+		// slice z = 40 only intersects polyhedron 4
+		AffineTransform3D transform = new AffineTransform3D();
+		transform.translate( 0, 0, -40 );
+		List< double[] > outlines = overlay.getOutlines( transform );
+		assertEquals( 1, outlines.size() );
+
+		// panning within the slice reuses the outlines
+		transform.translate( 100, 50, 0 );
+		assertSame( outlines, overlay.getOutlines( transform ) );
+
+		// slice z = 45 intersects polyhedra 4 and 5, slice z = 100 intersects none
+		transform.translate( 0, 0, -5 );
+		assertEquals( 2, overlay.getOutlines( transform ).size() );
+		transform.translate( 0, 0, -55 );
+		assertEquals( 0, overlay.getOutlines( transform ).size() );
+	}
+}
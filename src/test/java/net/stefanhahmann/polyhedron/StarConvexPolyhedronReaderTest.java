@@ -0,0 +1,180 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StarConvexPolyhedronReaderTest
+{
+	@TempDir
+	Path directory;
+
+	@Test
+	void testRoundTrip() throws IOException
+	{
+		Path file = directory.resolve( "polyhedra.scph" );
+		try (StarConvexPolyhedronWriter writer = new StarConvexPolyhedronWriter( file ))
+		{
+			writer.add( 0, polyhedron( 1, 10, 96 ), 0.9f );
+			writer.add( 0, polyhedron( 2, 20, 96 ), 0.8f );
+			writer.add( 3, polyhedron( 3, 30, 32 ), 0.7f );
+		}
+		try (Stream< Path > files = Files.list( directory ))
+		{
+			assertEquals( 1, files.count(), "temporary files must be deleted" );
+		}
+
+		// small regions, such that the distances are mapped as multiple regions
+		StarConvexPolyhedronReader reader = new StarConvexPolyhedronReader( file, 64 );
+		assertEquals( 3, reader.size() );
+		assertArrayEquals( new int[] { 0, 3 }, reader.getTimepoints() );
+		assertEquals( 0, reader.firstIndex( 0 ) );
+		assertEquals( 2, reader.size( 0 ) );
+		assertEquals( 2, reader.firstIndex( 3 ) );
+		assertEquals( 1, reader.size( 3 ) );
+		assertEquals( -1, reader.firstIndex( 1 ) );
+		assertEquals( 0, reader.size( 1 ) );
+
+		assertEquals( 0.7f, reader.getScore( 2 ) );
+		assertEquals( 32, reader.getRayCount( 2 ) );
+		assertEquals( StarConvexPolyhedronWriter.FIBONACCI_LATTICE, reader.getLatticeId( 2 ) );
+		double[] center = new double[ 3 ];
+		reader.getCenter( 1, center );
+		assertArrayEquals( new double[] { 20, 21, 22 }, center );
+
+		StarConvexPolyhedron expected = polyhedron( 3, 30, 32 );
+		StarConvexPolyhedron actual = reader.getTimepoint( 3 ).get( 0 );
+		for ( int i = 0; i < 32; i++ )
+			assertArrayEquals( expected.getPoints().get( i ), actual.getPoints().get( i ), 1e-5 );
+	}
+
+	@Test
+	void testQuantised() throws IOException
+	{
+		Path file = directory.resolve( "quantised.scph" );
+		try (StarConvexPolyhedronWriter writer = new StarConvexPolyhedronWriter( file, 0.01 ))
+		{
+			writer.add( 5, polyhedron( 1, 0, 96 ), 1f );
+		}
+		StarConvexPolyhedronReader reader = new StarConvexPolyhedronReader( file );
+		assertEquals( true, reader.isQuantised() );
+		double[] distances = new double[ 96 ];
+		reader.getDistances( 0, distances );
+		for ( int i = 0; i < 96; i++ )
+			assertEquals( distance( 1, i ), distances[ i ], 0.005 + 1e-6 );
+	}
+
+	@Test
+	void testInvalidInput() throws IOException
+	{
+		Path file = directory.resolve( "invalid.scph" );
+		try (StarConvexPolyhedronWriter writer = new StarConvexPolyhedronWriter( file, 0.001 ))
+		{
+			writer.add( 1, polyhedron( 1, 0, 96 ), 1f );
+			assertThrows( IllegalArgumentException.class, () -> writer.add( 0, polyhedron( 1, 0, 96 ), 1f ) );
+			// distances of more than 65.535 cannot be stored with a step of 0.001
+			assertThrows( IllegalArgumentException.class, () -> writer.add( 1, polyhedron( 100, 0, 96 ), 1f ) );
+		}
+		// the rejected polyhedra must not leave anything in the file
+		StarConvexPolyhedronReader reader = new StarConvexPolyhedronReader( file );
+		assertEquals( 1, reader.size() );
+		assertArrayEquals( new int[] { 1 }, reader.getTimepoints() );
+		assertEquals( 1, reader.size( 1 ) );
+		assertEquals( 1f, reader.getScore( 0 ) );
+		double[] distances = new double[ 96 ];
+		reader.getDistances( 0, distances );
+		for ( int i = 0; i < 96; i++ )
+			assertEquals( distance( 1, i ), distances[ i ], 0.0005 + 1e-6 );
+
+		Files.write( file, new byte[ 128 ] );
+		assertThrows( IOException.class, () -> new StarConvexPolyhedronReader( file ) );
+	}
+
+	@Test
+	void testRaySets() throws IOException
+	{
+		Path file = directory.resolve( "rays.scph" );
+		List< double[] > octahedron = RaySet.octo( 1 ).getDirections();
+		int[] triangles = RaySet.octo( 1 ).getFaceTopology().triangles();
+		List< StarConvexPolyhedron > polyhedra = new ArrayList<>();
+		polyhedra.add( polyhedron( 1, 0, RaySet.cartesian( 8, 5 ) ) );
+		polyhedra.add( polyhedron( 2, 10, RaySet.fibonacci( 32 ) ) );
+		polyhedra.add( polyhedron( 3, 20, RaySet.goldenSpiral( 32, new double[] { 1, 1, 2 } ) ) );
+		// equal explicit ray sets share one entry of the file
+		polyhedra.add( polyhedron( 4, 30, RaySet.explicit( octahedron, triangles ) ) );
+		polyhedra.add( polyhedron( 5, 40, RaySet.explicit( octahedron, triangles ) ) );
+		polyhedra.add( polyhedron( 6, 50, RaySet.cartesian( 8, 5 ) ) );
+		try (StarConvexPolyhedronWriter writer = new StarConvexPolyhedronWriter( file, 0.001 ))
+		{
+			for ( StarConvexPolyhedron polyhedron : polyhedra )
+				writer.add( 0, polyhedron, 1f );
+		}
+
+		StarConvexPolyhedronReader reader = new StarConvexPolyhedronReader( file );
+		assertArrayEquals( new int[] { 1, 0, 2, 3, 3, 1 }, IntStream.range( 0, 6 ).map( reader::getLatticeId ).toArray() );
+		for ( int i = 0; i < polyhedra.size(); i++ )
+		{
+			RaySet expected = polyhedra.get( i ).getRaySet();
+			StarConvexPolyhedron actual = reader.get( i );
+			// registered ray sets are shared with the ones created by their factories
+			if ( i < 3 )
+				assertSame( expected, actual.getRaySet() );
+			assertEquals( expected.toString(), actual.getRaySet().toString() );
+			assertArrayEquals( expected.getFaceTopology().triangles(), actual.getFaceTopology().triangles() );
+			for ( int r = 0; r < expected.size(); r++ )
+			{
+				assertArrayEquals( expected.getDirections().get( r ), actual.getRaySet().getDirections().get( r ) );
+				assertArrayEquals( polyhedra.get( i ).getPoints().get( r ), actual.getPoints().get( r ), 1e-3 );
+			}
+		}
+
+		// a lattice id without ray set
+		try (FileChannel channel = FileChannel.open( file, StandardOpenOption.READ, StandardOpenOption.WRITE ))
+		{
+			ByteBuffer offset = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+			channel.read( offset, 32 + 3 * 8 );
+			channel.write( ByteBuffer.wrap( new byte[] { 7 } ), offset.getLong( 0 ) + 5 );
+		}
+		StarConvexPolyhedronReader corrupted = new StarConvexPolyhedronReader( file );
+		assertEquals( 7, corrupted.getLatticeId( 5 ) );
+		assertThrows( IOException.class, () -> corrupted.get( 5 ) );
+		assertThrows( IOException.class, () -> corrupted.getTimepoint( 0 ) );
+	}
+
+	private static StarConvexPolyhedron polyhedron( final double radius, final double offset, final RaySet rays )
+	{
+		List< Double > distances = new ArrayList<>();
+		for ( int i = 0; i < rays.size(); i++ )
+			distances.add( distance( radius, i ) );
+		return new StarConvexPolyhedron( new double[] { offset, offset + 1, offset + 2 }, distances, rays );
+	}
+
+	private static StarConvexPolyhedron polyhedron( final double radius, final double offset, final int rays )
+	{
+		List< Double > distances = new ArrayList<>();
+		for ( int i = 0; i < rays; i++ )
+			distances.add( distance( radius, i ) );
+		return new StarConvexPolyhedron( new double[] { offset, offset + 1, offset + 2 }, distances );
+	}
+
+	private static double distance( final double radius, final int ray )
+	{
+		return radius * ( 5 + ray % 7 * 0.123 );
+	}
+}
@@ -1,15 +1,20 @@
 package net.stefanhahmann.polyhedron;
 
+import net.imglib2.realtransform.AffineTransform3D;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class StarConvexPolyhedronTest
@@ -68,6 +73,74 @@ class StarConvexPolyhedronTest
 		assertFalse( bigPolyhedronAt50.contains( shouldBeOutside ) ); //
 	}
 
+	@Test
+	void testContainsBatch()
+	{
+		int count = 1_000;
+		double[] xyz = random.doubles( 3 * count, 0, 100 ).toArray();
+		// include the center itself
+		System.arraycopy( center50, 0, xyz, 0, 3 );
+		boolean[] inside = new boolean[ count ];
+		long[] bits = new long[ ( count + 63 ) / 64 ];
+		bigPolyhedronAt50.containsBatch( xyz, count, inside );
+		bigPolyhedronAt50.containsBatch( xyz, count, bits );
+		assertTrue( inside[ 0 ] );
+		int insideCount = 0;
+		for ( int i = 1; i < count; i++ )
+		{
+			double[] point = new double[] { xyz[ 3 * i ], xyz[ 3 * i + 1 ], xyz[ 3 * i + 2 ] };
+			assertEquals( inside[ i ], bigPolyhedronAt50.contains( point ) );
+			assertEquals( inside[ i ], ( bits[ i >>> 6 ] & ( 1L << ( i & 63 ) ) ) != 0 );
+			// compare with an independent ray cast, except for points on the surface, which may be classified either way
+			double hit = TestPolyhedra.rayCast( bigPolyhedronAt50, point );
+			if ( Math.abs( hit - 1 ) > 1e-6 )
+				assertEquals( hit > 1, inside[ i ], "point " + i );
+			if ( inside[ i ] )
+				insideCount++;
+		}
+		assertTrue( insideCount > 1 );
+		assertTrue( insideCount < count );
+	}
+
+	@Test
+	void testEstimateVolume()
+	{
+		// the triangles lie slightly inside of the unit sphere through the vertices
+		double sphere = unitPolyhedronAtZero.estimateVolume();
+		assertTrue( sphere < 4 * Math.PI / 3 );
+		assertTrue( sphere > 0.9 * 4 * Math.PI / 3 );
+
+		// octahedron with the rays +x, +y, -x, -y, +z, -z: each octant is a tetrahedron with volume x * y * z / 6
+		StarConvexPolyhedron octahedron = new StarConvexPolyhedron( centerZero, Arrays.asList( 1d, 1d, 2d, 1d, 3d, 1d ), RaySet.octo( 1 ) );
+		assertEquals( ( 1 + 2 ) * ( 1 + 1 ) * ( 3 + 1 ) / 6d, octahedron.estimateVolume(), 1e-12 );
+
+		// mirrored and stretched along x, which inverts the orientation of the triangles
+		AffineTransform3D mirror = new AffineTransform3D();
+		mirror.set( -2, 0, 0 );
+		assertEquals( 8, octahedron.transform( mirror ).estimateVolume(), 1e-12 );
+	}
+
+	@Test
+	void testTransform()
+	{
+		AffineTransform3D transform = new AffineTransform3D();
+		transform.rotate( 2, Math.PI / 5 );
+		transform.scale( 2 );
+		transform.translate( 10, -20, 30 );
+		double[] firstPoint = bigPolyhedronAt50.getPoints().get( 0 ).clone();
+		StarConvexPolyhedron transformed = bigPolyhedronAt50.transform( transform );
+		assertArrayEquals( firstPoint, bigPolyhedronAt50.getPoints().get( 0 ) );
+		double[] point = new double[ 3 ];
+		double[] transformedPoint = new double[ 3 ];
+		for ( int i = 0; i < 1_000; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+				point[ d ] = random.nextDouble() * 100;
+			transform.apply( point, transformedPoint );
+			assertEquals( bigPolyhedronAt50.contains( point ), transformed.contains( transformedPoint ) );
+		}
+	}
+
 	@Test
 	void testGetBoundingBox3D()
 	{
@@ -76,4 +149,144 @@ class StarConvexPolyhedronTest
 		assertTrue( boundingBox3D.contains( pointInsideTinyPolyhedron ) );
 		assertFalse( boundingBox3D.contains( pointOutSideTinyPolyhedron ) );
 	}
+
+	@Test
+	void testCrossSection()
+	{
+		StarConvexPolyhedron sphere = new StarConvexPolyhedron( center50, Collections.nCopies( 96, 10d ) );
+		// plane z = 52, viewed from a translated viewer
+		AffineTransform3D transform = new AffineTransform3D();
+		transform.translate( -30, -40, -52 );
+		List< double[] > outlines = sphere.crossSection( transform );
+		assertEquals( 1, outlines.size() );
+		double[] outline = outlines.get( 0 );
+		double expectedRadius = Math.sqrt( 10 * 10 - 2 * 2 );
+		for ( int i = 0; i < outline.length; i += 2 )
+		{
+			double radius = Math.hypot( outline[ i ] - 20, outline[ i + 1 ] - 10 );
+			assertTrue( radius <= expectedRadius + 1e-9 );
+			assertTrue( radius >= 0.85 * expectedRadius );
+		}
+		transform.translate( 0, 0, -20 );
+		assertTrue( sphere.crossSection( transform ).isEmpty() );
+	}
+
+	@Test
+	void testFloatPrecision()
+	{
+		List< Double > distances = random.doubles( 96, 8, 12 ).boxed().collect( Collectors.toList() );
+		double[] center = new double[] { 1000.3, 2000.7, 300.1 };
+		StarConvexPolyhedron doublePolyhedron = new StarConvexPolyhedron( center, distances );
+		StarConvexPolyhedron floatPolyhedron = new StarConvexPolyhedron( center, distances, StarConvexPolyhedron.Precision.FLOAT );
+		assertEquals( StarConvexPolyhedron.Precision.FLOAT, floatPolyhedron.getPrecision() );
+		assertEquals( StarConvexPolyhedron.Precision.FLOAT, floatPolyhedron.transform( new AffineTransform3D() ).getPrecision() );
+		for ( double[] point : floatPolyhedron.getPoints() )
+			for ( double coordinate : point )
+				assertEquals( ( float ) coordinate, coordinate );
+
+		// voxels of the bounding box, which are classified differently, must be rare
+		int voxels = 0;
+		int differences = 0;
+		double[] point = new double[ 3 ];
+		for ( int z = 285; z <= 315; z++ )
+			for ( int y = 1985; y <= 2015; y++ )
+				for ( int x = 985; x <= 1015; x++ )
+				{
+					point[ 0 ] = x;
+					point[ 1 ] = y;
+					point[ 2 ] = z;
+					voxels++;
+					if ( doublePolyhedron.contains( point ) != floatPolyhedron.contains( point ) )
+						differences++;
+				}
+		assertTrue( differences * 1000 < voxels, differences + " of " + voxels + " voxels differ" );
+	}
+
+	@Test
+	void testSignedDistance()
+	{
+		StarConvexPolyhedron sphere = new StarConvexPolyhedron( center50, Collections.nCopies( 96, 10d ) );
+		// the triangles lie slightly inside of the sphere through the vertices
+		assertEquals( -9.75, sphere.signedDistance( center50 ), 0.25 );
+		assertEquals( 5.1, sphere.signedDistance( new double[] { 65, 50, 50 } ), 0.15 );
+		assertEquals( 90.1, sphere.signedDistance( new double[] { 50, 50, 150 } ), 0.15 );
+		assertEquals( -4.75, sphere.signedDistance( new double[] { 50, 45, 50 } ), 0.25 );
+	}
+
+	@Test
+	void testSignedDistanceBatch()
+	{
+		List< Double > distances = random.doubles( 96, 5, 15 ).boxed().collect( Collectors.toList() );
+		AffineTransform3D transform = new AffineTransform3D();
+		transform.set( 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 2, 0 );
+		transform.rotate( 1, 0.3 );
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( center50, distances ).transform( transform );
+		int count = 1000;
+		double[] xyz = new double[ 3 * count ];
+		for ( int i = 0; i < count; i++ )
+		{
+			xyz[ 3 * i ] = 50 + 40 * ( random.nextDouble() - 0.5 );
+			xyz[ 3 * i + 1 ] = 50 + 40 * ( random.nextDouble() - 0.5 );
+			xyz[ 3 * i + 2 ] = 100 + 60 * ( random.nextDouble() - 0.5 );
+		}
+		double[] out = new double[ count ];
+		polyhedron.signedDistanceBatch( xyz, count, out );
+
+		FaceTopology topology = polyhedron.getFaceTopology();
+		List< double[] > points = polyhedron.getPoints();
+		for ( int i = 0; i < count; i++ )
+		{
+			double[] point = new double[] { xyz[ 3 * i ], xyz[ 3 * i + 1 ], xyz[ 3 * i + 2 ] };
+			double expected = Double.POSITIVE_INFINITY;
+			for ( int t = 0; t < topology.numTriangles(); t++ )
+				expected = Math.min( expected, TriangleGeometry.squaredDistancePointTriangle( point, points.get( topology.vertex( t, 0 ) ),
+						points.get( topology.vertex( t, 1 ) ), points.get( topology.vertex( t, 2 ) ) ) );
+			expected = Math.sqrt( expected );
+			assertEquals( polyhedron.contains( point ) ? -expected : expected, out[ i ], 1e-9 );
+			assertEquals( out[ i ], polyhedron.signedDistance( point ), 0 );
+		}
+	}
+
+	@Test
+	void testIntersectRay()
+	{
+		StarConvexPolyhedron sphere = new StarConvexPolyhedron( center50, Collections.nCopies( 96, 10d ) );
+		// the entry lies on the sphere through the vertices or slightly inside of it
+		assertEquals( 40.2, sphere.intersectRay( new double[] { 50, 50, 0 }, new double[] { 0, 0, 1 } ), 0.21 );
+		assertEquals( 20.1, sphere.intersectRay( new double[] { 50, 50, 0 }, new double[] { 0, 0, 2 } ), 0.105 );
+		assertEquals( 40.2, sphere.intersectRay( new double[] { 0, 50, 50 }, new double[] { 1, 0, 0 } ), 0.21 );
+		assertEquals( 0, sphere.intersectRay( new double[] { 52, 50, 50 }, new double[] { 1, 0, 0 } ) );
+		assertEquals( Double.POSITIVE_INFINITY, sphere.intersectRay( new double[] { 50, 50, 0 }, new double[] { 0, 0, -1 } ) );
+		assertEquals( Double.POSITIVE_INFINITY, sphere.intersectRay( new double[] { 50, 65, 0 }, new double[] { 0, 0, 1 } ) );
+		assertThrows( IllegalArgumentException.class, () -> sphere.intersectRay( center50, new double[] { 0, 0, 0 } ) );
+
+		List< Double > distances = random.doubles( 96, 5, 15 ).boxed().collect( Collectors.toList() );
+		StarConvexPolyhedron polyhedron = new StarConvexPolyhedron( center50, distances );
+		FaceTopology topology = polyhedron.getFaceTopology();
+		List< double[] > points = polyhedron.getPoints();
+		int hits = 0;
+		for ( int i = 0; i < 1000; i++ )
+		{
+			double[] origin = { 50 + 40 * ( random.nextDouble() - 0.5 ), 50 + 40 * ( random.nextDouble() - 0.5 ), 0 };
+			double[] direction = { random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1 };
+			double expected = Double.POSITIVE_INFINITY;
+			for ( int t = 0; t < topology.numTriangles(); t++ )
+			{
+				double[] a = points.get( topology.vertex( t, 0 ) );
+				double[] b = points.get( topology.vertex( t, 1 ) );
+				double[] c = points.get( topology.vertex( t, 2 ) );
+				expected = Math.min( expected, TriangleGeometry.intersectRayTriangle( origin[ 0 ], origin[ 1 ], origin[ 2 ], direction[ 0 ],
+						direction[ 1 ], direction[ 2 ], a[ 0 ], a[ 1 ], a[ 2 ], b[ 0 ], b[ 1 ], b[ 2 ], c[ 0 ], c[ 1 ], c[ 2 ] ) );
+			}
+			double t = polyhedron.intersectRay( origin, direction );
+			assertEquals( expected, t, 1e-9 );
+			if ( t == Double.POSITIVE_INFINITY )
+				continue;
+			hits++;
+			// the entry point lies on the surface
+			double[] entry = { origin[ 0 ] + t * direction[ 0 ], origin[ 1 ] + t * direction[ 1 ], origin[ 2 ] + t * direction[ 2 ] };
+			assertEquals( 0, Math.abs( polyhedron.signedDistance( entry ) ), 1e-9 );
+		}
+		assertTrue( hits > 100 );
+	}
 }
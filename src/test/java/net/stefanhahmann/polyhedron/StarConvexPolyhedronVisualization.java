@@ -73,7 +73,7 @@ public class StarConvexPolyhedronVisualization
 
 		// nearest points
 		List< Coord3d > nearestPoints = new ArrayList<>();
-		polyhedron.findNearestPoints( test.shouldBeOutside ).forEach( point -> {
+		polyhedron.findFace( test.shouldBeOutside ).forEach( point -> {
 			Coord3d coord3d = new Coord3d( point );
 			nearestPoints.add( coord3d );
 		} );
@@ -112,7 +112,7 @@ public class StarConvexPolyhedronVisualization
 		LinAlgHelpers.subtract( candidateOnSurface, center, candidateOnSurface );
 		LinAlgHelpers.normalize( candidateOnSurface );
 
-		List< double[] > nearestPoints = polyhedron.findNearestPoints( candidate );
+		List< double[] > nearestPoints = polyhedron.findFace( candidate );
 		List< Coord3d > nearestPointsJzy = new ArrayList<>();
 		nearestPoints.forEach( point -> nearestPointsJzy.add( new Coord3d( point ) ) );
 
@@ -0,0 +1,90 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.jupiter.api.Test;
+
+import java.util.SortedMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StarDistancesTest
+{
+	@Test
+	void testSphere()
+	{
+		ArrayImg< UnsignedIntType, IntArray > labels = ArrayImgs.unsignedInts( 40, 30, 30 );
+		paintEllipsoid( labels, new double[] { 15, 15, 15 }, new double[] { 8, 8, 8 }, 3 );
+		paintEllipsoid( labels, new double[] { 31, 15, 15 }, new double[] { 5, 5, 5 }, 4 );
+
+		StarDistances starDistances = new StarDistances( 32 );
+		starDistances.setBlockSize( 3 );
+		ArrayImg< FloatType, FloatArray > distances = starDistances.compute( Views.translate( labels, 5, 0, -2 ) );
+		assertArrayEquals( new long[] { 32, 40, 30, 30 }, distances.dimensionsAsLongArray() );
+		for ( int ray = 0; ray < 32; ray++ )
+		{
+			assertEquals( 8, distances.getAt( ray, 15, 15, 15 ).get(), 0.75 );
+			assertEquals( 5, distances.getAt( ray, 31, 15, 15 ).get(), 0.75 );
+			assertEquals( 0, distances.getAt( ray, 1, 1, 1 ).get(), 0 );
+		}
+	}
+
+	@Test
+	void testCentroidsAnisotropic()
+	{
+		// sphere of radius 8 in physical units with voxel size 1, 1, 2
+		ArrayImg< UnsignedIntType, IntArray > labels = ArrayImgs.unsignedInts( 30, 30, 16 );
+		paintEllipsoid( labels, new double[] { 14, 15, 8 }, new double[] { 8, 8, 4 }, 7 );
+		StarDistances starDistances = new StarDistances( 96 );
+		starDistances.setVoxelSize( 1, 1, 2 );
+		SortedMap< Long, StarConvexPolyhedron > polyhedra = starDistances.computeAtCentroids( labels );
+
+		assertEquals( 1, polyhedra.size() );
+		StarConvexPolyhedron polyhedron = polyhedra.get( 7L );
+		assertArrayEquals( new double[] { 14, 15, 8 }, polyhedron.getCenter(), 0 );
+		double[] min = polyhedron.getBoundingBox3D().getMinPoint();
+		double[] max = polyhedron.getBoundingBox3D().getMaxPoint();
+		assertEquals( 8, ( max[ 0 ] - min[ 0 ] ) / 2, 1 );
+		assertEquals( 4, ( max[ 2 ] - min[ 2 ] ) / 2, 0.5 );
+		assertTrue( polyhedron.contains( new double[] { 14, 15, 10 } ) );
+		assertFalse( polyhedron.contains( new double[] { 14, 15, 14 } ) );
+	}
+
+	@Test
+	void testCentroidOutsideOfObject()
+	{
+		// a hollow box: the centroid is not part of the object
+		ArrayImg< UnsignedIntType, IntArray > labels = ArrayImgs.unsignedInts( 20, 20, 20 );
+		for ( int z = 2; z < 18; z++ )
+			for ( int y = 2; y < 18; y++ )
+				for ( int x = 2; x < 18; x++ )
+					if ( x < 4 || x > 15 || y < 4 || y > 15 || z < 4 || z > 15 )
+						labels.getAt( x, y, z ).set( 2 );
+		SortedMap< Long, StarConvexPolyhedron > polyhedra = new StarDistances( 32 ).computeAtCentroids( labels );
+		double[] center = polyhedra.get( 2L ).getCenter();
+		assertEquals( 2, labels.getAt( ( long ) center[ 0 ], ( long ) center[ 1 ], ( long ) center[ 2 ] ).get() );
+	}
+
+	private static void paintEllipsoid( final ArrayImg< UnsignedIntType, IntArray > labels, final double[] center, final double[] radii,
+			final long label )
+	{
+		for ( int z = 0; z < labels.dimension( 2 ); z++ )
+			for ( int y = 0; y < labels.dimension( 1 ); y++ )
+				for ( int x = 0; x < labels.dimension( 0 ); x++ )
+				{
+					double dx = ( x - center[ 0 ] ) / radii[ 0 ];
+					double dy = ( y - center[ 1 ] ) / radii[ 1 ];
+					double dz = ( z - center[ 2 ] ) / radii[ 2 ];
+					if ( dx * dx + dy * dy + dz * dz <= 1 )
+						labels.getAt( x, y, z ).set( label );
+				}
+	}
+}
@@ -0,0 +1,48 @@
+package net.stefanhahmann.polyhedron;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Polyhedra shared by the tests.
+ */
+final class TestPolyhedra
+{
+	private TestPolyhedra()
+	{
+		// prevent from instantiation
+	}
+
+	/**
+	 * @return a polyhedron with 96 rays of the given length around the given center, i.e. an approximate sphere.
+	 */
+	static StarConvexPolyhedron sphere( final double x, final double y, final double z, final double radius )
+	{
+		return new StarConvexPolyhedron( new double[] { x, y, z }, Collections.nCopies( 96, radius ) );
+	}
+
+	/**
+	 * Casts a ray from the center of the given polyhedron through the given point against all triangles of its surface, independently of
+	 * the face lookup of {@link StarConvexPolyhedron#contains(double[])}. The point is inside, if the result is greater than 1, i.e. if the
+	 * ray leaves the polyhedron behind the point. Results close to 1 belong to points on the surface.
+	 *
+	 * @return the ray parameter of the first intersection, where the point lies at 1.
+	 */
+	static double rayCast( final StarConvexPolyhedron polyhedron, final double[] point )
+	{
+		double[] center = polyhedron.getCenter();
+		List< double[] > vertices = polyhedron.getPoints();
+		FaceTopology topology = polyhedron.getFaceTopology();
+		double hit = Double.POSITIVE_INFINITY;
+		for ( int t = 0; t < topology.numTriangles(); t++ )
+		{
+			double[] a = vertices.get( topology.vertex( t, 0 ) );
+			double[] b = vertices.get( topology.vertex( t, 1 ) );
+			double[] c = vertices.get( topology.vertex( t, 2 ) );
+			hit = Math.min( hit, TriangleGeometry.intersectRayTriangle( center[ 0 ], center[ 1 ], center[ 2 ], point[ 0 ] - center[ 0 ],
+					point[ 1 ] - center[ 1 ], point[ 2 ] - center[ 2 ], a[ 0 ], a[ 1 ], a[ 2 ], b[ 0 ], b[ 1 ], b[ 2 ], c[ 0 ], c[ 1 ],
+					c[ 2 ] ) );
+		}
+		return hit;
+	}
+}
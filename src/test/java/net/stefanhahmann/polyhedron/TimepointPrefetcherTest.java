@@ -0,0 +1,117 @@
+package net.stefanhahmann.polyhedron;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimepointPrefetcherTest
+{
+	/**
+	 * Size of a timepoint of 10x10x10 bytes.
+	 */
+	private static final long BYTES = 1000;
+
+	@Test
+	void testOrder() throws IOException, InterruptedException
+	{
+		Set< String > threads = ConcurrentHashMap.newKeySet();
+		try (TimepointPrefetcher< UnsignedByteType > prefetcher = new TimepointPrefetcher<>( timepoint -> image( timepoint, threads ),
+				new int[] { 3, 1, 2 }, 2, Long.MAX_VALUE ))
+		{
+			assertImage( 3, prefetcher );
+			// the following timepoints are read in the background, while the current one is processed
+			for ( int i = 0; i < 1000 && threads.stream().noneMatch( name -> name.startsWith( "timepoint-prefetcher-" ) ); i++ )
+				Thread.sleep( 10 );
+			assertTrue( threads.stream().anyMatch( name -> name.startsWith( "timepoint-prefetcher-" ) ) );
+			assertImage( 1, prefetcher );
+			assertImage( 2, prefetcher );
+			assertFalse( prefetcher.hasNext() );
+		}
+	}
+
+	@Test
+	void testMemoryBudget() throws IOException
+	{
+		int[] timepoints = { 0, 1, 2, 3, 4, 5, 6, 7 };
+		try (TimepointPrefetcher< UnsignedByteType > prefetcher = new TimepointPrefetcher<>( timepoint -> image( timepoint, null ),
+				timepoints, 5, 2 * BYTES + BYTES / 2 ))
+		{
+			while ( prefetcher.hasNext() )
+			{
+				prefetcher.next();
+				assertTrue( prefetcher.numInFlight() <= 2 );
+				assertTrue( prefetcher.getBytesInFlight() <= 2 * BYTES + BYTES / 2 );
+			}
+			assertEquals( 7, prefetcher.getTimepoint() );
+		}
+		// a timepoint larger than the budget is still read, but nothing else
+		try (TimepointPrefetcher< UnsignedByteType > prefetcher = new TimepointPrefetcher<>( timepoint -> image( timepoint, null ),
+				timepoints, 5, 0 ))
+		{
+			for ( int timepoint : timepoints )
+			{
+				prefetcher.next();
+				assertEquals( timepoint, prefetcher.getTimepoint() );
+				assertEquals( 1, prefetcher.numInFlight() );
+			}
+		}
+		assertEquals( BYTES, TimepointPrefetcher.sizeInBytes( image( 0, null ) ) );
+	}
+
+	@Test
+	void testFailure() throws IOException
+	{
+		try (TimepointPrefetcher< UnsignedByteType > prefetcher = new TimepointPrefetcher<>( timepoint -> {
+			if ( timepoint == 1 )
+				throw new IOException( "timepoint 1 is missing" );
+			return image( timepoint, null );
+		}, new int[] { 0, 1, 2 }, 2, Long.MAX_VALUE ))
+		{
+			// the failure of timepoint 1 is only reported, when it is requested
+			prefetcher.next();
+			assertThrows( IOException.class, prefetcher::next );
+			prefetcher.next();
+			assertEquals( 2, prefetcher.getTimepoint() );
+			prefetcher.close();
+			assertThrows( IllegalStateException.class, prefetcher::next );
+		}
+		assertThrows( IllegalArgumentException.class,
+				() -> new TimepointPrefetcher< UnsignedByteType >( timepoint -> null, new int[ 0 ], 0, 0 ) );
+	}
+
+	private static void assertImage( final int timepoint, final TimepointPrefetcher< UnsignedByteType > prefetcher ) throws IOException
+	{
+		assertTrue( prefetcher.hasNext() );
+		RandomAccessibleInterval< UnsignedByteType > image = prefetcher.next();
+		assertEquals( timepoint, prefetcher.getTimepoint() );
+		assertArrayEquals( new long[] { timepoint, 0, 0 }, image.minAsLongArray() );
+		for ( UnsignedByteType value : Views.iterable( image ) )
+			assertEquals( timepoint, value.get() );
+	}
+
+	/**
+	 * Creates a lazily computed image filled with the timepoint, translated by the timepoint in x. Records the threads, which read it.
+	 */
+	private static RandomAccessibleInterval< UnsignedByteType > image( final int timepoint, final Set< String > threads )
+	{
+		return Views.translate( Converters.convert( ( RandomAccessibleInterval< UnsignedByteType > ) ArrayImgs.unsignedBytes( 10, 10, 10 ),
+				( input, output ) -> {
+					if ( threads != null )
+						threads.add( Thread.currentThread().getName() );
+					output.set( timepoint );
+				}, new UnsignedByteType() ), timepoint, 0, 0 );
+	}
+}
@@ -0,0 +1,60 @@
+package net.stefanhahmann.polyhedron;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TriangleGeometryTest
+{
+	@Test
+	void testParallelOffsetTriangles()
+	{
+		double[] a0 = { 0, 0, 0 }, a1 = { 1, 0, 0 }, a2 = { 0, 1, 0 };
+		// the same triangle, shifted by 0.2 along x and by 2 along z
+		double[] b0 = { 0.2, 0, 2 }, b1 = { 1.2, 0, 2 }, b2 = { 0.2, 1, 2 };
+		assertTriangleDistance( 4, a0, a1, a2, b0, b1, b2 );
+	}
+
+	@Test
+	void testEdgeEdge()
+	{
+		// the edge from (0, 0, 0) to (2, 0, 0) and the edge from (1, 1, -1) to (1, 1, 1) cross at a distance of 1 along y
+		double[] a0 = { 0, 0, 0 }, a1 = { 2, 0, 0 }, a2 = { 1, -1, 0 };
+		double[] b0 = { 1, 1, -1 }, b1 = { 1, 1, 1 }, b2 = { 1, 2, 0 };
+		assertTriangleDistance( 1, a0, a1, a2, b0, b1, b2 );
+		assertEquals( 1, TriangleGeometry.squaredDistanceSegmentSegment( a0, a1, b0, b1 ), 1e-12 );
+	}
+
+	@Test
+	void testVertexFace()
+	{
+		// the vertex (1, 1, 3) lies 3 above the inside of the first triangle, the other vertices are further away
+		double[] a0 = { 0, 0, 0 }, a1 = { 4, 0, 0 }, a2 = { 0, 4, 0 };
+		double[] b0 = { 1, 1, 3 }, b1 = { 0, 0, 5 }, b2 = { 2, 0, 5 };
+		assertTriangleDistance( 9, a0, a1, a2, b0, b1, b2 );
+		assertEquals( 9, TriangleGeometry.squaredDistancePointTriangle( b0, a0, a1, a2 ), 1e-12 );
+		// closest to the vertex (4, 0, 0) and to the edge from (0, 0, 0) to (4, 0, 0)
+		assertEquals( 1 + 4, TriangleGeometry.squaredDistancePointTriangle( new double[] { 5, -2, 0 }, a0, a1, a2 ), 1e-12 );
+		assertEquals( 4 + 1, TriangleGeometry.squaredDistancePointTriangle( new double[] { 2, -2, 1 }, a0, a1, a2 ), 1e-12 );
+	}
+
+	@Test
+	void testIntersecting()
+	{
+		// the edge from (1, 1, -1) to (1, 1, 1) pierces the first triangle at (1, 1, 0)
+		double[] a0 = { 0, 0, 0 }, a1 = { 4, 0, 0 }, a2 = { 0, 4, 0 };
+		double[] b0 = { 1, 1, -1 }, b1 = { 1, 1, 1 }, b2 = { 2, 2, 1 };
+		assertTriangleDistance( 0, a0, a1, a2, b0, b1, b2 );
+	}
+
+	/**
+	 * Asserts the squared distance for both orders of the triangles.
+	 */
+	private static void assertTriangleDistance( final double expected, final double[] a0, final double[] a1, final double[] a2,
+			final double[] b0, final double[] b1, final double[] b2 )
+	{
+		assertEquals( expected, TriangleGeometry.squaredDistanceTriangleTriangle( a0, a1, a2, b0, b1, b2 ), 1e-12 );
+		assertEquals( expected, TriangleGeometry.squaredDistanceTriangleTriangle( b0, b1, b2, a0, a1, a2 ), 1e-12 );
+		assertEquals( expected, TriangleGeometry.squaredDistanceTriangleTriangle( a1, a2, a0, b2, b0, b1 ), 1e-12 );
+	}
+}
@@ -4,7 +4,9 @@ import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
+import net.stefanhahmann.polyhedron.RaySet;
 import net.stefanhahmann.polyhedron.StarConvexPolyhedron;
+import net.stefanhahmann.polyhedron.StarConvexPolyhedronCandidates;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,9 +14,8 @@ import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.List;
 
-// TODO implementation of non-maximum suppression (NMS) is yet required,
-// cf. https://github.com/stardist/stardist-imagej/blob/master/src/main/java/de/csbdresden/stardist/StarDist2DNMS.java
-// otherwise there are too many non-maxima / irrelevant star-convex shapes in the output
+// non-maximum suppression (NMS) is not applied here, cf. https://github.com/stardist/stardist-imagej/blob/master/src/main/java/de/csbdresden/stardist/StarDist2DNMS.java
+// the output contains many non-maxima / irrelevant star-convex shapes. Use getCandidates() to suppress them with adjustable thresholds
 public class StarDist3D
 {
 
@@ -26,12 +27,36 @@ public class StarDist3D
 	 */
 	private final List< StarConvexPolyhedron > starConvexPolyhedra = new ArrayList<>();
 
+	/**
+	 * The probabilities of the predicted star convex shapes.
+	 */
+	private final List< Double > scores = new ArrayList<>();
+
 	public StarDist3D( RandomAccessibleInterval< FloatType > distances, RandomAccessibleInterval< FloatType > probabilities )
 	{
-		this( distances, probabilities, 0.4, 2 );
+		this( distances, probabilities, RaySet.fibonacci( ( int ) distances.dimension( 4 ) ) );
+	}
+
+	/**
+	 * @param rays the rays of the model, e.g. read from its configuration with {@link RaySet#fromModelConfig(java.nio.file.Path)}.
+	 */
+	public StarDist3D( RandomAccessibleInterval< FloatType > distances, RandomAccessibleInterval< FloatType > probabilities, RaySet rays )
+	{
+		this( distances, probabilities, rays, 0.4, 2 );
+	}
+
+	/**
+	 * @param threshold the minimum probability of a predicted shape. A low threshold keeps more candidates, which allows to choose the
+	 *        threshold later with {@link #getCandidates(double)}.
+	 */
+	public StarDist3D( RandomAccessibleInterval< FloatType > distances, RandomAccessibleInterval< FloatType > probabilities, RaySet rays,
+			double threshold )
+	{
+		this( distances, probabilities, rays, threshold, 2 );
 	}
 
 	private StarDist3D( RandomAccessibleInterval< FloatType > distances, RandomAccessibleInterval< FloatType > probabilities,
+			RaySet rays,
 			double threshold,
 			int buffer )
 	{
@@ -41,8 +66,10 @@ public class StarDist3D
 
 		int numberOfRays = ( int ) dimensions[ 4 ];
 		logger.debug( "numberOfRays = {}", numberOfRays );
+		if ( numberOfRays != rays.size() )
+			throw new IllegalArgumentException( "Expected " + rays.size() + " rays for " + rays + ", but got: " + numberOfRays );
 
-		processTensors( distances.randomAccess(), probabilities.randomAccess(), threshold, buffer, dimensions, numberOfRays );
+		processTensors( distances.randomAccess(), probabilities.randomAccess(), threshold, buffer, dimensions, rays );
 	}
 
 	List< StarConvexPolyhedron > getStarConvexPolyhedra()
@@ -50,11 +77,25 @@ public class StarDist3D
 		return starConvexPolyhedra;
 	}
 
+	/**
+	 * Computes the overlaps of the predicted shapes once, such that non-maximum suppression can be repeated with different probability and
+	 * NMS thresholds, e.g. {@code getCandidates( 0.1 ).suppress( 0.5, 0.4 )}.
+	 *
+	 * @param minimumIou the lowest NMS threshold, which will be used.
+	 * @return the candidates.
+	 */
+	StarConvexPolyhedronCandidates getCandidates( double minimumIou )
+	{
+		return new StarConvexPolyhedronCandidates( starConvexPolyhedra, scores.stream().mapToDouble( Double::doubleValue ).toArray(),
+				Double.NEGATIVE_INFINITY, minimumIou );
+	}
+
 	private void processTensors(
 			RandomAccess< FloatType > distances, final RandomAccess< FloatType > probabilities, double threshold, int buffer,
-			long[] distancesTensors, int numberOfRays
+			long[] distancesTensors, RaySet rays
 	)
 	{
+		int numberOfRays = rays.size();
 		// origin is the center of the star convex shape
 		logger.debug( "Computing star convex shapes." );
 		logger.debug( "prediction computed within these bounds (excludes a buffer of {}): ", buffer );
@@ -77,15 +118,14 @@ public class StarDist3D
 							distanceList.add( distance );
 						}
 						StarConvexPolyhedron polyhedra =
-								new StarConvexPolyhedron( new double[] { originX, originY, originZ }, distanceList );
+								new StarConvexPolyhedron( new double[] { originX, originY, originZ }, distanceList, rays );
 						starConvexPolyhedra.add( polyhedra );
+						scores.add( ( double ) score );
 					}
 				}
 			}
 		}
 		logger.debug( "Found {} candidate for star convex shapes above threshold of {} (including non-maximum shapes).",
 				starConvexPolyhedra.size(), threshold );
-		// TODO: add non-maximum suppression (NMS) after this
-		// cf. https://github.com/stardist/stardist-imagej/blob/master/src/main/java/de/csbdresden/stardist/Candidates.java#L123
 	}
 }
@@ -7,7 +7,6 @@ import io.bioimage.modelrunner.exceptions.LoadEngineException;
 import io.bioimage.modelrunner.exceptions.LoadModelException;
 import io.bioimage.modelrunner.exceptions.RunModelException;
 import io.bioimage.modelrunner.model.Stardist3D;
-import io.bioimage.modelrunner.numpy.DecodeNumpy;
 import net.imagej.ImageJ;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converters;
@@ -15,6 +14,7 @@ import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.view.Views;
+import net.stefanhahmann.npy.NpyReader;
 import org.apache.commons.compress.archivers.ArchiveException;
 
 import java.io.File;
@@ -37,11 +37,11 @@ public class StarDist3dJdll
 			URISyntaxException, LoadModelException
 	{
 		Stardist3D.installRequirements();
-		RandomAccessibleInterval< T > input = DecodeNumpy.retrieveImgLib2FromNpy( new File( TEST_DATA ).getAbsolutePath() );
+		// memory map the input instead of reading it onto the heap
+		RandomAccessibleInterval< T > input = NpyReader.open( new File( TEST_DATA ).toPath() );
 
 		// remove singleton dimensions from input, i.e. remove time and channel dimension
-		input = Views.hyperSlice( input, 4, 0 );
-		input = Views.hyperSlice( input, 0, 0 );
+		input = Views.dropSingletonDimensions( input );
 
 		System.out.println( "input: " + input );
 